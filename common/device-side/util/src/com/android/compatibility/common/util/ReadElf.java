@@ -16,9 +16,14 @@
 
 package com.android.compatibility.common.util;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -123,8 +128,9 @@ public class ReadElf implements AutoCloseable {
     }
 
     private final String mPath;
-    private final RandomAccessFile mFile;
-    private final byte[] mBuffer = new byte[512];
+    /** The whole file, mapped read-only. Fields are decoded in place instead of read one by one. */
+    private final ByteBuffer mData;
+    private final byte[] mBuffer = new byte[EI_NIDENT];
     private int mEndian;
     private boolean mIsDynamic;
     private boolean mIsPIE;
@@ -194,10 +200,16 @@ public class ReadElf implements AutoCloseable {
 
     private ReadElf(File file) throws IOException {
         mPath = file.getPath();
-        mFile = new RandomAccessFile(file, "r");
-
-        if (mFile.length() < EI_NIDENT) {
-            throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < EI_NIDENT) {
+                throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Too large to be mapped: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
         }
 
         readHeader();
@@ -205,24 +217,13 @@ public class ReadElf implements AutoCloseable {
 
     @Override
     public void close() {
-        try {
-            mFile.close();
-        } catch (IOException ignored) {
-        }
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            close();
-        } finally {
-            super.finalize();
-        }
+        // Nothing to release, the file was closed once mapped and the mapping goes away with
+        // this object.
     }
 
     private void readHeader() throws IOException {
-        mFile.seek(0);
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
+        seek(0);
+        readFully(mBuffer, EI_NIDENT);
 
         if (mBuffer[0] != ELFMAG[0] || mBuffer[1] != ELFMAG[1] ||
                 mBuffer[2] != ELFMAG[2] || mBuffer[3] != ELFMAG[3]) {
@@ -245,6 +246,7 @@ public class ReadElf implements AutoCloseable {
         } else {
             throw new IOException("Invalid ELF EI_DATA: " + mEndian + ": " + mPath);
         }
+        mData.order(ByteOrder.LITTLE_ENDIAN);
 
         mType = readHalf();
 
@@ -292,7 +294,7 @@ public class ReadElf implements AutoCloseable {
             throws IOException {
         // Read the Section Header String Table offset first.
         {
-            mFile.seek(sh_off + e_shstrndx * e_shentsize);
+            seek(sh_off + e_shstrndx * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -314,7 +316,7 @@ public class ReadElf implements AutoCloseable {
                 continue;
             }
 
-            mFile.seek(sh_off + i * e_shentsize);
+            seek(sh_off + i * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -349,7 +351,7 @@ public class ReadElf implements AutoCloseable {
 
     private void readProgramHeaders(long ph_off, int e_phnum, int e_phentsize) throws IOException {
         for (int i = 0; i < e_phnum; ++i) {
-            mFile.seek(ph_off + i * e_phentsize);
+            seek(ph_off + i * e_phentsize);
 
             long p_type = readWord();
             if (p_type == PT_LOAD) {
@@ -371,8 +373,8 @@ public class ReadElf implements AutoCloseable {
     private HashMap<String, Symbol> readSymbolTable(long symStrOffset, long symStrSize,
             long tableOffset, long tableSize) throws IOException {
         HashMap<String, Symbol> result = new HashMap<String, Symbol>();
-        mFile.seek(tableOffset);
-        while (mFile.getFilePointer() < tableOffset + tableSize) {
+        seek(tableOffset);
+        while (mData.position() < tableOffset + tableSize) {
             long st_name = readWord();
             int st_info;
             if (mAddrSize == 8) {
@@ -433,40 +435,61 @@ public class ReadElf implements AutoCloseable {
     }
 
     private long readX(int byteCount) throws IOException {
-        mFile.readFully(mBuffer, 0, byteCount);
-
-        int answer = 0;
-        if (mEndian == ELFDATA2LSB) {
-            for (int i = byteCount - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
-        } else {
-            final int N = byteCount - 1;
-            for (int i = 0; i <= N; ++i) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
+        try {
+            switch (byteCount) {
+                case 2:
+                    return mData.getShort() & 0xffff;
+                case 4:
+                    return mData.getInt() & 0xffffffffL;
+                default:
+                    return mData.getLong();
             }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
+        }
+    }
+
+    private void readFully(byte[] buffer, int byteCount) throws IOException {
+        try {
+            mData.get(buffer, 0, byteCount);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
         }
+    }
 
-        return answer;
+    private void seek(long offset) throws IOException {
+        if (offset < 0 || offset > mData.limit()) {
+            throw new EOFException("Offset " + offset + " outside of ELF file: " + mPath);
+        }
+        mData.position((int) offset);
     }
 
+    /**
+     * Reads the NUL terminated string at the given offset without moving the current position.
+     */
     private String readString(long offset) throws IOException {
-        long originalOffset = mFile.getFilePointer();
-        mFile.seek(offset);
-        mFile.readFully(mBuffer, 0, (int) Math.min(mBuffer.length, mFile.length() - offset));
-        mFile.seek(originalOffset);
-
-        for (int i = 0; i < mBuffer.length; ++i) {
-            if (mBuffer[i] == 0) {
-                return new String(mBuffer, 0, i);
+        if (offset < 0 || offset >= mData.limit()) {
+            throw new EOFException("Offset " + offset + " outside of ELF file: " + mPath);
+        }
+        int start = (int) offset;
+        for (int end = start; end < mData.limit(); end++) {
+            if (mData.get(end) == 0) {
+                byte[] bytes = new byte[end - start];
+                ByteBuffer name = mData.duplicate();
+                name.position(start);
+                name.get(bytes);
+                return new String(bytes);
             }
         }
-
         return null;
     }
 
     private int readByte() throws IOException {
-        return mFile.read() & 0xff;
+        try {
+            return mData.get() & 0xff;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
+        }
     }
 
     public Symbol getSymbol(String name) {
@@ -22,7 +22,7 @@ import android.os.Environment;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.lang.StringBuilder;
+import java.util.Iterator;
 
 import junit.framework.TestCase;
 
@@ -126,29 +126,35 @@ public class DeviceReportTest extends TestCase {
         assertTrue("Report Log missing", jsonFile1.exists());
         assertTrue("Report Log missing", jsonFile2.exists());
 
-        BufferedReader jsonReader = new BufferedReader(new FileReader(jsonFile1));
-        StringBuilder metricsBuilder = new StringBuilder();
-        String line;
-        while ((line = jsonReader.readLine()) != null) {
-            metricsBuilder.append(line);
-        }
-        String metrics = metricsBuilder.toString().trim();
-        JSONObject jsonObject = new JSONObject(metrics);
+        JSONObject jsonObject = readSegments(jsonFile1);
         assertTrue("Incorrect metrics",
                 jsonObject.getJSONObject(STREAM_NAME_1).getDouble(TEST_MESSAGE_1) == TEST_VALUE_1);
         assertTrue("Incorrect metrics",
                 jsonObject.getJSONObject(STREAM_NAME_2).getDouble(TEST_MESSAGE_2) == TEST_VALUE_2);
 
-        jsonReader = new BufferedReader(new FileReader(jsonFile2));
-        metricsBuilder = new StringBuilder();
-        while ((line = jsonReader.readLine()) != null) {
-            metricsBuilder.append(line);
-        }
-        metrics = metricsBuilder.toString().trim();
-        jsonObject = new JSONObject(metrics);
+        jsonObject = readSegments(jsonFile2);
         assertTrue("Incorrect metrics",
                 jsonObject.getJSONObject(STREAM_NAME_3).getDouble(TEST_MESSAGE_3) == TEST_VALUE_3);
         assertTrue("Incorrect metrics",
                 jsonObject.getJSONObject(STREAM_NAME_4).getDouble(TEST_MESSAGE_4) == TEST_VALUE_4);
     }
+
+    /**
+     * Reads the segments of a report log, one JSON object per line, into a single JSON object.
+     */
+    private static JSONObject readSegments(File jsonFile) throws Exception {
+        JSONObject jsonObject = new JSONObject();
+        try (BufferedReader jsonReader = new BufferedReader(new FileReader(jsonFile))) {
+            String line;
+            while ((line = jsonReader.readLine()) != null) {
+                JSONObject segment = new JSONObject(line);
+                Iterator<String> streamNames = segment.keys();
+                while (streamNames.hasNext()) {
+                    String streamName = streamNames.next();
+                    jsonObject.put(streamName, segment.get(streamName));
+                }
+            }
+        }
+        return jsonObject;
+    }
 }
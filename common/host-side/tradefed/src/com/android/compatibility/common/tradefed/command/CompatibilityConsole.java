@@ -17,9 +17,14 @@ package com.android.compatibility.common.tradefed.command;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
+import com.android.compatibility.common.tradefed.result.ShardPlanHandler;
+import com.android.compatibility.common.tradefed.result.ShardPlanHandler.PlannedShard;
 import com.android.compatibility.common.tradefed.result.SubPlanHelper;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCache;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCache.ConfigSummary;
 import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.tradefed.command.Console;
@@ -29,8 +34,6 @@ import com.android.tradefed.config.ConfigurationFactory;
 import com.android.tradefed.config.IConfiguration;
 import com.android.tradefed.config.IConfigurationFactory;
 import com.android.tradefed.log.LogUtil.CLog;
-import com.android.tradefed.testtype.IRemoteTest;
-import com.android.tradefed.testtype.IRuntimeHintProvider;
 import com.android.tradefed.testtype.suite.TestSuiteInfo;
 import com.android.tradefed.util.ArrayUtil;
 import com.android.tradefed.util.FileUtil;
@@ -41,11 +44,13 @@ import com.android.tradefed.util.TimeUtil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -117,6 +122,13 @@ public class CompatibilityConsole extends Console {
                 listSubPlans();
             }
         }, LIST_PATTERN, "s(?:ubplans)?");
+        trie.put(new ArgRunnable<CaptureList>() {
+            @Override
+            public void run(CaptureList args) {
+                // Skip 2 tokens to get past list and makespan pattern
+                listMakespan(Integer.parseInt(args.get(2).get(0)));
+            }
+        }, LIST_PATTERN, "ma(?:kespan)?", "(\\d+)");
         trie.put(new ArgRunnable<CaptureList>() {
             @Override
             public void run(CaptureList args) {
@@ -169,7 +181,9 @@ public class CompatibilityConsole extends Console {
                 + " specific options ----- " + LINE_SEPARATOR +
                 "\tp[lans]               List all plans available" + LINE_SEPARATOR +
                 "\tm[odules]             List all modules available" + LINE_SEPARATOR +
-                "\tr[esults]             List all results" + LINE_SEPARATOR;
+                "\tr[esults]             List all results" + LINE_SEPARATOR +
+                "\tma[kespan] <session>  Show the predicted and actual runtime of each shard " +
+                "of a session" + LINE_SEPARATOR;
         commandHelp.put(LIST_PATTERN, combinedHelp);
 
         // Update existing RUN_PATTERN with CTS specific extra run possibilities.
@@ -240,6 +254,16 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    private ModuleDiscoveryCache loadDiscoveryCache() {
+        try {
+            return ModuleDiscoveryCache.load(new File(getBuildHelper().getDir(),
+                    ModuleDiscoveryCache.CACHE_FILE_NAME));
+        } catch (FileNotFoundException e) {
+            CLog.w("Could not load module discovery cache: %s", e.getMessage());
+            return new ModuleDiscoveryCache(null);
+        }
+    }
+
     private void listPlans() {
         printLine("Available plans include:");
         ConfigurationFactory.getInstance().printHelp(System.out);
@@ -256,35 +280,35 @@ public class CompatibilityConsole extends Console {
         // parse through all config files to get runtime hints
         if (files != null && files.length > 0) {
             IConfigurationFactory configFactory = ConfigurationFactory.getInstance();
+            ModuleDiscoveryCache cache = loadDiscoveryCache();
             List<Pair<String, Long>> moduleRuntime = new ArrayList<>();
-            // parse through all config files to calculate module execution time
+            // parse through all config files to calculate module execution time, unless known
+            // from the discovery cache
             for (File file : files) {
-                IConfiguration config = null;
                 String moduleName = file.getName().split("\\.")[0];
                 if (MODULE_SPLIT_EXCLUSIONS.contains(moduleName)) {
                     continue;
                 }
-                try {
-                    config = configFactory.createConfigurationFromArgs(new String[]{
-                            file.getAbsolutePath(),
-                    });
-                } catch (ConfigurationException ce) {
-                    printLine("Error loading config file: " + file.getAbsolutePath());
-                    CLog.e(ce);
-                    continue;
-                }
-                long runtime = 0;
-                for (IRemoteTest test : config.getTests()) {
-                    if (test instanceof IRuntimeHintProvider) {
-                        runtime += ((IRuntimeHintProvider) test).getRuntimeHint();
-                    } else {
-                        CLog.w("Using default 1m runtime estimation for test type %s",
-                                test.getClass().getSimpleName());
-                        runtime += 60 * 1000;
+                ConfigSummary summary = cache.get(file);
+                if (summary == null) {
+                    IConfiguration config = null;
+                    try {
+                        config = configFactory.createConfigurationFromArgs(new String[]{
+                                file.getAbsolutePath(),
+                        });
+                    } catch (ConfigurationException ce) {
+                        printLine("Error loading config file: " + file.getAbsolutePath());
+                        CLog.e(ce);
+                        continue;
+                    }
+                    summary = cache.put(file, config);
+                    if (summary == null) {
+                        continue;
                     }
                 }
-                moduleRuntime.add(new Pair<String, Long>(moduleName, runtime));
+                moduleRuntime.add(new Pair<String, Long>(moduleName, summary.getRuntimeHint()));
             }
+            cache.save();
             // sort list modules in descending order of runtime hint
             Collections.sort(moduleRuntime, new Comparator<Pair<String, Long>>() {
                 @Override
@@ -384,6 +408,65 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    /**
+     * Print the predicted runtime of each shard of a session next to its actual runtime, the
+     * sum of the runtimes of its modules. Runtimes of a module split across shards are divided
+     * evenly among them.
+     */
+    private void listMakespan(int sessionId) {
+        List<PlannedShard> shards;
+        IInvocationResult result;
+        try {
+            File resultsDir = getBuildHelper().getResultsDir();
+            shards = ShardPlanHandler.getShardPlan(
+                    ResultHandler.getResultDirectory(resultsDir, sessionId));
+            result = ResultHandler.findLightResult(resultsDir, sessionId);
+        } catch (IOException | RuntimeException e) {
+            printLine(e.getMessage());
+            return;
+        }
+        if (shards.isEmpty()) {
+            printLine(String.format("No shard plan found for session %d", sessionId));
+            return;
+        }
+        Map<String, Long> runtimes = new HashMap<>();
+        for (IModuleResult module : result.getModules()) {
+            runtimes.put(module.getId(), module.getRuntime());
+        }
+        Map<String, Integer> shardCounts = new HashMap<>();
+        for (PlannedShard shard : shards) {
+            for (String id : shard.getModuleIds()) {
+                Integer count = shardCounts.get(id);
+                shardCounts.put(id, count == null ? 1 : count + 1);
+            }
+        }
+        List<List<String>> table = new ArrayList<>();
+        table.add(Arrays.asList("Shard", "Modules", "Predicted", "Actual"));
+        long predictedMakespan = 0;
+        long actualMakespan = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            PlannedShard shard = shards.get(i);
+            long actual = 0;
+            for (String id : shard.getModuleIds()) {
+                Long runtime = runtimes.get(id);
+                if (runtime != null) {
+                    actual += runtime / shardCounts.get(id);
+                }
+            }
+            predictedMakespan = Math.max(predictedMakespan, shard.getPredictedRuntime());
+            actualMakespan = Math.max(actualMakespan, actual);
+            table.add(Arrays.asList(
+                    Integer.toString(i),
+                    Integer.toString(shard.getModuleIds().size()),
+                    TimeUtil.formatElapsedTime(shard.getPredictedRuntime()),
+                    TimeUtil.formatElapsedTime(actual)));
+        }
+        new TableFormatter().displayTable(table, new PrintWriter(System.out, true));
+        printLine(String.format("Makespan: predicted %s, actual %s",
+                TimeUtil.formatElapsedTime(predictedMakespan),
+                TimeUtil.formatElapsedTime(actualMakespan)));
+    }
+
     private void listSubPlans() {
         File[] files = null;
         try {
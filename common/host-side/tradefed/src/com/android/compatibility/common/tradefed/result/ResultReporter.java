@@ -17,6 +17,7 @@ package com.android.compatibility.common.tradefed.result;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
+import com.android.compatibility.common.tradefed.util.ParallelZipUtil;
 import com.android.compatibility.common.tradefed.util.RetryType;
 import com.android.compatibility.common.util.ChecksumReporter;
 import com.android.compatibility.common.util.DeviceInfo;
@@ -52,7 +53,6 @@ import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -63,6 +63,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -70,7 +72,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -94,6 +100,9 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     public static final String BUILD_PRODUCT = "build_product";
     public static final String BUILD_VERSION_RELEASE = "build_version_release";
 
+    /* Maximum number of finalization stages running concurrently */
+    private static final int FINALIZE_THREAD_COUNT = 4;
+
     private static final List<String> NOT_RETRY_FILES = Arrays.asList(
             ChecksumReporter.NAME,
             ChecksumReporter.PREV_NAME,
@@ -136,6 +145,9 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private ILogSaver mLogSaver;
     private int invocationEndedCount = 0;
     private CountDownLatch mFinalized = null;
+    // Hashes files written to the result directory during the run for the checksum, no thread
+    // is started until a file is written
+    private ChecksumReporter.FileHasher mFileHasher = new ChecksumReporter.FileHasher();
 
     protected IInvocationResult mResult = new InvocationResult();
     private IModuleResult mCurrentModuleResult;
@@ -477,7 +489,11 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 return;
             }
             mElapsedTime = elapsedTime;
-            finalizeResults();
+            try {
+                finalizeResults();
+            } finally {
+                mFileHasher.shutdown();
+            }
             mFinalized.countDown();
         }
     }
@@ -511,34 +527,77 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 mResult.getModuleCompleteCount(), mResult.getModules().size());
 
 
+        ExecutorService executor = Executors.newFixedThreadPool(FINALIZE_THREAD_COUNT);
+        long start = System.currentTimeMillis();
         try {
-            // Zip the full test results directory.
-            copyDynamicConfigFiles();
-            copyFormattingFiles(mResultDir, mBuildHelper.getSuiteName());
-
-            File resultFile = generateResultXmlFile();
-            if (mRetrySessionId != null) {
-                copyRetryFiles(ResultHandler.getResultDirectory(
-                        mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+            // The result XML is written once on this thread, while the remaining stages run on
+            // the executor as soon as the files they depend on are complete.
+            CompletableFuture<Void> configFiles = submitStage(executor, "Copy dynamic configs",
+                    () -> {
+                        copyDynamicConfigFiles();
+                        return null;
+                    });
+            CompletableFuture<Void> formattingFiles = submitStage(executor,
+                    "Copy formatting files", () -> {
+                        copyFormattingFiles(mResultDir, mBuildHelper.getSuiteName());
+                        return null;
+                    });
+            ChecksumReporter checksum = ResultHandler.createChecksumReporter(mResult);
+            if (checksum != null) {
+                // Reuse the hashes of the files written during the run
+                checksum.setFileHasher(mFileHasher);
             }
-            File zippedResults = zipResults(mResultDir);
-            // Create failure report after zip file so extra data is not uploaded
-            File failureReport = ResultHandler.createFailureReport(resultFile);
-            if (failureReport.exists()) {
-                info("Test Result: %s", failureReport.getCanonicalPath());
+            File resultFile = runStage("Write result XML",
+                    () -> generateResultXmlFile(checksum));
+
+            CompletableFuture<Void> upload = submitStage(executor, "Upload result", () -> {
+                uploadResult(resultFile);
+                return null;
+            });
+            // Create failure report outside of the result directory so it is not zipped
+            CompletableFuture<File> failureReport = submitStage(executor,
+                    "Create failure report", () -> ResultHandler.createFailureReport(resultFile,
+                            FileUtil.createTempFile("test_result_failures", ".html")));
+            CompletableFuture<File> zippedResults =
+                    CompletableFuture.allOf(configFiles, formattingFiles)
+                    .thenCompose(ignored -> submitStage(executor, "Create checksum", () -> {
+                        ResultHandler.createChecksum(mResultDir, mResult, checksum);
+                        return null;
+                    }))
+                    .thenCompose(ignored -> submitStage(executor, "Copy retry files", () -> {
+                        if (mRetrySessionId != null) {
+                            copyRetryFiles(ResultHandler.getResultDirectory(
+                                    mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+                        }
+                        return null;
+                    }))
+                    .thenCompose(ignored -> submitStage(executor, "Zip results",
+                            () -> zipResults(mResultDir)));
+            CompletableFuture<Void> savedLog = zippedResults.thenCompose(
+                    zip -> submitStage(executor, "Save results with log saver", () -> {
+                        saveLog(resultFile, zip);
+                        return null;
+                    }));
+
+            File zip = awaitStage(zippedResults);
+            File report = moveFailureReport(awaitStage(failureReport));
+            if (report.exists()) {
+                info("Test Result: %s", report.getCanonicalPath());
             } else {
                 info("Test Result: %s", resultFile.getCanonicalPath());
             }
             info("Test Logs: %s", mLogDir.getCanonicalPath());
-            debug("Full Result: %s", zippedResults.getCanonicalPath());
-
-            saveLog(resultFile, zippedResults);
-
-            uploadResult(resultFile);
+            debug("Full Result: %s", zip.getCanonicalPath());
 
+            awaitStage(savedLog);
+            awaitStage(upload);
         } catch (IOException | XmlPullParserException e) {
             CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
             CLog.e(e);
+        } finally {
+            executor.shutdownNow();
+            debug("Results finalized in %s",
+                    TimeUtil.formatElapsedTime(System.currentTimeMillis() - start));
         }
         // print the run results last.
         info("Invocation finished in %s. PASSED: %d, FAILED: %d, MODULES: %s",
@@ -548,6 +607,76 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 moduleProgress);
     }
 
+    /**
+     * Move a failure report created outside of the result directory into it, replacing any
+     * report copied from a previous session.
+     */
+    private File moveFailureReport(File tmpReport) throws IOException {
+        File failureReport = new File(mResultDir, ResultHandler.FAILURE_REPORT_NAME);
+        if (tmpReport.length() > 0) {
+            Files.move(tmpReport.toPath(), failureReport.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            FileUtil.deleteFile(tmpReport);
+        }
+        return failureReport;
+    }
+
+    /**
+     * A step of result finalization.
+     */
+    private interface FinalizeStage<T> {
+        T run() throws IOException, XmlPullParserException;
+    }
+
+    /**
+     * Run a finalization stage on the current thread, logging its duration.
+     */
+    private static <T> T runStage(String name, FinalizeStage<T> stage)
+            throws IOException, XmlPullParserException {
+        long start = System.currentTimeMillis();
+        try {
+            return stage.run();
+        } finally {
+            debug("Finalize stage \"%s\" took %s", name,
+                    TimeUtil.formatElapsedTime(System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Run a finalization stage on the given executor, logging its duration.
+     */
+    private static <T> CompletableFuture<T> submitStage(ExecutorService executor, String name,
+            FinalizeStage<T> stage) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return runStage(name, stage);
+            } catch (IOException | XmlPullParserException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Wait for a finalization stage, rethrowing its failure.
+     */
+    private static <T> T awaitStage(CompletableFuture<T> stage)
+            throws IOException, XmlPullParserException {
+        try {
+            return stage.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof XmlPullParserException) {
+                throw (XmlPullParserException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -601,6 +730,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             if (!ediFile.exists()) {
                 // only write this file to the results if not already present
                 FileUtil.writeToFile(stream.createInputStream(), ediFile);
+                mFileHasher.hash(ediFile);
             }
         } catch (IOException e) {
             warn("Failed to write device info %s to result", name);
@@ -690,15 +820,16 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     }
 
     /**
-     * Create results file compatible with CTSv2 (xml) report format.
+     * Create results file compatible with CTSv2 (xml) report format, adding result signatures to
+     * the given checksum (which may be null) as they are written.
      */
-    protected File generateResultXmlFile()
+    protected File generateResultXmlFile(ChecksumReporter checksum)
             throws IOException, XmlPullParserException {
         return ResultHandler.writeResults(mBuildHelper.getSuiteName(),
                 mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
                 mBuildHelper.getSuiteBuild(), mResult, mResultDir, mResult.getStartTime(),
                 mElapsedTime + mResult.getStartTime(), mReferenceUrl, getLogUrl(),
-                mBuildHelper.getCommandLineArgs());
+                mBuildHelper.getCommandLineArgs(), checksum);
     }
 
     /**
@@ -917,7 +1048,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // create a file in parent directory, with same name as resultsDir
             zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
                     resultsDir.getName()));
-            ZipUtil.createZip(resultsDir, zipResultFile);
+            ParallelZipUtil.createZip(resultsDir, zipResultFile);
         } catch (IOException e) {
             warn("Failed to create zip for %s", resultsDir.getName());
         }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.testtype.IModuleDef;
+import com.android.compatibility.common.tradefed.util.LinearPartition.RuntimeEstimator;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A helper class for recording how modules were split into shards and the predicted runtime of
+ * each shard, so that it can be compared with the actual runtime of the session.
+ */
+public class ShardPlanHandler {
+
+    public static final String SHARD_PLAN_FILE_NAME = "shard_plan.txt";
+
+    private static final String DELIMITER = "->";
+    private static final String ID_DELIMITER = ",";
+
+    /**
+     * The modules and predicted runtime of a shard.
+     */
+    public static class PlannedShard {
+        private final long mPredictedRuntime;
+        private final List<String> mModuleIds;
+
+        public PlannedShard(long predictedRuntime, List<String> moduleIds) {
+            mPredictedRuntime = predictedRuntime;
+            mModuleIds = moduleIds;
+        }
+
+        /**
+         * @return the predicted runtime of the shard in milliseconds
+         */
+        public long getPredictedRuntime() {
+            return mPredictedRuntime;
+        }
+
+        /**
+         * @return the ids of the modules in the shard
+         */
+        public List<String> getModuleIds() {
+            return mModuleIds;
+        }
+    }
+
+    /**
+     * Write the shard plan to the result's shard plan file.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} used to write the shard plan file
+     * @param shards the modules of each shard
+     * @param estimator the {@link RuntimeEstimator} used to split the modules
+     */
+    public static void setShardPlan(final CompatibilityBuildHelper buildHelper,
+            List<List<IModuleDef>> shards, RuntimeEstimator estimator) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < shards.size(); i++) {
+            long predicted = 0;
+            List<String> ids = new ArrayList<>();
+            for (IModuleDef module : shards.get(i)) {
+                predicted += estimator.getRuntime(module);
+                ids.add(module.getId());
+            }
+            sb.append(String.format("%d%s%d%s%s\n", i, DELIMITER, predicted, DELIMITER,
+                    String.join(ID_DELIMITER, ids)));
+        }
+        try {
+            File f = new File(buildHelper.getResultDir(), SHARD_PLAN_FILE_NAME);
+            FileUtil.writeToFile(sb.toString(), f);
+        } catch (IOException e) {
+            CLog.e("Exception while writing shard plan file.");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Read the shard plan of a session.
+     *
+     * @param resultDir the result directory of the session
+     * @return the planned shards in order, or an empty list if the session was not sharded
+     */
+    public static List<PlannedShard> getShardPlan(File resultDir) throws IOException {
+        File f = new File(resultDir, SHARD_PLAN_FILE_NAME);
+        if (!f.exists() || f.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<PlannedShard> shards = new ArrayList<>();
+        for (String line : FileUtil.readStringFromFile(f).split("\n")) {
+            String[] parts = line.split(DELIMITER, 3);
+            List<String> ids = parts[2].isEmpty()
+                    ? Collections.<String>emptyList()
+                    : Arrays.asList(parts[2].split(ID_DELIMITER));
+            shards.add(new PlannedShard(Long.parseLong(parts[1]), ids));
+        }
+        return shards;
+    }
+}
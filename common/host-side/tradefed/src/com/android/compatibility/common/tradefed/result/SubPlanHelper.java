@@ -374,7 +374,8 @@ public class SubPlanHelper {
                 throw new ConfigurationException("Missing --session argument");
             }
             try {
-                mResult = ResultHandler.findResult(buildHelper.getResultsDir(), mSessionId);
+                // only test names and statuses are needed to create the subplan
+                mResult = ResultHandler.findLazyResult(buildHelper.getResultsDir(), mSessionId);
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
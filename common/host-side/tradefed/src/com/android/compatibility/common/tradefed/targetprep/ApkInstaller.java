@@ -18,7 +18,9 @@ package com.android.compatibility.common.tradefed.targetprep;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionClass;
+import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.targetprep.BuildError;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.targetprep.TestAppInstallSetup;
 
@@ -32,6 +34,7 @@ import java.io.FileNotFoundException;
 public class ApkInstaller extends TestAppInstallSetup {
 
     private CompatibilityBuildHelper mBuildHelper = null;
+    private ApkPrefetcher mPrefetcher = null;
 
     private void setBuildHelper(IBuildInfo buildInfo) {
         if (mBuildHelper == null) {
@@ -49,6 +52,40 @@ public class ApkInstaller extends TestAppInstallSetup {
         return mBuildHelper.getTestFile(filename);
     }
 
+    /**
+     * Set the prefetcher that may have staged the APKs on the device, or null to install them all
+     * from the host.
+     */
+    public void setPrefetcher(ApkPrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * Start pushing the APKs to install to the device, ahead of {@link #setUp}. APKs that cannot
+     * be found are left to be reported by the setup.
+     */
+    public void prefetch(ApkPrefetcher prefetcher, ITestDevice device, IBuildInfo buildInfo) {
+        for (String apkFileName : getTestsFileName()) {
+            try {
+                prefetcher.prefetch(getLocalPathForFilename(buildInfo, apkFileName, device));
+            } catch (TargetSetupError e) {
+                // Reported by setUp
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp(ITestDevice device, IBuildInfo buildInfo)
+            throws TargetSetupError, BuildError, DeviceNotAvailableException {
+        if (mPrefetcher != null) {
+            device = mPrefetcher.installFromStaging(device);
+        }
+        super.setUp(device, buildInfo);
+    }
+
     /**
      * {@inheritDoc}
      */
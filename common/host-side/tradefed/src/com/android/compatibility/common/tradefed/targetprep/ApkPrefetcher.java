@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the APKs of upcoming modules to a device in the background while the current module
+ * runs, so that installing them during the setup of their module does not wait for the transfer.
+ * <p/>
+ * APKs are only staged in a temporary directory of the device. Packages are still installed and
+ * uninstalled by the {@link ApkInstaller} of each module, so modules never see the packages of
+ * other modules.
+ */
+public class ApkPrefetcher {
+
+    static final String STAGING_DIR = "/data/local/tmp/cts-apk-staging/";
+
+    // How long to wait for the last transfer when done with the device
+    private static final long CLOSE_TIMEOUT_MINUTES = 2;
+
+    private final ITestDevice mDevice;
+    private final ExecutorService mExecutor;
+    // Device path of the staged copy of each APK, null if the transfer failed
+    private final Map<File, Future<String>> mStaged = new HashMap<>();
+    private int mStagedCount = 0;
+    private boolean mStagingDirCreated = false;
+
+    public ApkPrefetcher(ITestDevice device) {
+        mDevice = device;
+        // Transfers run one at a time, to leave bandwidth to the module running meanwhile
+        mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ApkPrefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts pushing an APK to the device, unless it is already staged or being pushed.
+     */
+    public synchronized void prefetch(File apkFile) {
+        if (mExecutor.isShutdown() || mStaged.containsKey(apkFile)) {
+            return;
+        }
+        // Different APKs may have the same name
+        String devicePath = String.format("%s%d-%s", STAGING_DIR, mStagedCount++,
+                apkFile.getName());
+        mStaged.put(apkFile, mExecutor.submit(() -> push(apkFile, devicePath)));
+    }
+
+    private String push(File apkFile, String devicePath) {
+        try {
+            if (!mStagingDirCreated) {
+                mDevice.executeShellCommand("mkdir -p " + STAGING_DIR);
+                mStagingDirCreated = true;
+            }
+            if (mDevice.pushFile(apkFile, devicePath)) {
+                return devicePath;
+            }
+            CLog.w("Failed to prefetch %s, it will be installed from the host", apkFile.getName());
+        } catch (DeviceNotAvailableException e) {
+            CLog.w("Failed to prefetch %s, it will be installed from the host: %s",
+                    apkFile.getName(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Takes the staged copy of an APK, waiting for its transfer to end if needed.
+     *
+     * @return the path of the copy on the device, or null if the APK was not prefetched or could
+     * not be pushed.
+     */
+    String takeStagedPath(File apkFile) {
+        Future<String> staged;
+        synchronized (this) {
+            staged = mStaged.remove(apkFile);
+        }
+        if (staged == null) {
+            return null;
+        }
+        try {
+            return staged.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            CLog.w("Failed to prefetch %s: %s", apkFile.getName(), e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Wraps a device so that APKs that were prefetched are installed from their staged copy by
+     * its installPackage methods. Other APKs, and all other methods, are handled by the device.
+     */
+    public ITestDevice installFromStaging(ITestDevice device) {
+        return (ITestDevice) Proxy.newProxyInstance(ITestDevice.class.getClassLoader(),
+                new Class<?>[] {ITestDevice.class}, (proxy, method, args) -> {
+                    if (isInstallPackage(method)) {
+                        String devicePath = takeStagedPath((File) args[0]);
+                        if (devicePath != null) {
+                            // Otherwise the staged copy is deleted with the others on close
+                            List<String> options = getInstallOptions(device, args);
+                            if (options != null) {
+                                return installStaged(device, devicePath, options);
+                            }
+                        }
+                    }
+                    try {
+                        return method.invoke(device, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return true if the method is one of the ITestDevice#installPackage(File, boolean...,
+     * String...) methods.
+     */
+    private static boolean isInstallPackage(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        if (!"installPackage".equals(method.getName()) || types.length < 3
+                || types[0] != File.class || types[types.length - 1] != String[].class) {
+            return false;
+        }
+        for (int i = 1; i < types.length - 1; i++) {
+            if (types[i] != boolean.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the options of pm install that the device would use for the arguments of an
+     * installPackage method, the same way as TestDevice.
+     *
+     * @return the options, or null if the device must install the APK itself.
+     */
+    private static List<String> getInstallOptions(ITestDevice device, Object[] args)
+            throws DeviceNotAvailableException {
+        List<String> options = new ArrayList<>();
+        if ((Boolean) args[1]) {
+            options.add("-r");
+        }
+        if (args.length == 3) {
+            // Runtime permissions are granted by default where supported
+            if (device.isRuntimePermissionSupported()) {
+                options.add("-g");
+            }
+        } else if (args.length == 4) {
+            if ((Boolean) args[2]) {
+                if (!device.isRuntimePermissionSupported()) {
+                    // Let the device fail the same way
+                    return null;
+                }
+                options.add("-g");
+            }
+        } else {
+            return null;
+        }
+        options.addAll(Arrays.asList((String[]) args[args.length - 1]));
+        return options;
+    }
+
+    /**
+     * Installs a staged APK with the given options, then deletes the staged copy.
+     *
+     * @return null on success, or the failure reported by the package manager, like
+     * installPackage.
+     */
+    private static String installStaged(ITestDevice device, String devicePath,
+            List<String> options) throws DeviceNotAvailableException {
+        StringBuilder command = new StringBuilder("pm install");
+        for (String option : options) {
+            command.append(' ').append(option);
+        }
+        command.append(' ').append(devicePath);
+        try {
+            String output = device.executeShellCommand(command.toString());
+            if (output == null || output.trim().isEmpty()) {
+                return "Install failed";
+            }
+            for (String line : output.split("\\r?\\n")) {
+                if ("Success".equals(line.trim())) {
+                    return null;
+                }
+            }
+            return output.trim();
+        } finally {
+            device.executeShellCommand("rm -f " + devicePath);
+        }
+    }
+
+    /**
+     * Stops prefetching and deletes what was staged on the device but not installed.
+     */
+    public void close() {
+        boolean prefetched;
+        synchronized (this) {
+            mExecutor.shutdown();
+            mStaged.clear();
+            prefetched = mStagedCount > 0;
+        }
+        try {
+            if (!mExecutor.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                CLog.w("Timed out waiting for APKs to be prefetched to %s",
+                        mDevice.getSerialNumber());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!prefetched) {
+            return;
+        }
+        try {
+            mDevice.executeShellCommand("rm -rf " + STAGING_DIR);
+        } catch (DeviceNotAvailableException e) {
+            CLog.w("Failed to delete prefetched APKs from %s: %s", mDevice.getSerialNumber(), e);
+        }
+    }
+}
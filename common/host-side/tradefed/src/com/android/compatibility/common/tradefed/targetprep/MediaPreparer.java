@@ -18,6 +18,7 @@ package com.android.compatibility.common.tradefed.targetprep;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.targetprep.PreconditionPreparer;
 import com.android.compatibility.common.tradefed.util.DynamicConfigFileReader;
+import com.android.compatibility.common.tradefed.util.MediaManifest;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.testrunner.TestIdentifier;
@@ -32,19 +33,32 @@ import com.android.tradefed.targetprep.BuildError;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.testtype.AndroidJUnitTest;
 import com.android.tradefed.util.FileUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
@@ -70,6 +84,15 @@ public class MediaPreparer extends PreconditionPreparer {
             description = "Only push images files to the device")
     protected boolean mImagesOnly = false;
 
+    @Option(name = "media-manifest-sync",
+            description = "Whether to compare the media files on the device with a manifest of "
+            + "the host media files, and push only the missing or changed files")
+    protected boolean mManifestSync = true;
+
+    @Option(name = "media-push-threads",
+            description = "Number of media files pushed to the device in parallel")
+    protected int mPushThreads = 4;
+
     /*
      * The pathnames of the device's directories that hold media files for the tests.
      * These depend on the device's mount point, which is retrieved in the MediaPreparer's run
@@ -77,6 +100,7 @@ public class MediaPreparer extends PreconditionPreparer {
      *
      * These fields are exposed for unit testing
      */
+    protected String mBaseDeviceDir;
     protected String mBaseDeviceShortDir;
     protected String mBaseDeviceFullDir;
     protected String mBaseDeviceImagesDir;
@@ -97,6 +121,14 @@ public class MediaPreparer extends PreconditionPreparer {
      */
     protected static final String MEDIA_FOLDER_NAME = "android-cts-media";
 
+    /*
+     * Suffix of the file created next to the media folder once the media files are completely
+     * extracted. Until then, the download and extraction are resumed by the next run.
+     */
+    private static final String COMPLETE_SUFFIX = ".complete";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /* The key used to retrieve the media files URL from the dynamic configuration */
     private static final String MEDIA_FILES_URL_KEY = "media_files_url";
 
@@ -213,14 +245,16 @@ public class MediaPreparer extends PreconditionPreparer {
      * Synchronize this static method so that multiple shards won't download/extract
      * this file to the same location on the host. Only an issue in Android O and above,
      * where MediaPreparer is used for multiple, shardable modules.
+     *
+     * An interrupted download or extraction is resumed by the next call, rather than started
+     * over.
      */
     private static synchronized File downloadMediaToHost(ITestDevice device, IBuildInfo buildInfo)
             throws TargetSetupError {
         // Retrieve default directory for storing media files
         File mediaFolder = getDefaultMediaDir();
-        if (mediaFolder.exists() && mediaFolder.list().length > 0) {
-            // Folder has already been created and populated by previous MediaPreparer runs,
-            // assume all necessary media files exist inside.
+        if (isMediaDownloadComplete(mediaFolder)) {
+            // Folder has already been populated by previous MediaPreparer runs
             return mediaFolder;
         }
         mediaFolder.mkdirs();
@@ -234,27 +268,141 @@ public class MediaPreparer extends PreconditionPreparer {
             throw new TargetSetupError("Trouble finding media file download location with " +
                     "dynamic configuration", e, device.getDeviceDescriptor());
         }
-        File mediaFolderZip = new File(mediaFolder.getAbsolutePath() + ".zip");
+        File mediaFolderZip = getMediaZip(mediaFolder);
         try {
-            LogUtil.printLog(Log.LogLevel.INFO, LOG_TAG,
-                    String.format("Downloading media files from %s", url.toString()));
-            URLConnection conn = url.openConnection();
-            InputStream in = conn.getInputStream();
-            mediaFolderZip.createNewFile();
-            FileUtil.writeToFile(in, mediaFolderZip);
+            downloadMediaZip(url, mediaFolderZip);
             LogUtil.printLog(Log.LogLevel.INFO, LOG_TAG, "Unzipping media files");
-            ZipUtil.extractZip(new ZipFile(mediaFolderZip), mediaFolder);
+            extractMediaZip(mediaFolderZip, mediaFolder);
+            getCompleteMarker(mediaFolder).createNewFile();
         } catch (IOException e) {
-            FileUtil.recursiveDelete(mediaFolder);
+            // Keep what was downloaded and extracted, the next run resumes from there
             throw new TargetSetupError("Failed to download and open media files on host, the"
                     + " device requires these media files for CTS media tests", e,
                     device.getDeviceDescriptor());
-        } finally {
-            FileUtil.deleteFile(mediaFolderZip);
         }
+        FileUtil.deleteFile(mediaFolderZip);
         return mediaFolder;
     }
 
+    /*
+     * Returns true if the media files were completely downloaded and extracted in the given
+     * folder.
+     */
+    private static boolean isMediaDownloadComplete(File mediaFolder) {
+        if (getCompleteMarker(mediaFolder).exists()) {
+            return true;
+        }
+        // Earlier versions did not create the marker, but always deleted the zip once the media
+        // files were extracted and deleted the folder on failure
+        String[] contents = mediaFolder.list();
+        return contents != null && contents.length > 0 && !getMediaZip(mediaFolder).exists();
+    }
+
+    private static File getMediaZip(File mediaFolder) {
+        return new File(mediaFolder.getAbsolutePath() + ".zip");
+    }
+
+    private static File getCompleteMarker(File mediaFolder) {
+        return new File(mediaFolder.getAbsolutePath() + COMPLETE_SUFFIX);
+    }
+
+    /*
+     * Downloads the media zip, resuming a previous partial download when the server supports it.
+     */
+    private static void downloadMediaZip(URL url, File mediaFolderZip) throws IOException {
+        if (mediaFolderZip.length() > 0) {
+            if (resumeDownload(url, mediaFolderZip) && isValidZip(mediaFolderZip)) {
+                return;
+            }
+            LogUtil.printLog(Log.LogLevel.INFO, LOG_TAG, "Could not resume download");
+        }
+        LogUtil.printLog(Log.LogLevel.INFO, LOG_TAG,
+                String.format("Downloading media files from %s", url.toString()));
+        URLConnection conn = url.openConnection();
+        try (InputStream in = conn.getInputStream()) {
+            FileUtil.writeToFile(in, mediaFolderZip);
+        }
+        if (!isValidZip(mediaFolderZip)) {
+            FileUtil.deleteFile(mediaFolderZip);
+            throw new IOException(String.format("Invalid media files zip downloaded from %s",
+                    url.toString()));
+        }
+    }
+
+    /*
+     * Appends the rest of the media zip to a partial download.
+     *
+     * Returns false if the download cannot be resumed.
+     */
+    private static boolean resumeDownload(URL url, File mediaFolderZip) throws IOException {
+        URLConnection conn = url.openConnection();
+        if (!(conn instanceof HttpURLConnection)) {
+            return false;
+        }
+        HttpURLConnection httpConn = (HttpURLConnection) conn;
+        long offset = mediaFolderZip.length();
+        httpConn.setRequestProperty("Range", String.format("bytes=%d-", offset));
+        try {
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode == 416) {
+                // Range not satisfiable, the download was already complete
+                return true;
+            }
+            String contentRange = httpConn.getHeaderField("Content-Range");
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                    || !contentRange.startsWith(String.format("bytes %d-", offset))) {
+                return false;
+            }
+            LogUtil.printLog(Log.LogLevel.INFO, LOG_TAG, String.format(
+                    "Resuming download of media files from %s at byte %d", url.toString(),
+                    offset));
+            try (InputStream in = httpConn.getInputStream();
+                    OutputStream out = new FileOutputStream(mediaFolderZip, true)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            return true;
+        } finally {
+            httpConn.disconnect();
+        }
+    }
+
+    private static boolean isValidZip(File file) {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Extracts the media zip, skipping the files that were completely extracted by an earlier
+     * interrupted run.
+     */
+    private static void extractMediaZip(File mediaFolderZip, File mediaFolder)
+            throws IOException {
+        String destPath = mediaFolder.getCanonicalPath() + File.separator;
+        try (ZipFile zipFile = new ZipFile(mediaFolderZip)) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                File file = new File(mediaFolder, entry.getName());
+                if (!file.getCanonicalPath().startsWith(destPath)) {
+                    throw new IOException(String.format("Invalid zip entry %s", entry.getName()));
+                }
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                } else if (!file.isFile() || file.length() != entry.getSize()) {
+                    file.getParentFile().mkdirs();
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        FileUtil.writeToFile(in, file);
+                    }
+                }
+            }
+        }
+    }
+
     /*
      * Pushes directories containing media files to the device for all directories that:
      * - are not already present on the device
@@ -307,9 +455,213 @@ public class MediaPreparer extends PreconditionPreparer {
         }
     }
 
+    /*
+     * Returns the directories of media files needed on the device, relative to the media folder:
+     * - directories of video files of a resolution less than or equal to the device's max video
+     *       playback resolution
+     * - the directory of image files
+     *
+     * This method is exposed for unit testing.
+     */
+    protected List<String> getMediaDirs() {
+        List<String> dirs = new ArrayList<>();
+        if (!mImagesOnly) {
+            for (Resolution resolution : RESOLUTIONS) {
+                if (resolution.width > mMaxRes.width) {
+                    break; // no need for resolutions greater than this
+                }
+                dirs.add("bbb_short/" + resolution.toString());
+                dirs.add("bbb_full/" + resolution.toString());
+            }
+        }
+        dirs.add("images");
+        return dirs;
+    }
+
+    /*
+     * Returns the manifest of the media files known to be complete on the device, empty if there
+     * is none.
+     *
+     * This method is exposed for unit testing.
+     */
+    protected MediaManifest readDeviceManifest(ITestDevice device)
+            throws DeviceNotAvailableException {
+        return MediaManifest.parse(device.executeShellCommand(String.format("cat %s%s 2>/dev/null",
+                mBaseDeviceDir, MediaManifest.FILE_NAME)));
+    }
+
+    /*
+     * Returns the size of the media files found on the device in the given directories, keyed by
+     * their path relative to the media folder.
+     *
+     * This method is exposed for unit testing.
+     */
+    protected Map<String, Long> listDeviceMediaFiles(ITestDevice device, List<String> dirs)
+            throws DeviceNotAvailableException {
+        String output = device.executeShellCommand(String.format(
+                "cd %s 2>/dev/null && find %s -type f -exec stat -c '%%s %%n' {} + 2>/dev/null",
+                mBaseDeviceDir, String.join(" ", dirs)));
+        Map<String, Long> sizes = new HashMap<>();
+        for (String line : output.split("\r?\n")) {
+            String[] fields = line.split(" ", 2);
+            if (fields.length == 2) {
+                try {
+                    sizes.put(fields[1], Long.parseLong(fields[0]));
+                } catch (NumberFormatException e) {
+                    // Not a file listing
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /*
+     * Returns true if the device manifest lists files in each of the given directories, and all
+     * of them are complete on the device. The host media files are not needed to tell.
+     */
+    private static boolean mediaFilesVerifiedOnDevice(MediaManifest deviceManifest,
+            Map<String, Long> deviceFiles, List<String> dirs) {
+        for (String dir : dirs) {
+            boolean found = false;
+            for (String path : deviceManifest.getPaths()) {
+                if (path.startsWith(dir + "/")) {
+                    Long size = deviceFiles.get(path);
+                    if (size == null || size != deviceManifest.get(path).getSize()) {
+                        return false;
+                    }
+                    found = true;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Pushes the media files that are missing on the device, or differ from the host media
+     * files, in parallel. The device manifest is then updated with the files now complete on
+     * the device.
+     *
+     * The host media files are only hashed when they changed since the host manifest was saved.
+     * Files already on devices provisioned before manifests existed are kept if their size is
+     * right.
+     *
+     * This method is exposed for unit testing.
+     */
+    protected void syncMediaFiles(ITestDevice device, MediaManifest deviceManifest,
+            Map<String, Long> deviceFiles) throws DeviceNotAvailableException, TargetSetupError {
+        File mediaDir = new File(mLocalMediaPath);
+        MediaManifest hostManifest;
+        try {
+            hostManifest = updateHostManifest(mediaDir, getMediaDirs());
+        } catch (IOException e) {
+            throw new TargetSetupError("Failed to read media files on host", e,
+                    device.getDeviceDescriptor());
+        }
+
+        List<String> toPush = new ArrayList<>();
+        for (String path : hostManifest.getPaths()) {
+            MediaManifest.Entry hostEntry = hostManifest.get(path);
+            MediaManifest.Entry deviceEntry = deviceManifest.get(path);
+            Long deviceSize = deviceFiles.get(path);
+            if (deviceSize != null && deviceSize == hostEntry.getSize()
+                    && (deviceEntry == null || deviceEntry.hasSameContent(hostEntry))) {
+                deviceManifest.put(path, hostEntry);
+            } else {
+                deviceManifest.remove(path);
+                toPush.add(path);
+            }
+        }
+        if (toPush.isEmpty()) {
+            logInfo("Media files found on the device");
+            return;
+        }
+
+        logInfo("Pushing %d media files to device", toPush.size());
+        Set<String> parentDirs = new LinkedHashSet<>();
+        for (String path : toPush) {
+            parentDirs.add(path.substring(0, path.lastIndexOf('/')));
+        }
+        device.executeShellCommand(String.format("cd %s && mkdir -p %s", mBaseDeviceDir,
+                String.join(" ", parentDirs)));
+        List<String> pushed = pushMediaFiles(device, mediaDir, toPush);
+        for (String path : pushed) {
+            deviceManifest.put(path, hostManifest.get(path));
+        }
+        if (!device.pushString(deviceManifest.toString(),
+                mBaseDeviceDir + MediaManifest.FILE_NAME)) {
+            logWarning("Failed to push media manifest to device");
+        }
+        if (pushed.size() < toPush.size()) {
+            logWarning("Failed to push %d media files to device", toPush.size() - pushed.size());
+        } else {
+            logInfo("Media file copying complete");
+        }
+    }
+
+    /*
+     * Returns the manifest of the media files in the given directories of the host media folder,
+     * and saves it with the host manifest.
+     *
+     * Synchronized on the same lock as downloadMediaToHost, so that shards preparing their
+     * devices at the same time hash the host media files once, and don't overwrite each other's
+     * host manifest.
+     */
+    private static synchronized MediaManifest updateHostManifest(File mediaDir, List<String> dirs)
+            throws IOException {
+        File hostManifestFile = new File(mediaDir, MediaManifest.FILE_NAME);
+        MediaManifest savedManifest = MediaManifest.load(hostManifestFile);
+        MediaManifest hostManifest = MediaManifest.create(mediaDir, dirs, savedManifest);
+        for (String path : hostManifest.getPaths()) {
+            savedManifest.put(path, hostManifest.get(path));
+        }
+        savedManifest.save(hostManifestFile);
+        return hostManifest;
+    }
+
+    /*
+     * Pushes files of the media folder to the same paths relative to the media folder on the
+     * device, over up to mPushThreads adb connections at a time.
+     *
+     * Returns the paths of the files pushed successfully.
+     */
+    private List<String> pushMediaFiles(ITestDevice device, File mediaDir, List<String> paths)
+            throws DeviceNotAvailableException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, mPushThreads));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (String path : paths) {
+                results.add(executor.submit(
+                        () -> device.pushFile(new File(mediaDir, path), mBaseDeviceDir + path)));
+            }
+            List<String> pushed = new ArrayList<>();
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    if (results.get(i).get()) {
+                        pushed.add(paths.get(i));
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof DeviceNotAvailableException) {
+                        throw (DeviceNotAvailableException) e.getCause();
+                    }
+                    logWarning("Failed to push %s: %s", paths.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return pushed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     // Initialize directory strings where media files live on device
     protected void setMountPoint(ITestDevice device) {
         String mountPoint = device.getMountPoint(IDevice.MNT_EXTERNAL_STORAGE);
+        mBaseDeviceDir = String.format("%s/test/", mountPoint);
         mBaseDeviceShortDir = String.format("%s/test/bbb_short/", mountPoint);
         mBaseDeviceFullDir = String.format("%s/test/bbb_full/", mountPoint);
         mBaseDeviceImagesDir = String.format("%s/test/images/", mountPoint);
@@ -323,12 +675,24 @@ public class MediaPreparer extends PreconditionPreparer {
             logInfo("Skipping media preparation");
             return; // skip this precondition
         }
+        MediaManifest deviceManifest = null;
+        Map<String, Long> deviceFiles = null;
         if (!mMediaDownloadOnly) {
             setMountPoint(device);
             if (!mImagesOnly) {
                 setMaxRes(device, buildInfo); // max resolution only applies to video files
             }
-            if (mediaFilesExistOnDevice(device)) {
+            if (mManifestSync) {
+                deviceManifest = readDeviceManifest(device);
+                deviceFiles = listDeviceMediaFiles(device, getMediaDirs());
+                // Only compare with the host media files if they are already available
+                if (mLocalMediaPath == null && !isMediaDownloadComplete(getDefaultMediaDir())
+                        && mediaFilesVerifiedOnDevice(deviceManifest, deviceFiles,
+                                getMediaDirs())) {
+                    logInfo("Media files found on the device");
+                    return;
+                }
+            } else if (mediaFilesExistOnDevice(device)) {
                 // if files already on device, do nothing
                 logInfo("Media files found on the device");
                 return;
@@ -343,7 +707,11 @@ public class MediaPreparer extends PreconditionPreparer {
         }
         logInfo("Media files located on host at: %s", mLocalMediaPath);
         if (!mMediaDownloadOnly) {
-            copyMediaFiles(device);
+            if (mManifestSync) {
+                syncMediaFiles(device, deviceManifest, deviceFiles);
+            } else {
+                copyMediaFiles(device);
+            }
         }
     }
 
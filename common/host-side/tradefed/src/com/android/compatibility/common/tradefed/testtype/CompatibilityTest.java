@@ -19,7 +19,9 @@ package com.android.compatibility.common.tradefed.testtype;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.result.InvocationFailureHandler;
 import com.android.compatibility.common.tradefed.result.SubPlanHelper;
+import com.android.compatibility.common.tradefed.targetprep.ApkPrefetcher;
 import com.android.compatibility.common.tradefed.targetprep.NetworkConnectivityChecker;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.compatibility.common.tradefed.util.RetryFilterHelper;
 import com.android.compatibility.common.tradefed.util.RetryType;
 import com.android.compatibility.common.tradefed.util.UniqueModuleCountUtil;
@@ -65,7 +67,9 @@ import com.android.tradefed.util.TimeUtil;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -105,10 +109,13 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     public static final String PRIMARY_ABI_RUN = "primary-abi-only";
     public static final String DEVICE_TOKEN_OPTION = "device-token";
     public static final String LOGCAT_ON_FAILURE_SIZE_OPTION = "logcat-on-failure-size";
+    public static final String DYNAMIC_SCHEDULING_OPTION = "dynamic-module-scheduling";
 
     // Constants for checking invocation or preconditions preparation failure
     private static final int NUM_PREP_ATTEMPTS = 10;
     private static final int MINUTES_PER_PREP_ATTEMPT = 2;
+    private static final String PROFILE_TRACE_FILE_NAME = "module_phases_%s.trace.json";
+    private static final int PROFILE_SUMMARY_ROWS = 30;
 
     @Option(name = SUBPLAN_OPTION,
             description = "the subplan to run",
@@ -234,6 +241,12 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             description = "Reboot the device before every module run.")
     private boolean mRebootPerModule = false;
 
+    @Option(name = DYNAMIC_SCHEDULING_OPTION,
+            description = "When sharding on multiple devices, let each device pull its next "
+                    + "module from a queue shared by all devices, longest module first, instead "
+                    + "of running a precomputed list of modules.")
+    private boolean mDynamicScheduling = false;
+
     @Option(name = "skip-connectivity-check",
             description = "Don't verify device connectivity between module execution.")
     private boolean mSkipConnectivityCheck = false;
@@ -288,8 +301,23 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                     + "evaluated first.")
     private MultiMap<String, String> mModuleMetadataExcludeFilter = new MultiMap<>();
 
+    @Option(name = "profile-module-phases",
+            description = "Record the time spent in each module phase, target preparer, cleaner "
+                    + "and system status checker. A trace is written to the result directory and "
+                    + "a summary is displayed at the end of the run.")
+    private boolean mProfileModulePhases = true;
+
+    @Option(name = "apk-prefetch-modules",
+            description = "Number of upcoming modules whose APKs are pushed to the device in the "
+                    + "background while a module runs, so that they only have to be installed "
+                    + "during the setup of their module. Set to 0 to disable prefetching. Not "
+                    + "used with dynamic module scheduling, as upcoming modules are unknown.")
+    private int mApkPrefetchModules = 2;
+
     private int mTotalShards;
     private Integer mShardIndex = null;
+    private PhaseProfiler mProfiler = null;
+    private ApkPrefetcher mApkPrefetcher = null;
     private IModuleRepo mModuleRepo;
     private ITestDevice mDevice;
     private CompatibilityBuildHelper mBuildHelper;
@@ -298,6 +326,8 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     private static CountDownLatch sPreparedLatch;
     private boolean mIsLocalSharding = false;
     private boolean mIsSharded = false;
+    // set when modules are pulled from a queue shared with the other shards
+    private ModuleQueue mModuleQueue = null;
 
     private IInvocationContext mInvocationContext;
 
@@ -352,6 +382,24 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
      */
     @Override
     public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
+        if (mProfileModulePhases) {
+            mProfiler = new PhaseProfiler();
+        }
+        try {
+            runModules(listener);
+        } finally {
+            if (mApkPrefetcher != null) {
+                mApkPrefetcher.close();
+                mApkPrefetcher = null;
+            }
+            if (mProfiler != null) {
+                reportProfile();
+                mProfiler = null;
+            }
+        }
+    }
+
+    private void runModules(ITestInvocationListener listener) throws DeviceNotAvailableException {
         try {
             List<ISystemStatusChecker> checkers = new ArrayList<>();
             // Get system status checkers
@@ -379,7 +427,10 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             listener = new FailureListener(listener, getDevice(), mBugReportOnFailure,
                     mLogcatOnFailure, mScreenshotOnFailure, mRebootOnFailure, mMaxLogcatBytes);
             int moduleCount = modules.size();
-            if (moduleCount == 0) {
+            if (mModuleQueue != null) {
+                CLog.logAndDisplay(LogLevel.INFO, "Pulling test sub-modules from the shared "
+                        + "queue on %s", mDevice.getSerialNumber());
+            } else if (moduleCount == 0) {
                 CLog.logAndDisplay(LogLevel.INFO, "No module to run on %s.",
                         mDevice.getSerialNumber());
                 // Make sure we unlock other shards.
@@ -396,7 +447,10 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
 
             if (mRebootBeforeTest) {
                 CLog.d("Rebooting device before test starts as requested.");
-                mDevice.reboot();
+                try (PhaseProfiler.Phase phase =
+                        startPhase(PhaseProfiler.CATEGORY_DEVICE, "reboot", null)) {
+                    mDevice.reboot();
+                }
             }
 
             if (mSkipConnectivityCheck) {
@@ -406,18 +460,14 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                 mSystemStatusCheckBlacklist.add(clazz);
             }
 
+            if (mApkPrefetchModules > 0 && mModuleQueue == null) {
+                mApkPrefetcher = new ApkPrefetcher(mDevice);
+            }
+
             // Set values and run preconditions
             boolean isPrepared = true; // whether the device has been successfully prepared
             for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
-                module.setBuild(mBuildHelper.getBuildInfo());
-                module.setDevice(mDevice);
-                module.setPreparerWhitelist(mPreparerWhitelist);
-                // don't set a value if unspecified
-                if (mCollectTestsOnly != null) {
-                    module.setCollectTestsOnly(mCollectTestsOnly);
-                }
-                isPrepared &= (module.prepare(mSkipPreconditions, mPreconditionArgs));
+                isPrepared &= prepareModule(modules.get(i));
             }
             if (!isPrepared) {
                 throw new RuntimeException(String.format("Failed preconditions on %s",
@@ -446,11 +496,13 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             mModuleRepo.tearDown();
             mModuleRepo = null;
             // Run the tests
-            while (!modules.isEmpty()) {
-                // Make sure we remove the modules from the reference list when we are done with
-                // them.
-                IModuleDef module = modules.poll();
+            IModuleDef module;
+            // Make sure we remove the modules from the reference list when we are done with
+            // them.
+            while ((module = nextModule(modules)) != null) {
                 long start = System.currentTimeMillis();
+                // Stage the APKs of the next modules while this one runs
+                prefetchApks(modules);
 
                 if (mRebootPerModule) {
                     if ("user".equals(mDevice.getProperty("ro.build.type"))) {
@@ -459,13 +511,19 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                     } else {
                         CLog.logAndDisplay(LogLevel.INFO, "Rebooting device before starting next "
                             + "module");
-                        mDevice.reboot();
+                        try (PhaseProfiler.Phase phase = startPhase(
+                                PhaseProfiler.CATEGORY_DEVICE, "reboot", module.getId())) {
+                            mDevice.reboot();
+                        }
                     }
                 }
 
                 // execute pre module execution checker
                 if (checkers != null && !checkers.isEmpty()) {
-                    runPreModuleCheck(module.getName(), checkers, mDevice, listener);
+                    try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE,
+                            "pre-module-check", module.getId())) {
+                        runPreModuleCheck(module.getName(), checkers, mDevice, listener);
+                    }
                 }
                 IInvocationContext moduleContext = new InvocationContext();
                 moduleContext.setConfigurationDescriptor(module.getConfigurationDescriptor());
@@ -503,7 +561,10 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                             TimeUtil.formatElapsedTime(duration));
                 }
                 if (checkers != null && !checkers.isEmpty()) {
-                    runPostModuleCheck(module.getName(), checkers, mDevice, listener);
+                    try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE,
+                            "post-module-check", module.getId())) {
+                        runPostModuleCheck(module.getName(), checkers, mDevice, listener);
+                    }
                 }
                 module = null;
             }
@@ -512,6 +573,88 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         }
     }
 
+    /**
+     * Start pushing the APKs of the next modules to run to the device, if prefetching is enabled.
+     */
+    private void prefetchApks(List<IModuleDef> upcomingModules) {
+        if (mApkPrefetcher == null) {
+            return;
+        }
+        for (IModuleDef upcoming : upcomingModules.subList(0,
+                Math.min(mApkPrefetchModules, upcomingModules.size()))) {
+            upcoming.prefetchApks();
+        }
+    }
+
+    /**
+     * Start timing a phase of the run.
+     *
+     * @return the {@link PhaseProfiler.Phase} to close when it ends, or null if the run is not
+     * profiled.
+     */
+    private PhaseProfiler.Phase startPhase(String category, String name, String module) {
+        return mProfiler == null ? null : mProfiler.start(category, name, module);
+    }
+
+    /**
+     * Write the trace of the profiled phases to the result directory and display a summary.
+     */
+    private void reportProfile() {
+        if (mProfiler.size() == 0) {
+            return;
+        }
+        String serial = mDevice.getSerialNumber();
+        CLog.logAndDisplay(LogLevel.INFO, "Time spent in module phases on %s:\n%s", serial,
+                mProfiler.getSummary(PROFILE_SUMMARY_ROWS));
+        try {
+            File traceFile = new File(mBuildHelper.getResultDir(),
+                    String.format(PROFILE_TRACE_FILE_NAME, serial));
+            mProfiler.writeTrace(traceFile, serial);
+            CLog.i("Module phase trace written to %s", traceFile.getAbsolutePath());
+        } catch (IOException e) {
+            // Profiling is informative only, do not fail the run
+            CLog.e("Failed to write module phase trace");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Set the values of a module and run its preconditions.
+     *
+     * @return whether the device has been successfully prepared for the module
+     */
+    private boolean prepareModule(IModuleDef module) throws DeviceNotAvailableException {
+        module.setBuild(mBuildHelper.getBuildInfo());
+        module.setDevice(mDevice);
+        module.setPreparerWhitelist(mPreparerWhitelist);
+        module.setProfiler(mProfiler);
+        module.setApkPrefetcher(mApkPrefetcher);
+        // don't set a value if unspecified
+        if (mCollectTestsOnly != null) {
+            module.setCollectTestsOnly(mCollectTestsOnly);
+        }
+        return module.prepare(mSkipPreconditions, mPreconditionArgs);
+    }
+
+    /**
+     * Returns the next module to run, removing it from the given list. When modules are pulled
+     * from the shared queue, the module is claimed and prepared for this device instead.
+     *
+     * @return the next module, or null if there is none left
+     */
+    private IModuleDef nextModule(LinkedList<IModuleDef> modules)
+            throws DeviceNotAvailableException {
+        if (mModuleQueue == null) {
+            return modules.poll();
+        }
+        IModuleDef module = mModuleQueue.poll(mDevice.getSerialNumber());
+        if (module != null && !prepareModule(module)) {
+            throw new RuntimeException(String.format("Failed preconditions of %s on %s",
+                    module.getId(), mDevice.getSerialNumber()));
+        }
+        return module;
+    }
+
     /**
      * Initialize module repo.
      *
@@ -545,6 +688,11 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             } else {
                 CLog.d("ModuleRepo already initialized.");
             }
+            if (mDynamicScheduling && mIsLocalSharding) {
+                // Modules are pulled from the shared queue as the device becomes free
+                mModuleQueue = mModuleRepo.getModuleQueue();
+                return new LinkedList<>();
+            }
             // Get the tests to run in this shard
             return mModuleRepo.getModules(getDevice().getSerialNumber(), mShardIndex);
         }
@@ -655,7 +803,11 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         CLog.i("Running system status checker before module execution: %s", moduleName);
         List<String> failures = new ArrayList<>();
         for (ISystemStatusChecker checker : checkers) {
-            boolean result = checker.preExecutionCheck(device);
+            boolean result;
+            try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_CHECKER,
+                    checker.getClass().getSimpleName(), moduleName)) {
+                result = checker.preExecutionCheck(device);
+            }
             if (!result) {
                 failures.add(checker.getClass().getCanonicalName());
                 CLog.w("System status checker [%s] failed", checker.getClass().getCanonicalName());
@@ -664,7 +816,9 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         if (!failures.isEmpty()) {
             CLog.w("There are failed system status checkers: %s capturing a bugreport",
                     failures.toString());
-            try (InputStreamSource bugSource = device.getBugreport()) {
+            try (PhaseProfiler.Phase phase =
+                    startPhase(PhaseProfiler.CATEGORY_DEVICE, "bugreport", moduleName);
+                    InputStreamSource bugSource = device.getBugreport()) {
                 logger.testLog(String.format("bugreport-checker-pre-module-%s", moduleName),
                         LogDataType.BUGREPORT, bugSource);
             }
@@ -677,7 +831,11 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         CLog.i("Running system status checker after module execution: %s", moduleName);
         List<String> failures = new ArrayList<>();
         for (ISystemStatusChecker checker : checkers) {
-            boolean result = checker.postExecutionCheck(device);
+            boolean result;
+            try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_CHECKER,
+                    checker.getClass().getSimpleName(), moduleName)) {
+                result = checker.postExecutionCheck(device);
+            }
             if (!result) {
                 failures.add(checker.getClass().getCanonicalName());
                 CLog.w("System status checker [%s] failed", checker.getClass().getCanonicalName());
@@ -686,7 +844,9 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         if (!failures.isEmpty()) {
             CLog.w("There are failed system status checkers: %s capturing a bugreport",
                     failures.toString());
-            try (InputStreamSource bugSource = device.getBugreport()) {
+            try (PhaseProfiler.Phase phase =
+                    startPhase(PhaseProfiler.CATEGORY_DEVICE, "bugreport", moduleName);
+                    InputStreamSource bugSource = device.getBugreport()) {
                 logger.testLog(String.format("bugreport-checker-post-module-%s", moduleName),
                         LogDataType.BUGREPORT, bugSource);
             }
@@ -700,7 +860,7 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     void loadRetryCommandLineArgs(Integer sessionId) {
         IInvocationResult result = null;
         try {
-            result = ResultHandler.findResult(mBuildHelper.getResultsDir(), sessionId);
+            result = ResultHandler.findLightResult(mBuildHelper.getResultsDir(), sessionId);
         } catch (FileNotFoundException e) {
             // We should never reach this point, because this method should only be called
             // after setupFilters(), so result exists if we've gotten this far
@@ -15,6 +15,8 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.targetprep.ApkPrefetcher;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.tradefed.config.ConfigurationDescriptor;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.invoker.IInvocationContext;
@@ -84,6 +86,26 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
     boolean prepare(boolean skipPrep, List<String> preconditionArgs)
             throws DeviceNotAvailableException;
 
+    /**
+     * Set the profiler recording the time spent in the module's phases, preparers and cleaners.
+     *
+     * @param profiler the {@link PhaseProfiler}, or null to not profile the module.
+     */
+    void setProfiler(PhaseProfiler profiler);
+
+    /**
+     * Set the prefetcher staging the module's APKs on the device ahead of its setup.
+     *
+     * @param prefetcher the {@link ApkPrefetcher}, or null to install APKs from the host.
+     */
+    void setApkPrefetcher(ApkPrefetcher prefetcher);
+
+    /**
+     * Starts pushing the APKs installed by the module to the device in the background, if it has
+     * an {@link ApkPrefetcher}. The packages are only installed during setup.
+     */
+    void prefetchApks();
+
     /**
      * Retrieves the {@link ConfigurationDescriptor} associated with module config
      */
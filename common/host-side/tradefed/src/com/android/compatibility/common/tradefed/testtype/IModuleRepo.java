@@ -50,6 +50,12 @@ public interface IModuleRepo {
      */
     LinkedList<IModuleDef> getModules(String serial, int shardIndex);
 
+    /**
+     * @return a {@link ModuleQueue} of all modules, shared by the devices that pull their
+     * modules dynamically instead of calling {@link #getModules(String, int)}.
+     */
+    ModuleQueue getModuleQueue();
+
     /**
      * @return the number of shards this repo is initialized for.
      */
@@ -17,9 +17,12 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.result.IModuleListener;
 import com.android.compatibility.common.tradefed.result.ModuleListener;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstaller;
+import com.android.compatibility.common.tradefed.targetprep.ApkPrefetcher;
 import com.android.compatibility.common.tradefed.targetprep.DynamicConfigPusher;
 import com.android.compatibility.common.tradefed.targetprep.PreconditionPreparer;
 import com.android.compatibility.common.tradefed.targetprep.TokenRequirement;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.ConfigurationDescriptor;
 import com.android.tradefed.config.ConfigurationException;
@@ -68,6 +71,8 @@ public class ModuleDef implements IModuleDef {
     private ITestDevice mDevice;
     private Set<String> mPreparerWhitelist = new HashSet<>();
     private ConfigurationDescriptor mConfigurationDescriptor;
+    private PhaseProfiler mProfiler = null;
+    private ApkPrefetcher mApkPrefetcher = null;
 
     public ModuleDef(String name, IAbi abi, IRemoteTest test,
             List<ITargetPreparer> preparers, ConfigurationDescriptor configurationDescriptor) {
@@ -209,6 +214,37 @@ public class ModuleDef implements IModuleDef {
         mPreparerWhitelist.addAll(preparerWhitelist);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProfiler(PhaseProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApkPrefetcher(ApkPrefetcher prefetcher) {
+        mApkPrefetcher = prefetcher;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prefetchApks() {
+        if (mApkPrefetcher == null) {
+            return;
+        }
+        for (ITargetPreparer preparer : mPreparers) {
+            if (preparer instanceof ApkInstaller && isWhitelisted(preparer)) {
+                ((ApkInstaller) preparer).prefetch(mApkPrefetcher, mDevice, mBuild);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -247,7 +283,9 @@ public class ModuleDef implements IModuleDef {
     @Override
     public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
         CLog.d("Running module %s", toString());
-        runPreparerSetups();
+        try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE, "setup")) {
+            runPreparerSetups();
+        }
 
         CLog.d("Test: %s", mTest.getClass().getSimpleName());
         prepareTestClass();
@@ -255,11 +293,25 @@ public class ModuleDef implements IModuleDef {
         IModuleListener moduleListener = new ModuleListener(this, listener);
         // Guarantee events testRunStarted and testRunEnded in case underlying test runner does not
         ModuleFinisher moduleFinisher = new ModuleFinisher(moduleListener);
-        mTest.run(moduleFinisher);
+        try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE, "test")) {
+            mTest.run(moduleFinisher);
+        }
         moduleFinisher.finish();
 
         // Tear down
-        runPreparerTeardowns();
+        try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE, "teardown")) {
+            runPreparerTeardowns();
+        }
+    }
+
+    /**
+     * Start timing a phase of this module.
+     *
+     * @return the {@link PhaseProfiler.Phase} to close when it ends, or null if the module is not
+     * profiled.
+     */
+    private PhaseProfiler.Phase startPhase(String category, String name) {
+        return mProfiler == null ? null : mProfiler.start(category, name, mId);
     }
 
     /**
@@ -268,7 +320,10 @@ public class ModuleDef implements IModuleDef {
     protected void runPreparerTeardowns() throws DeviceNotAvailableException {
         for (ITargetCleaner cleaner : mCleaners) {
             CLog.d("Cleaner: %s", cleaner.getClass().getSimpleName());
-            cleaner.tearDown(mDevice, mBuild, null);
+            try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_CLEANER,
+                    cleaner.getClass().getSimpleName())) {
+                cleaner.tearDown(mDevice, mBuild, null);
+            }
         }
     }
 
@@ -310,6 +365,13 @@ public class ModuleDef implements IModuleDef {
     @Override
     public boolean prepare(boolean skipPrep, List<String> preconditionArgs)
             throws DeviceNotAvailableException {
+        try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_MODULE, "prepare")) {
+            return runPreconditions(skipPrep, preconditionArgs);
+        }
+    }
+
+    private boolean runPreconditions(boolean skipPrep, List<String> preconditionArgs)
+            throws DeviceNotAvailableException {
         for (ITargetPreparer preparer : mDynamicConfigPreparers) {
             runPreparerSetup(preparer);
         }
@@ -329,9 +391,14 @@ public class ModuleDef implements IModuleDef {
         return true;
     }
 
+    private boolean isWhitelisted(ITargetPreparer preparer) {
+        return mPreparerWhitelist.isEmpty()
+                || mPreparerWhitelist.contains(preparer.getClass().getCanonicalName());
+    }
+
     private void runPreparerSetup(ITargetPreparer preparer) throws DeviceNotAvailableException {
         String preparerName = preparer.getClass().getCanonicalName();
-        if (!mPreparerWhitelist.isEmpty() && !mPreparerWhitelist.contains(preparerName)) {
+        if (!isWhitelisted(preparer)) {
             CLog.d("Skipping Preparer: %s since it is not in the whitelist %s",
                     preparerName, mPreparerWhitelist);
             return;
@@ -340,7 +407,11 @@ public class ModuleDef implements IModuleDef {
         if (preparer instanceof IAbiReceiver) {
             ((IAbiReceiver) preparer).setAbi(mAbi);
         }
-        try {
+        if (preparer instanceof ApkInstaller) {
+            ((ApkInstaller) preparer).setPrefetcher(mApkPrefetcher);
+        }
+        try (PhaseProfiler.Phase phase = startPhase(PhaseProfiler.CATEGORY_PREPARER,
+                preparer.getClass().getSimpleName())) {
             preparer.setUp(mDevice, mBuild);
         } catch (BuildError e) {
             // This should only happen for flashing new build
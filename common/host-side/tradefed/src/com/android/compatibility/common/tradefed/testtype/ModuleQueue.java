@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A queue of modules shared by the devices of a sharded invocation, from which each device pulls
+ * its next module when it becomes free.
+ * <p/>
+ * Modules are handed out in the order given at creation. Modules requiring device tokens are
+ * only handed out to devices with the same tokens, unless no device has them. Claiming a module
+ * is a single compare-and-set, so devices never block each other.
+ */
+public class ModuleQueue {
+
+    private final AtomicReferenceArray<IModuleDef> mModules;
+    // No module before this index is left in the queue
+    private final AtomicInteger mHead = new AtomicInteger(0);
+    private final AtomicInteger mRemaining;
+    private final Map<String, Set<String>> mDeviceTokens;
+    private final Set<Set<String>> mAvailableTokens = new HashSet<>();
+
+    /**
+     * Creates a queue of the given modules.
+     *
+     * @param modules the modules in the order they should be handed out
+     * @param deviceTokens the tokens of each device, by serial
+     */
+    public ModuleQueue(List<IModuleDef> modules, Map<String, Set<String>> deviceTokens) {
+        mModules = new AtomicReferenceArray<>(modules.toArray(new IModuleDef[modules.size()]));
+        mRemaining = new AtomicInteger(modules.size());
+        mDeviceTokens = deviceTokens;
+        mAvailableTokens.addAll(deviceTokens.values());
+    }
+
+    /**
+     * Claims the next module that can run on the given device.
+     *
+     * @param serial the serial of the device
+     * @return the module, or null if no module is left for this device
+     */
+    public IModuleDef poll(String serial) {
+        Set<String> tokens = mDeviceTokens.get(serial);
+        for (int i = mHead.get(); i < mModules.length(); i++) {
+            IModuleDef module = mModules.get(i);
+            if (module == null) {
+                // Skip over claimed modules at the head on the next poll
+                mHead.compareAndSet(i, i + 1);
+                continue;
+            }
+            if (canRun(module, tokens) && mModules.compareAndSet(i, module, null)) {
+                mHead.compareAndSet(i, i + 1);
+                mRemaining.decrementAndGet();
+                return module;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of modules not yet claimed
+     */
+    public int size() {
+        return mRemaining.get();
+    }
+
+    private boolean canRun(IModuleDef module, Set<String> deviceTokens) {
+        Set<String> tokens = module.getTokens();
+        if (tokens == null || tokens.isEmpty()) {
+            return true;
+        }
+        if (tokens.equals(deviceTokens)) {
+            return true;
+        }
+        // No device has the tokens, run it anywhere rather than not at all
+        return !mAvailableTokens.contains(tokens);
+    }
+}
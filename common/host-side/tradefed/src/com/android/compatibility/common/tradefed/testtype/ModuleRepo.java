@@ -16,8 +16,13 @@
 package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.result.ShardPlanHandler;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.tradefed.util.LinearPartition;
+import com.android.compatibility.common.tradefed.util.LinearPartition.RuntimeEstimator;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCache;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCache.ConfigSummary;
+import com.android.compatibility.common.tradefed.util.ModuleRuntimeHistory;
 import com.android.compatibility.common.tradefed.util.UniqueModuleCountUtil;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.ddmlib.Log.LogLevel;
@@ -41,6 +46,7 @@ import com.android.tradefed.util.TimeUtil;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -55,6 +61,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Retrieves Compatibility test module definitions from the repository.
@@ -62,6 +74,9 @@ import java.util.Set;
 public class ModuleRepo implements IModuleRepo {
 
     private static final String CONFIG_EXT = ".config";
+    // Config parsing is mostly CPU bound, more threads than cores would not help.
+    private static final int DISCOVERY_THREAD_COUNT =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
     private static final Map<String, Integer> ENDING_MODULES = new HashMap<>();
     static {
       // b/62732298 put testFullDisk in the end to accommodate CTSMediaStressTest temporally
@@ -83,12 +98,16 @@ public class ModuleRepo implements IModuleRepo {
     private Map<String, List<TestFilter>> mIncludeFilters = new HashMap<>();
     private Map<String, List<TestFilter>> mExcludeFilters = new HashMap<>();
     private IConfigurationFactory mConfigFactory = ConfigurationFactory.getInstance();
+    // Estimates module runtimes used to balance shards, from past sessions when available.
+    private RuntimeEstimator mRuntimeEstimator = LinearPartition.RUNTIME_HINT;
+    private ModuleDiscoveryCache mDiscoveryCache = new ModuleDiscoveryCache(null);
 
     private volatile boolean mInitialized = false;
 
     // Holds all the tests with tokens waiting to be run. Meaning the DUT must have a specific token.
     private List<IModuleDef> mTokenModules = new ArrayList<>();
     private List<IModuleDef> mNonTokenModules = new ArrayList<>();
+    private ModuleQueue mModuleQueue;
 
     /**
      * {@inheritDoc}
@@ -216,60 +235,227 @@ public class ModuleRepo implements IModuleRepo {
             throw new IllegalArgumentException(
                     String.format("No config files found in %s", testsDir.getAbsolutePath()));
         }
-        Map<String, Integer> shardedTestCounts = new HashMap<>();
-        for (File configFile : configFiles) {
-            final String name = configFile.getName().replace(CONFIG_EXT, "");
-            final String[] pathArg = new String[] { configFile.getAbsolutePath() };
-            try {
-                // Invokes parser to process the test module config file
-                // Need to generate a different config for each ABI as we cannot guarantee the
-                // configs are idempotent. This however means we parse the same file multiple times
-                for (IAbi abi : abis) {
-                    String id = AbiUtils.createId(abi.getName(), name);
-                    if (!shouldRunModule(id)) {
-                        // If the module should not run tests based on the state of filters,
-                        // skip this name/abi combination.
-                        continue;
+        long start = System.currentTimeMillis();
+        CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(buildInfo);
+        loadDiscoveryCache(buildHelper);
+        Map<String, Integer> shardedTestCounts = new ConcurrentHashMap<>();
+        // Config files are independent of each other, discover their modules in parallel and
+        // add them in the order of the files so that the result does not depend on timing.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(configFiles.length, DISCOVERY_THREAD_COUNT));
+        try {
+            List<Future<List<IModuleDef>>> discoveries = new ArrayList<>(configFiles.length);
+            for (final File configFile : configFiles) {
+                discoveries.add(executor.submit(new Callable<List<IModuleDef>>() {
+                    @Override
+                    public List<IModuleDef> call() throws ConfigurationException {
+                        return discoverModules(configFile, abis, metadataIncludeFilters,
+                                metadataExcludeFilters, buildInfo, shardedTestCounts);
                     }
+                }));
+            }
+            for (int i = 0; i < configFiles.length; i++) {
+                for (IModuleDef moduleDef : getDiscovery(discoveries.get(i), configFiles[i])) {
+                    addModuleDef(moduleDef);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        mDiscoveryCache.save();
+        CLog.logAndDisplay(LogLevel.INFO, "Initialized %d test sub-modules from %d config files "
+                + "in %s", mNonTokenModules.size() + mTokenModules.size(), configFiles.length,
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - start));
+        mExcludeFilters.clear();
+        TestRunHandler.setTestRuns(buildHelper, shardedTestCounts);
+        if (mTotalShards > 1) {
+            loadRuntimeHistory(buildHelper);
+            Collections.sort(mNonTokenModules, new ExecutionOrderComparator());
+            ShardPlanHandler.setShardPlan(buildHelper,
+                    LinearPartition.split(mNonTokenModules, mTotalShards, mRuntimeEstimator),
+                    mRuntimeEstimator);
+        }
+    }
 
-                    IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
-                    if (!filterByConfigMetadata(config,
-                            metadataIncludeFilters, metadataExcludeFilters)) {
-                        // if the module config did not pass the metadata filters, it's excluded
-                        // from execution
-                        continue;
-                    }
-                    Map<String, List<String>> args = new HashMap<>();
-                    if (mModuleArgs.containsKey(name)) {
-                        args.putAll(mModuleArgs.get(name));
-                    }
-                    if (mModuleArgs.containsKey(id)) {
-                        args.putAll(mModuleArgs.get(id));
-                    }
-                    injectOptionsToConfig(args, config);
+    /**
+     * Creates the module definitions of a config file for all the ABIs the module should run on.
+     * <p/>
+     * Called concurrently for different config files, so only reads the state of the repo.
+     */
+    private List<IModuleDef> discoverModules(File configFile, Set<IAbi> abis,
+            MultiMap<String, String> metadataIncludeFilters,
+            MultiMap<String, String> metadataExcludeFilters, IBuildInfo buildInfo,
+            Map<String, Integer> shardedTestCounts) throws ConfigurationException {
+        final String name = configFile.getName().replace(CONFIG_EXT, "");
+        List<IModuleDef> moduleDefs = new ArrayList<>();
+        ConfigTemplate template = null;
+        for (IAbi abi : abis) {
+            String id = AbiUtils.createId(abi.getName(), name);
+            if (!shouldRunModule(id)) {
+                // If the module should not run tests based on the state of filters,
+                // skip this name/abi combination.
+                continue;
+            }
+            if (template == null) {
+                // The cache only saves the parse of configs excluded by the metadata filters,
+                // do not hash the configs when there are none
+                boolean useCache = !metadataIncludeFilters.isEmpty()
+                        || !metadataExcludeFilters.isEmpty();
+                ConfigSummary summary = useCache ? mDiscoveryCache.get(configFile) : null;
+                if (summary != null && !filterByMetadata(summary.getMetadata(),
+                        metadataIncludeFilters, metadataExcludeFilters)) {
+                    // the unchanged config was excluded by its metadata before, no need to
+                    // parse it again
+                    return moduleDefs;
+                }
+                // Invokes parser to process the test module config file, only once per file
+                template = new ConfigTemplate(configFile);
+                if (useCache && summary == null) {
+                    mDiscoveryCache.put(configFile, template.getConfiguration());
+                }
+                if (!filterByConfigMetadata(template.getConfiguration(),
+                        metadataIncludeFilters, metadataExcludeFilters)) {
+                    // if the module config did not pass the metadata filters, it's excluded
+                    // from execution for all ABIs
+                    return moduleDefs;
+                }
+            }
+            Map<String, List<String>> args = new HashMap<>();
+            if (mModuleArgs.containsKey(name)) {
+                args.putAll(mModuleArgs.get(name));
+            }
+            if (mModuleArgs.containsKey(id)) {
+                args.putAll(mModuleArgs.get(id));
+            }
+            IConfiguration config = template.newConfiguration();
+            injectOptionsToConfig(args, config);
 
-                    List<IRemoteTest> tests = config.getTests();
-                    for (IRemoteTest test : tests) {
-                        prepareTestClass(name, abi, config, test);
-                    }
-                    List<IRemoteTest> shardedTests = tests;
-                    if (mTotalShards > 1) {
-                         shardedTests = splitShardableTests(tests, buildInfo);
-                    }
-                    if (shardedTests.size() > 1) {
-                        shardedTestCounts.put(id, shardedTests.size());
-                    }
-                    for (IRemoteTest test : shardedTests) {
-                        addModuleDef(name, abi, test, pathArg);
-                    }
+            List<IRemoteTest> tests = config.getTests();
+            for (IRemoteTest test : tests) {
+                prepareTestClass(name, abi, config, test);
+            }
+            List<IRemoteTest> shardedTests = tests;
+            if (mTotalShards > 1) {
+                 shardedTests = splitShardableTests(tests, buildInfo);
+            }
+            if (shardedTests.size() > 1) {
+                shardedTestCounts.put(id, shardedTests.size());
+            }
+            for (int i = 0; i < shardedTests.size(); i++) {
+                // The last test can use the preparers of the config it came from, the others
+                // need preparers of their own.
+                IConfiguration preparerConfig = config;
+                if (i < shardedTests.size() - 1) {
+                    preparerConfig = template.newConfiguration();
+                    injectOptionsToConfig(args, preparerConfig);
                 }
-            } catch (ConfigurationException e) {
+                moduleDefs.add(new ModuleDef(name, abi, shardedTests.get(i),
+                        preparerConfig.getTargetPreparers(),
+                        preparerConfig.getConfigurationDescription()));
+            }
+        }
+        return moduleDefs;
+    }
+
+    private static List<IModuleDef> getDiscovery(Future<List<IModuleDef>> discovery,
+            File configFile) {
+        try {
+            return discovery.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while discovering modules", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConfigurationException) {
                 throw new RuntimeException(String.format("error parsing config file: %s",
-                        configFile.getName()), e);
+                        configFile.getName()), e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * A module config file that is parsed at most once for all the ABIs of the module.
+     * <p/>
+     * Configs are not guaranteed to be idempotent, so each module definition needs objects of its
+     * own. The parsed configuration is handed out to the first caller and later callers get a
+     * fresh copy, so a module running on a single ABI, the common case, is parsed exactly once.
+     */
+    private class ConfigTemplate {
+        private final String[] mPathArg;
+        private final IConfiguration mConfig;
+        private boolean mConfigUsed = false;
+
+        ConfigTemplate(File configFile) throws ConfigurationException {
+            mPathArg = new String[] { configFile.getAbsolutePath() };
+            mConfig = mConfigFactory.createConfigurationFromArgs(mPathArg);
+        }
+
+        /**
+         * @return the parsed configuration, only to be used for reading.
+         */
+        IConfiguration getConfiguration() {
+            return mConfig;
+        }
+
+        /**
+         * @return a configuration whose objects are not shared with any other caller.
+         */
+        IConfiguration newConfiguration() throws ConfigurationException {
+            if (!mConfigUsed) {
+                mConfigUsed = true;
+                return mConfig;
+            }
+            return mConfigFactory.createConfigurationFromArgs(mPathArg);
+        }
+    }
+
+    /**
+     * Load what previous invocations learned about the config files, the cache is not persisted
+     * if the suite directory cannot be found.
+     */
+    private void loadDiscoveryCache(CompatibilityBuildHelper buildHelper) {
+        try {
+            mDiscoveryCache = ModuleDiscoveryCache.load(
+                    new File(buildHelper.getDir(), ModuleDiscoveryCache.CACHE_FILE_NAME));
+            CLog.d("Loaded discovery cache of %d config files", mDiscoveryCache.size());
+        } catch (FileNotFoundException e) {
+            CLog.w("Could not load module discovery cache: %s", e.getMessage());
+            mDiscoveryCache = new ModuleDiscoveryCache(null);
+        }
+    }
+
+    /**
+     * Use the module runtimes observed in previous sessions to balance shards, modules without
+     * history fall back to their runtime hint.
+     */
+    private void loadRuntimeHistory(CompatibilityBuildHelper buildHelper) {
+        try {
+            ModuleRuntimeHistory history =
+                    ModuleRuntimeHistory.load(buildHelper.getResultsDir());
+            CLog.d("Loaded runtime history of %d modules", history.size());
+            mRuntimeEstimator = history;
+        } catch (FileNotFoundException e) {
+            CLog.w("Could not load module runtime history, using runtime hints: %s",
+                    e.getMessage());
         }
-        mExcludeFilters.clear();
-        TestRunHandler.setTestRuns(new CompatibilityBuildHelper(buildInfo), shardedTestCounts);
+    }
+
+    /**
+     * Sets the {@link IConfigurationFactory} used to parse module configs. Exposed for testing.
+     */
+    @VisibleForTesting
+    void setConfigFactory(IConfigurationFactory configFactory) {
+        mConfigFactory = configFactory;
+    }
+
+    /**
+     * Sets the {@link RuntimeEstimator} used to balance shards. Exposed for testing.
+     */
+    protected void setRuntimeEstimator(RuntimeEstimator estimator) {
+        mRuntimeEstimator = estimator;
     }
 
     /**
@@ -360,12 +546,16 @@ public class ModuleRepo implements IModuleRepo {
         return fs;
     }
 
-    protected void addModuleDef(String name, IAbi abi, IRemoteTest test, String[] configPaths)
-            throws ConfigurationException {
-        // Invokes parser to process the test module config file
-        IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
-        addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers(),
-                config.getConfigurationDescription()));
+    /*
+     * Returns the filters of the given module without modifying the filters, so that it can be
+     * called during the concurrent module discovery.
+     */
+    private static List<TestFilter> findFilter(Map<String, List<TestFilter>> filters, String id) {
+        List<TestFilter> fs = filters.get(id);
+        if (fs == null) {
+            return Collections.emptyList();
+        }
+        return fs;
     }
 
     protected void addModuleDef(IModuleDef moduleDef) {
@@ -383,8 +573,8 @@ public class ModuleRepo implements IModuleRepo {
             throw new IllegalArgumentException(String.format(
                     "Test in module %s must implement ITestFilterReceiver.", moduleId));
         }
-        List<TestFilter> mdIncludes = getFilter(mIncludeFilters, moduleId);
-        List<TestFilter> mdExcludes = getFilter(mExcludeFilters, moduleId);
+        List<TestFilter> mdIncludes = findFilter(mIncludeFilters, moduleId);
+        List<TestFilter> mdExcludes = findFilter(mExcludeFilters, moduleId);
         if (!mdIncludes.isEmpty()) {
             addTestIncludes((ITestFilterReceiver) test, mdIncludes, name);
         }
@@ -396,7 +586,15 @@ public class ModuleRepo implements IModuleRepo {
     @VisibleForTesting
     protected boolean filterByConfigMetadata(IConfiguration config,
             MultiMap<String, String> include, MultiMap<String, String> exclude) {
-        MultiMap<String, String> metadata = config.getConfigurationDescription().getAllMetaData();
+        return filterByMetadata(config.getConfigurationDescription().getAllMetaData(),
+                include, exclude);
+    }
+
+    /**
+     * Returns true if a module with the given metadata passes the metadata filters.
+     */
+    protected boolean filterByMetadata(MultiMap<String, String> metadata,
+            MultiMap<String, String> include, MultiMap<String, String> exclude) {
         boolean shouldInclude = false;
         for (String key : include.keySet()) {
             Set<String> filters = new HashSet<>(include.get(key));
@@ -435,8 +633,8 @@ public class ModuleRepo implements IModuleRepo {
     }
 
     private boolean shouldRunModule(String moduleId) {
-        List<TestFilter> mdIncludes = getFilter(mIncludeFilters, moduleId);
-        List<TestFilter> mdExcludes = getFilter(mExcludeFilters, moduleId);
+        List<TestFilter> mdIncludes = findFilter(mIncludeFilters, moduleId);
+        List<TestFilter> mdExcludes = findFilter(mExcludeFilters, moduleId);
         // if including all modules or includes exist for this module, and there are not excludes
         // for the entire module, this module should be run.
         return (mIncludeAll || !mdIncludes.isEmpty()) && !containsModuleExclude(mdExcludes);
@@ -532,10 +730,7 @@ public class ModuleRepo implements IModuleRepo {
         if (modules == null) {
             modules = new LinkedList<IModuleDef>();
         }
-        long estimatedTime = 0;
-        for (IModuleDef def : modules) {
-            estimatedTime += def.getRuntimeHint();
-        }
+        long estimatedTime = getEstimatedRuntime(modules);
 
         // FIXME: Token Modules are the only last part that is not deterministic.
         synchronized (lock) {
@@ -576,11 +771,40 @@ public class ModuleRepo implements IModuleRepo {
     }
 
     /**
-     * Helper to linearly split the list into shards with balanced runtimeHint.
+     * {@inheritDoc}
+     */
+    @Override
+    public ModuleQueue getModuleQueue() {
+        synchronized (lock) {
+            if (mModuleQueue == null) {
+                List<IModuleDef> modules = new ArrayList<>(mNonTokenModules);
+                modules.addAll(mTokenModules);
+                Collections.sort(modules, new LongestFirstComparator(mRuntimeEstimator));
+                mModuleQueue = new ModuleQueue(modules, mDeviceTokens);
+                CLog.logAndDisplay(LogLevel.INFO, "Scheduling %d test sub-modules dynamically, "
+                        + "expected to complete in %s of device time.",
+                        UniqueModuleCountUtil.countUniqueModules(modules),
+                        TimeUtil.formatElapsedTime(getEstimatedRuntime(modules)));
+            }
+            return mModuleQueue;
+        }
+    }
+
+    private long getEstimatedRuntime(List<IModuleDef> modules) {
+        long estimatedTime = 0;
+        for (IModuleDef def : modules) {
+            estimatedTime += mRuntimeEstimator.getRuntime(def);
+        }
+        return estimatedTime;
+    }
+
+    /**
+     * Helper to linearly split the list into shards with balanced estimated runtime.
      * Exposed for testing.
      */
     protected List<IModuleDef> getShard(List<IModuleDef> fullList, int shardIndex, int totalShard) {
-        List<List<IModuleDef>> res = LinearPartition.split(fullList, totalShard);
+        List<List<IModuleDef>> res =
+                LinearPartition.split(fullList, totalShard, mRuntimeEstimator);
         if (res.isEmpty()) {
             return null;
         }
@@ -665,6 +889,32 @@ public class ModuleRepo implements IModuleRepo {
         }
     }
 
+    /**
+     * Longest estimated runtime first, keeping the ending modules of
+     * {@link ExecutionOrderComparator} last and in order.
+     */
+    private static class LongestFirstComparator implements Comparator<IModuleDef> {
+        private final RuntimeEstimator mEstimator;
+
+        LongestFirstComparator(RuntimeEstimator estimator) {
+            mEstimator = estimator;
+        }
+
+        @Override
+        public int compare(IModuleDef def1, IModuleDef def2) {
+            Integer value1 = ENDING_MODULES.get(def1.getName());
+            Integer value2 = ENDING_MODULES.get(def2.getName());
+            if (value1 == null && value2 == null) {
+                int time = Long.compare(mEstimator.getRuntime(def2), mEstimator.getRuntime(def1));
+                if (time == 0) {
+                    return def1.getName().compareTo(def2.getName());
+                }
+                return time;
+            }
+            return Integer.compare(value1 == null ? 0 : value1, value2 == null ? 0 : value2);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
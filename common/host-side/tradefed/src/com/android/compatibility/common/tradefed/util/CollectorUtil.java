@@ -21,17 +21,33 @@ import com.android.compatibility.common.tradefed.targetprep.ReportLogCollector;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonWriter;
 import com.android.tradefed.util.FileUtil;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,7 +60,7 @@ public class CollectorUtil {
     }
 
     private static final String ADB_LS_PATTERN = "([^\\s]+)\\s*";
-    private static final String TEST_METRICS_PATTERN = "\\\"([a-z0-9_]*)\\\":(\\{[^{}]*\\})";
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     /**
      * Copy files from device to host.
@@ -92,6 +108,10 @@ public class CollectorUtil {
     /**
      * Reformat test metrics jsons to convert multiple json objects with identical stream names into
      * arrays of objects (b/28790467).
+     * <p/>
+     * Report logs are appended to one segment per stream, on its own line. The segments of each
+     * report log are merged into a single json object, dropping any segment cut short by a crash.
+     * The merge streams the report logs, so that memory use does not depend on their size.
      *
      * @param resultDir The directory containing test metrics.
      */
@@ -99,7 +119,7 @@ public class CollectorUtil {
         try {
             File[] reportLogs = resultDir.listFiles();
             for (File reportLog : reportLogs) {
-                writeFile(reportLog, reformatJsonString(readFile(reportLog)));
+                reformatReportLog(reportLog);
             }
         } catch (IOException e) {
             CLog.e("Caught exception during reformatting.");
@@ -108,80 +128,500 @@ public class CollectorUtil {
     }
 
     /**
-     * Helper function to read a file.
+     * Helper function to reformat a report log in place.
      *
      * @throws IOException
      */
-    private static String readFile(File file) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuilder.append(line);
+    private static void reformatReportLog(File reportLog) throws IOException {
+        File tmpFile = FileUtil.createTempFile(reportLog.getName(), ".tmp",
+                reportLog.getAbsoluteFile().getParentFile());
+        try {
+            boolean merged;
+            try (
+                    InputStream input = new FileInputStream(reportLog);
+                    OutputStream output =
+                            new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE)
+            ) {
+                merged = mergeStreams(input, output, reportLog.getName());
+            }
+            if (merged) {
+                Files.move(tmpFile.toPath(), reportLog.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
             }
+        } finally {
+            FileUtil.deleteFile(tmpFile);
         }
-        return stringBuilder.toString();
     }
 
     /**
-     * Helper function to write to a file.
+     * Helper function to reformat JSON string.
      *
-     * @param file {@link File} to write to.
-     * @param jsonString String to be written.
-     * @throws IOException
+     * @param jsonString
+     * @return the reformatted JSON string.
      */
-    private static void writeFile(File file, String jsonString) throws IOException {
-        file.createNewFile();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            writer.write(jsonString, 0, jsonString.length());
+    public static String reformatJsonString(String jsonString) {
+        ByteArrayOutputStream newJson = new ByteArrayOutputStream();
+        try {
+            InputStream input =
+                    new ByteArrayInputStream(jsonString.getBytes(StandardCharsets.UTF_8));
+            if (!mergeStreams(input, newJson, "string")) {
+                return jsonString;
+            }
+        } catch (IOException e) {
+            CLog.e("Caught exception during reformatting.");
+            CLog.e(e);
+            return jsonString;
         }
+        return new String(newJson.toByteArray(), StandardCharsets.UTF_8);
     }
 
     /**
-     * Helper function to reformat JSON string.
+     * Merges the segments of a report log into a single json object, with the objects of each
+     * stream grouped in an array.
+     * <p/>
+     * The objects are copied to a temporary file as they are read, and indexed by stream name.
+     * They are then copied back from there one stream at a time, so that only the index is kept
+     * in memory.
+     * <p/>
+     * Segments are written by a JsonWriter on the device, so the only damage expected is a
+     * segment cut short. Objects are copied byte for byte, and only checked to be complete:
+     * brackets balanced and strings terminated. Those are ASCII characters, whose bytes never
+     * appear within other characters in UTF-8, so the report log is not decoded.
      *
-     * @param jsonString
-     * @return the reformatted JSON string.
+     * @param reportLog the report log to read, in UTF-8.
+     * @param output where to write the merged report log, in UTF-8.
+     * @param name the name of the report log, for logging.
+     * @return false if the report log holds no stream, in which case nothing was written.
+     * @throws IOException
      */
-    public static String reformatJsonString(String jsonString) {
-        StringBuilder newJsonBuilder = new StringBuilder();
-        // Create map of stream names and json objects.
-        HashMap<String, List<String>> jsonMap = new HashMap<>();
-        Pattern p = Pattern.compile(TEST_METRICS_PATTERN);
-        Matcher m = p.matcher(jsonString);
-        if (!m.find()) {
-            return jsonString;
+    static boolean mergeStreams(InputStream reportLog, OutputStream output, String name)
+            throws IOException {
+        try (
+                SegmentReader segmentReader = new SegmentReader(reportLog);
+                StreamIndex streams = new StreamIndex()
+        ) {
+            while (segmentReader.nextSegment()) {
+                readSegment(segmentReader, streams, name);
+            }
+            if (streams.isEmpty()) {
+                return false;
+            }
+            streams.writeTo(output);
+            output.flush();
+            return true;
         }
-        do {
-            String key = m.group(1);
-            String value = m.group(2);
-            if (!jsonMap.containsKey(key)) {
-                jsonMap.put(key, new ArrayList<String>());
-            }
-            jsonMap.get(key).add(value);
-        } while (m.find());
-        // Rewrite json string as arrays.
-        newJsonBuilder.append("{");
-        boolean firstLine = true;
-        for (String key : jsonMap.keySet()) {
-            if (!firstLine) {
-                newJsonBuilder.append(",");
-            } else {
-                firstLine = false;
-            }
-            newJsonBuilder.append("\"").append(key).append("\":[");
-            boolean firstValue = true;
-            for (String stream : jsonMap.get(key)) {
-                if (!firstValue) {
-                    newJsonBuilder.append(",");
+    }
+
+    /**
+     * Helper function to add the streams of a segment to the index. Streams are added as soon as
+     * they are read, so that a segment cut short only loses its incomplete stream.
+     */
+    private static void readSegment(SegmentReader reader, StreamIndex streams, String name)
+            throws IOException {
+        try {
+            reader.expect('{');
+            if (reader.peek() == '}') {
+                return;
+            }
+            do {
+                String streamName = reader.nextName();
+                if (reader.peek() == '{') {
+                    streams.add(streamName, reader);
                 } else {
-                    firstValue = false;
+                    // Metrics of a stream are always an object
+                    reader.copyValue(null);
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        } catch (StreamIndex.SpillException e) {
+            throw e.getCause();
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            // JsonReader throws the unchecked ones for a malformed name
+            CLog.w("Dropping incomplete segment of report log %s: %s", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a report log one line at a time, each line holding a segment.
+     */
+    private static class SegmentReader implements Closeable {
+        private final InputStream mIn;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mPos = 0;
+        private int mLimit = 0;
+        private boolean mEndOfSegment = true;
+        private byte[] mClosers = new byte[32];
+
+        SegmentReader(InputStream in) {
+            mIn = in;
+        }
+
+        /**
+         * Skips what is left of the current segment and starts reading the next one.
+         *
+         * @return false if there are no more segments.
+         */
+        boolean nextSegment() throws IOException {
+            while (read() >= 0) {
+                // Skip
+            }
+            mEndOfSegment = false;
+            return fill();
+        }
+
+        /**
+         * @return the next byte of the segment that is not whitespace, without consuming it, or
+         * -1 at the end of the segment.
+         */
+        int peek() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c == ' ' || c == '\t' || c == '\r');
+            if (c >= 0) {
+                mPos--;
+            }
+            return c;
+        }
+
+        /**
+         * Consumes the next byte that is not whitespace if it is {@code expected}.
+         */
+        boolean consume(char expected) throws IOException {
+            if (peek() != expected) {
+                return false;
+            }
+            mPos++;
+            return true;
+        }
+
+        void expect(char expected) throws IOException {
+            if (!consume(expected)) {
+                throw new IOException(String.format("Expected '%c'", expected));
+            }
+        }
+
+        /**
+         * Reads the name of a member, and the separator that follows it.
+         */
+        String nextName() throws IOException {
+            if (peek() != '"') {
+                throw new IOException("Expected a name");
+            }
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            copyValue(name);
+            expect(':');
+            String quotedName = name.toString(StandardCharsets.UTF_8.name());
+            if (quotedName.indexOf('\\') < 0) {
+                return quotedName.substring(1, quotedName.length() - 1);
+            }
+            // Let JsonReader unescape the name, this is rare enough not to matter
+            JsonReader reader = new JsonReader(new StringReader("[" + quotedName + "]"));
+            reader.beginArray();
+            return reader.nextString();
+        }
+
+        /**
+         * Copies the next value, and all nested values, as they were written.
+         *
+         * @param out where to copy the value, or null to skip it.
+         * @throws IOException if the value is incomplete, or if the output could not be written.
+         */
+        void copyValue(OutputStream out) throws IOException {
+            peek();
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            while (true) {
+                if (mEndOfSegment || !fill()) {
+                    mEndOfSegment = true;
+                    if (depth > 0 || inString) {
+                        throw new IOException("Unterminated value");
+                    }
+                    return;
+                }
+                // Scan the buffer in place, and copy what was scanned at once
+                boolean complete = false;
+                int pos = mPos;
+                scan:
+                for (; pos < mLimit; pos++) {
+                    byte c = mBuffer[pos];
+                    if (c == '\n') {
+                        complete = depth == 0 && !inString;
+                        break;
+                    } else if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (c == '\\') {
+                            escaped = true;
+                        } else if (c == '"') {
+                            inString = false;
+                            if (depth == 0) {
+                                pos++;
+                                complete = true;
+                                break;
+                            }
+                        }
+                        continue;
+                    }
+                    switch (c) {
+                        case '{':
+                        case '[':
+                            if (depth == mClosers.length) {
+                                mClosers = Arrays.copyOf(mClosers, depth * 2);
+                            }
+                            mClosers[depth++] = (byte) (c == '{' ? '}' : ']');
+                            break;
+                        case '}':
+                        case ']':
+                            if (depth == 0) {
+                                // The end of the enclosing value
+                                complete = true;
+                                break scan;
+                            }
+                            if (mClosers[--depth] != c) {
+                                throw new IOException("Mismatched '" + (char) c + "'");
+                            }
+                            if (depth == 0) {
+                                pos++;
+                                complete = true;
+                                break scan;
+                            }
+                            break;
+                        case '"':
+                            inString = true;
+                            break;
+                        case ',':
+                        case ' ':
+                        case '\t':
+                        case '\r':
+                            if (depth == 0) {
+                                // The end of a number or a literal
+                                complete = true;
+                                break scan;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                if (out != null) {
+                    out.write(mBuffer, mPos, pos - mPos);
+                }
+                mPos = pos;
+                if (complete) {
+                    return;
+                } else if (mPos < mLimit) {
+                    // The segment ended within the value
+                    mPos++;
+                    mEndOfSegment = true;
+                    throw new IOException("Unterminated value");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        /**
+         * @return the next byte of the segment, or -1 at the end of the segment.
+         */
+        private int read() throws IOException {
+            if (mEndOfSegment || !fill()) {
+                mEndOfSegment = true;
+                return -1;
+            }
+            int c = mBuffer[mPos++] & 0xff;
+            if (c == '\n') {
+                mEndOfSegment = true;
+                return -1;
+            }
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            if (mPos < mLimit) {
+                return true;
+            }
+            int count;
+            do {
+                count = mIn.read(mBuffer);
+            } while (count == 0);
+            if (count < 0) {
+                return false;
+            }
+            mPos = 0;
+            mLimit = count;
+            return true;
+        }
+    }
+
+    /**
+     * The objects of each stream, stored in a temporary file in the order they were read. The
+     * objects are copied to the file by writing to the index.
+     */
+    private static class StreamIndex extends OutputStream {
+        private final File mFile;
+        private final FileChannel mChannel;
+        private final Map<String, Stream> mStreams = new HashMap<>();
+        // What is not yet written to the temporary file, which then ends at mFlushed
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mCount = 0;
+        private long mFlushed = 0;
+
+        /** An {@link IOException} writing the temporary file, as opposed to reading a segment. */
+        static class SpillException extends IOException {
+            private static final long serialVersionUID = 1L;
+
+            SpillException(IOException cause) {
+                super(cause);
+            }
+
+            @Override
+            public synchronized IOException getCause() {
+                return (IOException) super.getCause();
+            }
+        }
+
+        /** The encoded name of a stream and where its objects are in the temporary file. */
+        private static class Stream {
+            final byte[] mEncodedName;
+            long[] mRanges = new long[8];
+            int mSize = 0;
+
+            Stream(String name) throws IOException {
+                // Let JsonWriter escape the name, as it is followed by a value in the output
+                StringWriter encodedName = new StringWriter();
+                new JsonWriter(encodedName).beginObject().name(name).value(0L);
+                String member = encodedName.toString();
+                mEncodedName = member.substring(1, member.length() - 1)
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+
+            void add(long start, long end) {
+                if (mSize == mRanges.length) {
+                    mRanges = Arrays.copyOf(mRanges, mSize * 2);
+                }
+                mRanges[mSize++] = start;
+                mRanges[mSize++] = end;
+            }
+        }
+
+        StreamIndex() throws IOException {
+            mFile = FileUtil.createTempFile("report-log", ".streams");
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        }
+
+        boolean isEmpty() {
+            return mStreams.isEmpty();
+        }
+
+        /**
+         * Copies the next object from the reader. Nothing is added if the object is incomplete.
+         */
+        void add(String streamName, SegmentReader reader) throws IOException {
+            long start = mFlushed + mCount;
+            try {
+                reader.copyValue(this);
+            } catch (SpillException e) {
+                throw e;
+            } catch (IOException e) {
+                // Discard what was copied
+                if (start >= mFlushed) {
+                    mCount = (int) (start - mFlushed);
+                } else {
+                    mCount = 0;
+                    mFlushed = start;
+                    try {
+                        mChannel.truncate(start);
+                    } catch (IOException spillError) {
+                        throw new SpillException(spillError);
+                    }
+                }
+                throw e;
+            }
+            Stream stream = mStreams.get(streamName);
+            if (stream == null) {
+                stream = new Stream(streamName);
+                mStreams.put(streamName, stream);
+            }
+            stream.add(start, mFlushed + mCount);
+        }
+
+        @Override
+        public void write(int b) throws SpillException {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws SpillException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    flushBuffer();
+                }
+                int count = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, count);
+                mCount += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * Writes the streams as a JSON object, holding the objects of each stream in an array.
+         * The objects are already encoded, so they are copied from the temporary file as is.
+         */
+        void writeTo(OutputStream output) throws IOException {
+            flushBuffer();
+            WritableByteChannel outputChannel = Channels.newChannel(output);
+            output.write('{');
+            boolean firstStream = true;
+            for (Stream stream : mStreams.values()) {
+                if (!firstStream) {
+                    output.write(',');
+                }
+                firstStream = false;
+                output.write(stream.mEncodedName);
+                output.write('[');
+                for (int i = 0; i < stream.mSize; i += 2) {
+                    if (i > 0) {
+                        output.write(',');
+                    }
+                    long position = stream.mRanges[i];
+                    long end = stream.mRanges[i + 1];
+                    while (position < end) {
+                        position += mChannel.transferTo(position, end - position, outputChannel);
+                    }
+                }
+                output.write(']');
+            }
+            output.write('}');
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mChannel.close();
+            } finally {
+                FileUtil.deleteFile(mFile);
+            }
+        }
+
+        private void flushBuffer() throws SpillException {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(mBuffer, 0, mCount);
+                while (buffer.hasRemaining()) {
+                    mFlushed += mChannel.write(buffer, mFlushed);
                 }
-                newJsonBuilder.append(stream);
+            } catch (IOException e) {
+                throw new SpillException(e);
             }
-            newJsonBuilder.append("]");
+            mCount = 0;
         }
-        newJsonBuilder.append("}");
-        return newJsonBuilder.toString();
     }
 }
@@ -27,6 +27,21 @@ import java.util.List;
  */
 public class LinearPartition {
 
+    /**
+     * Provides the expected runtime of a module, used as its weight when splitting.
+     */
+    public interface RuntimeEstimator {
+        long getRuntime(IModuleDef module);
+    }
+
+    /** Estimates the runtime of a module with its runtime hint. */
+    public static final RuntimeEstimator RUNTIME_HINT = new RuntimeEstimator() {
+        @Override
+        public long getRuntime(IModuleDef module) {
+            return module.getRuntimeHint();
+        }
+    };
+
     /**
      * Split a list of {@link IModuleDef} into k sub list based on the runtime hint.
      *
@@ -35,6 +50,19 @@ public class LinearPartition {
      * @return the List of sublist.
      */
     public static List<List<IModuleDef>> split(List<IModuleDef> seq, int k) {
+        return split(seq, k, RUNTIME_HINT);
+    }
+
+    /**
+     * Split a list of {@link IModuleDef} into k sub list based on the estimated runtime.
+     *
+     * @param seq the full list of {@link IModuleDef} to be splitted
+     * @param k the number of sub list we need.
+     * @param estimator the {@link RuntimeEstimator} providing the runtime of each module.
+     * @return the List of sublist.
+     */
+    public static List<List<IModuleDef>> split(List<IModuleDef> seq, int k,
+            RuntimeEstimator estimator) {
         ArrayList<List<IModuleDef>> result = new ArrayList<>();
 
         if (k <= 0) {
@@ -55,7 +83,7 @@ public class LinearPartition {
             return result;
         }
 
-        int[][] table = buildPartitionTable(seq, k);
+        int[][] table = buildPartitionTable(seq, k, estimator);
         k = k - 2;
 
         while (k >= 0) {
@@ -84,17 +112,18 @@ public class LinearPartition {
     /**
      * Internal helper to build the partition table of the linear distribution used for splitting.
      */
-    private static int[][] buildPartitionTable(List<IModuleDef> seq, int k) {
+    private static int[][] buildPartitionTable(List<IModuleDef> seq, int k,
+            RuntimeEstimator estimator) {
         int n = seq.size();
         float[][] table = new float[n][k];
         int[][] solution = new int[n - 1][k - 1];
 
         for (int i = 0; i < n; i++) {
-            table[i][0] = seq.get(i).getRuntimeHint() + ((i > 0) ? (table[i - 1][0]) : 0);
+            table[i][0] = estimator.getRuntime(seq.get(i)) + ((i > 0) ? (table[i - 1][0]) : 0);
         }
 
         for (int j = 0; j < k; j++) {
-            table[0][j] = seq.get(0).getRuntimeHint();
+            table[0][j] = table[0][0];
         }
 
         for (int i = 1; i < n; i++) {
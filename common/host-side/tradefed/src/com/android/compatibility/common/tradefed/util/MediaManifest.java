@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The size and content hash of media files, keyed by their path relative to the media directory.
+ * <p/>
+ * A manifest is kept next to the media files on the host, so that they are only hashed again when
+ * their size or last modification time changes, and another one on the device listing the files
+ * known to have been pushed completely. Comparing both tells which files need to be pushed.
+ * <p/>
+ * Manifests are stored as text, one file per line: "hash size lastModified path".
+ */
+public class MediaManifest {
+
+    public static final String FILE_NAME = "media_manifest.txt";
+
+    private static final String HEADER = "# media manifest v1";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The size, last modification time on the host and content hash of a media file. */
+    public static class Entry {
+        private final String mHash;
+        private final long mSize;
+        private final long mLastModified;
+
+        Entry(String hash, long size, long lastModified) {
+            mHash = hash;
+            mSize = size;
+            mLastModified = lastModified;
+        }
+
+        public String getHash() {
+            return mHash;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return true if both entries describe the same content.
+         */
+        public boolean hasSameContent(Entry other) {
+            return other != null && mSize == other.mSize && mHash.equals(other.mHash);
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new TreeMap<>();
+
+    /**
+     * Parses a manifest. Lines that are not entries, such as the output of a failed shell
+     * command, are ignored.
+     */
+    public static MediaManifest parse(String content) {
+        MediaManifest manifest = new MediaManifest();
+        if (content == null) {
+            return manifest;
+        }
+        for (String line : content.split("\r?\n")) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(" ", 4);
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                manifest.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                // Not an entry
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Loads a manifest from a file.
+     *
+     * @return the manifest, empty if the file does not exist or cannot be read.
+     */
+    public static MediaManifest load(File file) {
+        if (!file.exists()) {
+            return new MediaManifest();
+        }
+        try {
+            return parse(FileUtil.readStringFromFile(file));
+        } catch (IOException e) {
+            CLog.w("Ignoring unreadable media manifest %s: %s", file.getPath(), e);
+            return new MediaManifest();
+        }
+    }
+
+    /**
+     * Computes the manifest of the files in the given directories of the media directory.
+     * <p/>
+     * Files whose size and last modification time match their entry in the previous manifest
+     * are not hashed again.
+     *
+     * @param mediaDir the media directory, that paths are relative to.
+     * @param dirs the directories to list, relative to the media directory.
+     * @param previous a previous manifest of the media directory.
+     * @throws IOException if a file cannot be read.
+     */
+    public static MediaManifest create(File mediaDir, Collection<String> dirs,
+            MediaManifest previous) throws IOException {
+        MediaManifest manifest = new MediaManifest();
+        for (String dir : dirs) {
+            addFiles(mediaDir, dir, previous, manifest);
+        }
+        return manifest;
+    }
+
+    private static void addFiles(File mediaDir, String path, MediaManifest previous,
+            MediaManifest manifest) throws IOException {
+        File file = new File(mediaDir, path);
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            if (children == null) {
+                throw new IOException(String.format("Could not read directory %s",
+                        file.getAbsolutePath()));
+            }
+            Arrays.sort(children);
+            for (String child : children) {
+                addFiles(mediaDir, path + "/" + child, previous, manifest);
+            }
+        } else if (file.isFile()) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            Entry entry = previous.get(path);
+            if (entry == null || entry.mSize != size || entry.mLastModified != lastModified) {
+                entry = new Entry(hash(file), size, lastModified);
+            }
+            manifest.put(path, entry);
+        }
+    }
+
+    /**
+     * Saves the manifest to a file, replacing it atomically. Failing to save is not an error, the
+     * files are then hashed again the next time.
+     */
+    public void save(File file) {
+        File tmpFile = null;
+        try {
+            tmpFile = FileUtil.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+            FileUtil.writeToFile(toString(), tmpFile);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CLog.w("Could not save media manifest %s: %s", file.getPath(), e);
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    /**
+     * @return the entry of the given path, or null if there is none.
+     */
+    public Entry get(String path) {
+        return mEntries.get(path);
+    }
+
+    public void put(String path, Entry entry) {
+        mEntries.put(path, entry);
+    }
+
+    public void remove(String path) {
+        mEntries.remove(path);
+    }
+
+    /**
+     * @return the paths of the manifest, in order.
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            Entry value = entry.getValue();
+            builder.append(value.mHash).append(' ')
+                    .append(value.mSize).append(' ')
+                    .append(value.mLastModified).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b & 0xff));
+        }
+        return hash.toString();
+    }
+}
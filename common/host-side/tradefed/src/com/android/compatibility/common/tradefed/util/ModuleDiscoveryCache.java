@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.MultiMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent cache of what was learned from parsing module config files: their metadata and
+ * their runtime hint.
+ * <p/>
+ * Entries are keyed by the path of the config file and are only valid while the size and last
+ * modification time of the file, and the content hash of the file and of the configs it
+ * includes, are unchanged. A modified testcases directory is therefore picked up without any
+ * explicit invalidation. The cache is safe to use from multiple threads.
+ */
+public class ModuleDiscoveryCache {
+
+    public static final String CACHE_FILE_NAME = "module_discovery_cache.bin";
+
+    // Bump whenever the file format or the content of a summary changes
+    private static final int VERSION = 2;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    // Runtime hint of tests that do not provide one
+    private static final long DEFAULT_RUNTIME_HINT = TimeUnit.MINUTES.toMillis(1);
+    // The configs included by a config, and the default configs of its template includes
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile(
+            "<include\\s[^>]*name\\s*=\\s*\"([^\"]+)\"");
+    private static final Pattern TEMPLATE_INCLUDE_PATTERN = Pattern.compile(
+            "<template-include\\s[^>]*default\\s*=\\s*\"([^\"]+)\"");
+    // Where the trade federation bundles configs in its jars
+    private static final String BUNDLED_CONFIG_FORMAT = "/config/%s.xml";
+
+    /**
+     * What is known about a module config file without parsing it again.
+     */
+    public static class ConfigSummary {
+        private final long mSize;
+        private final long mLastModified;
+        private final byte[] mHash;
+        private final long mRuntimeHint;
+        private final MultiMap<String, String> mMetadata;
+
+        ConfigSummary(long size, long lastModified, byte[] hash, long runtimeHint,
+                MultiMap<String, String> metadata) {
+            mSize = size;
+            mLastModified = lastModified;
+            mHash = hash;
+            mRuntimeHint = runtimeHint;
+            mMetadata = metadata;
+        }
+
+        /**
+         * @return the sum of the runtime hints of the tests of the config, in milliseconds.
+         */
+        public long getRuntimeHint() {
+            return mRuntimeHint;
+        }
+
+        /**
+         * @return the metadata of the config.
+         */
+        public MultiMap<String, String> getMetadata() {
+            return mMetadata;
+        }
+    }
+
+    private final File mCacheFile;
+    private final Map<String, ConfigSummary> mSummaries = new ConcurrentHashMap<>();
+    private volatile boolean mModified = false;
+
+    /**
+     * Creates an empty cache persisted to the given file, or not persisted at all if null.
+     */
+    public ModuleDiscoveryCache(File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    /**
+     * Loads the cache from the given file. A missing, outdated or corrupted file results in an
+     * empty cache that replaces the file when saved.
+     */
+    public static ModuleDiscoveryCache load(File cacheFile) {
+        ModuleDiscoveryCache cache = new ModuleDiscoveryCache(cacheFile);
+        if (!cacheFile.exists()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != VERSION) {
+                CLog.d("Ignoring module discovery cache of a different version");
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                byte[] hash = new byte[in.readInt()];
+                in.readFully(hash);
+                long runtimeHint = in.readLong();
+                MultiMap<String, String> metadata = new MultiMap<>();
+                int metadataCount = in.readInt();
+                for (int j = 0; j < metadataCount; j++) {
+                    metadata.put(in.readUTF(), in.readUTF());
+                }
+                cache.mSummaries.put(path, new ConfigSummary(size, lastModified, hash,
+                        runtimeHint, metadata));
+            }
+        } catch (IOException e) {
+            CLog.w("Ignoring unreadable module discovery cache %s: %s",
+                    cacheFile.getAbsolutePath(), e.getMessage());
+            cache.mSummaries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the summary of the given config file, or null if the file is not in the cache or
+     * changed since it was added.
+     */
+    public ConfigSummary get(File configFile) {
+        ConfigSummary summary = mSummaries.get(configFile.getAbsolutePath());
+        if (summary == null || summary.mSize != configFile.length()
+                || summary.mLastModified != configFile.lastModified()) {
+            return null;
+        }
+        try {
+            // Size and modification time may not change with a quick edit, and an included
+            // config may change on its own, the hash covers both
+            if (!Arrays.equals(summary.mHash, hash(configFile))) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return summary;
+    }
+
+    /**
+     * Adds the summary of a config file parsed into the given configuration.
+     *
+     * @return the summary added, or null if the config file could not be read
+     */
+    public ConfigSummary put(File configFile, IConfiguration config) {
+        long size = configFile.length();
+        long lastModified = configFile.lastModified();
+        byte[] hash;
+        try {
+            hash = hash(configFile);
+        } catch (IOException e) {
+            CLog.w("Not caching %s: %s", configFile.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+        long runtimeHint = 0;
+        for (IRemoteTest test : config.getTests()) {
+            if (test instanceof IRuntimeHintProvider) {
+                runtimeHint += ((IRuntimeHintProvider) test).getRuntimeHint();
+            } else {
+                runtimeHint += DEFAULT_RUNTIME_HINT;
+            }
+        }
+        MultiMap<String, String> metadata = new MultiMap<>();
+        MultiMap<String, String> configMetadata =
+                config.getConfigurationDescription().getAllMetaData();
+        for (String key : configMetadata.keySet()) {
+            for (String value : configMetadata.get(key)) {
+                metadata.put(key, value);
+            }
+        }
+        ConfigSummary summary = new ConfigSummary(size, lastModified, hash, runtimeHint,
+                metadata);
+        mSummaries.put(configFile.getAbsolutePath(), summary);
+        mModified = true;
+        return summary;
+    }
+
+    /**
+     * @return the number of config files in the cache, including ones that may have changed.
+     */
+    public int size() {
+        return mSummaries.size();
+    }
+
+    /**
+     * Writes the cache to its file if entries were added since it was loaded. The file is
+     * replaced atomically so that concurrent invocations never read a partial cache.
+     */
+    public void save() {
+        if (mCacheFile == null || !mModified) {
+            return;
+        }
+        File tmpFile = null;
+        try {
+            mCacheFile.getParentFile().mkdirs();
+            tmpFile = FileUtil.createTempFile(CACHE_FILE_NAME, ".tmp",
+                    mCacheFile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(VERSION);
+                out.writeInt(mSummaries.size());
+                for (Map.Entry<String, ConfigSummary> entry : mSummaries.entrySet()) {
+                    ConfigSummary summary = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(summary.mSize);
+                    out.writeLong(summary.mLastModified);
+                    out.writeInt(summary.mHash.length);
+                    out.write(summary.mHash);
+                    out.writeLong(summary.mRuntimeHint);
+                    // Metadata is written as key-value pairs, a key may have several values
+                    List<String> metadata = new ArrayList<>();
+                    for (String key : summary.mMetadata.keySet()) {
+                        for (String value : summary.mMetadata.get(key)) {
+                            metadata.add(key);
+                            metadata.add(value);
+                        }
+                    }
+                    out.writeInt(metadata.size() / 2);
+                    for (String s : metadata) {
+                        out.writeUTF(s);
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), mCacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mModified = false;
+        } catch (IOException e) {
+            CLog.w("Could not save module discovery cache: %s", e.getMessage());
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    /**
+     * Returns the hash of a config file and of the configs it includes, directly or not.
+     */
+    private static byte[] hash(File configFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] content = Files.readAllBytes(configFile.toPath());
+        digest.update(content);
+        hashIncludes(content, configFile.getParentFile(), digest, new HashSet<String>());
+        return digest.digest();
+    }
+
+    private static void hashIncludes(byte[] content, File configDir, MessageDigest digest,
+            Set<String> hashed) throws IOException {
+        String xml = new String(content, StandardCharsets.UTF_8);
+        List<String> names = new ArrayList<>();
+        for (Pattern pattern : new Pattern[] {INCLUDE_PATTERN, TEMPLATE_INCLUDE_PATTERN}) {
+            Matcher matcher = pattern.matcher(xml);
+            while (matcher.find()) {
+                names.add(matcher.group(1));
+            }
+        }
+        for (String name : names) {
+            if (!hashed.add(name)) {
+                continue;
+            }
+            // The name is part of the hash so that an include that cannot be found still
+            // invalidates the entry when it is renamed
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            byte[] included = readIncluded(name, configDir);
+            if (included != null) {
+                digest.update(included);
+                hashIncludes(included, configDir, digest, hashed);
+            }
+        }
+    }
+
+    /**
+     * Reads an included config the way the trade federation finds it: as a file, or as a config
+     * bundled in a jar.
+     *
+     * @return the content of the config, or null if it cannot be found
+     */
+    private static byte[] readIncluded(String name, File configDir) throws IOException {
+        for (File file : new File[] {new File(name), new File(configDir, name)}) {
+            if (file.isFile()) {
+                return Files.readAllBytes(file.toPath());
+            }
+        }
+        try (InputStream in = ModuleDiscoveryCache.class.getResourceAsStream(
+                String.format(BUNDLED_CONFIG_FORMAT, name))) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
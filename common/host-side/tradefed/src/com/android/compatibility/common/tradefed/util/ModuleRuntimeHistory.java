@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.tradefed.testtype.IModuleDef;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ResultHandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtimes of modules observed in previous sessions, used to estimate how long a module will
+ * take to run. Modules without history are estimated with their runtime hint.
+ */
+public class ModuleRuntimeHistory implements LinearPartition.RuntimeEstimator {
+
+    /** Number of most recent sessions runtimes are collected from. */
+    public static final int MAX_SESSIONS = 20;
+
+    /**
+     * Percentile of the observed runtimes used as estimate. Slightly above the median, so that
+     * modules that occasionally run long are not packed into the same shard.
+     */
+    public static final int DEFAULT_PERCENTILE = 75;
+
+    private final Map<String, List<Long>> mRuntimes = new HashMap<>();
+    private final int mPercentile;
+
+    /**
+     * Creates an empty history, estimating the given percentile of the runtimes once added.
+     */
+    public ModuleRuntimeHistory(int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid percentile %d", percentile));
+        }
+        mPercentile = percentile;
+    }
+
+    /**
+     * Loads the runtimes of completed modules from the most recent sessions in the given results
+     * directory. Only the result summary of each session is read.
+     */
+    public static ModuleRuntimeHistory load(File resultsDir) {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(DEFAULT_PERCENTILE);
+        List<IInvocationResult> results = ResultHandler.getLightResults(resultsDir);
+        // Results are sorted by start time, keep the most recent ones
+        for (IInvocationResult result : results.subList(
+                Math.max(0, results.size() - MAX_SESSIONS), results.size())) {
+            history.addSession(result);
+        }
+        return history;
+    }
+
+    /**
+     * Adds the runtimes of the completed modules of a session. Runtimes of modules that were not
+     * completed only cover part of the module and are ignored.
+     */
+    public void addSession(IInvocationResult result) {
+        for (IModuleResult module : result.getModules()) {
+            if (module.isDone()) {
+                addRuntime(module.getId(), module.getRuntime());
+            }
+        }
+    }
+
+    /**
+     * Adds an observed runtime of the module with the given id.
+     */
+    public void addRuntime(String moduleId, long runtime) {
+        if (runtime <= 0) {
+            return;
+        }
+        List<Long> runtimes = mRuntimes.get(moduleId);
+        if (runtimes == null) {
+            runtimes = new ArrayList<>();
+            mRuntimes.put(moduleId, runtimes);
+        }
+        runtimes.add(runtime);
+    }
+
+    /**
+     * @return true if a runtime has been observed for the module with the given id.
+     */
+    public boolean hasRuntime(String moduleId) {
+        return mRuntimes.containsKey(moduleId);
+    }
+
+    /**
+     * @return the number of modules with observed runtimes.
+     */
+    public int size() {
+        return mRuntimes.size();
+    }
+
+    /**
+     * Returns the estimated runtime of the module with the given id, or the given fallback if
+     * no runtime has been observed.
+     */
+    public long getRuntime(String moduleId, long fallback) {
+        List<Long> runtimes = mRuntimes.get(moduleId);
+        if (runtimes == null) {
+            return fallback;
+        }
+        List<Long> sorted = new ArrayList<>(runtimes);
+        Collections.sort(sorted);
+        // Nearest-rank percentile
+        int rank = (int) Math.ceil(mPercentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRuntime(IModuleDef module) {
+        return getRuntime(module.getId(), module.getRuntimeHint());
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Creates zip files like {@link com.android.tradefed.util.ZipUtil#createZip(File, File)}, with
+ * the entries compressed concurrently.
+ * <p/>
+ * Worker threads compress a bounded window of entries ahead of the writer, which appends them to
+ * the zip in directory order. Content that is already compressed, such as gzipped logs, images
+ * or nested zips, is stored as is. Compressed entries are kept in memory when small and spilled
+ * to temporary files otherwise, so that memory use does not depend on the size of the directory.
+ */
+public class ParallelZipUtil {
+
+    // Entries with these extensions would hardly shrink, so are stored without compression
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "gz", "tgz", "zip", "jar", "apk", "png", "jpg", "jpeg", "gif", "webp", "mp4", "webm",
+            "3gp", "bz2", "xz", "7z"));
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Larger compressed entries are written to a temporary file instead of kept in memory
+    private static final int MEMORY_THRESHOLD = 1024 * 1024;
+    // Number of entries compressed ahead of the writer, per thread
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private ParallelZipUtil() {}
+
+    /**
+     * Creates a zip of the given directory, with entries relative to its parent directory.
+     *
+     * @param sourceDir the directory to zip
+     * @param zipFile the zip file to create
+     * @param threads the number of threads compressing entries
+     */
+    public static void createZip(File sourceDir, File zipFile, int threads) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        listEntries(sourceDir, new LinkedList<String>(), entries);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        LinkedList<Future<CompressedEntry>> pending = new LinkedList<>();
+        int window = Math.max(1, threads) * WINDOW_PER_THREAD;
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zipFile)) {
+            // Multi-GB results exceed the limits of the original zip format
+            out.setUseZip64(Zip64Mode.AsNeeded);
+            int next = 0;
+            for (int written = 0; written < entries.size(); written++) {
+                while (next < entries.size() && pending.size() < window) {
+                    Entry toCompress = entries.get(next++);
+                    pending.add(executor.submit(() -> compress(toCompress)));
+                }
+                CompressedEntry compressed = getResult(pending.removeFirst());
+                try (InputStream raw = compressed.openRaw()) {
+                    out.addRawArchiveEntry(compressed.mEntry, raw);
+                } finally {
+                    compressed.delete();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // Delete what was compressed but never written because of a failure
+            for (Future<CompressedEntry> future : pending) {
+                if (!future.cancel(true)) {
+                    try {
+                        getResult(future).delete();
+                    } catch (IOException e) {
+                        // Nothing to delete
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Convenience method to zip a directory with one thread per processor.
+     */
+    public static void createZip(File sourceDir, File zipFile) throws IOException {
+        createZip(sourceDir, zipFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return true if the content of the given file is likely already compressed.
+     */
+    static boolean isCompressed(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0
+                && STORED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /** A file or directory to add to the zip. */
+    private static class Entry {
+        final File mFile;
+        final String mName;
+
+        Entry(File file, String name) {
+            mFile = file;
+            mName = name;
+        }
+    }
+
+    /** The raw content of an entry, ready to be written to the zip. */
+    private static class CompressedEntry {
+        final ZipArchiveEntry mEntry;
+        // Exactly one of these holds the raw content, none for directories
+        byte[] mData;
+        File mTempFile;
+        File mStoredFile;
+
+        CompressedEntry(ZipArchiveEntry entry) {
+            mEntry = entry;
+        }
+
+        InputStream openRaw() throws IOException {
+            if (mTempFile != null) {
+                return new BufferedInputStream(new FileInputStream(mTempFile), BUFFER_SIZE);
+            } else if (mStoredFile != null) {
+                return new BufferedInputStream(new FileInputStream(mStoredFile), BUFFER_SIZE);
+            }
+            return new ByteArrayInputStream(mData != null ? mData : new byte[0]);
+        }
+
+        void delete() {
+            FileUtil.deleteFile(mTempFile);
+            mTempFile = null;
+        }
+    }
+
+    /**
+     * Lists the entries of a file or directory tree, directories before their content, in the
+     * same way as ZipUtil.
+     */
+    private static void listEntries(File file, LinkedList<String> relativePathSegs,
+            List<Entry> entries) throws IOException {
+        relativePathSegs.add(file.getName());
+        if (file.isDirectory()) {
+            // ZipEntry expects '/' as a path separator
+            relativePathSegs.add("/");
+        }
+        entries.add(new Entry(file, buildPath(relativePathSegs)));
+        if (file.isDirectory()) {
+            File[] subFiles = file.listFiles();
+            if (subFiles == null) {
+                throw new IOException(String.format("Could not read directory %s",
+                        file.getAbsolutePath()));
+            }
+            Arrays.sort(subFiles);
+            for (File subFile : subFiles) {
+                listEntries(subFile, relativePathSegs, entries);
+            }
+            relativePathSegs.removeLast();
+        }
+        relativePathSegs.removeLast();
+    }
+
+    private static String buildPath(List<String> pathSegs) {
+        StringBuilder builder = new StringBuilder();
+        for (String segment : pathSegs) {
+            builder.append(segment);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Computes the raw content of an entry and its CRC. Stored files are only read for their CRC
+     * and are copied to the zip as is by the writer.
+     */
+    private static CompressedEntry compress(Entry entry) throws IOException {
+        ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.mName);
+        zipEntry.setTime(entry.mFile.lastModified());
+        CompressedEntry compressed = new CompressedEntry(zipEntry);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        if (entry.mFile.isDirectory()) {
+            zipEntry.setMethod(ZipArchiveEntry.STORED);
+            zipEntry.setSize(0);
+            zipEntry.setCompressedSize(0);
+            zipEntry.setCrc(0);
+        } else if (isCompressed(entry.mName)) {
+            long size = 0;
+            try (InputStream input = new FileInputStream(entry.mFile)) {
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                }
+            }
+            zipEntry.setMethod(ZipArchiveEntry.STORED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(size);
+            zipEntry.setCrc(crc.getValue());
+            compressed.mStoredFile = entry.mFile;
+        } else {
+            long size = 0;
+            // Raw deflate data, the zip headers are written with the entry
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            ByteArrayOutputStream memoryOutput = new ByteArrayOutputStream();
+            try (InputStream input = new FileInputStream(entry.mFile);
+                    OutputStream output = new DeflaterOutputStream(
+                            new SpillingOutputStream(compressed, memoryOutput), deflater,
+                            BUFFER_SIZE)) {
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                    output.write(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                compressed.delete();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            if (compressed.mTempFile == null) {
+                compressed.mData = memoryOutput.toByteArray();
+            }
+            zipEntry.setMethod(ZipArchiveEntry.DEFLATED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(compressed.mTempFile != null
+                    ? compressed.mTempFile.length() : compressed.mData.length);
+            zipEntry.setCrc(crc.getValue());
+        }
+        return compressed;
+    }
+
+    /**
+     * Writes to memory until {@link #MEMORY_THRESHOLD} is reached, then moves what was written to
+     * a temporary file of the entry and continues there.
+     */
+    private static class SpillingOutputStream extends OutputStream {
+        private final CompressedEntry mEntry;
+        private final ByteArrayOutputStream mMemoryOutput;
+        private OutputStream mFileOutput;
+
+        SpillingOutputStream(CompressedEntry entry, ByteArrayOutputStream memoryOutput) {
+            mEntry = entry;
+            mMemoryOutput = memoryOutput;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mFileOutput == null && mMemoryOutput.size() + len > MEMORY_THRESHOLD) {
+                mEntry.mTempFile = FileUtil.createTempFile("zip-entry", ".deflate");
+                mFileOutput = new BufferedOutputStream(
+                        new FileOutputStream(mEntry.mTempFile), BUFFER_SIZE);
+                mMemoryOutput.writeTo(mFileOutput);
+                mMemoryOutput.reset();
+            }
+            if (mFileOutput != null) {
+                mFileOutput.write(b, off, len);
+            } else {
+                mMemoryOutput.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mFileOutput != null) {
+                mFileOutput.close();
+            }
+        }
+    }
+
+    private static CompressedEntry getResult(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating zip", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
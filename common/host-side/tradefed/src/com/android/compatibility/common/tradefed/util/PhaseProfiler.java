@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.json.stream.JsonWriter;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Records the wall time spent in the phases of a test run around the tests themselves, such as
+ * module preparers, cleaners, system status checkers and reboots.
+ * <p/>
+ * Phases are written as a Chrome trace-event file, that can be opened in chrome://tracing, and
+ * summarized per category and name in a table. Phases may be nested, e.g. the preparers of a
+ * module within its setup phase.
+ */
+public class PhaseProfiler {
+
+    /** Phases of a module as a whole: prepare, setup, test, teardown and status checks. */
+    public static final String CATEGORY_MODULE = "module";
+    /** Setup of a single target preparer. */
+    public static final String CATEGORY_PREPARER = "preparer";
+    /** Teardown of a single target cleaner. */
+    public static final String CATEGORY_CLEANER = "cleaner";
+    /** Check of a single system status checker. */
+    public static final String CATEGORY_CHECKER = "checker";
+    /** Device operations outside of modules, such as reboots. */
+    public static final String CATEGORY_DEVICE = "device";
+
+    private static final String ROW_FORMAT = "%-9s %-50s %7s %11s %9s %9s %6s";
+
+    /** A phase being timed, recorded once closed. */
+    public class Phase implements AutoCloseable {
+        private final String mCategory;
+        private final String mName;
+        private final String mModule;
+        private final long mStartNanos;
+        private long mEndNanos = -1;
+
+        private Phase(String category, String name, String module, long startNanos) {
+            mCategory = category;
+            mName = name;
+            mModule = module;
+            mStartNanos = startNanos;
+        }
+
+        /**
+         * Ends the phase. Closing it again has no effect.
+         */
+        @Override
+        public void close() {
+            if (mEndNanos < 0) {
+                mEndNanos = mNanoClock.getAsLong();
+                record(this);
+            }
+        }
+    }
+
+    /** The phases of a given category and name. */
+    private static class Summary {
+        final String mCategory;
+        final String mName;
+        int mCount;
+        long mTotalNanos;
+        long mMaxNanos;
+
+        Summary(String category, String name) {
+            mCategory = category;
+            mName = name;
+        }
+    }
+
+    private final LongSupplier mNanoClock;
+    private final long mStartMillis;
+    private final long mStartNanos;
+    private final List<Phase> mPhases = new ArrayList<>();
+
+    public PhaseProfiler() {
+        this(System::nanoTime, System.currentTimeMillis());
+    }
+
+    PhaseProfiler(LongSupplier nanoClock, long startMillis) {
+        mNanoClock = nanoClock;
+        mStartMillis = startMillis;
+        mStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Starts timing a phase, to be closed when it ends.
+     *
+     * @param category the category of the phase, one of the CATEGORY constants.
+     * @param name the name of the phase, such as the class of a preparer.
+     * @param module the id of the module the phase belongs to, or null.
+     */
+    public Phase start(String category, String name, String module) {
+        return new Phase(category, name, module, mNanoClock.getAsLong());
+    }
+
+    private synchronized void record(Phase phase) {
+        mPhases.add(phase);
+    }
+
+    /**
+     * @return the number of phases recorded.
+     */
+    public synchronized int size() {
+        return mPhases.size();
+    }
+
+    /**
+     * Writes the recorded phases as a Chrome trace-event file, replacing it atomically.
+     * Timestamps are relative to the epoch, so that traces of several shards can be merged.
+     *
+     * @param file the trace file.
+     * @param threadName the name under which phases appear in the trace, e.g. a device serial.
+     */
+    public void writeTrace(File file, String threadName) throws IOException {
+        List<Phase> phases;
+        synchronized (this) {
+            phases = new ArrayList<>(mPhases);
+        }
+        // Nested phases end first, but the trace viewer expects them in start order, with
+        // phases starting together ordered from the outermost
+        Collections.sort(phases, (a, b) -> a.mStartNanos != b.mStartNanos
+                ? Long.compare(a.mStartNanos, b.mStartNanos)
+                : Long.compare(b.mEndNanos, a.mEndNanos));
+        File tmpFile = FileUtil.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(tmpFile), StandardCharsets.UTF_8)))) {
+                writer.beginObject();
+                writer.name("displayTimeUnit").value("ms");
+                writer.name("traceEvents").beginArray();
+                writer.beginObject();
+                writer.name("name").value("thread_name");
+                writer.name("ph").value("M");
+                writer.name("pid").value(1);
+                writer.name("tid").value(1);
+                writer.name("args").beginObject().name("name").value(threadName).endObject();
+                writer.endObject();
+                for (Phase phase : phases) {
+                    writer.beginObject();
+                    writer.name("name").value(phase.mName);
+                    writer.name("cat").value(phase.mCategory);
+                    // Complete events, in microseconds
+                    writer.name("ph").value("X");
+                    writer.name("ts").value(
+                            mStartMillis * 1000 + (phase.mStartNanos - mStartNanos) / 1000);
+                    writer.name("dur").value((phase.mEndNanos - phase.mStartNanos) / 1000);
+                    writer.name("pid").value(1);
+                    writer.name("tid").value(1);
+                    if (phase.mModule != null) {
+                        writer.name("args").beginObject()
+                                .name("module").value(phase.mModule).endObject();
+                    }
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            FileUtil.deleteFile(tmpFile);
+        }
+    }
+
+    /**
+     * Summarizes the recorded phases in a table, one row per category and name, longest total
+     * time first.
+     *
+     * @param maxRows the maximum number of rows, the shortest ones are left out.
+     */
+    public String getSummary(int maxRows) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        long firstStart = Long.MAX_VALUE;
+        long lastEnd = Long.MIN_VALUE;
+        synchronized (this) {
+            for (Phase phase : mPhases) {
+                String key = phase.mCategory + '/' + phase.mName;
+                Summary summary = summaries.get(key);
+                if (summary == null) {
+                    summary = new Summary(phase.mCategory, phase.mName);
+                    summaries.put(key, summary);
+                }
+                long duration = phase.mEndNanos - phase.mStartNanos;
+                summary.mCount++;
+                summary.mTotalNanos += duration;
+                summary.mMaxNanos = Math.max(summary.mMaxNanos, duration);
+                firstStart = Math.min(firstStart, phase.mStartNanos);
+                lastEnd = Math.max(lastEnd, phase.mEndNanos);
+            }
+        }
+        List<Summary> rows = new ArrayList<>(summaries.values());
+        Collections.sort(rows, (a, b) -> Long.compare(b.mTotalNanos, a.mTotalNanos));
+        // Share of the time from the first phase to the last one, nested phases overlap
+        long wallNanos = Math.max(1, lastEnd - firstStart);
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(ROW_FORMAT, "Category", "Name", "Count", "Total", "Mean",
+                "Max", "Wall%")).append('\n');
+        for (Summary row : rows.subList(0, Math.min(maxRows, rows.size()))) {
+            table.append(String.format(ROW_FORMAT, row.mCategory, truncate(row.mName, 50),
+                    row.mCount, formatSeconds(row.mTotalNanos),
+                    formatSeconds(row.mTotalNanos / row.mCount), formatSeconds(row.mMaxNanos),
+                    String.format("%.1f", 100.0 * row.mTotalNanos / wallNanos))).append('\n');
+        }
+        if (rows.size() > maxRows) {
+            table.append(String.format("... %d more", rows.size() - maxRows)).append('\n');
+        }
+        return table.toString();
+    }
+
+    private static String formatSeconds(long nanos) {
+        return String.format("%.2fs", nanos / 1e9);
+    }
+
+    private static String truncate(String name, int length) {
+        return name.length() <= length ? name : name.substring(0, length - 3) + "...";
+    }
+}
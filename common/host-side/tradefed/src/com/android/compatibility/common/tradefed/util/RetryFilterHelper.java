@@ -21,7 +21,6 @@ import com.android.compatibility.common.tradefed.result.SubPlanHelper;
 import com.android.compatibility.common.tradefed.testtype.ISubPlan;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
 import com.android.compatibility.common.util.IInvocationResult;
-import com.android.compatibility.common.util.LightInvocationResult;
 import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.tradefed.config.ArgsOptionParser;
@@ -100,7 +99,7 @@ public class RetryFilterHelper {
      * the fingerprint recorded in the previous session's result.
      */
     public void validateBuildFingerprint(ITestDevice device) throws DeviceNotAvailableException {
-        String oldBuildFingerprint = new LightInvocationResult(getResult()).getBuildFingerprint();
+        String oldBuildFingerprint = getLightResult().getBuildFingerprint();
         String currentBuildFingerprint = device.getProperty("ro.build.fingerprint");
         if (!oldBuildFingerprint.equals(currentBuildFingerprint)) {
             throw new IllegalArgumentException(String.format(
@@ -143,7 +142,7 @@ public class RetryFilterHelper {
      */
     public void setCommandLineOptionsFor(Object obj) {
         // only need light version to retrieve command-line args
-        IInvocationResult result = new LightInvocationResult(getResult());
+        IInvocationResult result = getLightResult();
         String retryCommandLineArgs = result.getCommandLineArgs();
         if (retryCommandLineArgs != null) {
             try {
@@ -160,12 +159,13 @@ public class RetryFilterHelper {
      * Retrieve an instance of the result to retry using the instance variables referencing
      * the build and the desired session ID. While it is faster to load this result once and
      * store it as an instance variable, {@link IInvocationResult} objects are large, and
-     * memory is of greater concern.
+     * memory is of greater concern. Failure details of the returned result are only loaded
+     * when requested.
      */
     public IInvocationResult getResult() {
         IInvocationResult result = null;
         try {
-            result = ResultHandler.findResult(mBuild.getResultsDir(), mSessionId);
+            result = ResultHandler.findLazyResult(mBuild.getResultsDir(), mSessionId);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -176,6 +176,18 @@ public class RetryFilterHelper {
         return result;
     }
 
+    /**
+     * Retrieve a light instance of the result to retry, read from the session summary. Use this
+     * over {@link #getResult()} when test level results are not needed.
+     */
+    public IInvocationResult getLightResult() {
+        try {
+            return ResultHandler.findLightResult(mBuild.getResultsDir(), mSessionId);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Populate mRetryIncludes and mRetryExcludes based on the options and the result set for
      * this instance of RetryFilterHelper.
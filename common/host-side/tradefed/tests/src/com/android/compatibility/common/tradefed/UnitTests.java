@@ -30,6 +30,7 @@ import com.android.compatibility.common.tradefed.result.MetadataReporterTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterBuildInfoTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterTest;
 import com.android.compatibility.common.tradefed.result.SubPlanHelperTest;
+import com.android.compatibility.common.tradefed.targetprep.ApkPrefetcherTest;
 import com.android.compatibility.common.tradefed.targetprep.MediaPreparerTest;
 import com.android.compatibility.common.tradefed.targetprep.PropertyCheckTest;
 import com.android.compatibility.common.tradefed.targetprep.SettingsPreparerTest;
@@ -37,6 +38,7 @@ import com.android.compatibility.common.tradefed.testtype.CompatibilityHostTestB
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTestTest;
 import com.android.compatibility.common.tradefed.testtype.JarHostTestTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleDefTest;
+import com.android.compatibility.common.tradefed.testtype.ModuleQueueTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepoTest;
 import com.android.compatibility.common.tradefed.testtype.SubPlanTest;
 import com.android.compatibility.common.tradefed.testtype.retry.RetryFactoryTestTest;
@@ -44,7 +46,12 @@ import com.android.compatibility.common.tradefed.testtype.suite.CompatibilityTes
 import com.android.compatibility.common.tradefed.testtype.suite.ModuleRepoSuiteTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtilTest;
 import com.android.compatibility.common.tradefed.util.DynamicConfigFileReaderTest;
+import com.android.compatibility.common.tradefed.util.MediaManifestTest;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCacheTest;
+import com.android.compatibility.common.tradefed.util.ModuleRuntimeHistoryTest;
 import com.android.compatibility.common.tradefed.util.OptionHelperTest;
+import com.android.compatibility.common.tradefed.util.ParallelZipUtilTest;
+import com.android.compatibility.common.tradefed.util.PhaseProfilerTest;
 import com.android.compatibility.common.tradefed.util.RetryFilterHelperTest;
 import com.android.compatibility.common.tradefed.util.UniqueModuleCountUtilTest;
 
@@ -85,6 +92,7 @@ import org.junit.runners.Suite.SuiteClasses;
     SubPlanHelperTest.class,
 
     // targetprep
+    ApkPrefetcherTest.class,
     MediaPreparerTest.class,
     PropertyCheckTest.class,
     SettingsPreparerTest.class,
@@ -94,6 +102,7 @@ import org.junit.runners.Suite.SuiteClasses;
     CompatibilityTestTest.class,
     JarHostTestTest.class,
     ModuleDefTest.class,
+    ModuleQueueTest.class,
     ModuleRepoTest.class,
     SubPlanTest.class,
 
@@ -107,7 +116,12 @@ import org.junit.runners.Suite.SuiteClasses;
     // util
     CollectorUtilTest.class,
     DynamicConfigFileReaderTest.class,
+    MediaManifestTest.class,
+    ModuleDiscoveryCacheTest.class,
+    ModuleRuntimeHistoryTest.class,
     OptionHelperTest.class,
+    ParallelZipUtilTest.class,
+    PhaseProfilerTest.class,
     RetryFilterHelperTest.class,
     UniqueModuleCountUtilTest.class,
 })
@@ -30,11 +30,19 @@ import com.android.tradefed.invoker.IInvocationContext;
 import com.android.tradefed.invoker.InvocationContext;
 import com.android.tradefed.util.FileUtil;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
 
 /**
  * Unit tests for {@link ChecksumReporter}
@@ -182,6 +190,62 @@ public class ChecksumReporterTest extends TestCase {
 
     }
 
+    public void testCorruptedFile() throws IOException {
+        mReporter.addInvocation(mInvocationResult);
+        mReporter.saveToFile(mRoot);
+        File checksumFile = new File(mRoot, ChecksumReporter.NAME);
+        byte[] data = Files.readAllBytes(checksumFile.toPath());
+        data[data.length / 2] ^= 1;
+        Files.write(checksumFile.toPath(), data);
+        try {
+            ChecksumReporter.load(mRoot);
+            fail("Corrupted checksum should not load");
+        } catch (ChecksumValidationException e) {
+            // expected
+        }
+    }
+
+    public void testLoadSerializedFormat() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        try (FileWriter fileWriter = new FileWriter(file1, false)) {
+            fileWriter.append("This is a test file");
+        }
+        // Checksum as written by previous versions
+        BloomFilter<CharSequence> resultChecksum =
+                BloomFilter.create(Funnels.unencodedCharsFunnel(), 100, .001);
+        HashMap<String, byte[]> fileChecksum = new HashMap<>();
+        fileChecksum.put(mRoot.getName() + "/" + file1.getName(), MessageDigest
+                .getInstance("SHA-256").digest(Files.readAllBytes(file1.toPath())));
+        try (ObjectOutputStream output = new ObjectOutputStream(
+                new FileOutputStream(new File(mRoot, ChecksumReporter.NAME)))) {
+            output.writeShort(650);
+            output.writeShort(1);
+            output.writeObject(resultChecksum);
+            output.writeObject(fileChecksum);
+        }
+
+        ChecksumReporter storedChecksum = ChecksumReporter.load(mRoot);
+        assertTrue("Serialized checksum maintains file hash",
+                storedChecksum.containsFile(file1, mRoot.getName()));
+    }
+
+    public void testFileHasher() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        try (FileWriter fileWriter = new FileWriter(file1, false)) {
+            fileWriter.append("This is a test file");
+        }
+        ChecksumReporter.FileHasher hasher = new ChecksumReporter.FileHasher();
+        try {
+            hasher.hash(file1);
+            mReporter.setFileHasher(hasher);
+            mReporter.addDirectory(mRoot);
+        } finally {
+            hasher.shutdown();
+        }
+        assertTrue("Hash calculated in background matches file",
+                mReporter.containsFile(file1, mRoot.getName()));
+    }
+
     private void VerifyInvocationResults(IInvocationResult invocation, ChecksumReporter reporter) {
         for (IModuleResult module : invocation.getModules()) {
             String buildFingerprint = invocation.getBuildFingerprint();
@@ -18,11 +18,13 @@ package com.android.compatibility.common.tradefed.result;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
+import com.android.compatibility.common.util.ChecksumReporter;
 import com.android.compatibility.common.util.DeviceInfo;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.IBuildInfo;
@@ -41,6 +43,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.util.HashMap;
 import java.util.List;
+import java.util.zip.ZipFile;
 
 /**
  * Unit tests for {@link ResultReporter}
@@ -141,6 +144,31 @@ public class ResultReporterTest extends TestCase {
                 children.length == 1 && children[0].isFile() && children[0].length() > 0);
     }
 
+    public void testFinalizeResults() throws Exception {
+        mReporter.invocationStarted(mContext);
+        makeTestRun(new String[] {METHOD_1, METHOD_2}, new boolean[] {true, false});
+        mReporter.invocationEnded(10);
+        File[] children = mBuildHelper.getResultsDir().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.getName().endsWith(".zip");
+            }
+        });
+        assertEquals("Expected results zip", 1, children.length);
+        File resultDir = mBuildHelper.getResultDir();
+        assertTrue("Didn't create result XML",
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME).exists());
+        assertTrue("Didn't create checksum",
+                new File(resultDir, ChecksumReporter.NAME).exists());
+        try (ZipFile zip = new ZipFile(children[0])) {
+            String prefix = resultDir.getName() + "/";
+            assertNotNull("Checksum not zipped",
+                    zip.getEntry(prefix + ChecksumReporter.NAME));
+            assertNull("Failure report zipped",
+                    zip.getEntry(prefix + ResultHandler.FAILURE_REPORT_NAME));
+        }
+    }
+
     public void testResultReporting() throws Exception {
         mReporter.invocationStarted(mContext);
         mReporter.testRunStarted(ID, 2);
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.device.ITestDevice;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link ApkPrefetcher}.
+ */
+public class ApkPrefetcherTest extends TestCase {
+
+    private static final File APK = new File("/tests/CtsFooTestCases.apk");
+    private static final String STAGED_APK = ApkPrefetcher.STAGING_DIR + "0-CtsFooTestCases.apk";
+
+    private ITestDevice mMockDevice;
+    private ApkPrefetcher mPrefetcher;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mPrefetcher = new ApkPrefetcher(mMockDevice);
+    }
+
+    public void testInstallFromStaging() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(true);
+        EasyMock.expect(mMockDevice.isRuntimePermissionSupported()).andReturn(true);
+        EasyMock.expect(mMockDevice.executeShellCommand(
+                "pm install -r -g --abi arm64-v8a " + STAGED_APK)).andReturn("Success\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("rm -f " + STAGED_APK)).andReturn("");
+        EasyMock.expect(mMockDevice.executeShellCommand("rm -rf " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        // Prefetching again does not push again
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertNull(device.installPackage(APK, true, true, "--abi", "arm64-v8a"));
+        mPrefetcher.close();
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_failure() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(true);
+        EasyMock.expect(mMockDevice.isRuntimePermissionSupported()).andReturn(false);
+        EasyMock.expect(mMockDevice.executeShellCommand("pm install " + STAGED_APK))
+                .andReturn("Failure [INSTALL_FAILED_OLDER_SDK]\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("rm -f " + STAGED_APK)).andReturn("");
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertEquals("Failure [INSTALL_FAILED_OLDER_SDK]", device.installPackage(APK, false));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_grantsRuntimePermissionsByDefault() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(true);
+        EasyMock.expect(mMockDevice.isRuntimePermissionSupported()).andReturn(true);
+        EasyMock.expect(mMockDevice.executeShellCommand("pm install -r -g -t " + STAGED_APK))
+                .andReturn("Success\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("rm -f " + STAGED_APK)).andReturn("");
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertNull(device.installPackage(APK, true, "-t"));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_grantNotSupported() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(true);
+        EasyMock.expect(mMockDevice.isRuntimePermissionSupported()).andReturn(false);
+        // The device fails the install itself
+        EasyMock.expect(mMockDevice.installPackage(APK, true, true))
+                .andThrow(new UnsupportedOperationException("platform on device does not support "
+                        + "runtime permission granting!"));
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        try {
+            device.installPackage(APK, true, true);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_successInFailure() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(true);
+        EasyMock.expect(mMockDevice.isRuntimePermissionSupported()).andReturn(false);
+        EasyMock.expect(mMockDevice.executeShellCommand("pm install " + STAGED_APK))
+                .andReturn("Failure [INSTALL_FAILED_NoSuccessfulVerification]\n");
+        EasyMock.expect(mMockDevice.executeShellCommand("rm -f " + STAGED_APK)).andReturn("");
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertEquals("Failure [INSTALL_FAILED_NoSuccessfulVerification]",
+                device.installPackage(APK, false));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_pushFailed() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("mkdir -p " + ApkPrefetcher.STAGING_DIR))
+                .andReturn("");
+        EasyMock.expect(mMockDevice.pushFile(APK, STAGED_APK)).andReturn(false);
+        // Installed from the host instead
+        EasyMock.expect(mMockDevice.installPackage(APK, true)).andReturn(null);
+        EasyMock.replay(mMockDevice);
+        mPrefetcher.prefetch(APK);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertNull(device.installPackage(APK, true));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testInstallFromStaging_notPrefetched() throws Exception {
+        EasyMock.expect(mMockDevice.installPackage(APK, true, "-t")).andReturn(null);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("SERIAL");
+        EasyMock.replay(mMockDevice);
+        ITestDevice device = mPrefetcher.installFromStaging(mMockDevice);
+        assertNull(device.installPackage(APK, true, "-t"));
+        // Other methods are handled by the device
+        assertEquals("SERIAL", device.getSerialNumber());
+        // Nothing to delete from the device
+        mPrefetcher.close();
+        EasyMock.verify(mMockDevice);
+    }
+}
@@ -16,16 +16,23 @@
 
 package com.android.compatibility.common.tradefed.targetprep;
 
+import com.android.compatibility.common.tradefed.util.MediaManifest;
 import com.android.ddmlib.IDevice;
 import com.android.tradefed.build.BuildInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.FileUtil;
 
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 public class MediaPreparerTest extends TestCase {
 
     private MediaPreparer mMediaPreparer;
@@ -98,6 +105,83 @@ public class MediaPreparerTest extends TestCase {
         assertFalse(mMediaPreparer.mediaFilesExistOnDevice(mMockDevice));
     }
 
+    public void testSyncMediaFiles() throws Exception {
+        File mediaDir = FileUtil.createTempDir("media");
+        try {
+            File imagesDir = new File(mediaDir, "images");
+            imagesDir.mkdirs();
+            File complete = new File(imagesDir, "complete.png");
+            File truncated = new File(imagesDir, "truncated.png");
+            File missing = new File(imagesDir, "missing.png");
+            FileUtil.writeToFile("complete", complete);
+            FileUtil.writeToFile("truncated", truncated);
+            FileUtil.writeToFile("missing", missing);
+            mOptionSetter.setOptionValue("images-only", "true");
+            mOptionSetter.setOptionValue("local-media-path", mediaDir.getAbsolutePath());
+            mMediaPreparer.mBaseDeviceDir = "/sdcard/test/";
+
+            // Pushed before manifests existed, so only the size is known
+            Map<String, Long> deviceFiles = new HashMap<>();
+            deviceFiles.put("images/complete.png", complete.length());
+            deviceFiles.put("images/truncated.png", 3L);
+            EasyMock.expect(mMockDevice.executeShellCommand("cd /sdcard/test/ && mkdir -p images"))
+                    .andReturn("").once();
+            EasyMock.expect(mMockDevice.pushFile(truncated, "/sdcard/test/images/truncated.png"))
+                    .andReturn(true).once();
+            EasyMock.expect(mMockDevice.pushFile(missing, "/sdcard/test/images/missing.png"))
+                    .andReturn(true).once();
+            EasyMock.expect(mMockDevice.pushString(EasyMock.<String>anyObject(),
+                    EasyMock.eq("/sdcard/test/" + MediaManifest.FILE_NAME))).andReturn(true).once();
+            EasyMock.replay(mMockDevice);
+            MediaManifest deviceManifest = new MediaManifest();
+            mMediaPreparer.syncMediaFiles(mMockDevice, deviceManifest, deviceFiles);
+            EasyMock.verify(mMockDevice);
+
+            // The device manifest lists all files, and the host files were hashed once
+            assertEquals(3, deviceManifest.getPaths().size());
+            MediaManifest hostManifest =
+                    MediaManifest.load(new File(mediaDir, MediaManifest.FILE_NAME));
+            assertEquals(deviceManifest.toString(), hostManifest.toString());
+        } finally {
+            FileUtil.recursiveDelete(mediaDir);
+        }
+    }
+
+    public void testSyncMediaFiles_upToDate() throws Exception {
+        File mediaDir = FileUtil.createTempDir("media");
+        try {
+            File imagesDir = new File(mediaDir, "images");
+            imagesDir.mkdirs();
+            FileUtil.writeToFile("image", new File(imagesDir, "image.png"));
+            mOptionSetter.setOptionValue("images-only", "true");
+            mOptionSetter.setOptionValue("local-media-path", mediaDir.getAbsolutePath());
+            mMediaPreparer.mBaseDeviceDir = "/sdcard/test/";
+
+            MediaManifest deviceManifest = MediaManifest.create(mediaDir,
+                    mMediaPreparer.getMediaDirs(), new MediaManifest());
+            Map<String, Long> deviceFiles = new HashMap<>();
+            deviceFiles.put("images/image.png", 5L);
+            // Nothing is pushed
+            EasyMock.replay(mMockDevice);
+            mMediaPreparer.syncMediaFiles(mMockDevice, deviceManifest, deviceFiles);
+            EasyMock.verify(mMockDevice);
+        } finally {
+            FileUtil.recursiveDelete(mediaDir);
+        }
+    }
+
+    public void testListDeviceMediaFiles() throws Exception {
+        mMediaPreparer.mBaseDeviceDir = "/sdcard/test/";
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.contains("find images")))
+                .andReturn("5 images/image.png\r\n12 images/other image.png\n").once();
+        EasyMock.replay(mMockDevice);
+        Map<String, Long> deviceFiles = mMediaPreparer.listDeviceMediaFiles(mMockDevice,
+                Arrays.asList("images"));
+        assertEquals(2, deviceFiles.size());
+        assertEquals(Long.valueOf(5), deviceFiles.get("images/image.png"));
+        assertEquals(Long.valueOf(12), deviceFiles.get("images/other image.png"));
+    }
+
     public void testSkipMediaDownload() throws Exception {
         mOptionSetter.setOptionValue("skip-media-download", "true");
         EasyMock.replay();
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link ModuleQueue}.
+ */
+public class ModuleQueueTest {
+
+    private static final String SERIAL_1 = "serial1";
+    private static final String SERIAL_2 = "serial2";
+
+    @Test
+    public void testPoll_inOrder() {
+        IModuleDef module1 = createModule();
+        IModuleDef module2 = createModule();
+        ModuleQueue queue = new ModuleQueue(Arrays.asList(module1, module2),
+                new HashMap<String, Set<String>>());
+        assertEquals(2, queue.size());
+        assertSame(module1, queue.poll(SERIAL_1));
+        assertSame(module2, queue.poll(SERIAL_2));
+        assertNull(queue.poll(SERIAL_1));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testPoll_tokens() {
+        IModuleDef simCard = createModule("sim-card");
+        IModuleDef other = createModule();
+        Map<String, Set<String>> deviceTokens = new HashMap<>();
+        deviceTokens.put(SERIAL_2, new HashSet<>(Arrays.asList("sim-card")));
+        ModuleQueue queue = new ModuleQueue(Arrays.asList(simCard, other), deviceTokens);
+        // The token module is skipped by devices without the token
+        assertSame(other, queue.poll(SERIAL_1));
+        assertNull(queue.poll(SERIAL_1));
+        assertSame(simCard, queue.poll(SERIAL_2));
+    }
+
+    @Test
+    public void testPoll_missingTokens() {
+        IModuleDef simCard = createModule("sim-card");
+        ModuleQueue queue = new ModuleQueue(Arrays.asList(simCard),
+                new HashMap<String, Set<String>>());
+        // No device has the token, so any device may run the module
+        assertSame(simCard, queue.poll(SERIAL_1));
+    }
+
+    @Test
+    public void testPoll_concurrent() throws Exception {
+        final List<IModuleDef> modules = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            modules.add(createModule());
+        }
+        final ModuleQueue queue = new ModuleQueue(modules, new HashMap<String, Set<String>>());
+        final Set<IModuleDef> claimed =
+                Collections.newSetFromMap(new ConcurrentHashMap<IModuleDef, Boolean>());
+        final AtomicInteger polled = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            final String serial = "serial" + i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        IModuleDef module;
+                        while ((module = queue.poll(serial)) != null) {
+                            claimed.add(module);
+                            polled.incrementAndGet();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        // Every module is claimed exactly once
+        assertEquals(modules.size(), claimed.size());
+        assertEquals(modules.size(), polled.get());
+        assertEquals(0, queue.size());
+    }
+
+    private static IModuleDef createModule(String... tokens) {
+        IModuleDef module = EasyMock.createNiceMock(IModuleDef.class);
+        EasyMock.expect(module.getTokens())
+                .andStubReturn(new HashSet<>(Arrays.asList(tokens)));
+        EasyMock.replay(module);
+        return module;
+    }
+}
@@ -21,7 +21,9 @@ import com.android.compatibility.common.tradefed.testtype.ModuleRepo.ConfigFilte
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Configuration;
 import com.android.tradefed.config.ConfigurationDescriptor;
+import com.android.tradefed.config.ConfigurationFactory;
 import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.config.IConfigurationFactory;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.result.ITestInvocationListener;
@@ -387,6 +389,61 @@ public class ModuleRepoTest extends TestCase {
         }
     }
 
+    /**
+     * Test that each config is parsed once per module ABI, and not again to create the module.
+     */
+    public void testParsing_oncePerAbi() throws Exception {
+        IConfigurationFactory factory = EasyMock.createMock(IConfigurationFactory.class);
+        EasyMock.expect(factory.createConfigurationFromArgs(EasyMock.<String[]>anyObject()))
+                .andDelegateTo(ConfigurationFactory.getInstance()).times(6);
+        EasyMock.replay(factory);
+        mRepo.setConfigFactory(factory);
+        mRepo.initialize(1, null, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, METADATA_INCLUDES, METADATA_EXCLUDES, mMockBuildInfo);
+        EasyMock.verify(factory);
+        List<IModuleDef> modules = mRepo.getModules(SERIAL3, 0);
+        assertEquals("Incorrect number of modules", 6, modules.size());
+        for (IModuleDef module : modules) {
+            checkArgs(module);
+        }
+    }
+
+    /**
+     * Test that a config excluded by its metadata is only parsed once for all ABIs.
+     */
+    public void testParsing_metadataExcludedOnce() throws Exception {
+        IConfigurationFactory factory = EasyMock.createMock(IConfigurationFactory.class);
+        EasyMock.expect(factory.createConfigurationFromArgs(EasyMock.<String[]>anyObject()))
+                .andDelegateTo(ConfigurationFactory.getInstance()).times(3);
+        EasyMock.replay(factory);
+        mRepo.setConfigFactory(factory);
+        MultiMap<String, String> metadataIncludes = new MultiMap<>();
+        metadataIncludes.put("component", "no-such-component");
+        mRepo.initialize(1, null, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, metadataIncludes, METADATA_EXCLUDES, mMockBuildInfo);
+        EasyMock.verify(factory);
+        assertEquals("Incorrect number of modules", 0, mRepo.getModules(SERIAL3, 0).size());
+    }
+
+    /**
+     * Test that a config excluded by its metadata is not parsed again by the next invocation.
+     */
+    public void testParsing_metadataExcludedCached() throws Exception {
+        MultiMap<String, String> metadataIncludes = new MultiMap<>();
+        metadataIncludes.put("component", "no-such-component");
+        mRepo.initialize(1, null, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, metadataIncludes, METADATA_EXCLUDES, mMockBuildInfo);
+
+        IConfigurationFactory factory = EasyMock.createMock(IConfigurationFactory.class);
+        EasyMock.replay(factory);
+        ModuleRepo repo = new ModuleRepo();
+        repo.setConfigFactory(factory);
+        repo.initialize(1, null, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, metadataIncludes, METADATA_EXCLUDES, mMockBuildInfo);
+        EasyMock.verify(factory);
+        assertEquals("Incorrect number of modules", 0, repo.getModules(SERIAL3, 0).size());
+    }
+
     private void checkArgs(IModuleDef module) {
         IRemoteTest test = module.getTest();
         assertTrue("Incorrect test type", test instanceof TestStub);
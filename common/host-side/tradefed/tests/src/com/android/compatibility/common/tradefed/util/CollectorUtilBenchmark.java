@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Times {@link CollectorUtil#reformatRepeatedStreams} on a synthetic report log, and prints a
+ * digest of the merged report log so that two revisions of the merge can be checked to write
+ * the same output. Run it with a small heap, e.g. -Xmx64m, to check that memory use does not
+ * depend on the size of the report log.
+ * <p/>
+ * Usage: CollectorUtilBenchmark [-n passes] [-s segments] [-t streams]
+ */
+public class CollectorUtilBenchmark {
+
+    private static final int DEFAULT_PASSES = 5;
+    private static final int DEFAULT_SEGMENTS = 200000;
+    private static final int DEFAULT_STREAMS = 50;
+    private static final int VALUES_PER_SEGMENT = 60;
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        int passes = DEFAULT_PASSES;
+        int segments = DEFAULT_SEGMENTS;
+        int streams = DEFAULT_STREAMS;
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                passes = Integer.parseInt(args[++i]);
+            } else if ("-s".equals(args[i])) {
+                segments = Integer.parseInt(args[++i]);
+            } else if ("-t".equals(args[i])) {
+                streams = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println(
+                        "Usage: CollectorUtilBenchmark [-n passes] [-s segments] [-t streams]");
+                System.exit(1);
+            }
+        }
+
+        File source = FileUtil.createTempFile("report-log", ".json");
+        File resultDir = FileUtil.createTempDir("report-log");
+        try {
+            writeReportLog(source, segments, streams);
+            System.out.printf("report log of %d segments across %d streams: %d MB%n", segments,
+                    streams, source.length() / (1024 * 1024));
+            File reportLog = new File(resultDir, "benchmark.reportlog.json");
+            long total = 0;
+            for (int i = 0; i < passes; i++) {
+                Files.copy(source.toPath(), reportLog.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                long start = System.nanoTime();
+                CollectorUtil.reformatRepeatedStreams(resultDir);
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                System.out.printf("pass %d: %d ms%n", i + 1, elapsed / 1000000);
+            }
+            System.out.printf("%d passes in %d ms, merged report log: %d MB%n", passes,
+                    total / 1000000, reportLog.length() / (1024 * 1024));
+            System.out.println("digest: " + digest(reportLog));
+        } finally {
+            FileUtil.deleteFile(source);
+            FileUtil.recursiveDelete(resultDir);
+        }
+    }
+
+    /**
+     * Writes segments the way ReportLogDeviceInfoStore appends them, one stream per line, with
+     * the streams interleaved.
+     */
+    private static void writeReportLog(File file, int segments, int streams) throws IOException {
+        Random random = new Random(0);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < segments; i++) {
+                writer.write(String.format("{\"stream_%d\":{\"source\":\"test_%d\",\"frame_ms\":[",
+                        i % streams, i));
+                for (int j = 0; j < VALUES_PER_SEGMENT; j++) {
+                    if (j > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(Double.toString(random.nextDouble() * 30));
+                }
+                writer.write(String.format("],\"frames\":%d}}\n", i));
+            }
+        }
+    }
+
+    private static String digest(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new FileInputStream(file)) {
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -15,8 +15,12 @@
  */
 package com.android.compatibility.common.tradefed.util;
 
+import com.android.tradefed.util.FileUtil;
+
 import junit.framework.TestCase;
 
+import java.io.File;
+
 /**
  * Unit tests for {@link CollectorUtil}
  */
@@ -31,6 +35,13 @@ public class CollectorUtilTest extends TestCase {
             + "{\"id\":2,\"key1\":\"value2\"},"
             + "}";
 
+    // Segments as appended by ReportLogDeviceInfoStore, the last one cut short by a crash
+    private static final String SEGMENTED_JSON =
+            "{\"stream_name_1\":{\"id\":1,\"key1\":\"value1\"}}\n"
+            + "{\"stream_name_2\":{\"id\":1,\"key1\":\"value3\"}}\n"
+            + "{\"stream_name_1\":{\"id\":2,\"key1\":\"value2\"}}\n"
+            + "{\"stream_name_2\":{\"id\":2,\"ke";
+
     private static final String REFORMATTED_JSON = "{"
             + "\"stream_name_2\":"
             + "["
@@ -47,4 +58,69 @@ public class CollectorUtilTest extends TestCase {
         String reformattedJson = CollectorUtil.reformatJsonString(UNFORMATTED_JSON);
         assertEquals(reformattedJson, REFORMATTED_JSON);
     }
+
+    public void testReformatJsonString_values() throws Exception {
+        String json = "{\"stream_name_1\":{\"double\":1.5,\"long\":-3,\"bool\":true,"
+                + "\"null\":null,\"array\":[1,2.0,[]],\"string\":\"a\\\"b\"}}\n"
+                + "{\"stream_name_1\":{\"nested\":{\"key\":\"value\"}},"
+                + "\"stream_name_2\":\"not an object\"}\n";
+        String reformattedJson = "{\"stream_name_1\":["
+                + "{\"double\":1.5,\"long\":-3,\"bool\":true,"
+                + "\"null\":null,\"array\":[1,2.0,[]],\"string\":\"a\\\"b\"},"
+                + "{\"nested\":{\"key\":\"value\"}}"
+                + "]}";
+        assertEquals(reformattedJson, CollectorUtil.reformatJsonString(json));
+    }
+
+    public void testReformatJsonString_escapesAndWhitespace() throws Exception {
+        String json = "{ \"stream\\u005fname\" : {\"key\": \"}]\\\"\"} }\r\n"
+                + "{\"stream_name\":{\"array\":[1, 2]}}\n"
+                + "{\"stream_name\":{\"array\":[1, 2}}\n";
+        String reformattedJson = "{\"stream_name\":["
+                + "{\"key\": \"}]\\\"\"},"
+                + "{\"array\":[1, 2]}"
+                + "]}";
+        assertEquals(reformattedJson, CollectorUtil.reformatJsonString(json));
+    }
+
+    public void testReformatJsonString_noStreams() throws Exception {
+        assertEquals("not json", CollectorUtil.reformatJsonString("not json"));
+    }
+
+    public void testReformatRepeatedStreams_manySegments() throws Exception {
+        File resultDir = FileUtil.createTempDir("report-log");
+        try {
+            StringBuilder segments = new StringBuilder();
+            StringBuilder stream1 = new StringBuilder();
+            StringBuilder stream2 = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                String metrics = String.format("{\"id\":%d,\"values\":[%d.5,%d]}", i, i, -i);
+                String streamName = i % 3 == 0 ? "stream_name_2" : "stream_name_1";
+                segments.append("{\"").append(streamName).append("\":").append(metrics)
+                        .append("}\n");
+                StringBuilder stream = i % 3 == 0 ? stream2 : stream1;
+                stream.append(stream.length() == 0 ? "" : ",").append(metrics);
+            }
+            File reportLog = new File(resultDir, "report.reportlog.json");
+            FileUtil.writeToFile(segments.toString(), reportLog);
+            CollectorUtil.reformatRepeatedStreams(resultDir);
+            assertEquals("{\"stream_name_2\":[" + stream2 + "],"
+                    + "\"stream_name_1\":[" + stream1 + "]}",
+                    FileUtil.readStringFromFile(reportLog));
+        } finally {
+            FileUtil.recursiveDelete(resultDir);
+        }
+    }
+
+    public void testReformatRepeatedStreams_segments() throws Exception {
+        File resultDir = FileUtil.createTempDir("report-log");
+        try {
+            File reportLog = new File(resultDir, "report.reportlog.json");
+            FileUtil.writeToFile(SEGMENTED_JSON, reportLog);
+            CollectorUtil.reformatRepeatedStreams(resultDir);
+            assertEquals(REFORMATTED_JSON, FileUtil.readStringFromFile(reportLog));
+        } finally {
+            FileUtil.recursiveDelete(resultDir);
+        }
+    }
 }
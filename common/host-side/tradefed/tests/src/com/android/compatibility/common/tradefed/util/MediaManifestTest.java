@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link MediaManifest}.
+ */
+@RunWith(JUnit4.class)
+public class MediaManifestTest {
+
+    private File mMediaDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mMediaDir = FileUtil.createTempDir("media");
+        File imagesDir = new File(mMediaDir, "images");
+        imagesDir.mkdirs();
+        FileUtil.writeToFile("image", new File(imagesDir, "image.png"));
+        File videoDir = new File(mMediaDir, "bbb_short/176x144");
+        videoDir.mkdirs();
+        FileUtil.writeToFile("video", new File(videoDir, "video.mp4"));
+        FileUtil.writeToFile("other", new File(mMediaDir, "bbb_short/other.txt"));
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mMediaDir);
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        MediaManifest manifest = MediaManifest.create(mMediaDir,
+                Arrays.asList("bbb_short/176x144", "images"), new MediaManifest());
+        assertEquals(Arrays.asList("bbb_short/176x144/video.mp4", "images/image.png"),
+                Arrays.asList(manifest.getPaths().toArray()));
+        MediaManifest.Entry entry = manifest.get("images/image.png");
+        assertEquals(5, entry.getSize());
+        // SHA-256 of "image"
+        assertEquals("6105d6cc76af400325e94d588ce511be5bfdbb73b437dc51eca43917d7a43e3d",
+                entry.getHash());
+    }
+
+    @Test
+    public void testCreate_reuseHashes() throws Exception {
+        MediaManifest previous = MediaManifest.create(mMediaDir, Arrays.asList("images"),
+                new MediaManifest());
+        // Same size and last modification time, so the file is not hashed again
+        File image = new File(mMediaDir, "images/image.png");
+        long lastModified = image.lastModified();
+        FileUtil.writeToFile("IMAGE", image);
+        image.setLastModified(lastModified);
+        MediaManifest manifest = MediaManifest.create(mMediaDir, Arrays.asList("images"),
+                previous);
+        assertTrue(manifest.get("images/image.png").hasSameContent(
+                previous.get("images/image.png")));
+
+        image.setLastModified(lastModified - 10000);
+        manifest = MediaManifest.create(mMediaDir, Arrays.asList("images"), previous);
+        assertFalse(manifest.get("images/image.png").hasSameContent(
+                previous.get("images/image.png")));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        MediaManifest manifest = MediaManifest.create(mMediaDir,
+                Arrays.asList("bbb_short", "images"), new MediaManifest());
+        File manifestFile = new File(mMediaDir, MediaManifest.FILE_NAME);
+        manifest.save(manifestFile);
+        MediaManifest loaded = MediaManifest.load(manifestFile);
+        assertEquals(manifest.getPaths(), loaded.getPaths());
+        for (String path : manifest.getPaths()) {
+            assertTrue(manifest.get(path).hasSameContent(loaded.get(path)));
+        }
+        assertEquals(manifest.toString(), loaded.toString());
+    }
+
+    @Test
+    public void testParse_ignoreInvalidLines() throws Exception {
+        MediaManifest manifest = MediaManifest.parse("# media manifest v1\n"
+                + "cat: /sdcard/test/media_manifest.txt: No such file or directory\n"
+                + "abcd 12 34 images/with space.png\n"
+                + "abcd twelve 34 images/invalid.png\n");
+        assertEquals(1, manifest.getPaths().size());
+        assertEquals(12, manifest.get("images/with space.png").getSize());
+        assertNull(manifest.get("images/invalid.png"));
+        assertTrue(MediaManifest.parse(null).getPaths().isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.android.compatibility.common.tradefed.testtype.TestStub;
+import com.android.compatibility.common.tradefed.util.ModuleDiscoveryCache.ConfigSummary;
+import com.android.tradefed.config.Configuration;
+import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.MultiMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link ModuleDiscoveryCache}.
+ */
+@RunWith(JUnit4.class)
+public class ModuleDiscoveryCacheTest {
+
+    private static final String CONFIG_CONTENT = "<configuration description=\"foo\" />";
+
+    private File mDir;
+    private File mConfigFile;
+    private File mCacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("discovery-cache");
+        mConfigFile = new File(mDir, "FooModule.config");
+        FileUtil.writeToFile(CONFIG_CONTENT, mConfigFile);
+        mCacheFile = new File(mDir, ModuleDiscoveryCache.CACHE_FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        ModuleDiscoveryCache cache = ModuleDiscoveryCache.load(mCacheFile);
+        assertNull(cache.get(mConfigFile));
+        cache.put(mConfigFile, createConfig());
+        cache.save();
+
+        ConfigSummary summary = ModuleDiscoveryCache.load(mCacheFile).get(mConfigFile);
+        assertNotNull(summary);
+        assertEquals(1L, summary.getRuntimeHint());
+        assertEquals("foo", summary.getMetadata().get("component").get(0));
+        assertEquals("bar", summary.getMetadata().get("component").get(1));
+    }
+
+    @Test
+    public void testGet_changedConfig() throws Exception {
+        ModuleDiscoveryCache cache = ModuleDiscoveryCache.load(mCacheFile);
+        cache.put(mConfigFile, createConfig());
+        long lastModified = mConfigFile.lastModified();
+        // Same size and modification time, only the hash tells the config changed
+        FileUtil.writeToFile(CONFIG_CONTENT.replace("foo", "bar"), mConfigFile);
+        mConfigFile.setLastModified(lastModified);
+        assertNull(cache.get(mConfigFile));
+    }
+
+    @Test
+    public void testGet_changedInclude() throws Exception {
+        File includedFile = new File(mDir, "included.xml");
+        FileUtil.writeToFile(CONFIG_CONTENT, includedFile);
+        FileUtil.writeToFile(String.format("<configuration description=\"foo\">"
+                + "<include name=\"%s\" /></configuration>", includedFile.getAbsolutePath()),
+                mConfigFile);
+        ModuleDiscoveryCache cache = ModuleDiscoveryCache.load(mCacheFile);
+        cache.put(mConfigFile, createConfig());
+        assertNotNull(cache.get(mConfigFile));
+        // The config itself is unchanged
+        FileUtil.writeToFile(CONFIG_CONTENT.replace("foo", "bar"), includedFile);
+        assertNull(cache.get(mConfigFile));
+    }
+
+    @Test
+    public void testLoad_corrupted() throws Exception {
+        FileUtil.writeToFile("not a cache", mCacheFile);
+        assertEquals(0, ModuleDiscoveryCache.load(mCacheFile).size());
+    }
+
+    private static IConfiguration createConfig() throws Exception {
+        IConfiguration config = new Configuration("foo", "bar");
+        config.setTest(new TestStub());
+        MultiMap<String, String> metadata = new MultiMap<>();
+        metadata.put("component", "foo");
+        metadata.put("component", "bar");
+        config.getConfigurationDescription().setMetaData(metadata);
+        return config;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.compatibility.common.tradefed.testtype.IModuleDef;
+import com.android.compatibility.common.tradefed.testtype.ModuleDef;
+import com.android.compatibility.common.tradefed.testtype.TestStub;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.InvocationResult;
+import com.android.tradefed.config.ConfigurationDescriptor;
+import com.android.tradefed.targetprep.ITargetPreparer;
+import com.android.tradefed.testtype.Abi;
+import com.android.tradefed.util.AbiUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ModuleRuntimeHistory}.
+ */
+public class ModuleRuntimeHistoryTest {
+
+    private static final String ABI = "arm64-v8a";
+    private static final String ID_A = AbiUtils.createId(ABI, "moduleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "moduleB");
+
+    @Test
+    public void testGetRuntime_percentile() {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(75);
+        for (long runtime : new long[] {400, 100, 300, 200}) {
+            history.addRuntime(ID_A, runtime);
+        }
+        assertEquals(300, history.getRuntime(ID_A, 1));
+        history = new ModuleRuntimeHistory(50);
+        history.addRuntime(ID_A, 100);
+        history.addRuntime(ID_A, 500);
+        assertEquals(100, history.getRuntime(ID_A, 1));
+    }
+
+    @Test
+    public void testGetRuntime_fallback() {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(75);
+        history.addRuntime(ID_A, 0);
+        assertFalse(history.hasRuntime(ID_A));
+        assertEquals(42, history.getRuntime(ID_A, 42));
+        // Unknown modules are estimated with their runtime hint
+        assertEquals(1L, history.getRuntime(createModule("moduleA")));
+    }
+
+    @Test
+    public void testAddSession_ignoresIncompleteModules() {
+        IInvocationResult result = new InvocationResult();
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.initializeDone(true);
+        moduleA.addRuntime(1000);
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        moduleB.initializeDone(false);
+        moduleB.addRuntime(5);
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(75);
+        history.addSession(result);
+        assertTrue(history.hasRuntime(ID_A));
+        assertFalse(history.hasRuntime(ID_B));
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    public void testSplit_usesHistory() {
+        List<IModuleDef> modules = new ArrayList<>();
+        modules.add(createModule("moduleA"));
+        modules.add(createModule("moduleB"));
+        modules.add(createModule("moduleC"));
+        // All runtime hints are equal, the first module is known to take the longest
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory(75);
+        history.addRuntime(ID_A, 1000);
+        history.addRuntime(ID_B, 10);
+        List<List<IModuleDef>> shards = LinearPartition.split(modules, 2, history);
+        assertEquals(2, shards.size());
+        assertEquals(1, shards.get(0).size());
+        assertEquals(ID_A, shards.get(0).get(0).getId());
+        assertEquals(2, shards.get(1).size());
+    }
+
+    private static IModuleDef createModule(String name) {
+        return new ModuleDef(name, new Abi(ABI, "64"), new TestStub(),
+                new ArrayList<ITargetPreparer>(), new ConfigurationDescriptor());
+    }
+}
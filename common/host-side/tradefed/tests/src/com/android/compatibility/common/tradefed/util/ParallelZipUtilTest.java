@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ParallelZipUtil}.
+ */
+@RunWith(JUnit4.class)
+public class ParallelZipUtilTest {
+
+    private File mDir;
+    private File mResultDir;
+    private File mZipFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("parallel-zip");
+        mResultDir = new File(mDir, "2018.01.01_00.00.00");
+        File logDir = new File(mResultDir, "logs");
+        logDir.mkdirs();
+        FileUtil.writeToFile("<Result />", new File(mResultDir, "test_result.xml"));
+        // Large enough to be spilled to a temporary file once compressed
+        StringBuilder log = new StringBuilder();
+        Random random = new Random(0);
+        while (log.length() < 4 * 1024 * 1024) {
+            log.append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        FileUtil.writeToFile(log.toString(), new File(logDir, "logcat.txt"));
+        try (OutputStream out = new GZIPOutputStream(
+                new FileOutputStream(new File(logDir, "host_log.txt.gz")))) {
+            out.write("host log".getBytes());
+        }
+        new File(mResultDir, "empty").mkdir();
+        mZipFile = new File(mDir, "results.zip");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    @Test
+    public void testCreateZip() throws Exception {
+        ParallelZipUtil.createZip(mResultDir, mZipFile, 3);
+
+        try (ZipFile zip = new ZipFile(mZipFile)) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+            // Same layout as ZipUtil, directories first and entries in directory order
+            String root = mResultDir.getName() + "/";
+            assertEquals(root, names.get(0));
+            assertTrue(names.indexOf(root + "logs/") < names.indexOf(root + "logs/logcat.txt"));
+            assertTrue(names.contains(root + "empty/"));
+            assertEquals(6, names.size());
+
+            ZipEntry log = zip.getEntry(root + "logs/logcat.txt");
+            assertEquals(ZipEntry.DEFLATED, log.getMethod());
+            assertTrue(log.getCompressedSize() < log.getSize());
+            assertContent(new File(mResultDir, "logs/logcat.txt"), zip, log);
+
+            ZipEntry gzippedLog = zip.getEntry(root + "logs/host_log.txt.gz");
+            assertEquals(ZipEntry.STORED, gzippedLog.getMethod());
+            assertContent(new File(mResultDir, "logs/host_log.txt.gz"), zip, gzippedLog);
+
+            assertContent(new File(mResultDir, "test_result.xml"), zip,
+                    zip.getEntry(root + "test_result.xml"));
+        }
+    }
+
+    @Test
+    public void testCreateZip_unreadableFile() throws Exception {
+        File unreadable = new File(mResultDir, "unreadable.txt");
+        FileUtil.writeToFile("secret", unreadable);
+        unreadable.setReadable(false);
+        if (unreadable.canRead()) {
+            // Running as root, nothing to test
+            return;
+        }
+        try {
+            ParallelZipUtil.createZip(mResultDir, mZipFile, 2);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testIsCompressed() {
+        assertTrue(ParallelZipUtil.isCompressed("host_log_123.txt.gz"));
+        assertTrue(ParallelZipUtil.isCompressed("screenshot.PNG"));
+        assertFalse(ParallelZipUtil.isCompressed("test_result.xml"));
+        assertFalse(ParallelZipUtil.isCompressed("README"));
+    }
+
+    private static void assertContent(File expected, ZipFile zip, ZipEntry entry)
+            throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream input = zip.getInputStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                content.write(buffer, 0, count);
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), content.toByteArray());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.json.stream.JsonReader;
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link PhaseProfiler}.
+ */
+@RunWith(JUnit4.class)
+public class PhaseProfilerTest {
+
+    private static final long START_MILLIS = 1500000000000L;
+
+    private long mNanos;
+    private PhaseProfiler mProfiler;
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mNanos = 1000;
+        mProfiler = new PhaseProfiler(() -> mNanos, START_MILLIS);
+        mDir = FileUtil.createTempDir("phase-profiler");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    @Test
+    public void testGetSummary() {
+        // Module setup with two preparers, the second one slow
+        try (PhaseProfiler.Phase setup =
+                mProfiler.start(PhaseProfiler.CATEGORY_MODULE, "setup", "arm64 Module")) {
+            runPhase(PhaseProfiler.CATEGORY_PREPARER, "ApkInstaller", 100);
+            runPhase(PhaseProfiler.CATEGORY_PREPARER, "ApkInstaller", 300);
+            mNanos += TimeUnit.MILLISECONDS.toNanos(50);
+        }
+        runPhase(PhaseProfiler.CATEGORY_CHECKER, "KeyguardStatusChecker", 100);
+        assertEquals(4, mProfiler.size());
+
+        String[] lines = mProfiler.getSummary(10).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("Category"));
+        // Longest total time first
+        assertTrue(lines[1].startsWith("module"));
+        assertTrue(lines[2], lines[2].matches(
+                "preparer +ApkInstaller +2 +0\\.40s +0\\.20s +0\\.30s +72\\.7"));
+        assertTrue(lines[3].startsWith("checker"));
+
+        lines = mProfiler.getSummary(1).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("... 2 more", lines[2]);
+    }
+
+    @Test
+    public void testClose_twice() {
+        PhaseProfiler.Phase phase = mProfiler.start(PhaseProfiler.CATEGORY_DEVICE, "reboot", null);
+        phase.close();
+        phase.close();
+        assertEquals(1, mProfiler.size());
+    }
+
+    @Test
+    public void testWriteTrace() throws Exception {
+        mNanos += TimeUnit.MILLISECONDS.toNanos(5);
+        try (PhaseProfiler.Phase setup =
+                mProfiler.start(PhaseProfiler.CATEGORY_MODULE, "setup", "arm64 Module")) {
+            runPhase(PhaseProfiler.CATEGORY_PREPARER, "ApkInstaller", 20);
+            mNanos += TimeUnit.MILLISECONDS.toNanos(1);
+        }
+        try (PhaseProfiler.Phase reboot =
+                mProfiler.start(PhaseProfiler.CATEGORY_DEVICE, "reboot", null)) {
+            mNanos += TimeUnit.MILLISECONDS.toNanos(30);
+        }
+        File trace = new File(mDir, "trace.json");
+        mProfiler.writeTrace(trace, "SERIAL");
+
+        List<Map<String, String>> events = readEvents(trace);
+        assertEquals(4, events.size());
+        assertEquals("thread_name", events.get(0).get("name"));
+        assertEquals("SERIAL", events.get(0).get("args.name"));
+        // Phases in start order, parents before the phases they contain
+        Map<String, String> setup = events.get(1);
+        assertEquals("setup", setup.get("name"));
+        assertEquals("module", setup.get("cat"));
+        assertEquals("X", setup.get("ph"));
+        assertEquals(Long.toString(START_MILLIS * 1000 + 5000), setup.get("ts"));
+        assertEquals("21000", setup.get("dur"));
+        assertEquals("arm64 Module", setup.get("args.module"));
+        assertEquals("ApkInstaller", events.get(2).get("name"));
+        Map<String, String> reboot = events.get(3);
+        assertEquals("reboot", reboot.get("name"));
+        assertEquals(Long.toString(START_MILLIS * 1000 + 26000), reboot.get("ts"));
+        assertEquals(null, reboot.get("args.module"));
+    }
+
+    private void runPhase(String category, String name, long millis) {
+        try (PhaseProfiler.Phase phase = mProfiler.start(category, name, "arm64 Module")) {
+            mNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    /**
+     * Reads the events of a trace, as their values by name. Values of nested objects are named
+     * after the object and their own name, e.g. "args.module".
+     */
+    private static List<Map<String, String>> readEvents(File trace) throws Exception {
+        List<Map<String, String>> events = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new FileReader(trace))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("traceEvents")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> event = new HashMap<>();
+                    readObject(reader, "", event);
+                    events.add(event);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        return events;
+    }
+
+    private static void readObject(JsonReader reader, String prefix, Map<String, String> values)
+            throws Exception {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = prefix + reader.nextName();
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    readObject(reader, name + ".", values);
+                    break;
+                default:
+                    values.put(name, reader.nextString());
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+}
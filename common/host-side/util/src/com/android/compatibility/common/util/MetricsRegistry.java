@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and histograms for host side tests that record many samples, such as long
+ * running performance tests.
+ * <p/>
+ * Metrics are looked up by name once, then recorded without locking nor allocating, from any
+ * thread. Histograms keep the count of samples per bucket instead of the samples, so that any
+ * number of samples can be recorded in constant memory. When the test ends,
+ * {@link #addTo(ReportLog)} adds a snapshot of the metrics to its report. A
+ * {@link MetricsReportLog} does so for the registry of {@link MetricsReportLog#getMetrics()} when
+ * it is submitted.
+ */
+public class MetricsRegistry {
+
+    /**
+     * Maximum number of buckets of a histogram added to a report, like the number of values kept
+     * by a {@link ReportLog.Metric}. Adjacent buckets are merged to fit.
+     */
+    static final int MAX_REPORTED_BUCKETS = 1000;
+
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 95, 99};
+
+    /** A metric of the registry. */
+    private abstract static class Metric {
+        final String mName;
+        final ResultType mType;
+        final ResultUnit mUnit;
+
+        Metric(String name, ResultType type, ResultUnit unit) {
+            mName = name;
+            mType = type;
+            mUnit = unit;
+        }
+
+        abstract void addTo(ReportLog reportLog);
+    }
+
+    /** A count of events, that only increases. */
+    public static class Counter extends Metric {
+        private final LongAdder mCount = new LongAdder();
+
+        Counter(String name, ResultUnit unit) {
+            super(name, ResultType.NEUTRAL, unit);
+        }
+
+        public void increment() {
+            mCount.increment();
+        }
+
+        public void add(long count) {
+            mCount.add(count);
+        }
+
+        public long get() {
+            return mCount.sum();
+        }
+
+        @Override
+        void addTo(ReportLog reportLog) {
+            reportLog.addValue(mName, (double) get(), mType, mUnit);
+        }
+    }
+
+    /** The last value set of a quantity. */
+    public static class Gauge extends Metric {
+        private final AtomicLong mBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+        Gauge(String name, ResultType type, ResultUnit unit) {
+            super(name, type, unit);
+        }
+
+        public void set(double value) {
+            mBits.set(Double.doubleToRawLongBits(value));
+        }
+
+        public double get() {
+            return Double.longBitsToDouble(mBits.get());
+        }
+
+        @Override
+        void addTo(ReportLog reportLog) {
+            reportLog.addValue(mName, get(), mType, mUnit);
+        }
+    }
+
+    /**
+     * The distribution of non-negative samples, with a relative error below 1%.
+     * <p/>
+     * Like HdrHistogram, samples are counted in buckets that are linear within each power of two:
+     * samples below {@link #SUB_BUCKETS} are counted exactly, and each power of two above is split
+     * into {@link #SUB_BUCKETS} / 2 buckets.
+     */
+    public static class Histogram extends Metric {
+        private static final int SUB_BUCKET_BITS = 7;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+        // Enough buckets for any non-negative long
+        static final int BUCKETS =
+                SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+        private final double mScale;
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mSum = new LongAdder();
+        private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(String name, ResultType type, ResultUnit unit, double scale) {
+            super(name, type, unit);
+            mScale = scale;
+        }
+
+        /**
+         * Records a sample.
+         *
+         * @throws IllegalArgumentException if the sample is negative.
+         */
+        public void record(long value) {
+            mCounts.incrementAndGet(bucketOf(value));
+            mCount.increment();
+            mSum.add(value);
+            long min;
+            while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+                // Retry with the new minimum
+            }
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Retry with the new maximum
+            }
+        }
+
+        public long getCount() {
+            return mCount.sum();
+        }
+
+        /**
+         * @return the mean of the samples, unscaled, or 0 if there are none.
+         */
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) mSum.sum() / count;
+        }
+
+        /**
+         * @return the smallest sample, or 0 if there are none.
+         */
+        public long getMin() {
+            long min = mMin.get();
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
+
+        /**
+         * @return the largest sample, or 0 if there are none.
+         */
+        public long getMax() {
+            long max = mMax.get();
+            return max == Long.MIN_VALUE ? 0 : max;
+        }
+
+        /**
+         * @return the sample at the given percentile, within the precision of its bucket, or 0 if
+         * there are none.
+         */
+        public long getPercentile(double percentile) {
+            long[] counts = snapshotCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // The exact extremes are known
+                    return Math.max(getMin(), Math.min(getMax(), valueOf(i)));
+                }
+            }
+            return getMax();
+        }
+
+        static int bucketOf(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException(
+                        String.format("Negative sample %d", value));
+            }
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // Keep the SUB_BUCKET_BITS highest bits, the highest one being always set
+            int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS
+                    + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+        }
+
+        /**
+         * @return the value representing the samples of a bucket, in its middle.
+         */
+        static long valueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+            long lowest = (long) ((bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS)
+                    << shift;
+            return lowest + ((1L << shift) - 1) / 2;
+        }
+
+        private long[] snapshotCounts() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * Adds the count, mean, extremes and main percentiles of the samples, then the samples
+         * themselves as the value of each non-empty bucket and its count. Adjacent buckets are
+         * merged when there are more than {@link #MAX_REPORTED_BUCKETS}.
+         */
+        @Override
+        void addTo(ReportLog reportLog) {
+            reportLog.addValue(mName + " count", (double) getCount(), ResultType.NEUTRAL,
+                    ResultUnit.COUNT);
+            if (getCount() == 0) {
+                return;
+            }
+            reportLog.addValue(mName + " mean", getMean() * mScale, mType, mUnit);
+            reportLog.addValue(mName + " min", getMin() * mScale, mType, mUnit);
+            reportLog.addValue(mName + " max", getMax() * mScale, mType, mUnit);
+            for (double percentile : REPORTED_PERCENTILES) {
+                reportLog.addValue(String.format("%s p%d", mName, (int) percentile),
+                        getPercentile(percentile) * mScale, mType, mUnit);
+            }
+
+            long[] counts = snapshotCounts();
+            int buckets = 0;
+            for (long count : counts) {
+                if (count > 0) {
+                    buckets++;
+                }
+            }
+            int merged = (buckets + MAX_REPORTED_BUCKETS - 1) / MAX_REPORTED_BUCKETS;
+            List<Double> values = new ArrayList<>();
+            List<Double> valueCounts = new ArrayList<>();
+            double weightedSum = 0;
+            long groupCount = 0;
+            int groupBuckets = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                weightedSum += (double) valueOf(i) * counts[i];
+                groupCount += counts[i];
+                if (++groupBuckets == merged) {
+                    values.add(weightedSum / groupCount * mScale);
+                    valueCounts.add((double) groupCount);
+                    weightedSum = 0;
+                    groupCount = 0;
+                    groupBuckets = 0;
+                }
+            }
+            if (groupCount > 0) {
+                values.add(weightedSum / groupCount * mScale);
+                valueCounts.add((double) groupCount);
+            }
+            reportLog.addValues(mName + " histogram", toArray(values), mType, mUnit);
+            reportLog.addValues(mName + " histogram counts", toArray(valueCounts),
+                    ResultType.NEUTRAL, ResultUnit.COUNT);
+        }
+
+        private static double[] toArray(List<Double> list) {
+            double[] array = new double[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+    private final Map<String, Metric> mMetrics = new ConcurrentHashMap<>();
+    // Order in which metrics are added to reports
+    private final List<Metric> mOrder = new ArrayList<>();
+
+    /**
+     * @return the counter of the given name, created if needed.
+     */
+    public Counter counter(String name, ResultUnit unit) {
+        return get(name, Counter.class, () -> new Counter(name, unit));
+    }
+
+    /**
+     * @return the gauge of the given name, created if needed.
+     */
+    public Gauge gauge(String name, ResultType type, ResultUnit unit) {
+        return get(name, Gauge.class, () -> new Gauge(name, type, unit));
+    }
+
+    /**
+     * @return the histogram of the given name, created if needed.
+     */
+    public Histogram histogram(String name, ResultType type, ResultUnit unit) {
+        return histogram(name, type, unit, 1);
+    }
+
+    /**
+     * @param scale the factor applied to samples when reported, e.g. 0.001 to record durations in
+     * microseconds and report them in milliseconds.
+     * @return the histogram of the given name, created if needed.
+     */
+    public Histogram histogram(String name, ResultType type, ResultUnit unit, double scale) {
+        return get(name, Histogram.class, () -> new Histogram(name, type, unit, scale));
+    }
+
+    private <T extends Metric> T get(String name, Class<T> clazz, Supplier<T> factory) {
+        Metric metric = mMetrics.get(name);
+        if (metric == null) {
+            synchronized (mOrder) {
+                metric = mMetrics.get(name);
+                if (metric == null) {
+                    metric = factory.get();
+                    mMetrics.put(name, metric);
+                    mOrder.add(metric);
+                }
+            }
+        }
+        if (!clazz.isInstance(metric)) {
+            throw new IllegalArgumentException(String.format("%s is a %s, not a %s", name,
+                    metric.getClass().getSimpleName(), clazz.getSimpleName()));
+        }
+        return clazz.cast(metric);
+    }
+
+    /**
+     * Adds a snapshot of all metrics to a report, in the order they were created. Samples
+     * recorded concurrently may or may not be included.
+     */
+    public void addTo(ReportLog reportLog) {
+        List<Metric> metrics;
+        synchronized (mOrder) {
+            metrics = new ArrayList<>(mOrder);
+        }
+        for (Metric metric : metrics) {
+            metric.addTo(reportLog);
+        }
+    }
+}
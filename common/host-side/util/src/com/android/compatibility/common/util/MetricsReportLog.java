@@ -29,6 +29,7 @@ public final class MetricsReportLog extends ReportLog {
     private final String mAbi;
     private final String mClassMethodName;
     private final IBuildInfo mBuildInfo;
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
 
     // Temporary folder must match the temp-dir value configured in ReportLogCollector target
     // preparer in cts/tools/cts-tradefed/res/config/cts-oreconditions.xml
@@ -268,9 +269,19 @@ public final class MetricsReportLog extends ReportLog {
     }
 
     /**
-     * Closes report file and submits report.
+     * @return the counters, gauges and histograms of the test, added to the report when it is
+     * submitted.
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Adds a snapshot of the metrics of {@link #getMetrics()}, closes report file and submits
+     * report.
      */
     public void submit() {
+        mMetrics.addTo(this);
         try {
             store.close();
             MetricsStore.storeResult(mBuildInfo, mAbi, mClassMethodName, this);
@@ -18,15 +18,25 @@ package com.android.compatibility.common.util;
 import com.android.json.stream.JsonWriter;
 import com.android.tradefed.util.FileUtil;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Stores the metrics of a stream in a report log file, in the same append-only format as
+ * ReportLogDeviceInfoStore: one JSON segment holding the stream per line, merged when the report
+ * logs are collected.
+ */
 public class ReportLogHostInfoStore extends HostInfoStore {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final String mStreamName;
     private File tempJsonFile;
 
@@ -41,59 +51,55 @@ public class ReportLogHostInfoStore extends HostInfoStore {
     @Override
     public void open() throws IOException {
         // Write new metrics to a temp file to avoid invalid JSON files due to failed tests.
-        BufferedWriter formatWriter;
         tempJsonFile = File.createTempFile(mStreamName, "-temp-report-log");
-        formatWriter = new BufferedWriter(new FileWriter(tempJsonFile));
-        if (mJsonFile.exists()) {
-            BufferedReader jsonReader = new BufferedReader(new FileReader(mJsonFile));
-            String currentLine;
-            String nextLine = jsonReader.readLine();
-            while ((currentLine = nextLine) != null) {
-                nextLine = jsonReader.readLine();
-                if (nextLine == null && currentLine.charAt(currentLine.length() - 1) == '}') {
-                    // Reopen overall JSON object to write new metrics.
-                    currentLine = currentLine.substring(0, currentLine.length() - 1) + ",";
-                }
-                // Copy to temp file directly to avoid large metrics string in memory.
-                formatWriter.write(currentLine, 0, currentLine.length());
-            }
-            jsonReader.close();
-        } else {
-            formatWriter.write("{", 0 , 1);
-        }
-        // Start new JSON object for new metrics.
-        formatWriter.write("\"" + mStreamName + "\":", 0, mStreamName.length() + 3);
-        formatWriter.flush();
-        formatWriter.close();
-        mJsonWriter = new JsonWriter(new FileWriter(tempJsonFile, true));
+        mJsonWriter = new JsonWriter(new OutputStreamWriter(
+                new FileOutputStream(tempJsonFile), StandardCharsets.UTF_8));
+        // Start the segment and the JSON object for new metrics.
+        mJsonWriter.beginObject();
+        mJsonWriter.name(mStreamName);
         mJsonWriter.beginObject();
     }
 
     /**
-     * Closes the writer.
+     * Closes the writer and appends the metrics to the report log.
      */
     @Override
     public void close() throws IOException {
         // Close JSON Writer.
         mJsonWriter.endObject();
+        mJsonWriter.endObject();
         mJsonWriter.close();
-        // Close overall JSON Object.
-        try (BufferedWriter formatWriter = new BufferedWriter(new FileWriter(tempJsonFile, true))) {
-            formatWriter.write("}", 0, 1);
+        try {
+            appendSegment();
+        } finally {
+            FileUtil.deleteFile(tempJsonFile);
         }
-        // Copy metrics from temp file and delete temp file.
-        mJsonFile.createNewFile();
+    }
+
+    /**
+     * Appends the metrics from the temp file to the report log, as a single line.
+     */
+    private void appendSegment() throws IOException {
         try (
-                BufferedReader jsonReader = new BufferedReader(new FileReader(tempJsonFile));
-                BufferedWriter metricsWriter = new BufferedWriter(new FileWriter(mJsonFile))
+                RandomAccessFile metricsFile = new RandomAccessFile(mJsonFile, "rw");
+                InputStream jsonInput =
+                        new BufferedInputStream(new FileInputStream(tempJsonFile), BUFFER_SIZE)
         ) {
-            String line;
-            while ((line = jsonReader.readLine()) != null) {
-                // Copy from temp file directly to avoid large metrics string in memory.
-                metricsWriter.write(line, 0, line.length());
+            long length = metricsFile.length();
+            if (length > 0) {
+                metricsFile.seek(length - 1);
+                if (metricsFile.read() != '\n') {
+                    // Terminate a segment cut short by an earlier crash, it is dropped on merge.
+                    metricsFile.write('\n');
+                }
             }
-        } finally {
-            FileUtil.deleteFile(tempJsonFile);
+            // Copy from temp file directly to avoid large metrics string in memory.
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = jsonInput.read(buffer)) > 0) {
+                metricsFile.write(buffer, 0, count);
+            }
+            metricsFile.write('\n');
         }
     }
 }
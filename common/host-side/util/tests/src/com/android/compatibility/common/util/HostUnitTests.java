@@ -27,6 +27,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
     BusinessLogicHostExecutorTest.class,
     DynamicConfigHandlerTest.class,
+    MetricsRegistryTest.class,
+    MetricsReportLogTest.class,
     ModuleResultTest.class,
     TestFilterTest.class,
 })
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times recording samples in the metrics of a {@link MetricsRegistry}, and measures what the
+ * recording threads allocate, on JVMs that can tell.
+ * <p/>
+ * Usage: MetricsRegistryBenchmark [-n samples] [-t threads]
+ * <br/>
+ * Every metric is timed with 1 to the given number of threads recording at once.
+ */
+public class MetricsRegistryBenchmark {
+
+    private static final int DEFAULT_SAMPLES = 10000000;
+    private static final int DEFAULT_THREADS = 4;
+    private static final int WARM_UP_PASSES = 3;
+
+    /** Records samples in a metric. */
+    private interface Recorder {
+        void record(long[] samples);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int samples = DEFAULT_SAMPLES;
+        int threads = DEFAULT_THREADS;
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                samples = Integer.parseInt(args[++i]);
+            } else if ("-t".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: MetricsRegistryBenchmark [-n samples] [-t threads]");
+                System.exit(1);
+            }
+        }
+
+        // Latencies in microseconds, spread over several powers of two
+        Random random = new Random(0);
+        long[] values = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 14);
+        }
+
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Histogram histogram = registry.histogram("latency",
+                ResultType.LOWER_BETTER, ResultUnit.MS, 0.001);
+        MetricsRegistry.Counter counter = registry.counter("frames", ResultUnit.COUNT);
+        MetricsRegistry.Gauge gauge = registry.gauge("temperature", ResultType.NEUTRAL,
+                ResultUnit.NONE);
+        for (int t = 1; t <= threads; t++) {
+            run("histogram", t, values, (s) -> {
+                for (long value : s) {
+                    histogram.record(value);
+                }
+            });
+            run("counter", t, values, (s) -> {
+                for (long value : s) {
+                    counter.add(value);
+                }
+            });
+            run("gauge", t, values, (s) -> {
+                for (long value : s) {
+                    gauge.set(value);
+                }
+            });
+        }
+        System.out.printf("%d samples recorded in the histogram%n", histogram.getCount());
+    }
+
+    /**
+     * Times each of the given number of threads recording all values, after warming up.
+     */
+    private static void run(String name, int threads, long[] values, Recorder recorder)
+            throws InterruptedException {
+        for (int i = 0; i < WARM_UP_PASSES; i++) {
+            recorder.record(values);
+        }
+        long[] allocated = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers.add(new Thread(() -> {
+                // What measuring allocates is not counted
+                long calibration = allocatedBytes();
+                long before = allocatedBytes();
+                recorder.record(values);
+                long after = allocatedBytes();
+                allocated[index] = before < 0 ? -1 : after - before - (before - calibration);
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long totalAllocated = 0;
+        for (long bytes : allocated) {
+            totalAllocated = bytes < 0 || totalAllocated < 0 ? -1 : totalAllocated + bytes;
+        }
+        long records = (long) values.length * threads;
+        System.out.printf("%s, %d threads: %.1f ns per record, %s%n", name, threads,
+                (double) elapsed / records, totalAllocated < 0 ? "allocation not measured"
+                        : String.format("%d bytes allocated", totalAllocated));
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
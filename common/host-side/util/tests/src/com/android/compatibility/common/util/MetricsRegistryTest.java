@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link MetricsRegistry}
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    /** A report keeping the values added, by message. */
+    private static class RecordingReportLog extends ReportLog {
+        final Map<String, double[]> mValues = new LinkedHashMap<>();
+
+        @Override
+        public void addValue(String message, double value, ResultType type, ResultUnit unit) {
+            mValues.put(message, new double[] {value});
+        }
+
+        @Override
+        public void addValues(String message, double[] values, ResultType type,
+                ResultUnit unit) {
+            mValues.put(message, values);
+        }
+    }
+
+    private MetricsRegistry mRegistry;
+    private RecordingReportLog mReportLog;
+
+    @Override
+    public void setUp() throws Exception {
+        mRegistry = new MetricsRegistry();
+        mReportLog = new RecordingReportLog();
+    }
+
+    public void testCounterAndGauge() throws Exception {
+        MetricsRegistry.Counter counter = mRegistry.counter("frames", ResultUnit.COUNT);
+        counter.increment();
+        counter.add(41);
+        assertSame(counter, mRegistry.counter("frames", ResultUnit.COUNT));
+        MetricsRegistry.Gauge gauge = mRegistry.gauge("temperature", ResultType.LOWER_BETTER,
+                ResultUnit.NONE);
+        gauge.set(36.5);
+        gauge.set(37.5);
+
+        mRegistry.addTo(mReportLog);
+        assertEquals(42, mReportLog.mValues.get("frames")[0], 0);
+        assertEquals(37.5, mReportLog.mValues.get("temperature")[0], 0);
+    }
+
+    public void testGet_otherKind() throws Exception {
+        mRegistry.counter("frames", ResultUnit.COUNT);
+        try {
+            mRegistry.histogram("frames", ResultType.NEUTRAL, ResultUnit.COUNT);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testHistogramBuckets() throws Exception {
+        // Exact below SUB_BUCKETS, then within 1% of the sample
+        for (long value = 0; value < MetricsRegistry.Histogram.SUB_BUCKETS; value++) {
+            assertEquals(value, MetricsRegistry.Histogram.valueOf(
+                    MetricsRegistry.Histogram.bucketOf(value)));
+        }
+        Random random = new Random(0);
+        int previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(Long.SIZE - 1));
+            int bucket = MetricsRegistry.Histogram.bucketOf(value);
+            assertTrue(bucket < MetricsRegistry.Histogram.BUCKETS);
+            long estimate = MetricsRegistry.Histogram.valueOf(bucket);
+            assertTrue(value + " " + estimate, Math.abs(estimate - value) <= value / 100);
+        }
+        assertEquals(MetricsRegistry.Histogram.BUCKETS - 1,
+                MetricsRegistry.Histogram.bucketOf(Long.MAX_VALUE));
+        // Buckets are ordered like samples
+        for (long value = 1; value < 1L << 20; value += value / 7 + 1) {
+            int bucket = MetricsRegistry.Histogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    public void testHistogram() throws Exception {
+        MetricsRegistry.Histogram histogram = mRegistry.histogram("latency",
+                ResultType.LOWER_BETTER, ResultUnit.MS, 0.001);
+        // One million samples, from 1 to 1000000 us
+        for (long value = 1; value <= 1000000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1000000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000.5, histogram.getMean(), 0);
+        assertEquals(500000, histogram.getPercentile(50), 5000);
+        assertEquals(990000, histogram.getPercentile(99), 9900);
+        assertEquals(1000000, histogram.getPercentile(100));
+
+        mRegistry.addTo(mReportLog);
+        assertEquals(1000000, mReportLog.mValues.get("latency count")[0], 0);
+        assertEquals(500.0005, mReportLog.mValues.get("latency mean")[0], 1e-9);
+        assertEquals(1000, mReportLog.mValues.get("latency max")[0], 0);
+        assertEquals(990, mReportLog.mValues.get("latency p99")[0], 9.9);
+        double[] values = mReportLog.mValues.get("latency histogram");
+        double[] counts = mReportLog.mValues.get("latency histogram counts");
+        assertTrue(values.length <= MetricsRegistry.MAX_REPORTED_BUCKETS);
+        assertEquals(values.length, counts.length);
+        double total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            if (i > 0) {
+                assertTrue(values[i] > values[i - 1]);
+            }
+        }
+        assertEquals(1000000, total, 0);
+    }
+
+    public void testHistogram_mergedBuckets() throws Exception {
+        MetricsRegistry.Histogram histogram = mRegistry.histogram("size",
+                ResultType.NEUTRAL, ResultUnit.BYTE);
+        // Samples in more buckets than can be reported
+        long count = 0;
+        for (long value = 1; value < 1L << 40; value += value / 200 + 1) {
+            histogram.record(value);
+            count++;
+        }
+        mRegistry.addTo(mReportLog);
+        double[] values = mReportLog.mValues.get("size histogram");
+        double[] counts = mReportLog.mValues.get("size histogram counts");
+        assertTrue(values.length > MetricsRegistry.MAX_REPORTED_BUCKETS / 2);
+        assertTrue(values.length <= MetricsRegistry.MAX_REPORTED_BUCKETS);
+        double total = 0;
+        for (double bucketCount : counts) {
+            total += bucketCount;
+        }
+        assertEquals(count, total, 0);
+        // The first buckets, of samples 1, 2 and 3, are merged into their mean
+        assertEquals(2, values[0], 0);
+        assertEquals(3, counts[0], 0);
+    }
+
+    public void testHistogram_empty() throws Exception {
+        mRegistry.histogram("latency", ResultType.LOWER_BETTER, ResultUnit.MS);
+        mRegistry.addTo(mReportLog);
+        assertEquals(1, mReportLog.mValues.size());
+        assertEquals(0, mReportLog.mValues.get("latency count")[0], 0);
+    }
+
+    public void testHistogram_negative() throws Exception {
+        try {
+            mRegistry.histogram("latency", ResultType.LOWER_BETTER, ResultUnit.MS).record(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testHistogram_concurrent() throws Exception {
+        MetricsRegistry.Histogram histogram = mRegistry.histogram("latency",
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final long offset = i;
+            threads[i] = new Thread(() -> {
+                for (long value = 0; value < 100000; value++) {
+                    histogram.record(value * threads.length + offset);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(399999, histogram.getMax());
+        assertEquals(199999.5, histogram.getMean(), 0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonToken;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link MetricsReportLog}
+ */
+public class MetricsReportLogTest extends TestCase {
+
+    private static final String ABI = "x86_64";
+    private static final String CLASS_METHOD = "MetricsReportLogTest#testSubmit";
+    private static final String REPORT_LOG_NAME = "MetricsReportLogTest";
+    private static final String STREAM_NAME = "stream";
+
+    private IBuildInfo mBuildInfo;
+    private File mReportLogFile;
+
+    @Override
+    public void setUp() throws Exception {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("START_TIME_MS", Long.toString(System.currentTimeMillis()));
+        mBuildInfo = EasyMock.createMock(IBuildInfo.class);
+        EasyMock.expect(mBuildInfo.getBuildAttributes()).andStubReturn(attributes);
+        EasyMock.replay(mBuildInfo);
+        mReportLogFile = new File(FileUtil.createNamedTempDir("temp-report-logs"),
+                REPORT_LOG_NAME + ".reportlog.json");
+        FileUtil.deleteFile(mReportLogFile);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.deleteFile(mReportLogFile);
+    }
+
+    public void testSubmit_metrics() throws Exception {
+        MetricsReportLog reportLog = new MetricsReportLog(mBuildInfo, ABI, CLASS_METHOD,
+                REPORT_LOG_NAME, STREAM_NAME);
+        MetricsRegistry.Histogram latency = reportLog.getMetrics().histogram("latency",
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        for (long value = 1; value <= 1000; value++) {
+            latency.record(value);
+        }
+        reportLog.getMetrics().counter("frames", ResultUnit.COUNT).add(42);
+        reportLog.submit();
+
+        assertSame(reportLog, MetricsStore.removeResult(mBuildInfo, ABI, CLASS_METHOD));
+        Map<String, List<Double>> metrics =
+                readStream(FileUtil.readStringFromFile(mReportLogFile));
+        assertEquals(42, metrics.get("frames").get(0), 0);
+        assertEquals(1000, metrics.get("latency count").get(0), 0);
+        assertEquals(1, metrics.get("latency min").get(0), 0);
+        assertEquals(1000, metrics.get("latency max").get(0), 10);
+        assertEquals(990, metrics.get("latency p99").get(0), 10);
+        List<Double> counts = metrics.get("latency histogram counts");
+        assertEquals(metrics.get("latency histogram").size(), counts.size());
+        double total = 0;
+        for (double count : counts) {
+            total += count;
+        }
+        assertEquals(1000, total, 0);
+    }
+
+    /**
+     * Reads the metrics of the only segment of a report log, by name.
+     */
+    private static Map<String, List<Double>> readStream(String json) throws Exception {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        assertEquals(STREAM_NAME, reader.nextName());
+        reader.beginObject();
+        Map<String, List<Double>> metrics = new HashMap<>();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            List<Double> values = new ArrayList<>();
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    values.add(reader.nextDouble());
+                }
+                reader.endArray();
+            } else {
+                values.add(reader.nextDouble());
+            }
+            metrics.put(name, values);
+        }
+        reader.endObject();
+        reader.endObject();
+        return metrics;
+    }
+}
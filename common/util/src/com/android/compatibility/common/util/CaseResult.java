@@ -29,6 +29,7 @@ public class CaseResult implements ICaseResult {
     private String mName;
 
     private Map<String, ITestResult> mResults = new HashMap<>();
+    private final ResultCounts mCounts = new ResultCounts();
 
     /**
      * Creates a {@link CaseResult} for the given name, eg &lt;package-name&gt;.&lt;class-name&gt;
@@ -52,12 +53,23 @@ public class CaseResult implements ICaseResult {
     public ITestResult getOrCreateResult(String testName) {
         ITestResult result = mResults.get(testName);
         if (result == null) {
-            result = new TestResult(this, testName);
-            mResults.put(testName, result);
+            TestResult testResult = createTestResult(testName);
+            testResult.addCounts(mCounts);
+            mResults.put(testName, testResult);
+            result = testResult;
         }
         return result;
     }
 
+    /**
+     * Creates the {@link TestResult} for the given name, called by
+     * {@link #getOrCreateResult(String)}. Subclasses may override to provide their own
+     * implementation.
+     */
+    protected TestResult createTestResult(String testName) {
+        return new TestResult(this, testName);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -95,6 +107,17 @@ public class CaseResult implements ICaseResult {
      */
     @Override
     public int countResults(TestStatus status) {
+        return mCounts.get(status, this::walkResults);
+    }
+
+    /**
+     * @return the counts of this case, maintained as its results change.
+     */
+    ResultCounts getCounts() {
+        return mCounts;
+    }
+
+    private int walkResults(TestStatus status) {
         int total = 0;
         for (ITestResult result : mResults.values()) {
             if (result.getResultStatus() == status) {
@@ -114,6 +137,10 @@ public class CaseResult implements ICaseResult {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Merged results are shared with the other case. Status changes of merged {@link TestResult}s
+     * are reflected in the counts of both cases, other implementations are counted with the
+     * status they have when merged.
      */
     @Override
     public void mergeFrom(ICaseResult otherCaseResult) {
@@ -124,7 +151,20 @@ public class CaseResult implements ICaseResult {
         }
 
         for (ITestResult otherTestResult : otherCaseResult.getResults()) {
-            mResults.put(otherTestResult.getName(), otherTestResult);
+            ITestResult previous = mResults.put(otherTestResult.getName(), otherTestResult);
+            if (previous == otherTestResult) {
+                continue; // already counted
+            }
+            if (previous instanceof TestResult) {
+                ((TestResult) previous).removeCounts(mCounts);
+            } else if (previous != null) {
+                mCounts.add(previous.getResultStatus(), -1);
+            }
+            if (otherTestResult instanceof TestResult) {
+                ((TestResult) otherTestResult).addCounts(mCounts);
+            } else {
+                mCounts.add(otherTestResult.getResultStatus(), 1);
+            }
         }
     }
 
@@ -24,6 +24,9 @@ import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,18 +34,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestException;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /***
  * Calculate and store checksum values for files and test results
+ *
+ * The checksum is stored in a versioned binary format that ends with a SHA-256 digest of its
+ * content, so that it can be memory-mapped and verified before it is read. Checksums stored by
+ * older versions as serialized Java objects can still be loaded.
  */
 public final class ChecksumReporter implements Serializable {
 
@@ -57,10 +77,23 @@ public final class ChecksumReporter implements Serializable {
     private static final short CURRENT_VERSION = 1;
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
+    // Magic number of the binary format, "CTSC"
+    static final int BINARY_FORMAT_CODE = 0x43545343;
+    static final short BINARY_FORMAT_VERSION = 1;
+    // First bytes of any stream written by ObjectOutputStream
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_LENGTH = 32;
+    // Files are hashed as a list of chunks so that large files are hashed in parallel
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
 
     private final BloomFilter<CharSequence> mResultChecksum;
-    private final HashMap<String, byte[]> mFileChecksum;
+    private final Map<String, byte[]> mFileChecksum;
     private final short mVersion;
+    // Files hashes of the serialized format are plain SHA-256 digests of the file
+    private final boolean mLegacyFileHashes;
+    private transient FileHasher mFileHasher = null;
 
     /***
      * Calculate checksum of test results and files in result directory and write to disk
@@ -69,13 +102,33 @@ public final class ChecksumReporter implements Serializable {
      * @return true if successful, false if unable to calculate or store the checksum
      */
     public static boolean tryCreateChecksum(File dir, IInvocationResult result) {
+        ChecksumReporter checksumReporter;
         try {
-            int totalCount = countTestResults(result);
-            ChecksumReporter checksumReporter =
-                    new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
+            checksumReporter = create(result);
             checksumReporter.addInvocation(result);
-            checksumReporter.addDirectory(dir);
-            checksumReporter.saveToFile(dir);
+        } catch (Exception e) {
+            return false;
+        }
+        return checksumReporter.trySaveWithDirectory(dir);
+    }
+
+    /***
+     * Create an empty ChecksumReporter sized for the test results of the given invocation
+     * @param result test results that will be added
+     */
+    public static ChecksumReporter create(IInvocationResult result) {
+        return new ChecksumReporter(countTestResults(result), DEFAULT_FPP, CURRENT_VERSION);
+    }
+
+    /***
+     * Calculate checksum of files in result directory and write all checksums to disk
+     * @param dir test results directory
+     * @return true if successful, false if unable to calculate or store the checksum
+     */
+    public boolean trySaveWithDirectory(File dir) {
+        try {
+            addDirectory(dir);
+            saveToFile(dir);
         } catch (Exception e) {
             return false;
         }
@@ -102,39 +155,148 @@ public final class ChecksumReporter implements Serializable {
      * @throws ChecksumValidationException
      */
     public ChecksumReporter(File directory) throws ChecksumValidationException {
-        File file = new File(directory, ChecksumReporter.NAME);
+        this(readFile(new File(directory, ChecksumReporter.NAME)));
+        if (mVersion > CURRENT_VERSION) {
+            throw new ChecksumValidationException(
+                    "File contains a newer version of ChecksumReporter");
+        }
+    }
+
+    /***
+     * Create new instance of ChecksumReporter
+     * @param testCount the number of test results that will be stored
+     * @param fpp the false positive percentage for result lookup misses
+     */
+    public ChecksumReporter(int testCount, double fpp, short version) {
+        this(new Contents(version, BloomFilter.create(Funnels.unencodedCharsFunnel(),
+                testCount, fpp), new ConcurrentHashMap<String, byte[]>(), false));
+    }
+
+    private ChecksumReporter(Contents contents) {
+        mVersion = contents.mVersion;
+        mResultChecksum = contents.mResultChecksum;
+        mFileChecksum = contents.mFileChecksum;
+        mLegacyFileHashes = contents.mLegacyFileHashes;
+    }
+
+    /***
+     * The content of a checksum file.
+     */
+    private static class Contents {
+        final short mVersion;
+        final BloomFilter<CharSequence> mResultChecksum;
+        final Map<String, byte[]> mFileChecksum;
+        final boolean mLegacyFileHashes;
+
+        Contents(short version, BloomFilter<CharSequence> resultChecksum,
+                Map<String, byte[]> fileChecksum, boolean legacyFileHashes) {
+            mVersion = version;
+            mResultChecksum = resultChecksum;
+            mFileChecksum = fileChecksum;
+            mLegacyFileHashes = legacyFileHashes;
+        }
+    }
+
+    private static Contents readFile(File file) throws ChecksumValidationException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(2);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() == 2 && (header.getShort() & 0xFFFF)
+                    == JAVA_SERIALIZATION_MAGIC) {
+                return readSerializedFile(file);
+            }
+            return readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (ChecksumValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ChecksumValidationException("Unable to load checksum from file", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Contents readSerializedFile(File file) throws ChecksumValidationException {
         try (FileInputStream fileStream = new FileInputStream(file);
             InputStream outputStream = new BufferedInputStream(fileStream);
             ObjectInput objectInput = new ObjectInputStream(outputStream)) {
             short magicNumber = objectInput.readShort();
             switch (magicNumber) {
                 case SERIALIZED_FORMAT_CODE:
-                   mVersion = objectInput.readShort();
-                    mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
-                    mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
-                    break;
+                    short version = objectInput.readShort();
+                    BloomFilter<CharSequence> resultChecksum =
+                            (BloomFilter<CharSequence>) objectInput.readObject();
+                    Map<String, byte[]> fileChecksum = new ConcurrentHashMap<>(
+                            (Map<String, byte[]>) objectInput.readObject());
+                    return new Contents(version, resultChecksum, fileChecksum, true);
                 default:
                     throw new ChecksumValidationException("Unknown format of serialized data.");
             }
+        } catch (ChecksumValidationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ChecksumValidationException("Unable to load checksum from file", e);
         }
-        if (mVersion > CURRENT_VERSION) {
+    }
+
+    /***
+     * Read the binary format:
+     * <pre>
+     * int magic, short format version, short version,
+     * int length, bloom filter of the test results,
+     * int count, count * (short length, UTF-8 key, byte length, file hash),
+     * SHA-256 digest of all the preceding bytes
+     * </pre>
+     */
+    private static Contents readBinary(ByteBuffer buffer)
+            throws IOException, ChecksumValidationException {
+        if (buffer.remaining() < HASH_LENGTH + 8) {
+            throw new ChecksumValidationException("Checksum file is truncated.");
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit(buffer.limit() - HASH_LENGTH);
+        MessageDigest digest = newDigest();
+        digest.update(content.duplicate());
+        byte[] expected = new byte[HASH_LENGTH];
+        ByteBuffer trailer = buffer.duplicate();
+        trailer.position(content.limit());
+        trailer.get(expected);
+        if (!MessageDigest.isEqual(expected, digest.digest())) {
+            throw new ChecksumValidationException("Checksum file is corrupted.");
+        }
+        if (content.getInt() != BINARY_FORMAT_CODE) {
+            throw new ChecksumValidationException("Unknown format of serialized data.");
+        }
+        short formatVersion = content.getShort();
+        if (formatVersion > BINARY_FORMAT_VERSION) {
             throw new ChecksumValidationException(
-                    "File contains a newer version of ChecksumReporter");
+                    "File contains a newer format of ChecksumReporter");
         }
+        short version = content.getShort();
+        ByteBuffer bloom = content.duplicate();
+        int bloomLength = content.getInt();
+        bloom.position(content.position());
+        bloom.limit(content.position() + bloomLength);
+        BloomFilter<CharSequence> resultChecksum = BloomFilter.readFrom(
+                new ByteBufferInputStream(bloom), Funnels.unencodedCharsFunnel());
+        content.position(content.position() + bloomLength);
+        int count = content.getInt();
+        Map<String, byte[]> fileChecksum = new ConcurrentHashMap<>(Math.max(16, count * 2));
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[content.getShort() & 0xFFFF];
+            content.get(key);
+            byte[] hash = new byte[content.get() & 0xFF];
+            content.get(hash);
+            fileChecksum.put(new String(key, StandardCharsets.UTF_8), hash);
+        }
+        return new Contents(version, resultChecksum, fileChecksum, false);
     }
 
     /***
-     * Create new instance of ChecksumReporter
-     * @param testCount the number of test results that will be stored
-     * @param fpp the false positive percentage for result lookup misses
+     * Use the file hashes calculated by the given {@link FileHasher} while the files were
+     * written, instead of hashing them again when they are added.
      */
-    public ChecksumReporter(int testCount, double fpp, short version) {
-        mResultChecksum = BloomFilter.create(Funnels.unencodedCharsFunnel(),
-                testCount, fpp);
-        mFileChecksum = new HashMap<>();
-        mVersion = version;
+    public void setFileHasher(FileHasher fileHasher) {
+        mFileHasher = fileHasher;
     }
 
     /***
@@ -158,11 +320,16 @@ public final class ChecksumReporter implements Serializable {
      * @param path part of the key to identify the files crc
      */
     public void addFile(File file, String path) {
-        byte[] crc;
-        try {
-            crc = calculateFileChecksum(file);
-        } catch (ChecksumValidationException e) {
-            crc = new byte[0];
+        byte[] crc = null;
+        if (mFileHasher != null) {
+            crc = mFileHasher.getChecksum(file);
+        }
+        if (crc == null) {
+            try {
+                crc = calculateFileChecksum(file);
+            } catch (ChecksumValidationException e) {
+                crc = new byte[0];
+            }
         }
         String key = path + SEPARATOR + file.getName();
         mFileChecksum.put(key, crc);
@@ -174,7 +341,8 @@ public final class ChecksumReporter implements Serializable {
         if (mFileChecksum.containsKey(key))
         {
             try {
-                byte[] crc = calculateFileChecksum(file);
+                byte[] crc = mLegacyFileHashes
+                        ? calculateLegacyFileChecksum(file) : calculateFileChecksum(file);
                 return Arrays.equals(mFileChecksum.get(key), crc);
             } catch (ChecksumValidationException e) {
                 return false;
@@ -184,23 +352,26 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Adds all child files recursively through all sub directories
+     * Adds all child files recursively through all sub directories, hashing them in parallel
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
-        addDirectory(directory, directory.getName());
+        List<String[]> files = new ArrayList<>();
+        listFiles(directory, directory.getName(), files);
+        files.parallelStream().forEach(f -> addFile(new File(f[0]), f[1]));
     }
 
     /***
      * @param path the relative path to the current directory from the base directory
+     * @param files receives the path of each file and the relative path of its directory
      */
-    private void addDirectory(File directory, String path) {
+    private static void listFiles(File directory, String path, List<String[]> files) {
         for(String childName : directory.list()) {
             File child = new File(directory, childName);
             if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
+                listFiles(child, path + SEPARATOR + child.getName(), files);
             } else {
-                addFile(child, path);
+                files.add(new String[] {child.getPath(), path});
             }
         }
     }
@@ -245,21 +416,36 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Write the checksum data to disk.
+     * Write the checksum data to disk in the binary format.
      * Overwrites existing file
      * @param directory
      * @throws IOException
      */
     public void saveToFile(File directory) throws IOException {
         File file = new File(directory, NAME);
-
+        MessageDigest digest = newDigest();
         try (FileOutputStream fileStream = new FileOutputStream(file, false);
-             OutputStream outputStream = new BufferedOutputStream(fileStream);
-             ObjectOutput objectOutput = new ObjectOutputStream(outputStream)) {
-            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
-            objectOutput.writeShort(mVersion);
-            objectOutput.writeObject(mResultChecksum);
-            objectOutput.writeObject(mFileChecksum);
+             OutputStream outputStream = new BufferedOutputStream(fileStream)) {
+            DataOutputStream dataOutput =
+                    new DataOutputStream(new DigestOutputStream(outputStream, digest));
+            dataOutput.writeInt(BINARY_FORMAT_CODE);
+            dataOutput.writeShort(BINARY_FORMAT_VERSION);
+            dataOutput.writeShort(mVersion);
+            ByteArrayOutputStream bloom = new ByteArrayOutputStream();
+            mResultChecksum.writeTo(bloom);
+            dataOutput.writeInt(bloom.size());
+            bloom.writeTo(dataOutput);
+            dataOutput.writeInt(mFileChecksum.size());
+            for (Map.Entry<String, byte[]> entry : mFileChecksum.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                dataOutput.writeShort(key.length);
+                dataOutput.write(key);
+                dataOutput.writeByte(entry.getValue().length);
+                dataOutput.write(entry.getValue());
+            }
+            dataOutput.flush();
+            // The digest covers everything before it
+            outputStream.write(digest.digest());
         }
     }
 
@@ -344,11 +530,60 @@ public final class ChecksumReporter implements Serializable {
         return sb.toString();
     }
 
+    /***
+     * Hash a file as the SHA-256 digest of the SHA-256 digests of its {@link #CHUNK_SIZE} chunks,
+     * hashing the chunks of large files in parallel
+     */
     static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            byte[][] chunkHashes = new byte[chunkCount][];
+            IntStream chunks = IntStream.range(0, chunkCount);
+            if (chunkCount > 1) {
+                chunks = chunks.parallel();
+            }
+            chunks.forEach(i -> {
+                long position = (long) i * CHUNK_SIZE;
+                chunkHashes[i] = hashChunk(channel, position,
+                        (int) Math.min(CHUNK_SIZE, size - position));
+            });
+            MessageDigest hashSum = newDigest();
+            for (byte[] chunkHash : chunkHashes) {
+                hashSum.update(chunkHash);
+            }
+            return hashSum.digest();
+        } catch (IOException | UncheckedIOException e) {
+            throw new ChecksumValidationException("Unable to hash file.", e);
+        }
+    }
+
+    private static byte[] hashChunk(FileChannel channel, long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                // Positional reads do not change the channel position, so they can be concurrent
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File changed while hashing");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        MessageDigest hashSum = newDigest();
+        hashSum.update(buffer);
+        return hashSum.digest();
+    }
+
+    /***
+     * Hash a file as a plain SHA-256 digest, as stored in the serialized format
+     */
+    static byte[] calculateLegacyFileChecksum(File file) throws ChecksumValidationException {
 
         try (FileInputStream fis = new FileInputStream(file);
              InputStream inputStream = new BufferedInputStream(fis)) {
-            MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
+            MessageDigest hashSum = MessageDigest.getInstance(HASH_ALGORITHM);
             int cnt;
             int bufferSize = 8192;
             byte [] buffer = new byte[bufferSize];
@@ -356,8 +591,8 @@ public final class ChecksumReporter implements Serializable {
                 hashSum.update(buffer, 0, cnt);
             }
 
-            byte[] partialHash = new byte[32];
-            hashSum.digest(partialHash, 0, 32);
+            byte[] partialHash = new byte[HASH_LENGTH];
+            hashSum.digest(partialHash, 0, HASH_LENGTH);
             return partialHash;
         } catch (NoSuchAlgorithmException e) {
             throw new ChecksumValidationException("Unable to hash file.", e);
@@ -368,6 +603,14 @@ public final class ChecksumReporter implements Serializable {
         }
     }
 
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
 
     private static int countTestResults(IInvocationResult invocation) {
         int count = 0;
@@ -381,6 +624,107 @@ public final class ChecksumReporter implements Serializable {
         return count;
     }
 
+    /***
+     * Hashes files in the background as soon as they are complete, so that the checksum of a
+     * result directory does not have to hash them all at the end of the invocation.
+     */
+    public static class FileHasher {
+        private static final int THREAD_COUNT = 2;
+
+        private static final long KEEP_ALIVE_SECONDS = 60;
+
+        // The threads are daemons that stop when idle, so an invocation aborted before the
+        // hasher is shut down does not leak them
+        private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(THREAD_COUNT,
+                THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "FileHasher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        public FileHasher() {
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+        private final Map<String, PendingChecksum> mChecksums = new ConcurrentHashMap<>();
+
+        private static class PendingChecksum {
+            final long mSize;
+            final long mLastModified;
+            final Future<byte[]> mChecksum;
+
+            PendingChecksum(long size, long lastModified, Future<byte[]> checksum) {
+                mSize = size;
+                mLastModified = lastModified;
+                mChecksum = checksum;
+            }
+        }
+
+        /***
+         * Start hashing a file that will not be modified anymore
+         */
+        public void hash(File file) {
+            final File absoluteFile = file.getAbsoluteFile();
+            mChecksums.put(absoluteFile.getPath(), new PendingChecksum(absoluteFile.length(),
+                    absoluteFile.lastModified(),
+                    mExecutor.submit(() -> calculateFileChecksum(absoluteFile))));
+        }
+
+        /***
+         * @return the checksum of the file calculated in the background, or null if the file was
+         * not hashed or changed since
+         */
+        byte[] getChecksum(File file) {
+            File absoluteFile = file.getAbsoluteFile();
+            PendingChecksum pending = mChecksums.get(absoluteFile.getPath());
+            if (pending == null || pending.mSize != absoluteFile.length()
+                    || pending.mLastModified != absoluteFile.lastModified()) {
+                return null;
+            }
+            try {
+                return pending.mChecksum.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        /***
+         * Stop hashing, checksums already calculated remain available
+         */
+        public void shutdown() {
+            mExecutor.shutdown();
+        }
+    }
+
+    /***
+     * An {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+    }
+
     public static class ChecksumValidationException extends Exception {
         public ChecksumValidationException(String detailMessage) {
             super(detailMessage);
@@ -32,6 +32,7 @@ public class InvocationResult implements IInvocationResult {
 
     private long mTimestamp;
     private Map<String, IModuleResult> mModuleResults = new LinkedHashMap<>();
+    private final ResultCounts mCounts = new ResultCounts();
     private Map<String, String> mInvocationInfo = new HashMap<>();
     private Set<String> mSerials = new HashSet<>();
     private String mBuildFingerprint;
@@ -56,6 +57,10 @@ public class InvocationResult implements IInvocationResult {
      */
     @Override
     public int countResults(TestStatus result) {
+        return mCounts.get(result, this::walkResults);
+    }
+
+    private int walkResults(TestStatus result) {
         int total = 0;
         for (IModuleResult m : mModuleResults.values()) {
             total += m.countResults(result);
@@ -82,12 +87,23 @@ public class InvocationResult implements IInvocationResult {
     public IModuleResult getOrCreateModule(String id) {
         IModuleResult moduleResult = mModuleResults.get(id);
         if (moduleResult == null) {
-            moduleResult = new ModuleResult(id);
-            mModuleResults.put(id, moduleResult);
+            ModuleResult newModuleResult = createModuleResult(id);
+            newModuleResult.getCounts().setParent(mCounts);
+            mModuleResults.put(id, newModuleResult);
+            moduleResult = newModuleResult;
         }
         return moduleResult;
     }
 
+    /**
+     * Creates the {@link ModuleResult} for the given id, called by
+     * {@link #getOrCreateModule(String)}. Subclasses may override to provide their own
+     * implementation.
+     */
+    protected ModuleResult createModuleResult(String id) {
+        return new ModuleResult(id);
+    }
+
     /**
      * {@inheritDoc}
      */
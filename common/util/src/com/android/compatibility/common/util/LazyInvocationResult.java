@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.IOException;
+
+/**
+ * Data structure for Compatibility test results that keeps test names and statuses on the heap,
+ * while failure messages, stack traces, logs and report logs are kept in a memory-mapped
+ * {@link ResultDetailStore} and only decoded when requested. Useful for loading large results
+ * that are mostly queried by status, e.g. for retry and subplan creation.
+ */
+public class LazyInvocationResult extends InvocationResult {
+
+    private final ResultDetailStore mStore;
+
+    /**
+     * Creates an empty {@link LazyInvocationResult}, backed by a new {@link ResultDetailStore}.
+     */
+    LazyInvocationResult() throws IOException {
+        mStore = new ResultDetailStore();
+    }
+
+    /**
+     * Completes loading of this result, after which stored details may be read.
+     */
+    void finishLoading() throws IOException {
+        mStore.finish();
+    }
+
+    /**
+     * Discards the stored details of a result that could not be loaded.
+     */
+    void discard() {
+        mStore.discard();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ModuleResult createModuleResult(String id) {
+        return new ModuleResult(id) {
+            @Override
+            protected CaseResult createCaseResult(String caseName) {
+                return new CaseResult(caseName) {
+                    @Override
+                    protected TestResult createTestResult(String testName) {
+                        return new LazyTestResult(this, testName, mStore);
+                    }
+                };
+            }
+        };
+    }
+}
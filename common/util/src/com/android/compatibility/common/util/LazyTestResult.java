@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * A {@link TestResult} whose failure message, stack trace, logs and report log can be moved to a
+ * {@link ResultDetailStore} and are then decoded each time they are requested.
+ */
+class LazyTestResult extends TestResult {
+
+    private final ResultDetailStore mStore;
+    private long mDetailOffset = ResultDetailStore.NO_DETAILS;
+
+    LazyTestResult(ICaseResult parent, String name, ResultDetailStore store) {
+        super(parent, name);
+        mStore = store;
+    }
+
+    /**
+     * Moves the details of this result from the heap to the store.
+     */
+    void offload() throws IOException, XmlPullParserException {
+        if (mDetailOffset != ResultDetailStore.NO_DETAILS) {
+            return; // already offloaded
+        }
+        ReportLog report = super.getReportLog();
+        long offset = mStore.append(super.getMessage(), super.getStackTrace(),
+                super.getBugReport(), super.getLog(), super.getScreenshot(),
+                report == null ? null : ReportLog.serialize(report));
+        if (offset != ResultDetailStore.NO_DETAILS) {
+            super.setMessage(null);
+            super.setStackTrace(null);
+            super.setBugReport(null);
+            super.setLog(null);
+            super.setScreenshot(null);
+            super.setReportLog(null);
+            mDetailOffset = offset;
+        }
+    }
+
+    /**
+     * Moves the details of this result back to the heap, so that they may be modified.
+     */
+    private void materialize() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return;
+        }
+        String message = getDetail(ResultDetailStore.MESSAGE);
+        String stackTrace = getDetail(ResultDetailStore.STACK_TRACE);
+        String bugReport = getDetail(ResultDetailStore.BUG_REPORT);
+        String log = getDetail(ResultDetailStore.LOG);
+        String screenshot = getDetail(ResultDetailStore.SCREENSHOT);
+        ReportLog report = getReportLog();
+        mDetailOffset = ResultDetailStore.NO_DETAILS;
+        super.setMessage(message);
+        super.setStackTrace(stackTrace);
+        super.setBugReport(bugReport);
+        super.setLog(log);
+        super.setScreenshot(screenshot);
+        super.setReportLog(report);
+    }
+
+    private String getDetail(int field) {
+        return mStore.get(mDetailOffset, field);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getMessage() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getMessage();
+        }
+        return getDetail(ResultDetailStore.MESSAGE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMessage(String message) {
+        materialize();
+        super.setMessage(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStackTrace() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getStackTrace();
+        }
+        return getDetail(ResultDetailStore.STACK_TRACE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStackTrace(String stackTrace) {
+        materialize();
+        super.setStackTrace(stackTrace);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReportLog getReportLog() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getReportLog();
+        }
+        String report = getDetail(ResultDetailStore.REPORT_LOG);
+        if (report == null) {
+            return null;
+        }
+        try {
+            return ReportLog.parse(report);
+        } catch (XmlPullParserException | IOException e) {
+            throw new IllegalStateException("Unable to read stored report log", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setReportLog(ReportLog report) {
+        materialize();
+        super.setReportLog(report);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getBugReport() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getBugReport();
+        }
+        return getDetail(ResultDetailStore.BUG_REPORT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBugReport(String path) {
+        materialize();
+        super.setBugReport(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLog() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getLog();
+        }
+        return getDetail(ResultDetailStore.LOG);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLog(String path) {
+        materialize();
+        super.setLog(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getScreenshot() {
+        if (mDetailOffset == ResultDetailStore.NO_DETAILS) {
+            return super.getScreenshot();
+        }
+        return getDetail(ResultDetailStore.SCREENSHOT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setScreenshot(String path) {
+        materialize();
+        super.setScreenshot(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        // Stored details are dropped along with the rest of the result
+        mDetailOffset = ResultDetailStore.NO_DETAILS;
+        super.reset();
+    }
+}
@@ -26,7 +26,8 @@ import java.util.Set;
 /**
  * Data structure for storing finalized Compatibility test results with minimum memory.
  * This implementation stores only enough ModuleResult information to return empty modules
- * of the correct ids (names and abis) upon {@link IInvocationResult}'s getModules() method.
+ * of the correct ids (names and abis), runtimes and completion upon {@link IInvocationResult}'s
+ * getModules() method.
  */
 public class LightInvocationResult implements IInvocationResult {
 
@@ -41,8 +42,27 @@ public class LightInvocationResult implements IInvocationResult {
     private RetryChecksumStatus mRetryChecksumStatus;
     private File mRetryDirectory;
     private Set<String> mModuleIds;
+    private Map<String, Long> mModuleRuntimes;
+    private Set<String> mDoneModuleIds;
     private Map<TestStatus, Integer> mResultCounts;
 
+    /**
+     * Constructor for an empty result, to be populated from a result summary by
+     * {@link ResultHandler}.
+     */
+    LightInvocationResult() {
+        mInvocationInfo = new HashMap<String, String>();
+        mSerials = new HashSet<String>();
+        mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
+        mModuleIds = new HashSet<String>();
+        mModuleRuntimes = new HashMap<String, Long>();
+        mDoneModuleIds = new HashSet<String>();
+        mResultCounts = new HashMap<TestStatus, Integer>();
+        for (TestStatus status : TestStatus.values()) {
+            mResultCounts.put(status, 0);
+        }
+    }
+
     /**
      * Constructor that takes a reference to an existing result (light or complete) and
      * initializes instance variables accordingly. This class must NOT save any reference to the
@@ -60,8 +80,10 @@ public class LightInvocationResult implements IInvocationResult {
         mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
         mRetryDirectory = result.getRetryDirectory();
         mModuleIds = new HashSet<String>();
+        mModuleRuntimes = new HashMap<String, Long>();
+        mDoneModuleIds = new HashSet<String>();
         for (IModuleResult module : result.getModules()) {
-            mModuleIds.add(module.getId());
+            addModule(module.getId(), module.getRuntime(), module.isDone());
         }
         mResultCounts = new HashMap<TestStatus, Integer>();
         for (TestStatus status : TestStatus.values()) {
@@ -76,11 +98,30 @@ public class LightInvocationResult implements IInvocationResult {
     public List<IModuleResult> getModules() {
         List<IModuleResult> modules = new ArrayList<IModuleResult>();
         for (String id : mModuleIds) {
-            modules.add(new ModuleResult(id));
+            ModuleResult module = new ModuleResult(id);
+            Long runtime = mModuleRuntimes.get(id);
+            if (runtime != null) {
+                module.addRuntime(runtime);
+            }
+            module.initializeDone(mDoneModuleIds.contains(id));
+            modules.add(module);
         }
         return modules; // return empty modules
     }
 
+    /**
+     * Add a module with the given runtime and completion.
+     */
+    void addModule(String id, long runtime, boolean done) {
+        mModuleIds.add(id);
+        if (runtime > 0) {
+            mModuleRuntimes.put(id, runtime);
+        }
+        if (done) {
+            mDoneModuleIds.add(id);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -97,6 +138,20 @@ public class LightInvocationResult implements IInvocationResult {
         return mNotExecuted;
     }
 
+    /**
+     * Set the number of tests that have not been executed.
+     */
+    void setNotExecuted(int numTests) {
+        mNotExecuted = numTests;
+    }
+
+    /**
+     * Set the number of results with the given status.
+     */
+    void setResultCount(TestStatus status, int count) {
+        mResultCounts.put(status, count);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -215,6 +270,13 @@ public class LightInvocationResult implements IInvocationResult {
         return mModuleCompleteCount;
     }
 
+    /**
+     * Set the number of completed test modules.
+     */
+    void setModuleCompleteCount(int count) {
+        mModuleCompleteCount = count;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -38,6 +38,7 @@ public class ModuleResult implements IModuleResult {
     private int mNotExecuted = 0;
 
     private Map<String, ICaseResult> mResults = new HashMap<>();
+    private final ResultCounts mCounts = new ResultCounts();
 
     /**
      * Creates a {@link ModuleResult} for the given id, created with
@@ -210,12 +211,23 @@ public class ModuleResult implements IModuleResult {
     public ICaseResult getOrCreateResult(String caseName) {
         ICaseResult result = mResults.get(caseName);
         if (result == null) {
-            result = new CaseResult(caseName);
-            mResults.put(caseName, result);
+            CaseResult caseResult = createCaseResult(caseName);
+            caseResult.getCounts().setParent(mCounts);
+            mResults.put(caseName, caseResult);
+            result = caseResult;
         }
         return result;
     }
 
+    /**
+     * Creates the {@link CaseResult} for the given name, called by
+     * {@link #getOrCreateResult(String)}. Subclasses may override to provide their own
+     * implementation.
+     */
+    protected CaseResult createCaseResult(String caseName) {
+        return new CaseResult(caseName);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -239,6 +251,17 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public int countResults(TestStatus status) {
+        return mCounts.get(status, this::walkResults);
+    }
+
+    /**
+     * @return the counts of this module, maintained as its results change.
+     */
+    ResultCounts getCounts() {
+        return mCounts;
+    }
+
+    private int walkResults(TestStatus status) {
         int total = 0;
         for (ICaseResult result : mResults.values()) {
             total += result.countResults(status);
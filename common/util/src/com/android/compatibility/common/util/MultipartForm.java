@@ -17,6 +17,9 @@
 package com.android.compatibility.common.util;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,17 +29,26 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /** Builds a multipart form and submits it. */
 class MultipartForm {
 
     private static final String FORM_DATA_BOUNDARY = "C75I55u3R3p0r73r";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 5 * 1000;
 
     /* package */ final String mServerUrl;
     /* package */ final Map<String, String> mFormValues = new HashMap<String, String>();
     /* package */ String mName;
     /* package */ String mFileName;
     /* package */ byte[] mData;
+    /* package */ File mFile;
+    /* package */ long mRetryDelayMs = RETRY_DELAY_MS;
+    // Where the server redirected the form to
+    private String mResolvedUrl;
 
     /**
      * Creates a new multi-part form with the given serverUrl.
@@ -69,27 +81,63 @@ class MultipartForm {
         mName = name;
         mFileName = fileName;
         mData = data;
+        mFile = null;
+        return this;
+    }
+
+    /**
+     * Adds the file as the payload of the form. The file is gzipped while the form is sent, so
+     * it is never held in memory.
+     *
+     * @param name The name of attribute
+     * @param fileName The file's name
+     * @param file The file to gzip
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    public MultipartForm addGzippedFormFile(String name, String fileName, File file) {
+        mName = name;
+        mFileName = fileName;
+        mData = null;
+        mFile = file;
         return this;
     }
 
     /**
      * Submits the form to the server url.
      *
-     * This will handle a redirection from the server.
+     * This will handle a redirection from the server, and retry a few times if the server
+     * cannot be reached or fails with a server error.
      *
      * @return response code
      * @throws IOException
      */
     public int submit() throws IOException {
-        return submitForm(mServerUrl);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // Redirects were already followed by a previous attempt
+                return submitForm(mResolvedUrl != null ? mResolvedUrl : mServerUrl, 0);
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS
+                        || (e instanceof HttpException && !((HttpException) e).isRetryable())) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(mRetryDelayMs * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
     }
 
     /**
      * @param serverUrl to post the data to
+     * @param redirects the number of redirects followed so far
      * @return response code
      * @throws IOException
      */
-    private int submitForm(String serverUrl) throws IOException {
+    private int submitForm(String serverUrl, int redirects) throws IOException {
         HttpURLConnection connection = null;
         try {
             URL url = new URL(serverUrl);
@@ -100,24 +148,47 @@ class MultipartForm {
             connection.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + FORM_DATA_BOUNDARY);
 
-            byte[] body = getContentBody();
-            connection.setRequestProperty("Content-Length", Integer.toString(body.length));
+            if (mFile != null) {
+                // The size of the gzipped file is only known once sent
+                connection.setChunkedStreamingMode(BUFFER_SIZE);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    writeContentBody(output);
+                } finally {
+                    output.close();
+                }
+            } else {
+                byte[] body = getContentBody();
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(body);
+                } finally {
+                    output.close();
+                }
+            }
 
-            OutputStream output = connection.getOutputStream();
-            try {
-                output.write(body);
-            } finally {
-                output.close();
+            int response = connection.getResponseCode();
+            if (response == HttpURLConnection.HTTP_MOVED_TEMP
+                    || response == HttpURLConnection.HTTP_SEE_OTHER
+                    || response == 307 /* temporary redirect */) {
+                if (redirects >= MAX_REDIRECTS) {
+                    throw new HttpException(response, "Too many redirects from " + mServerUrl);
+                }
+                String location = new URL(url, connection.getHeaderField("Location")).toString();
+                // Retries go straight to the new location. The body is generated again from the
+                // form data, not buffered.
+                mResolvedUrl = location;
+                return submitForm(location, redirects + 1);
+            }
+            if (response >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new HttpException(response, "Server returned HTTP response code: "
+                        + response + " for URL: " + serverUrl);
             }
 
             // Open the stream to get a response. Otherwise request will be cancelled.
             InputStream input = connection.getInputStream();
             input.close();
-
-            int response = connection.getResponseCode();
-            if (response == 302) {
-                return submitForm(connection.getHeaderField("Location"));
-            }
             return response;
         } finally {
             if (connection != null) {
@@ -128,23 +199,56 @@ class MultipartForm {
 
     /* package */ byte[] getContentBody() throws IOException {
         ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(new OutputStreamWriter(byteOutput));
+        writeContentBody(byteOutput);
+        return byteOutput.toByteArray();
+    }
+
+    /**
+     * Writes the body of the form to the given stream, without closing it.
+     */
+    /* package */ void writeContentBody(OutputStream output) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
         writer.println();
 
         for (Map.Entry<String, String> formValue : mFormValues.entrySet()) {
             writeFormField(writer, formValue.getKey(), formValue.getValue());
         }
 
-        if (mData != null) {
+        if (mData != null || mFile != null) {
             writeFormFileHeader(writer, mName, mFileName);
             writer.flush(); // Must flush here before writing to the byte stream!
-            byteOutput.write(mData);
+            if (mData != null) {
+                output.write(mData);
+            } else {
+                writeGzippedFile(output);
+            }
             writer.println();
         }
         writer.append("--").append(FORM_DATA_BOUNDARY).println("--");
         writer.flush();
-        writer.close();
-        return byteOutput.toByteArray();
+    }
+
+    private void writeGzippedFile(OutputStream output) throws IOException {
+        // Closing the gzip stream releases its deflater, but must not close the form's stream
+        OutputStream unclosableOutput = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (InputStream input = new FileInputStream(mFile);
+                GZIPOutputStream gzipOutput = new GZIPOutputStream(unclosableOutput, BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                gzipOutput.write(buffer, 0, count);
+            }
+        }
     }
 
     private void writeFormField(PrintWriter writer, String name, String value) {
@@ -162,4 +266,20 @@ class MultipartForm {
         writer.println("Content-Transfer-Encoding: binary");
         writer.println();
     }
+
+    /** An HTTP error response, only worth retrying for server errors. */
+    private static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mResponse;
+
+        HttpException(int response, String message) {
+            super(message);
+            mResponse = response;
+        }
+
+        boolean isRetryable() {
+            return mResponse >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
 }
@@ -16,9 +16,15 @@
 
 package com.android.compatibility.common.util;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -64,7 +70,9 @@ public class ReadElf implements AutoCloseable {
     private static final int SHT_GNU_VERNEED = 0x6ffffffe;
     private static final int SHT_GNU_VERSYM = 0x6fffffff;
 
-    public static class Symbol {
+    public static class Symbol implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public static final int STB_LOCAL = 0;
         public static final int STB_GLOBAL = 1;
         public static final int STB_WEAK = 2;
@@ -251,7 +259,9 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    public static class VerNeed {
+    public static class VerNeed implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public final int vn_version;
         public final int vn_cnt;
         public final long vn_file;
@@ -298,7 +308,9 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    public static class VerNAux {
+    public static class VerNAux implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public final long vna_hash;
         public final int vna_flags;
         public final int vna_other;
@@ -337,7 +349,9 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    public static class VerDef {
+    public static class VerDef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public final int vd_version;
         public final int vd_flags;
         public final int vd_ndx;
@@ -388,7 +402,9 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    public static class VerDAux {
+    public static class VerDAux implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public final long vda_name;
         public final long vda_next;
         public String vda_lib_name;
@@ -412,8 +428,9 @@ public class ReadElf implements AutoCloseable {
     }
 
     private final String mPath;
-    private final RandomAccessFile mFile;
-    private final byte[] mBuffer = new byte[512];
+    /** The whole file, mapped read-only. Fields are decoded in place instead of read one by one. */
+    private final ByteBuffer mData;
+    private final byte[] mBuffer = new byte[EI_NIDENT];
     private int mEndian;
     private boolean mIsDynamic;
     private boolean mIsPIE;
@@ -484,13 +501,13 @@ public class ReadElf implements AutoCloseable {
 
     private int mVerDefEntryCnt;
 
-    /** Symbol Table symbol names */
+    /** Symbol Table symbol names, indexed from the symbol array on first lookup */
     private Map<String, Symbol> mSymbols;
 
     /** Symbol Table symbol array */
     private Symbol[] mSymArr;
 
-    /** Dynamic Symbol Table symbol names */
+    /** Dynamic Symbol Table symbol names, indexed from the symbol array on first lookup */
     private Map<String, Symbol> mDynamicSymbols;
 
     /** Dynamic Symbol Table symbol array */
@@ -549,28 +566,37 @@ public class ReadElf implements AutoCloseable {
 
     public Map<String, Symbol> getSymbols() throws IOException {
         if (mSymbols == null) {
-            getSymbol("");
+            mSymbols = indexSymbols(getSymArr());
         }
         return mSymbols;
     }
 
     public Symbol[] getSymArr() throws IOException {
         if (mSymArr == null) {
-            getSymbol("");
+            Symbol[] symArr = new Symbol[mSymEntCnt];
+            readSymbolTable(symArr, false, mStrTabOffset, mStrTabSize, mSymTabOffset,
+                    mSymTabSize);
+            mSymArr = symArr;
         }
         return mSymArr;
     }
 
     public Map<String, Symbol> getDynamicSymbols() throws IOException {
         if (mDynamicSymbols == null) {
-            getDynamicSymbol("");
+            mDynamicSymbols = indexSymbols(getDynSymArr());
         }
         return mDynamicSymbols;
     }
 
     public Symbol[] getDynSymArr() throws IOException {
         if (mDynSymArr == null) {
-            getDynamicSymbol("");
+            getVerSym();
+            getVerNeedArr();
+            getVerDef();
+            Symbol[] dynSymArr = new Symbol[mDynSymEntCnt];
+            readSymbolTable(dynSymArr, true, mDynStrOffset, mDynStrSize, mDynSymOffset,
+                    mDynSymSize);
+            mDynSymArr = dynSymArr;
         }
         return mDynSymArr;
     }
@@ -589,10 +615,16 @@ public class ReadElf implements AutoCloseable {
 
     private ReadElf(File file) throws IOException {
         mPath = file.getPath();
-        mFile = new RandomAccessFile(file, "r");
-
-        if (mFile.length() < EI_NIDENT) {
-            throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < EI_NIDENT) {
+                throw new IllegalArgumentException("Too small to be an ELF file: " + file);
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Too large to be mapped: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
         }
 
         readHeader();
@@ -600,24 +632,13 @@ public class ReadElf implements AutoCloseable {
 
     @Override
     public void close() {
-        try {
-            mFile.close();
-        } catch (IOException ignored) {
-        }
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            close();
-        } finally {
-            super.finalize();
-        }
+        // Nothing to release, the file was closed once mapped and the mapping goes away with
+        // this object.
     }
 
     private void readHeader() throws IOException {
-        mFile.seek(0);
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
+        seek(0);
+        readFully(mBuffer, EI_NIDENT);
 
         if (mBuffer[0] != ELFMAG[0]
                 || mBuffer[1] != ELFMAG[1]
@@ -642,6 +663,7 @@ public class ReadElf implements AutoCloseable {
         } else {
             throw new IOException("Invalid ELF EI_DATA: " + mEndian + ": " + mPath);
         }
+        mData.order(ByteOrder.LITTLE_ENDIAN);
 
         mType = readHalf();
 
@@ -696,7 +718,7 @@ public class ReadElf implements AutoCloseable {
             throws IOException {
         // Read the Section Header String Table offset first.
         {
-            mFile.seek(sh_off + e_shstrndx * e_shentsize);
+            seek(sh_off + e_shstrndx * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -718,7 +740,7 @@ public class ReadElf implements AutoCloseable {
                 continue;
             }
 
-            mFile.seek(sh_off + i * e_shentsize);
+            seek(sh_off + i * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -808,7 +830,7 @@ public class ReadElf implements AutoCloseable {
 
     private void readProgramHeaders(long ph_off, int e_phnum, int e_phentsize) throws IOException {
         for (int i = 0; i < e_phnum; ++i) {
-            mFile.seek(ph_off + i * e_phentsize);
+            seek(ph_off + i * e_phentsize);
 
             long p_type = readWord();
             if (p_type == PT_LOAD) {
@@ -827,7 +849,7 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    private HashMap<String, Symbol> readSymbolTable(
+    private void readSymbolTable(
             Symbol[] symArr,
             boolean isDynSym,
             long symStrOffset,
@@ -835,10 +857,9 @@ public class ReadElf implements AutoCloseable {
             long tableOffset,
             long tableSize)
             throws IOException {
-        HashMap<String, Symbol> result = new HashMap<String, Symbol>();
-        mFile.seek(tableOffset);
+        seek(tableOffset);
         int i = 0;
-        while (mFile.getFilePointer() < tableOffset + tableSize) {
+        while (mData.position() < tableOffset + tableSize) {
             long st_name = readWord();
             int st_info;
             int st_shndx;
@@ -867,9 +888,6 @@ public class ReadElf implements AutoCloseable {
             }
 
             Symbol sym = new Symbol(symName, st_info, st_shndx, st_value, st_size, st_other);
-            if (symName.equals("")) {
-                result.put(symName, sym);
-            }
             if (isDynSym) {
                 if (mVerNeedEntryCnt > 0) {
                     if (sym.type == Symbol.STT_NOTYPE) {
@@ -888,7 +906,17 @@ public class ReadElf implements AutoCloseable {
                 String.format(
                         "Info readSymbolTable: %s, isDynSym %b, symbol# %d",
                         mPath, isDynSym, symArr.length));
-        return result;
+    }
+
+    /** Indexes the named symbols of a symbol table by name. */
+    private static Map<String, Symbol> indexSymbols(Symbol[] symArr) {
+        Map<String, Symbol> symbols = new HashMap<String, Symbol>();
+        for (Symbol sym : symArr) {
+            if (sym != null && sym.name != null && !sym.name.isEmpty()) {
+                symbols.put(sym.name, sym);
+            }
+        }
+        return symbols;
     }
 
     private String readShStrTabEntry(long strOffset) throws IOException {
@@ -915,7 +943,7 @@ public class ReadElf implements AutoCloseable {
 
     private int[] getVerSym() throws IOException {
         if (mVerSym == null) {
-            mFile.seek(mVerSymTabOffset);
+            seek(mVerSymTabOffset);
             int cnt = (int) mVerSymTabSize / 2;
             mVerSym = new int[cnt];
             for (int i = 0; i < cnt; i++) {
@@ -954,7 +982,7 @@ public class ReadElf implements AutoCloseable {
 
             long idx = mVerNeedTabOffset;
             for (int i = 2; i < mVerNeedEntryCnt + 2; i++) {
-                mFile.seek(idx);
+                seek(idx);
                 mVerNeedArr[i] =
                         new VerNeed(readHalf(), readHalf(), readWord(), readWord(), readWord());
                 mVerNeedArr[i].vn_file_name = readDynStrTabEntry(mVerNeedArr[i].vn_file).toLowerCase();
@@ -962,7 +990,7 @@ public class ReadElf implements AutoCloseable {
                 mVerNeedArr[i].vn_vernaux = new VerNAux[mVerNeedArr[i].vn_cnt];
                 long idxAux = idx + mVerNeedArr[i].vn_aux;
                 for (int j = 0; j < mVerNeedArr[i].vn_cnt; j++) {
-                    mFile.seek(idxAux);
+                    seek(idxAux);
                     mVerNeedArr[i].vn_vernaux[j] =
                             new VerNAux(readWord(), readHalf(), readHalf(), readWord(), readWord());
                     mVerNeedArr[i].vn_vernaux[j].vna_lib_name =
@@ -988,7 +1016,7 @@ public class ReadElf implements AutoCloseable {
 
             long idx = mVerDefTabOffset;
             for (int i = 2; i < mVerDefEntryCnt + 2; i++) {
-                mFile.seek(idx);
+                seek(idx);
                 mVerDefArr[i] =
                         new VerDef(
                                 readHalf(),
@@ -1002,7 +1030,7 @@ public class ReadElf implements AutoCloseable {
                 mVerDefArr[i].vd_verdaux = new VerDAux[mVerDefArr[i].vd_cnt];
                 long idxAux = idx + mVerDefArr[i].vd_aux;
                 for (int j = 0; j < mVerDefArr[i].vd_cnt; j++) {
-                    mFile.seek(idxAux);
+                    seek(idxAux);
                     mVerDefArr[i].vd_verdaux[j] = new VerDAux(readWord(), readWord());
                     mVerDefArr[i].vd_verdaux[j].vda_lib_name =
                             readDynStrTabEntry(mVerDefArr[i].vd_verdaux[j].vda_name).toLowerCase();
@@ -1032,80 +1060,76 @@ public class ReadElf implements AutoCloseable {
     }
 
     private long readX(int byteCount) throws IOException {
-        mFile.readFully(mBuffer, 0, byteCount);
-
-        int answer = 0;
-        if (mEndian == ELFDATA2LSB) {
-            for (int i = byteCount - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
-        } else {
-            final int N = byteCount - 1;
-            for (int i = 0; i <= N; ++i) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
+        try {
+            switch (byteCount) {
+                case 2:
+                    return mData.getShort() & 0xffff;
+                case 4:
+                    return mData.getInt() & 0xffffffffL;
+                default:
+                    return mData.getLong();
             }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
         }
+    }
 
-        return answer;
+    private void readFully(byte[] buffer, int byteCount) throws IOException {
+        try {
+            mData.get(buffer, 0, byteCount);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
+        }
     }
 
+    private void seek(long offset) throws IOException {
+        if (offset < 0 || offset > mData.limit()) {
+            throw new EOFException("Offset " + offset + " outside of ELF file: " + mPath);
+        }
+        mData.position((int) offset);
+    }
+
+    /**
+     * Reads the NUL terminated string at the given offset without moving the current position.
+     */
     private String readString(long offset) throws IOException {
-        long originalOffset = mFile.getFilePointer();
-        mFile.seek(offset);
-        mFile.readFully(mBuffer, 0, (int) Math.min(mBuffer.length, mFile.length() - offset));
-        mFile.seek(originalOffset);
-
-        for (int i = 0; i < mBuffer.length; ++i) {
-            if (mBuffer[i] == 0) {
-                return new String(mBuffer, 0, i);
+        if (offset < 0 || offset >= mData.limit()) {
+            throw new EOFException("Offset " + offset + " outside of ELF file: " + mPath);
+        }
+        int start = (int) offset;
+        for (int end = start; end < mData.limit(); end++) {
+            if (mData.get(end) == 0) {
+                byte[] bytes = new byte[end - start];
+                ByteBuffer name = mData.duplicate();
+                name.position(start);
+                name.get(bytes);
+                return new String(bytes);
             }
         }
-
         return null;
     }
 
     private int readByte() throws IOException {
-        return mFile.read() & 0xff;
+        try {
+            return mData.get() & 0xff;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of ELF file: " + mPath);
+        }
     }
 
     public Symbol getSymbol(String name) {
-        if (mSymbols == null) {
-            try {
-                mSymArr = new Symbol[mSymEntCnt];
-                mSymbols =
-                        readSymbolTable(
-                                mSymArr,
-                                false,
-                                mStrTabOffset,
-                                mStrTabSize,
-                                mSymTabOffset,
-                                mSymTabSize);
-            } catch (IOException e) {
-                return null;
-            }
+        try {
+            return getSymbols().get(name);
+        } catch (IOException e) {
+            return null;
         }
-        return mSymbols.get(name);
     }
 
     public Symbol getDynamicSymbol(String name) throws IOException {
-        if (mDynamicSymbols == null) {
-            try {
-                int[] verSmyArr = this.getVerSym();
-                VerNeed[] verNeedArr = this.getVerNeedArr();
-                VerDef[] verDefArr = this.getVerDef();
-                mDynSymArr = new Symbol[mDynSymEntCnt];
-                mDynamicSymbols =
-                        readSymbolTable(
-                                mDynSymArr,
-                                true,
-                                mDynStrOffset,
-                                mDynStrSize,
-                                mDynSymOffset,
-                                mDynSymSize);
-            } catch (IOException e) {
-                return null;
-            }
+        try {
+            return getDynamicSymbols().get(name);
+        } catch (IOException e) {
+            return null;
         }
-        return mDynamicSymbols.get(name);
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Number of test results of each {@link TestStatus}, maintained incrementally as results change.
+ * Changes are forwarded to the parent counts, so that counts of a case, module or invocation
+ * result can be read without walking its children.
+ */
+class ResultCounts {
+
+    /* Set this property to true to enable the consistency check, e.g. in test runs */
+    static final String CONSISTENCY_CHECK_PROPERTY = "compatibility.result-counts.check";
+
+    private static volatile boolean sConsistencyCheck =
+            Boolean.getBoolean(CONSISTENCY_CHECK_PROPERTY);
+
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(TestStatus.values().length);
+    private volatile ResultCounts mParent;
+
+    /**
+     * Set the counts that changes to these counts are forwarded to.
+     */
+    void setParent(ResultCounts parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Add the given delta to the count of the given status, ignoring null statuses.
+     */
+    void add(TestStatus status, int delta) {
+        if (status == null) {
+            return;
+        }
+        mCounts.addAndGet(status.ordinal(), delta);
+        ResultCounts parent = mParent;
+        if (parent != null) {
+            parent.add(status, delta);
+        }
+    }
+
+    /**
+     * Move one result from a status to another.
+     */
+    void move(TestStatus from, TestStatus to) {
+        if (from != to) {
+            add(from, -1);
+            add(to, 1);
+        }
+    }
+
+    /**
+     * @return the number of results with the given status
+     */
+    int get(TestStatus status) {
+        return mCounts.get(status.ordinal());
+    }
+
+    /**
+     * Returns the count of the given status, after checking it against the count computed by
+     * walking the result tree when the consistency check is enabled.
+     * @throws IllegalStateException if the counts do not match
+     */
+    int get(TestStatus status, CountWalker walker) {
+        int count = get(status);
+        if (sConsistencyCheck) {
+            int walked = walker.walk(status);
+            if (walked != count) {
+                throw new IllegalStateException(String.format(
+                        "Inconsistent %s count: maintained %d, found %d",
+                        status.getValue(), count, walked));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Enable or disable checking maintained counts against the result tree on every read.
+     * Intended for tests, as each read becomes proportional to the number of results.
+     */
+    static void setConsistencyCheck(boolean enabled) {
+        sConsistencyCheck = enabled;
+    }
+
+    /**
+     * Computes a count by walking the result tree.
+     */
+    interface CountWalker {
+        int walk(TestStatus status);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only store for the detail strings of test results (failure messages, stack traces, logs
+ * and report logs), backed by a memory-mapped temporary file.
+ * <p/>
+ * Records are appended while a result is loaded and addressed by the offset returned from
+ * {@link #append(String...)}. Once {@link #finish()} is called the file is mapped read-only and
+ * individual fields can be decoded on demand, so that they do not need to be kept on the heap.
+ */
+public class ResultDetailStore {
+
+    /** Offset returned for records that are not stored. */
+    public static final long NO_DETAILS = -1;
+
+    /* Field indexes of a record */
+    static final int MESSAGE = 0;
+    static final int STACK_TRACE = 1;
+    static final int BUG_REPORT = 2;
+    static final int LOG = 3;
+    static final int SCREENSHOT = 4;
+    static final int REPORT_LOG = 5;
+    static final int FIELD_COUNT = 6;
+
+    /* Size of each mapped region, records never span two regions */
+    private static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+    private final int mRegionSize;
+    private File mFile;
+    private DataOutputStream mOutput;
+    private long mPosition = 0;
+    private ByteBuffer[] mRegions;
+
+    /**
+     * Creates a {@link ResultDetailStore} backed by a new temporary file.
+     */
+    public ResultDetailStore() throws IOException {
+        this(DEFAULT_REGION_SIZE);
+    }
+
+    ResultDetailStore(int regionSize) throws IOException {
+        mRegionSize = regionSize;
+        mFile = File.createTempFile("result-details", ".dat");
+        mFile.deleteOnExit();
+        mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+    }
+
+    /**
+     * Appends a record with the given fields, in the order of the field indexes.
+     * @return the offset of the record, or {@link #NO_DETAILS} if all fields are null or the
+     * record is too large to be stored.
+     */
+    public long append(String... fields) throws IOException {
+        if (mOutput == null) {
+            throw new IllegalStateException("Store is no longer writable");
+        }
+        if (fields.length != FIELD_COUNT) {
+            throw new IllegalArgumentException(
+                    String.format("Expected %d fields, found %d", FIELD_COUNT, fields.length));
+        }
+        boolean empty = true;
+        byte[][] encoded = new byte[FIELD_COUNT][];
+        long size = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (fields[i] != null) {
+                empty = false;
+                encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                size += encoded[i].length;
+            }
+            size += Integer.BYTES;
+        }
+        if (empty || size > mRegionSize) {
+            return NO_DETAILS;
+        }
+        long remaining = mRegionSize - (mPosition % mRegionSize);
+        if (size > remaining) {
+            // Pad to the start of the next region
+            for (long i = 0; i < remaining; i++) {
+                mOutput.write(0);
+            }
+            mPosition += remaining;
+        }
+        long offset = mPosition;
+        for (byte[] bytes : encoded) {
+            if (bytes == null) {
+                mOutput.writeInt(-1);
+            } else {
+                mOutput.writeInt(bytes.length);
+                mOutput.write(bytes);
+            }
+        }
+        mPosition += size;
+        return offset;
+    }
+
+    /**
+     * Completes writing and maps the store for reading. The backing file is removed where the
+     * platform allows it, the mapping remains valid until it is garbage collected.
+     */
+    public void finish() throws IOException {
+        mOutput.close();
+        mOutput = null;
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r");
+                FileChannel channel = file.getChannel()) {
+            int count = (int) ((mPosition + mRegionSize - 1) / mRegionSize);
+            mRegions = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * mRegionSize;
+                mRegions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(mRegionSize, mPosition - start));
+            }
+        }
+        mFile.delete();
+    }
+
+    /**
+     * Discards the store without mapping it.
+     */
+    public void discard() {
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException ignored) {}
+            mOutput = null;
+        }
+        mFile.delete();
+    }
+
+    /**
+     * Decodes a single field of the record at the given offset.
+     * @param offset the offset returned by {@link #append(String...)}
+     * @param field the index of the field
+     * @return the value of the field, which may be null
+     */
+    public String get(long offset, int field) {
+        if (mRegions == null) {
+            throw new IllegalStateException("Store has not been finished");
+        }
+        ByteBuffer region = mRegions[(int) (offset / mRegionSize)];
+        int index = (int) (offset % mRegionSize);
+        for (int i = 0; i < field; i++) {
+            index += Integer.BYTES + Math.max(region.getInt(index), 0);
+        }
+        int length = region.getInt(index);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = region.duplicate();
+        view.position(index + Integer.BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
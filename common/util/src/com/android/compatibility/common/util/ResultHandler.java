@@ -60,6 +60,7 @@ public class ResultHandler {
     private static final String RESULT_FILE_VERSION = "5.0";
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
     public static final String FAILURE_REPORT_NAME = "test_result_failures.html";
+    public static final String RESULT_SUMMARY_FILE_NAME = "test_result_summary.xml";
     private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
 
     public static final String[] RESULT_RESOURCES = {
@@ -93,6 +94,7 @@ public class ResultHandler {
     private static final String MODULE_TAG = "Module";
     private static final String MODULES_DONE_ATTR = "modules_done";
     private static final String MODULES_TOTAL_ATTR = "modules_total";
+    private static final String NOT_EXECUTED_ATTR = "not_executed";
     private static final String NAME_ATTR = "name";
     private static final String OS_ARCH_ATTR = "os_arch";
     private static final String OS_NAME_ATTR = "os_name";
@@ -101,6 +103,7 @@ public class ResultHandler {
     private static final String REPORT_VERSION_ATTR = "report_version";
     private static final String REFERENCE_URL_ATTR = "reference_url";
     private static final String RESULT_ATTR = "result";
+    private static final String RESULT_SUMMARY_TAG = "ResultSummary";
     private static final String RESULT_TAG = "Result";
     private static final String RUNTIME_ATTR = "runtime";
     private static final String SCREENSHOT_TAG = "Screenshot";
@@ -119,17 +122,18 @@ public class ResultHandler {
     /**
      * Returns IInvocationResults that can be queried for general reporting information, but that
      * do not store underlying module data. Useful for summarizing invocation history.
+     * <p/>
+     * Only the summary file of each session is read, so the cost does not depend on the size
+     * of the results.
      * @param resultsDir
-     * @param useChecksum
      */
     public static List<IInvocationResult> getLightResults(File resultsDir) {
         List<IInvocationResult> results = new ArrayList<>();
         List<File> files = getResultDirectories(resultsDir);
         for (File resultDir : files) {
-            IInvocationResult result = getResultFromDir(resultDir, false);
+            IInvocationResult result = getLightResultFromDir(resultDir);
             if (result != null) {
-                results.add(new LightInvocationResult(result));
-                result = null; // ensure all references are removed to free memory
+                results.add(result);
             }
         }
         // Sort the table entries on each entry's timestamp.
@@ -139,6 +143,39 @@ public class ResultHandler {
         return results;
     }
 
+    /**
+     * Returns a light IInvocationResult for the given result directory. The result is read from
+     * the summary file written next to the result file, which is rebuilt from the result file if
+     * it is missing or older than the result file.
+     * @param resultDir
+     * @return a light IInvocationResult for this result, or null upon error
+     */
+    public static IInvocationResult getLightResultFromDir(File resultDir) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            return null;
+        }
+        File summaryFile = new File(resultDir, RESULT_SUMMARY_FILE_NAME);
+        if (summaryFile.exists() && summaryFile.lastModified() >= resultFile.lastModified()) {
+            try {
+                LightInvocationResult result = parseSummary(summaryFile);
+                result.setRetryDirectory(resultDir);
+                return result;
+            } catch (XmlPullParserException | IOException | RuntimeException e) {
+                // Summary is unreadable, rebuild it from the result file below
+            }
+        }
+        try {
+            LightInvocationResult result = scanResultFile(resultFile);
+            result.setRetryDirectory(resultDir);
+            writeSummary(result, resultDir);
+            return result;
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * @param resultDir
      * @return an IInvocationResult for this result, or null upon error
@@ -153,13 +190,49 @@ public class ResultHandler {
      * @return an IInvocationResult for this result, or null upon error
      */
     public static IInvocationResult getResultFromDir(File resultDir, Boolean useChecksum) {
+        return parseResultFromDir(resultDir, useChecksum, new InvocationResult());
+    }
+
+    /**
+     * Returns a {@link LazyInvocationResult} for this result, which keeps failure messages, stack
+     * traces, logs and report logs off the heap until they are requested. Prefer this over
+     * {@link #getResultFromDir(File, Boolean)} when mostly test names and statuses are queried.
+     * @param resultDir
+     * @param useChecksum
+     * @return an IInvocationResult for this result, or null upon error
+     */
+    public static IInvocationResult getLazyResultFromDir(File resultDir, Boolean useChecksum) {
+        if (!new File(resultDir, TEST_RESULT_FILE_NAME).exists()) {
+            return null;
+        }
+        LazyInvocationResult invocation = null;
+        try {
+            invocation = new LazyInvocationResult();
+            if (parseResultFromDir(resultDir, useChecksum, invocation) != null) {
+                invocation.finishLoading();
+                return invocation;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (invocation != null) {
+            invocation.discard();
+        }
+        return null;
+    }
+
+    /**
+     * Populates the given invocation with the result found in the given directory.
+     * @return the given invocation, or null upon error
+     */
+    private static IInvocationResult parseResultFromDir(File resultDir, Boolean useChecksum,
+            IInvocationResult invocation) {
         try {
             File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
             if (!resultFile.exists()) {
                 return null;
             }
             Boolean invocationUseChecksum = useChecksum;
-            IInvocationResult invocation = new InvocationResult();
             invocation.setRetryDirectory(resultDir);
             ChecksumReporter checksumReporter = null;
             if (invocationUseChecksum) {
@@ -260,6 +333,9 @@ public class ResultHandler {
                         if (checksumMismatch) {
                             test.removeResult();
                         }
+                        if (test instanceof LazyTestResult) {
+                            ((LazyTestResult) test).offload();
+                        }
                     }
                     parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
                 }
@@ -295,6 +371,27 @@ public class ResultHandler {
             long startTime, long endTime, String referenceUrl, String logUrl,
             String commandLineArgs)
                     throws IOException, XmlPullParserException {
+        ChecksumReporter checksum = createChecksumReporter(result);
+        File resultFile = writeResults(suiteName, suiteVersion, suitePlan, suiteBuild, result,
+                resultDir, startTime, endTime, referenceUrl, logUrl, commandLineArgs, checksum);
+        createChecksum(resultDir, result, checksum);
+        return resultFile;
+    }
+
+    /**
+     * Writes the result file and summary, adding the signature of each module and test result to
+     * the given checksum as it is written so that the results are only traversed once. The
+     * checksum is not saved, see {@link #createChecksum(File, IInvocationResult,
+     * ChecksumReporter)}.
+     *
+     * @param checksum the checksum to add result signatures to, may be null
+     * @return The result file created.
+     */
+    public static File writeResults(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, ChecksumReporter checksum)
+                    throws IOException, XmlPullParserException {
         int passed = result.countResults(TestStatus.PASS);
         int failed = result.countResults(TestStatus.FAIL);
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
@@ -374,7 +471,11 @@ public class ResultHandler {
         serializer.endTag(NS, SUMMARY_TAG);
 
         // Results
+        String buildFingerprint = result.getBuildFingerprint();
         for (IModuleResult module : result.getModules()) {
+            if (checksum != null) {
+                checksum.addModuleResult(module, buildFingerprint);
+            }
             serializer.startTag(NS, MODULE_TAG);
             serializer.attribute(NS, NAME_ATTR, module.getName());
             serializer.attribute(NS, ABI_ATTR, module.getAbi());
@@ -390,6 +491,9 @@ public class ResultHandler {
                     if (status == null) {
                         continue; // test was not executed, don't report
                     }
+                    if (checksum != null) {
+                        checksum.addTestResult(r, module, buildFingerprint);
+                    }
                     serializer.startTag(NS, TEST_TAG);
                     serializer.attribute(NS, RESULT_ATTR, status.getValue());
                     serializer.attribute(NS, NAME_ATTR, r.getName());
@@ -437,15 +541,230 @@ public class ResultHandler {
             serializer.endTag(NS, MODULE_TAG);
         }
         serializer.endDocument();
-        createChecksum(resultDir, result);
+        stream.close();
+        writeSummary(result, resultDir);
         return resultFile;
     }
 
+    /**
+     * Writes the summary file for the given result, which allows listing the session without
+     * parsing the result file. Failing to write the summary does not disrupt the process, as it
+     * is rebuilt on demand.
+     */
+    private static void writeSummary(IInvocationResult result, File resultDir) {
+        File summaryFile = new File(resultDir, RESULT_SUMMARY_FILE_NAME);
+        try (OutputStream stream = new FileOutputStream(summaryFile)) {
+            XmlSerializer serializer =
+                    XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+            serializer.setOutput(stream, ENCODING);
+            serializer.startDocument(ENCODING, false);
+            serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            serializer.startTag(NS, RESULT_SUMMARY_TAG);
+            serializer.attribute(NS, REPORT_VERSION_ATTR, RESULT_FILE_VERSION);
+            serializer.attribute(NS, START_TIME_ATTR, String.valueOf(result.getStartTime()));
+            optionalAttribute(serializer, SUITE_PLAN_ATTR, result.getTestPlan());
+            optionalAttribute(serializer, COMMAND_LINE_ARGS, result.getCommandLineArgs());
+            optionalAttribute(serializer, BUILD_FINGERPRINT, result.getBuildFingerprint());
+            serializer.attribute(NS, DEVICES_ATTR, String.join(",", result.getDeviceSerials()));
+            serializer.attribute(NS, NOT_EXECUTED_ATTR,
+                    Integer.toString(result.getNotExecuted()));
+            serializer.attribute(NS, MODULES_DONE_ATTR,
+                    Integer.toString(result.getModuleCompleteCount()));
+            for (TestStatus status : TestStatus.values()) {
+                serializer.attribute(NS, status.getValue(),
+                        Integer.toString(result.countResults(status)));
+            }
+
+            serializer.startTag(NS, BUILD_TAG);
+            for (Entry<String, String> entry : result.getInvocationInfo().entrySet()) {
+                optionalAttribute(serializer, entry.getKey(), entry.getValue());
+            }
+            serializer.endTag(NS, BUILD_TAG);
+
+            for (IModuleResult module : result.getModules()) {
+                serializer.startTag(NS, MODULE_TAG);
+                serializer.attribute(NS, NAME_ATTR, module.getName());
+                serializer.attribute(NS, ABI_ATTR, module.getAbi());
+                serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
+                serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
+                serializer.endTag(NS, MODULE_TAG);
+            }
+            serializer.endTag(NS, RESULT_SUMMARY_TAG);
+            serializer.endDocument();
+        } catch (XmlPullParserException | IOException e) {
+            // Remove any partial summary so that it is rebuilt on the next read
+            summaryFile.delete();
+        }
+    }
+
+    /**
+     * Reads a light result from a summary file written by {@link #writeSummary}.
+     */
+    private static LightInvocationResult parseSummary(File summaryFile)
+            throws XmlPullParserException, IOException {
+        try (FileReader reader = new FileReader(summaryFile)) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_SUMMARY_TAG);
+            if (!RESULT_FILE_VERSION.equals(parser.getAttributeValue(NS, REPORT_VERSION_ATTR))) {
+                throw new XmlPullParserException("Unsupported summary version");
+            }
+            LightInvocationResult result = new LightInvocationResult();
+            result.setStartTime(Long.parseLong(parser.getAttributeValue(NS, START_TIME_ATTR)));
+            result.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
+            result.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+            result.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
+            addDeviceSerials(result, parser.getAttributeValue(NS, DEVICES_ATTR));
+            result.setNotExecuted(
+                    Integer.parseInt(parser.getAttributeValue(NS, NOT_EXECUTED_ATTR)));
+            result.setModuleCompleteCount(
+                    Integer.parseInt(parser.getAttributeValue(NS, MODULES_DONE_ATTR)));
+            for (TestStatus status : TestStatus.values()) {
+                result.setResultCount(status,
+                        Integer.parseInt(parser.getAttributeValue(NS, status.getValue())));
+            }
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                result.addInvocationInfo(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
+
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+                addModule(result, parser);
+                parser.nextTag();
+                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+            }
+            parser.require(XmlPullParser.END_TAG, NS, RESULT_SUMMARY_TAG);
+            return result;
+        }
+    }
+
+    /**
+     * Builds a light result by streaming through the result file, counting test statuses
+     * without retaining failure details, logs or report logs.
+     */
+    private static LightInvocationResult scanResultFile(File resultFile)
+            throws XmlPullParserException, IOException {
+        try (FileReader reader = new FileReader(resultFile)) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            LightInvocationResult result = new LightInvocationResult();
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            result.setStartTime(Long.valueOf(parser.getAttributeValue(NS, START_TIME_ATTR)));
+            result.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
+            result.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+            addDeviceSerials(result, parser.getAttributeValue(NS, DEVICES_ATTR));
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                result.addInvocationInfo(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            result.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
+            skipChildren(parser);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
+            skipChildren(parser);
+
+            int[] counts = new int[TestStatus.values().length];
+            int modulesDone = 0;
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+                if (addModule(result, parser)) {
+                    modulesDone++;
+                }
+                while (parser.nextTag() == XmlPullParser.START_TAG) {
+                    parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+                    while (parser.nextTag() == XmlPullParser.START_TAG) {
+                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                        TestStatus status = Boolean.parseBoolean(
+                                parser.getAttributeValue(NS, SKIPPED_ATTR))
+                                ? TestStatus.PASS // skipped tests are marked passed
+                                : TestStatus.getStatus(parser.getAttributeValue(NS, RESULT_ATTR));
+                        if (status != null) {
+                            counts[status.ordinal()]++;
+                        }
+                        skipChildren(parser);
+                    }
+                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+                }
+                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+            }
+            parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+
+            result.setModuleCompleteCount(modulesDone);
+            for (TestStatus status : TestStatus.values()) {
+                result.setResultCount(status, counts[status.ordinal()]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Adds the module of the current module tag to the light result, with its runtime and
+     * completion when present.
+     * @return whether the module is done
+     */
+    private static boolean addModule(LightInvocationResult result, XmlPullParser parser) {
+        String runtime = parser.getAttributeValue(NS, RUNTIME_ATTR);
+        boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
+        result.addModule(AbiUtils.createId(
+                parser.getAttributeValue(NS, ABI_ATTR),
+                parser.getAttributeValue(NS, NAME_ATTR)),
+                runtime == null ? 0 : Long.parseLong(runtime), done);
+        return done;
+    }
+
+    /**
+     * Advances the parser from a start tag to its matching end tag, ignoring any content.
+     */
+    private static void skipChildren(XmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        int type;
+        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                return;
+            }
+        }
+        throw new XmlPullParserException("Unexpected end of document");
+    }
+
+    private static void addDeviceSerials(IInvocationResult result, String deviceList) {
+        if (Strings.isNullOrEmpty(deviceList)) {
+            return;
+        }
+        for (String device : deviceList.split(",")) {
+            result.addDeviceSerial(device);
+        }
+    }
+
+    private static void optionalAttribute(XmlSerializer serializer, String name, String value)
+            throws IOException {
+        if (value != null) {
+            serializer.attribute(NS, name, value);
+        }
+    }
+
     /**
      * Generate html report listing an failed tests
      */
     public static File createFailureReport(File inputXml) {
-        File failureReport = new File(inputXml.getParentFile(), FAILURE_REPORT_NAME);
+        return createFailureReport(inputXml,
+                new File(inputXml.getParentFile(), FAILURE_REPORT_NAME));
+    }
+
+    /**
+     * Generate html report listing an failed tests into the given file
+     */
+    public static File createFailureReport(File inputXml, File failureReport) {
         try (InputStream xslStream = ResultHandler.class.getResourceAsStream(
                 String.format("/report/%s", FAILURE_XSL_FILE_NAME));
              OutputStream outputStream = new FileOutputStream(failureReport)) {
@@ -457,12 +776,37 @@ public class ResultHandler {
         return failureReport;
     }
 
-    private static void createChecksum(File resultDir, IInvocationResult invocationResult) {
+    /**
+     * Creates the checksum to pass to {@link #writeResults}, or null if no checksum is calculated
+     * for the given result.
+     */
+    public static ChecksumReporter createChecksumReporter(IInvocationResult invocationResult) {
+        switch (invocationResult.getRetryChecksumStatus()) {
+            case NotRetry: case RetryWithChecksum:
+                return ChecksumReporter.create(invocationResult);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Completes the checksum of a result written by {@link #writeResults} with the files in the
+     * result directory and saves it, or copies the checksum of the retried session if the
+     * result has none.
+     *
+     * @param checksum the checksum passed to {@link #writeResults}
+     */
+    public static void createChecksum(File resultDir, IInvocationResult invocationResult,
+            ChecksumReporter checksum) {
         RetryChecksumStatus retryStatus = invocationResult.getRetryChecksumStatus();
         switch (retryStatus) {
             case NotRetry: case RetryWithChecksum:
                 // Do not disrupt the process if there is a problem generating checksum.
-                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult);
+                if (checksum == null) {
+                    ChecksumReporter.tryCreateChecksum(resultDir, invocationResult);
+                } else {
+                    checksum.trySaveWithDirectory(resultDir);
+                }
                 break;
             case RetryWithoutChecksum:
                 // If the previous run has an invalid checksum file,
@@ -513,6 +857,35 @@ public class ResultHandler {
         return result;
     }
 
+    /**
+     * Find a {@link LazyInvocationResult} for the given sessionId, see
+     * {@link #getLazyResultFromDir(File, Boolean)}.
+     */
+    public static IInvocationResult findLazyResult(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
+        File resultDir = getResultDirectory(resultsDir, sessionId);
+        IInvocationResult result = getLazyResultFromDir(resultDir, true);
+        if (result == null) {
+            throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
+        }
+        return result;
+    }
+
+    /**
+     * Find a light IInvocationResult for the given sessionId. Only the session summary is read,
+     * so this should be preferred over {@link #findResult(File, Integer)} when test level
+     * results are not needed.
+     */
+    public static IInvocationResult findLightResult(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
+        File resultDir = getResultDirectory(resultsDir, sessionId);
+        IInvocationResult result = getLightResultFromDir(resultDir);
+        if (result == null) {
+            throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
+        }
+        return result;
+    }
+
     /**
      * Get the result directory for the given sessionId.
      */
@@ -15,11 +15,15 @@
  */
 package com.android.compatibility.common.util;
 
+import java.util.Arrays;
+
 /**
  * Represents a single test result.
  */
 public class TestResult implements ITestResult {
 
+    private static final ResultCounts[] NO_COUNTS = new ResultCounts[0];
+
     private final ICaseResult mParent;
     private final String mTestName;
     private TestStatus mResult;
@@ -31,6 +35,8 @@ public class TestResult implements ITestResult {
     private String mScreenshot;
     private boolean mIsRetry;
     private boolean mSkipped;
+    /* Counts of the case results holding this result, updated when the status changes */
+    private ResultCounts[] mCounts = NO_COUNTS;
 
     /**
      * Create a {@link TestResult} for the given test name.
@@ -70,7 +76,40 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setResultStatus(TestStatus status) {
+        changeStatus(status);
+    }
+
+    private synchronized void changeStatus(TestStatus status) {
+        TestStatus previous = mResult;
         mResult = status;
+        for (ResultCounts counts : mCounts) {
+            counts.move(previous, status);
+        }
+    }
+
+    /**
+     * Start counting this result in the given counts, which are updated on each status change.
+     */
+    synchronized void addCounts(ResultCounts counts) {
+        mCounts = Arrays.copyOf(mCounts, mCounts.length + 1);
+        mCounts[mCounts.length - 1] = counts;
+        counts.add(mResult, 1);
+    }
+
+    /**
+     * Stop counting this result in the given counts.
+     */
+    synchronized void removeCounts(ResultCounts counts) {
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] == counts) {
+                ResultCounts[] remaining = new ResultCounts[mCounts.length - 1];
+                System.arraycopy(mCounts, 0, remaining, 0, i);
+                System.arraycopy(mCounts, i + 1, remaining, i, remaining.length - i);
+                mCounts = remaining;
+                counts.add(mResult, -1);
+                return;
+            }
+        }
     }
 
     /**
@@ -224,7 +263,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void reset() {
-        mResult = null;
+        changeStatus(null);
         mMessage = null;
         mStackTrace = null;
         mReport = null;
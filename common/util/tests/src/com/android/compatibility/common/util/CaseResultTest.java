@@ -34,12 +34,14 @@ public class CaseResultTest extends TestCase {
 
     @Override
     public void setUp() throws Exception {
+        ResultCounts.setConsistencyCheck(true);
         mResult = new CaseResult(CLASS);
     }
 
     @Override
     public void tearDown() throws Exception {
         mResult = null;
+        ResultCounts.setConsistencyCheck(false);
     }
 
     public void testAccessors() throws Exception {
@@ -93,6 +95,46 @@ public class CaseResultTest extends TestCase {
         assertEquals("Expected two pass", 2, mResult.countResults(TestStatus.PASS));
     }
 
+    public void testCountResultsOnStatusChange() throws Exception {
+        ModuleResult module = new ModuleResult(AbiUtils.createId("arm64-v8a", "Module"));
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        ITestResult testResult1 = caseResult.getOrCreateResult(METHOD_1);
+        ITestResult testResult2 = caseResult.getOrCreateResult(METHOD_2);
+        testResult1.skipped();
+        testResult2.failed(STACK_TRACE);
+        assertEquals("Expected one pass", 1, module.countResults(TestStatus.PASS));
+        assertEquals("Expected one failure", 1, module.countResults(TestStatus.FAIL));
+        testResult1.removeResult();
+        assertEquals("Expected no pass", 0, module.countResults(TestStatus.PASS));
+        assertEquals("Expected two failures", 2, module.countResults(TestStatus.FAIL));
+        testResult2.reset();
+        assertEquals("Expected one failure", 1, module.countResults(TestStatus.FAIL));
+    }
+
+    public void testCountResultsAfterMerge() throws Exception {
+        ITestResult replaced = mResult.getOrCreateResult(METHOD_1);
+        replaced.failed(STACK_TRACE);
+
+        CaseResult otherResult = new CaseResult(CLASS);
+        ITestResult merged = otherResult.getOrCreateResult(METHOD_1);
+        merged.passed(null);
+        mResult.mergeFrom(otherResult);
+        assertEquals("Expected one pass", 1, mResult.countResults(TestStatus.PASS));
+        assertEquals("Expected no failure", 0, mResult.countResults(TestStatus.FAIL));
+
+        // Changes to the merged result are counted in both cases, the replaced one is not
+        merged.reset();
+        merged.failed(STACK_TRACE);
+        replaced.reset();
+        assertEquals("Expected one failure", 1, mResult.countResults(TestStatus.FAIL));
+        assertEquals("Expected one failure", 1, otherResult.countResults(TestStatus.FAIL));
+        assertEquals("Expected no pass", 0, mResult.countResults(TestStatus.PASS));
+
+        // Merging the same result again does not count it twice
+        mResult.mergeFrom(otherResult);
+        assertEquals("Expected one failure", 1, mResult.countResults(TestStatus.FAIL));
+    }
+
      public void testMergeCase_passToFail() throws Exception {
         mResult.getOrCreateResult(METHOD_1).passed(null);
 
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link LazyInvocationResult} and {@link ResultDetailStore}
+ */
+public class LazyInvocationResultTest extends TestCase {
+
+    private static final String MESSAGE = "Something small is not alright";
+    private static final String STACK_TRACE = "Something small is not alright\n" +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+
+    private File resultsDir;
+
+    @Override
+    public void setUp() throws Exception {
+        resultsDir = FileUtil.createTempDir("results");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(resultsDir);
+    }
+
+    public void testLazyInvocationResultParsing() throws Exception {
+        File resultDir = ResultHandlerTest.writeResultDir(resultsDir);
+        IInvocationResult lazyResult = ResultHandler.getLazyResultFromDir(resultDir, false);
+        assertTrue("Expected lazy result", lazyResult instanceof LazyInvocationResult);
+        ResultHandlerTest.checkResult(lazyResult);
+    }
+
+    public void testLazyTestResultModification() throws Exception {
+        File resultDir = ResultHandlerTest.writeResultDir(resultsDir);
+        IInvocationResult lazyResult = ResultHandler.getLazyResultFromDir(resultDir, false);
+        ITestResult failed = lazyResult.getModules().get(1).getResults().get(0)
+                .getResults().get(0);
+        assertNotNull("Expected stack trace", failed.getStackTrace());
+        // Modifying one detail keeps the others
+        failed.setMessage(MESSAGE);
+        assertEquals("Incorrect message", MESSAGE, failed.getMessage());
+        assertNotNull("Expected stack trace", failed.getStackTrace());
+        assertNotNull("Expected log", failed.getLog());
+        failed.reset();
+        assertNull("Unexpected stack trace", failed.getStackTrace());
+        assertNull("Unexpected log", failed.getLog());
+    }
+
+    public void testDetailStoreRegions() throws Exception {
+        // Each record below is 40 bytes, so only two fit in a region
+        ResultDetailStore store = new ResultDetailStore(100);
+        String[] fields = new String[ResultDetailStore.FIELD_COUNT];
+        assertEquals("Expected empty record to be skipped",
+                ResultDetailStore.NO_DETAILS, store.append(fields));
+        fields[ResultDetailStore.STACK_TRACE] = "0123456789ABCDEF";
+        long first = store.append(fields);
+        fields[ResultDetailStore.STACK_TRACE] = "FEDCBA9876543210";
+        long second = store.append(fields);
+        fields[ResultDetailStore.MESSAGE] = "0123";
+        fields[ResultDetailStore.STACK_TRACE] = "abcdefghijkl";
+        long third = store.append(fields);
+        fields[ResultDetailStore.LOG] = STACK_TRACE;
+        assertEquals("Expected oversized record to be skipped",
+                ResultDetailStore.NO_DETAILS, store.append(fields));
+        store.finish();
+        assertEquals("Expected record in next region", 100, third);
+        assertNull("Unexpected message", store.get(first, ResultDetailStore.MESSAGE));
+        assertEquals("0123456789ABCDEF", store.get(first, ResultDetailStore.STACK_TRACE));
+        assertEquals("FEDCBA9876543210", store.get(second, ResultDetailStore.STACK_TRACE));
+        assertEquals("0123", store.get(third, ResultDetailStore.MESSAGE));
+        assertEquals("abcdefghijkl", store.get(third, ResultDetailStore.STACK_TRACE));
+        assertNull("Unexpected report log", store.get(third, ResultDetailStore.REPORT_LOG));
+    }
+}
@@ -18,7 +18,9 @@ package com.android.compatibility.common.util;
 
 import junit.framework.TestCase;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Unit tests for {@link MultipartForm}
@@ -47,6 +49,18 @@ public class MultipartFormTest extends TestCase {
             0x72, 0x2d, 0x2d, 0xa,
     };
 
+    private TestHttpServer mServer;
+
+    @Override
+    public void setUp() throws Exception {
+        mServer = new TestHttpServer();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.stop();
+    }
+
     public void testContentBody() throws Exception {
         MultipartForm form = new MultipartForm(SERVER_URL);
         form.addFormValue("foo", "bar");
@@ -55,4 +69,47 @@ public class MultipartFormTest extends TestCase {
         assertTrue("No data", data.length > 0);
         assertTrue("Wrong data", Arrays.equals(ZIP_ARRAY, data));
     }
+
+    public void testSubmit_redirect() throws Exception {
+        mServer.addRedirect("/old", "/new");
+        MultipartForm form = createForm(mServer.getUrl("/old"));
+        assertEquals(200, form.submit());
+        List<TestHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("/new", requests.get(1).mPath);
+        assertTrue("Wrong data", Arrays.equals(ZIP_ARRAY, requests.get(1).mBody));
+
+        // Later submissions go straight to where the form was redirected
+        assertEquals(200, form.submit());
+        assertEquals("/new", mServer.getRequests().get(2).mPath);
+    }
+
+    public void testSubmit_retryServerError() throws Exception {
+        mServer.addResponse("/upload", 503);
+        MultipartForm form = createForm(mServer.getUrl("/upload"));
+        assertEquals(200, form.submit());
+        List<TestHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertTrue("Wrong data", Arrays.equals(ZIP_ARRAY, requests.get(1).mBody));
+    }
+
+    public void testSubmit_clientError() throws Exception {
+        mServer.addResponse("/upload", 404);
+        MultipartForm form = createForm(mServer.getUrl("/upload"));
+        try {
+            form.submit();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        // Client errors are not retried
+        assertEquals(1, mServer.getRequests().size());
+    }
+
+    private static MultipartForm createForm(String serverUrl) {
+        MultipartForm form = new MultipartForm(serverUrl);
+        form.mRetryDelayMs = 0;
+        form.addFormValue("foo", "bar");
+        form.addFormFile("blah", "blah.xml.gz", "blah".getBytes());
+        return form;
+    }
 }
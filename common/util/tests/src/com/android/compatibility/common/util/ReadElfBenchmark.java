@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times {@link ReadElf} reading the symbols of a set of ELF files, and prints a digest of the
+ * symbols read so that two revisions of the reader can be checked to read the same symbols.
+ * <p/>
+ * Usage: ReadElfBenchmark [-n passes] file-or-dir...
+ * <br/>
+ * Directories are searched for .so files recursively.
+ */
+public class ReadElfBenchmark {
+
+    private static final int DEFAULT_PASSES = 5;
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        int passes = DEFAULT_PASSES;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                passes = Integer.parseInt(args[++i]);
+            } else {
+                File file = new File(args[i]);
+                if (file.isDirectory()) {
+                    addLibraries(file, files);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println(
+                    "Usage: ReadElfBenchmark [-n passes] file-or-dir...");
+            System.exit(1);
+        }
+
+        // The first pass is the one that checks what was read
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        int failures = read(files, digest);
+        long total = 0;
+        for (int i = 0; i < passes; i++) {
+            long start = System.nanoTime();
+            read(files, null);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            System.out.printf("pass %d: %d ms%n", i + 1, elapsed / 1000000);
+        }
+        System.out.printf("%d files (%d not readable), %d passes in %d ms%n", files.size(),
+                failures, passes, total / 1000000);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        System.out.println("digest: " + hex);
+    }
+
+    private static void addLibraries(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addLibraries(child, files);
+            } else if (child.getName().endsWith(".so")) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Reads the header, the dynamic symbols and the symbols of every file.
+     *
+     * @param digest updated with what was read, or null
+     * @return the number of files that could not be read
+     */
+    private static int read(List<File> files, MessageDigest digest) {
+        int failures = 0;
+        for (File file : files) {
+            StringBuilder result = new StringBuilder(file.getPath()).append('\n');
+            ReadElf elf = null;
+            try {
+                elf = ReadElf.read(file);
+                result.append(elf.isDynamic()).append(',').append(elf.getType()).append(',')
+                        .append(elf.isPIE()).append('\n');
+                ReadElf.Symbol[] dynamicSymbols = elf.getDynSymArr();
+                ReadElf.Symbol[] symbols = elf.getSymArr();
+                if (digest != null) {
+                    for (ReadElf.Symbol symbol : dynamicSymbols) {
+                        result.append(symbol).append(',').append(symbol.getVerDefLibName())
+                                .append('\n');
+                    }
+                    for (ReadElf.Symbol symbol : symbols) {
+                        result.append(symbol).append('\n');
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failures++;
+                result.append(e.getClass().getName()).append('\n');
+                if (digest != null) {
+                    System.err.println("Could not read " + file + ": " + e);
+                }
+            } finally {
+                if (elf != null) {
+                    elf.close();
+                }
+            }
+            if (digest != null) {
+                digest.update(result.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return failures;
+    }
+}
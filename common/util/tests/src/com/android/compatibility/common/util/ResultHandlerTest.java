@@ -210,6 +210,48 @@ public class ResultHandlerTest extends TestCase {
         checkLightResult(lightResult);
     }
 
+    public void testGetLightResultsRebuildsSummary() throws Exception {
+        File resultDir = writeResultDir(resultsDir);
+        File summaryFile = new File(resultDir, ResultHandler.RESULT_SUMMARY_FILE_NAME);
+        assertFalse("Unexpected summary", summaryFile.exists());
+        checkLightResult(ResultHandler.getLightResults(resultsDir).get(0));
+        assertTrue("Expected summary to be rebuilt", summaryFile.exists());
+        // Read again, this time from the summary only
+        IInvocationResult lightResult = ResultHandler.getLightResults(resultsDir).get(0);
+        checkLightResult(lightResult);
+        assertEquals("Incorrect command line args",
+                COMMAND_LINE_ARGS, lightResult.getCommandLineArgs());
+        assertEquals("Incorrect retry directory", resultDir, lightResult.getRetryDirectory());
+    }
+
+    public void testWriteResultsWritesSummary() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.setTestPlan(SUITE_PLAN);
+        result.addDeviceSerial(DEVICE_A);
+        result.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.setDone(true);
+        moduleA.getOrCreateResult(CLASS_A).getOrCreateResult(METHOD_1)
+                .setResultStatus(TestStatus.FAIL);
+        result.getOrCreateModule(ID_B).setDone(false);
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+        assertTrue("Expected summary", new File(resultDir,
+                ResultHandler.RESULT_SUMMARY_FILE_NAME).exists());
+
+        IInvocationResult lightResult = ResultHandler.findLightResult(resultsDir, 0);
+        assertEquals("Incorrect start time", START_MS, lightResult.getStartTime());
+        assertEquals("Incorrect test plan", SUITE_PLAN, lightResult.getTestPlan());
+        assertEquals("Incorrect Build ID",
+                EXAMPLE_BUILD_ID, lightResult.getInvocationInfo().get(BUILD_ID));
+        assertEquals("Expected 0 passes", 0, lightResult.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 failure", 1, lightResult.countResults(TestStatus.FAIL));
+        assertEquals("Expected 1 completed module", 1, lightResult.getModuleCompleteCount());
+        assertEquals("Expected 2 total modules", 2, lightResult.getModules().size());
+    }
+
     /*
      * Helper to write a result to the results dir, for testing.
      * @return the written resultDir
@@ -278,6 +320,17 @@ public class ResultHandlerTest extends TestCase {
         List<IModuleResult> modules = lightResult.getModules();
         assertEquals("Expected 1 completed module", 1, lightResult.getModuleCompleteCount());
         assertEquals("Expected 2 total modules", 2, modules.size());
+        for (IModuleResult module : modules) {
+            if (module.getId().equals(ID_A)) {
+                assertEquals("Incorrect runtime", Integer.parseInt(RUNTIME_A),
+                        module.getRuntime());
+                assertFalse("Module should not be done", module.isDone());
+            } else {
+                assertEquals("Incorrect runtime", Integer.parseInt(RUNTIME_B),
+                        module.getRuntime());
+                assertTrue("Module should be done", module.isDone());
+            }
+        }
     }
 
     static void checkResult(IInvocationResult result) throws Exception {
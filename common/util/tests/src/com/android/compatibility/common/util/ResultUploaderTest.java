@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for {@link ResultUploader}
+ */
+public class ResultUploaderTest extends TestCase {
+
+    private static final String FILE_HEADER_END = "Content-Transfer-Encoding: binary\n\n";
+
+    private TestHttpServer mServer;
+    private File mResultFile;
+
+    @Override
+    public void setUp() throws Exception {
+        mServer = new TestHttpServer();
+        mResultFile = File.createTempFile("test_result", ".xml");
+        try (OutputStream output = new FileOutputStream(mResultFile)) {
+            for (int i = 0; i < 10000; i++) {
+                output.write(String.format("<Test result=\"pass\" name=\"test%d\" />\n", i)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mResultFile.delete();
+        mServer.stop();
+    }
+
+    public void testUploadResult() throws Exception {
+        ResultUploader uploader = new ResultUploader(mServer.getUrl("/upload"), "CTS");
+        assertEquals(200, uploader.uploadResult(mResultFile, "http://reference"));
+
+        List<TestHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(1, requests.size());
+        TestHttpServer.Request request = requests.get(0);
+        // The size of the body is not known up front
+        assertEquals("chunked", request.mTransferEncoding);
+        String body = new String(request.mBody, StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("name=\"suite\"\n\nCTS\n"));
+        assertTrue(body.contains("name=\"referenceUrl\"\n\nhttp://reference\n"));
+
+        int start = body.indexOf(FILE_HEADER_END) + FILE_HEADER_END.length();
+        InputStream input = new GZIPInputStream(
+                new ByteArrayInputStream(request.mBody, start, request.mBody.length - start));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+            content.write(buffer, 0, count);
+        }
+        assertEquals(mResultFile.length(), content.size());
+        assertEquals(new String(Files.readAllBytes(mResultFile.toPath()),
+                StandardCharsets.UTF_8), content.toString("UTF-8"));
+    }
+
+    public void testUploadResult_redirectAndRetry() throws Exception {
+        mServer.addRedirect("/upload", "/redirected");
+        mServer.addResponse("/redirected", 500);
+        ResultUploader uploader = new ResultUploader(mServer.getUrl("/upload"), "CTS");
+        uploader.mMultipartForm.mRetryDelayMs = 0;
+        assertEquals(200, uploader.uploadResult(mResultFile, null));
+
+        List<TestHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(3, requests.size());
+        // The whole body was sent again from the file each time
+        assertEquals(requests.get(0).mBody.length, requests.get(2).mBody.length);
+        assertEquals("/redirected", requests.get(2).mPath);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local HTTP server standing in for a result server in tests. Each path answers with the
+ * responses queued for it, in order, and every request received is recorded.
+ */
+public class TestHttpServer {
+
+    /** A request received by the server. */
+    public static class Request {
+        public final String mPath;
+        public final String mTransferEncoding;
+        public final byte[] mBody;
+
+        Request(String path, String transferEncoding, byte[] body) {
+            mPath = path;
+            mTransferEncoding = transferEncoding;
+            mBody = body;
+        }
+    }
+
+    private final HttpServer mServer;
+    private final Map<String, LinkedList<Integer>> mResponses = new HashMap<>();
+    private final Map<String, String> mRedirects = new HashMap<>();
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<>());
+
+    public TestHttpServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+    }
+
+    /** @return the url of the given path on this server. */
+    public String getUrl(String path) {
+        return String.format("http://%s:%d%s", mServer.getAddress().getHostString(),
+                mServer.getAddress().getPort(), path);
+    }
+
+    /** Queues a response for the next request on the given path, 200 when none is queued. */
+    public synchronized TestHttpServer addResponse(String path, int response) {
+        LinkedList<Integer> responses = mResponses.get(path);
+        if (responses == null) {
+            responses = new LinkedList<>();
+            mResponses.put(path, responses);
+        }
+        responses.add(response);
+        return this;
+    }
+
+    /** Redirects every request on the given path to another path with a 302 response. */
+    public synchronized TestHttpServer addRedirect(String path, String location) {
+        mRedirects.put(path, location);
+        return this;
+    }
+
+    /** @return the requests received so far, in order. */
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    public void stop() {
+        mServer.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                body.write(buffer, 0, count);
+            }
+        }
+        mRequests.add(new Request(path,
+                exchange.getRequestHeaders().getFirst("Transfer-Encoding"), body.toByteArray()));
+
+        int response = 200;
+        synchronized (this) {
+            String location = mRedirects.get(path);
+            LinkedList<Integer> responses = mResponses.get(path);
+            if (location != null) {
+                exchange.getResponseHeaders().add("Location", location);
+                response = 302;
+            } else if (responses != null && !responses.isEmpty()) {
+                response = responses.removeFirst();
+            }
+        }
+        exchange.sendResponseHeaders(response, -1);
+        exchange.close();
+    }
+}
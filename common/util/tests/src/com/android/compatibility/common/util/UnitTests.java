@@ -29,11 +29,13 @@ import org.junit.runners.Suite.SuiteClasses;
     BusinessLogicTest.class,
     CaseResultTest.class,
     DynamicConfigTest.class,
+    LazyInvocationResultTest.class,
     LightInvocationResultTest.class,
     MetricsXmlSerializerTest.class,
     MultipartFormTest.class,
     ReportLogTest.class,
     ResultHandlerTest.class,
+    ResultUploaderTest.class,
     StatTest.class,
     TestResultTest.class,
 })
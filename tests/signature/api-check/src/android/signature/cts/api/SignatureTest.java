@@ -18,18 +18,21 @@ package android.signature.cts.api;
 
 import android.os.Bundle;
 import android.signature.cts.ApiDocumentParser;
-import android.signature.cts.ApiComplianceChecker;
 import android.signature.cts.FailureType;
 import android.signature.cts.JDiffClassDescription;
+import android.signature.cts.ParallelApiComplianceChecker;
 import android.signature.cts.ReflectionHelper;
 import android.signature.cts.ResultObserver;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
 import org.xmlpull.v1.XmlPullParserException;
 import repackaged.android.test.InstrumentationTestCase;
 import repackaged.android.test.InstrumentationTestRunner;
@@ -64,6 +67,7 @@ public class SignatureTest extends InstrumentationTestCase {
 
     private String[] expectedApiFiles;
     private String[] unexpectedApiFiles;
+    private int checkerThreads;
 
     private class TestResultObserver implements ResultObserver {
 
@@ -94,6 +98,11 @@ public class SignatureTest extends InstrumentationTestCase {
 
         expectedApiFiles = getCommaSeparatedList(instrumentationArgs, "expected-api-files");
         unexpectedApiFiles = getCommaSeparatedList(instrumentationArgs, "unexpected-api-files");
+
+        // Classes are checked while the API files are parsed, unless set to 0.
+        String threads = instrumentationArgs.getString("checker-threads");
+        checkerThreads = threads == null
+                ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
     }
 
     private String[] getCommaSeparatedList(Bundle instrumentationArgs, String key) {
@@ -104,6 +113,18 @@ public class SignatureTest extends InstrumentationTestCase {
         return argument.split(",");
     }
 
+    /**
+     * Opens an API file of the API file directory, decompressing it if its name ends with .gz.
+     */
+    private static InputStream openApiFile(String name) throws IOException {
+        InputStream inputStream = new BufferedInputStream(
+                new FileInputStream(new File(API_FILE_DIRECTORY + "/" + name)));
+        if (name.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        return inputStream;
+    }
+
     /**
      * Tests that the device's API matches the expected set defined in xml.
      * <p/>
@@ -122,7 +143,8 @@ public class SignatureTest extends InstrumentationTestCase {
                 }
             }
 
-            ApiComplianceChecker complianceChecker = new ApiComplianceChecker(mResultObserver);
+            ParallelApiComplianceChecker complianceChecker =
+                    new ParallelApiComplianceChecker(mResultObserver, checkerThreads);
             ApiDocumentParser apiDocumentParser = new ApiDocumentParser(
                     TAG, new ApiDocumentParser.Listener() {
                 @Override
@@ -139,9 +161,15 @@ public class SignatureTest extends InstrumentationTestCase {
                 }
             });
 
-            for (String expectedApiFile : expectedApiFiles) {
-                File file = new File(API_FILE_DIRECTORY + "/" + expectedApiFile);
-                apiDocumentParser.parse(new FileInputStream(file));
+            try {
+                for (String expectedApiFile : expectedApiFiles) {
+                    try (InputStream inputStream = openApiFile(expectedApiFile)) {
+                        apiDocumentParser.parse(inputStream);
+                    }
+                }
+            } finally {
+                // Report the failures of the classes checked so far
+                complianceChecker.finish();
             }
         } catch (Exception e) {
             mResultObserver.notifyFailure(FailureType.CAUGHT_EXCEPTION, e.getMessage(),
@@ -180,8 +208,9 @@ public class SignatureTest extends InstrumentationTestCase {
                     }
                 });
         for (String expectedApiFile : unexpectedApiFiles) {
-            File file = new File(API_FILE_DIRECTORY + "/" + expectedApiFile);
-            apiDocumentParser.parse(new FileInputStream(file));
+            try (InputStream inputStream = openApiFile(expectedApiFile)) {
+                apiDocumentParser.parse(inputStream);
+            }
         }
         return unexpectedClasses;
     }
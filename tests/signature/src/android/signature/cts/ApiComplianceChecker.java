@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Checks that the runtime representation of a class matches the API representation of a class.
@@ -72,6 +73,11 @@ public class ApiComplianceChecker {
 
     private final ResultObserver resultObserver;
 
+    // The fields declared by each class, including the superclasses and interfaces of the classes
+    // checked, which are shared by many classes of the API.
+    private final Map<Class<?>, Map<String, Field>> declaredFieldsCache =
+            new ConcurrentHashMap<>();
+
     public ApiComplianceChecker(ResultObserver resultObserver) {
         this.resultObserver = resultObserver;
     }
@@ -98,11 +104,11 @@ public class ApiComplianceChecker {
      * methods.
      */
     public void checkSignatureCompliance(JDiffClassDescription classDescription) {
-        Class<?> runtimeClass = checkClassCompliance(classDescription);
-        if (runtimeClass != null) {
-            checkFieldsCompliance(classDescription, runtimeClass);
-            checkConstructorCompliance(classDescription, runtimeClass);
-            checkMethodCompliance(classDescription, runtimeClass);
+        ClassSignatureIndex index = checkClassCompliance(classDescription);
+        if (index != null) {
+            checkFieldsCompliance(classDescription, index.getRuntimeClass());
+            checkConstructorCompliance(classDescription, index);
+            checkMethodCompliance(classDescription, index);
         }
     }
 
@@ -111,9 +117,11 @@ public class ApiComplianceChecker {
      * specification from the API xml file.
      *
      * @param classDescription a description of a class in an API.
+     * @return the index of the members of the runtime class, or null if the class is not
+     *     compliant.
      */
     @SuppressWarnings("unchecked")
-    private Class<?> checkClassCompliance(JDiffClassDescription classDescription) {
+    private ClassSignatureIndex checkClassCompliance(JDiffClassDescription classDescription) {
         try {
             Class<?> runtimeClass = findRequiredClass(classDescription);
 
@@ -135,7 +143,8 @@ public class ApiComplianceChecker {
                 return null;
             }
 
-            List<String> methods = checkInterfaceMethodCompliance(classDescription, runtimeClass);
+            ClassSignatureIndex index = new ClassSignatureIndex(runtimeClass);
+            List<String> methods = checkInterfaceMethodCompliance(classDescription, index);
             if (JDiffClassDescription.JDiffType.INTERFACE.equals(classDescription.getClassType()) && methods.size() > 0) {
                 resultObserver.notifyFailure(FailureType.MISMATCH_INTERFACE_METHOD,
                         classDescription.getAbsoluteClassName(), "Interfaces cannot be modified: "
@@ -175,7 +184,7 @@ public class ApiComplianceChecker {
                     return null;
                 }
             }
-            return runtimeClass;
+            return index;
         } catch (Exception e) {
             loge("Got exception when checking field compliance", e);
             resultObserver.notifyFailure(
@@ -199,38 +208,17 @@ public class ApiComplianceChecker {
      * Validate that an interfaces method count is as expected.
      *
      * @param classDescription the class's API description.
-     * @param runtimeClass the runtime class corresponding to {@code classDescription}.
+     * @param index the index of the runtime class corresponding to {@code classDescription}.
      */
     private static List<String> checkInterfaceMethodCompliance(
-            JDiffClassDescription classDescription, Class<?> runtimeClass) {
+            JDiffClassDescription classDescription, ClassSignatureIndex index) {
         List<String> unexpectedMethods = new ArrayList<>();
-        for (Method method : runtimeClass.getDeclaredMethods()) {
-            if (method.isDefault()) {
-                continue;
-            }
-            if (method.isSynthetic()) {
-                continue;
-            }
-            if (method.isBridge()) {
-                continue;
-            }
-            if (HIDDEN_INTERFACE_WHITELIST.contains(method.toGenericString())) {
-                continue;
-            }
-
-            boolean foundMatch = false;
-            for (JDiffClassDescription.JDiffMethod jdiffMethod : classDescription.getMethods()) {
-                if (ReflectionHelper.matches(jdiffMethod, method)) {
-                    foundMatch = true;
-                }
-            }
-            if (!foundMatch) {
-                unexpectedMethods.add(method.toGenericString());
-            }
+        for (Method method : index.findUnmatchedMethods(classDescription.getMethods(),
+                method -> method.isDefault() || method.isSynthetic() || method.isBridge()
+                        || HIDDEN_INTERFACE_WHITELIST.contains(method.toGenericString()))) {
+            unexpectedMethods.add(method.toGenericString());
         }
-
         return unexpectedMethods;
-
     }
 
     /**
@@ -355,11 +343,9 @@ public class ApiComplianceChecker {
     @SuppressWarnings("unchecked")
     private void checkFieldsCompliance(JDiffClassDescription classDescription,
             Class<?> runtimeClass) {
-        // A map of field name to field of the fields contained in runtimeClass.
-        Map<String, Field> classFieldMap = buildFieldMap(runtimeClass);
         for (JDiffClassDescription.JDiffField field : classDescription.getFields()) {
             try {
-                Field f = classFieldMap.get(field.mName);
+                Field f = findField(runtimeClass, field.mName);
                 if (f == null) {
                     resultObserver.notifyFailure(FailureType.MISSING_FIELD,
                             field.toReadableString(classDescription.getAbsoluteClassName()),
@@ -589,28 +575,47 @@ public class ApiComplianceChecker {
     }
 
     /**
-     * Scan a class (an its entire inheritance chain) for fields.
+     * Scan a class (an its entire inheritance chain) for a field.
+     *
+     * A field declared by the class hides the fields of its interfaces, which hide the fields of
+     * the later interfaces and of the superclass.
      *
-     * @return a {@link Map} of fieldName to {@link Field}
+     * @return the {@link Field} of that name, or null if not found.
      */
-    private static Map<String, Field> buildFieldMap(Class testClass) {
-        Map<String, Field> fieldMap = new HashMap<>();
-        // Scan the superclass
-        if (testClass.getSuperclass() != null) {
-            fieldMap.putAll(buildFieldMap(testClass.getSuperclass()));
+    private Field findField(Class<?> testClass, String fieldName) {
+        // Check the fields in the test class
+        Field field = getDeclaredFields(testClass).get(fieldName);
+        if (field != null) {
+            return field;
         }
 
-        // Scan the interfaces
-        for (Class interfaceClass : testClass.getInterfaces()) {
-            fieldMap.putAll(buildFieldMap(interfaceClass));
+        // Scan the interfaces, the last one first
+        Class<?>[] interfaces = testClass.getInterfaces();
+        for (int i = interfaces.length - 1; i >= 0; i--) {
+            field = findField(interfaces[i], fieldName);
+            if (field != null) {
+                return field;
+            }
         }
 
-        // Check the fields in the test class
-        for (Field field : testClass.getDeclaredFields()) {
-            fieldMap.put(field.getName(), field);
+        // Scan the superclass
+        if (testClass.getSuperclass() != null) {
+            return findField(testClass.getSuperclass(), fieldName);
         }
+        return null;
+    }
 
-        return fieldMap;
+    /**
+     * @return a {@link Map} of fieldName to {@link Field} of the fields declared by a class.
+     */
+    private Map<String, Field> getDeclaredFields(Class<?> testClass) {
+        return declaredFieldsCache.computeIfAbsent(testClass, c -> {
+            Map<String, Field> fieldMap = new HashMap<>();
+            for (Field field : c.getDeclaredFields()) {
+                fieldMap.put(field.getName(), field);
+            }
+            return fieldMap;
+        });
     }
 
     /**
@@ -618,14 +623,14 @@ public class ApiComplianceChecker {
      * Java reflection are compliant.
      *
      * @param classDescription a description of a class in an API.
-     * @param runtimeClass the runtime class corresponding to {@code classDescription}.
+     * @param index the index of the runtime class corresponding to {@code classDescription}.
      */
     @SuppressWarnings("unchecked")
     private void checkConstructorCompliance(JDiffClassDescription classDescription,
-            Class<?> runtimeClass) {
+            ClassSignatureIndex index) {
         for (JDiffClassDescription.JDiffConstructor con : classDescription.getConstructors()) {
             try {
-                Constructor<?> c = ReflectionHelper.findMatchingConstructor(runtimeClass, con);
+                Constructor<?> c = index.findConstructor(con);
                 if (c == null) {
                     resultObserver.notifyFailure(FailureType.MISSING_METHOD,
                             con.toReadableString(classDescription.getAbsoluteClassName()),
@@ -657,14 +662,15 @@ public class ApiComplianceChecker {
      * specification from the API xml file.
      *
      * @param classDescription a description of a class in an API.
-     * @param runtimeClass the runtime class corresponding to {@code classDescription}.
+     * @param index the index of the runtime class corresponding to {@code classDescription}.
      */
     private void checkMethodCompliance(JDiffClassDescription classDescription,
-            Class<?> runtimeClass) {
+            ClassSignatureIndex index) {
+        Class<?> runtimeClass = index.getRuntimeClass();
         for (JDiffClassDescription.JDiffMethod method : classDescription.getMethods()) {
             try {
 
-                Method m = ReflectionHelper.findMatchingMethod(runtimeClass, method);
+                Method m = index.findMethod(method);
                 if (m == null) {
                     resultObserver.notifyFailure(FailureType.MISSING_METHOD,
                             method.toReadableString(classDescription.getAbsoluteClassName()),
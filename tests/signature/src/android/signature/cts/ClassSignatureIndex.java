@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.signature.cts;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Index of the methods and constructors declared by a runtime class, to find the ones matching
+ * the API without converting the types of every member once per API member.
+ * <p/>
+ * Methods are indexed by name. The types of a member are converted to jdiff strings the first
+ * time an API member of the same name is looked up, then reused, so members that are never
+ * looked up are never converted.
+ */
+class ClassSignatureIndex {
+
+    /** A declared method or constructor, with its types converted when first needed. */
+    private static final class Signature {
+        private final Type[] mGenericParamTypes;
+        private final String mReturnType;
+        private final String[] mParamTypes;
+
+        Signature(Type genericReturnType, Type[] genericParamTypes, int paramOffset) {
+            mGenericParamTypes = genericParamTypes;
+            mReturnType = genericReturnType == null
+                    ? null : ReflectionHelper.typeToString(genericReturnType);
+            mParamTypes = new String[Math.max(0, genericParamTypes.length - paramOffset)];
+            for (int i = 0; i < mParamTypes.length; i++) {
+                mParamTypes[i] = ReflectionHelper.typeToString(
+                        genericParamTypes[i + paramOffset]);
+            }
+        }
+
+        /**
+         * @return true if the parameters match the parameters of the API, piecewise.
+         */
+        boolean paramsMatch(List<String> jdiffParamList) {
+            if (jdiffParamList.size() != mParamTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < mParamTypes.length; i++) {
+                if (!ReflectionHelper.compareParam(jdiffParamList.get(i), mParamTypes[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** A declared method, with its signature. */
+    private static final class MethodEntry {
+        final Method mMethod;
+        private Signature mSignature;
+
+        MethodEntry(Method method) {
+            mMethod = method;
+        }
+
+        Signature getSignature() {
+            if (mSignature == null) {
+                mSignature = new Signature(mMethod.getGenericReturnType(),
+                        mMethod.getGenericParameterTypes(), 0);
+            }
+            return mSignature;
+        }
+    }
+
+    private final Class<?> mRuntimeClass;
+    // All declared methods, in declaration order
+    private final List<MethodEntry> mMethods;
+    // The declared methods by name, in declaration order
+    private final Map<String, List<MethodEntry>> mMethodsByName;
+    private Constructor<?>[] mConstructors;
+    private Signature[] mConstructorSignatures;
+
+    ClassSignatureIndex(Class<?> runtimeClass) {
+        mRuntimeClass = runtimeClass;
+        Method[] methods = runtimeClass.getDeclaredMethods();
+        mMethods = new ArrayList<>(methods.length);
+        mMethodsByName = new HashMap<>();
+        for (Method method : methods) {
+            MethodEntry entry = new MethodEntry(method);
+            mMethods.add(entry);
+            List<MethodEntry> overloads = mMethodsByName.get(method.getName());
+            if (overloads == null) {
+                overloads = new ArrayList<>(1);
+                mMethodsByName.put(method.getName(), overloads);
+            }
+            overloads.add(entry);
+        }
+    }
+
+    Class<?> getRuntimeClass() {
+        return mRuntimeClass;
+    }
+
+    /**
+     * Finds the declared method matching a method of the API.
+     *
+     * @param jdiffMethod description of the method to find.
+     * @return the reflected method, or null if not found.
+     */
+    Method findMethod(JDiffClassDescription.JDiffMethod jdiffMethod) {
+        List<MethodEntry> overloads = mMethodsByName.get(jdiffMethod.mName);
+        if (overloads != null) {
+            for (MethodEntry entry : overloads) {
+                if (matches(jdiffMethod, entry)) {
+                    return entry.mMethod;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the declared methods that do not match any method of the API.
+     *
+     * @param jdiffMethods the methods of the API.
+     * @param ignored the declared methods to skip.
+     * @return the declared methods not ignored that match no API method, in declaration order.
+     */
+    List<Method> findUnmatchedMethods(Collection<JDiffClassDescription.JDiffMethod> jdiffMethods,
+            Predicate<Method> ignored) {
+        Map<String, List<JDiffClassDescription.JDiffMethod>> jdiffMethodsByName = new HashMap<>();
+        for (JDiffClassDescription.JDiffMethod jdiffMethod : jdiffMethods) {
+            List<JDiffClassDescription.JDiffMethod> overloads =
+                    jdiffMethodsByName.get(jdiffMethod.mName);
+            if (overloads == null) {
+                overloads = new ArrayList<>(1);
+                jdiffMethodsByName.put(jdiffMethod.mName, overloads);
+            }
+            overloads.add(jdiffMethod);
+        }
+
+        List<Method> unmatched = new ArrayList<>();
+        for (MethodEntry entry : mMethods) {
+            if (ignored.test(entry.mMethod)) {
+                continue;
+            }
+            boolean foundMatch = false;
+            List<JDiffClassDescription.JDiffMethod> overloads =
+                    jdiffMethodsByName.get(entry.mMethod.getName());
+            if (overloads != null) {
+                for (JDiffClassDescription.JDiffMethod jdiffMethod : overloads) {
+                    if (matches(jdiffMethod, entry)) {
+                        foundMatch = true;
+                        break;
+                    }
+                }
+            }
+            if (!foundMatch) {
+                unmatched.add(entry.mMethod);
+            }
+        }
+        return unmatched;
+    }
+
+    /**
+     * Checks if a method of the API and a declared method of the same name are the same.
+     */
+    private static boolean matches(JDiffClassDescription.JDiffMethod jdiffMethod,
+            MethodEntry entry) {
+        Signature signature = entry.getSignature();
+        List<String> jdiffParamList = jdiffMethod.mParamList;
+
+        // If the return types or the number of parameters differ, the methods can't match.
+        if (!jdiffMethod.mReturnType.equals(signature.mReturnType)
+                || jdiffParamList.size() != signature.mParamTypes.length) {
+            return false;
+        }
+        if (signature.paramsMatch(jdiffParamList)) {
+            return true;
+        }
+
+        /* NOTE: There are cases where piecewise method parameter checking
+         * fails even though the strings are equal, so compare entire strings
+         * against each other. This is not done by default to avoid a
+         * TransactionTooLargeException.
+         * Additionally, this can fail anyway due to extra
+         * information dug up by reflection.
+         *
+         * TODO: fix parameter equality checking and reflection matching
+         * See https://b.corp.google.com/issues/27726349
+         */
+
+        StringBuilder reflectedMethodParams = new StringBuilder("");
+        StringBuilder jdiffMethodParams = new StringBuilder("");
+
+        for (int i = 0; i < jdiffParamList.size(); i++) {
+            jdiffMethodParams.append(jdiffParamList.get(i));
+            reflectedMethodParams.append(signature.mGenericParamTypes[i]);
+        }
+
+        return jdiffMethodParams.toString().equals(reflectedMethodParams.toString());
+    }
+
+    /**
+     * Finds the declared constructor matching a constructor of the API.
+     *
+     * @param jdiffConstructor description of the constructor to find.
+     * @return the reflected constructor, or null if not found.
+     */
+    Constructor<?> findConstructor(JDiffClassDescription.JDiffConstructor jdiffConstructor) {
+        if (mConstructors == null) {
+            mConstructors = mRuntimeClass.getDeclaredConstructors();
+            mConstructorSignatures = new Signature[mConstructors.length];
+        }
+        for (int i = 0; i < mConstructors.length; i++) {
+            if (mConstructorSignatures[i] == null) {
+                Type[] params = mConstructors[i].getGenericParameterTypes();
+                boolean isStaticClass = ((mRuntimeClass.getModifiers() & Modifier.STATIC) != 0);
+
+                // non-static inner class -> skip implicit parent pointer
+                // as first arg
+                int paramOffset = 0;
+                if (mRuntimeClass.isMemberClass() && !isStaticClass && params.length >= 1) {
+                    paramOffset = 1;
+                }
+                mConstructorSignatures[i] = new Signature(null, params, paramOffset);
+            }
+            if (mConstructorSignatures[i].paramsMatch(jdiffConstructor.mParamList)) {
+                return mConstructors[i];
+            }
+        }
+        return null;
+    }
+}
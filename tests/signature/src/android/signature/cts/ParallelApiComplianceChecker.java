@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.signature.cts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks classes with an {@link ApiComplianceChecker} on a pool of threads, so that classes are
+ * checked while the API file is still being parsed.
+ *
+ * <p>Classes submitted wait in a bounded queue. When the queue is full, the submitting thread
+ * checks the class itself, which keeps the parser from getting too far ahead of the checks.
+ *
+ * <p>The failures of each class are buffered, then reported to the {@link ResultObserver} on the
+ * submitting thread in the order the classes were submitted, so the observer does not need to be
+ * thread safe and reports the same failures in the same order as a sequential check.
+ */
+public class ParallelApiComplianceChecker {
+
+    private static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
+    /** A failure reported while checking a class. */
+    private static final class Failure {
+        final FailureType type;
+        final String name;
+        final String errorMessage;
+
+        Failure(FailureType type, String name, String errorMessage) {
+            this.type = type;
+            this.name = name;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    /** A checker keeping the failures of the class being checked by a thread. */
+    private static final class BufferingChecker implements ResultObserver {
+        private final ApiComplianceChecker checker = new ApiComplianceChecker(this);
+        private List<Failure> failures;
+
+        @Override
+        public void notifyFailure(FailureType type, String name, String errorMessage) {
+            failures.add(new Failure(type, name, errorMessage));
+        }
+
+        List<Failure> check(JDiffClassDescription classDescription) {
+            failures = new ArrayList<>();
+            try {
+                checker.checkSignatureCompliance(classDescription);
+            } catch (RuntimeException e) {
+                notifyFailure(FailureType.CAUGHT_EXCEPTION,
+                        classDescription.getAbsoluteClassName(), e.toString());
+            }
+            List<Failure> result = failures;
+            failures = null;
+            return result;
+        }
+    }
+
+    private final ResultObserver resultObserver;
+
+    // Null when classes are checked on the submitting thread.
+    private final ThreadPoolExecutor executor;
+
+    private final ThreadLocal<BufferingChecker> checkers =
+            ThreadLocal.withInitial(BufferingChecker::new);
+
+    // The checks not reported yet, in the order the classes were submitted.
+    private final Deque<CompletableFuture<List<Failure>>> pendingChecks = new ArrayDeque<>();
+
+    /**
+     * @param resultObserver the observer of the failures of all classes.
+     * @param threadCount the number of threads checking classes, or 0 to check each class on the
+     *     submitting thread.
+     */
+    public ParallelApiComplianceChecker(ResultObserver resultObserver, int threadCount) {
+        this.resultObserver = resultObserver;
+        if (threadCount > 0) {
+            executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(threadCount * QUEUE_CAPACITY_PER_THREAD),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "ApiComplianceChecker");
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Submits a class to be checked, and reports the failures of the classes submitted before
+     * that have been checked.
+     */
+    public void checkSignatureCompliance(JDiffClassDescription classDescription) {
+        if (executor == null) {
+            report(checkers.get().check(classDescription));
+            return;
+        }
+        pendingChecks.add(CompletableFuture.supplyAsync(
+                () -> checkers.get().check(classDescription), executor));
+        while (!pendingChecks.isEmpty() && pendingChecks.peek().isDone()) {
+            report(join(pendingChecks.poll()));
+        }
+    }
+
+    /**
+     * Waits for all the classes submitted to be checked, reports their failures and stops the
+     * threads.
+     */
+    public void finish() {
+        try {
+            while (!pendingChecks.isEmpty()) {
+                report(join(pendingChecks.poll()));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static List<Failure> join(CompletableFuture<List<Failure>> check) {
+        try {
+            return check.join();
+        } catch (CompletionException e) {
+            // Errors such as a LinkageError are not recoverable, fail like a sequential check
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void report(List<Failure> failures) {
+        for (Failure failure : failures) {
+            resultObserver.notifyFailure(failure.type, failure.name, failure.errorMessage);
+        }
+    }
+}
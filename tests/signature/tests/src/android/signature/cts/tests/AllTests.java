@@ -28,6 +28,7 @@ public class AllTests extends TestSuite {
         super();
 
         addTestSuite(ApiComplianceCheckerTest.class);
+        addTestSuite(ParallelApiComplianceCheckerTest.class);
     }
 
     public static Test suite() {
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.signature.cts.tests;
+
+import android.signature.cts.FailureType;
+import android.signature.cts.JDiffClassDescription;
+import android.signature.cts.ParallelApiComplianceChecker;
+import android.signature.cts.ResultObserver;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for ParallelApiComplianceChecker.
+ */
+public class ParallelApiComplianceCheckerTest extends TestCase {
+
+    private final List<String> failures = new ArrayList<>();
+
+    private final ResultObserver resultObserver = new ResultObserver() {
+        @Override
+        public void notifyFailure(FailureType type, String name, String errorMessage) {
+            failures.add(type + " " + name);
+        }
+    };
+
+    /**
+     * Creates the description of "NormalClass" with a missing method.
+     */
+    private static JDiffClassDescription createNormalClass(int index) {
+        JDiffClassDescription clz = new JDiffClassDescription(
+                "android.signature.cts.tests.data", "NormalClass");
+        clz.setType(JDiffClassDescription.JDiffType.CLASS);
+        clz.setModifier(Modifier.PUBLIC);
+        clz.addMethod(new JDiffClassDescription.JDiffMethod(
+                "missingMethod" + index, Modifier.PUBLIC, "void"));
+        return clz;
+    }
+
+    /**
+     * Creates the description of a missing class.
+     */
+    private static JDiffClassDescription createMissingClass(int index) {
+        JDiffClassDescription clz = new JDiffClassDescription(
+                "android.signature.cts.tests.data", "NoSuchClass" + index);
+        clz.setType(JDiffClassDescription.JDiffType.CLASS);
+        return clz;
+    }
+
+    private List<String> checkClasses(int threadCount) {
+        failures.clear();
+        ParallelApiComplianceChecker checker =
+                new ParallelApiComplianceChecker(resultObserver, threadCount);
+        for (int i = 0; i < 200; i++) {
+            checker.checkSignatureCompliance(createNormalClass(i));
+            checker.checkSignatureCompliance(createMissingClass(i));
+        }
+        checker.finish();
+        return new ArrayList<>(failures);
+    }
+
+    public void testCheckOnSubmittingThread() {
+        List<String> failures = checkClasses(0);
+        assertEquals(400, failures.size());
+        assertEquals("MISSING_METHOD android.signature.cts.tests.data.NormalClass#missingMethod0()",
+                failures.get(0));
+        assertEquals("MISSING_CLASS android.signature.cts.tests.data.NoSuchClass0",
+                failures.get(1));
+    }
+
+    public void testFailuresInSubmissionOrder() {
+        // More classes than the queue holds, so that the submitting thread checks some of them
+        assertEquals(checkClasses(0), checkClasses(4));
+    }
+
+    public void testFinish_noClasses() {
+        new ParallelApiComplianceChecker(resultObserver, 2).finish();
+        assertTrue(failures.isEmpty());
+    }
+}
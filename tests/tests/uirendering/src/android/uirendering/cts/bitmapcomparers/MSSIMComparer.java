@@ -34,6 +34,21 @@ public class MSSIMComparer extends BitmapComparer {
     public static final double CONSTANT_C2 = Math.pow(CONSTANT_L * CONSTANT_K2, 2);
     public static final int WINDOW_SIZE = 10;
 
+    private static final int WINDOW_PIXELS = WINDOW_SIZE * WINDOW_SIZE;
+
+    // The part of the intensity of a pixel due to each of its channels, by channel value.
+    private static final double[] RED_INTENSITIES = new double[256];
+    private static final double[] GREEN_INTENSITIES = new double[256];
+    private static final double[] BLUE_INTENSITIES = new double[256];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            RED_INTENSITIES[value] = getChannelIntensity(0.21f, value);
+            GREEN_INTENSITIES[value] = getChannelIntensity(0.72f, value);
+            BLUE_INTENSITIES[value] = getChannelIntensity(0.07f, value);
+        }
+    }
+
     private double mThreshold;
 
     public MSSIMComparer(double threshold) {
@@ -43,8 +58,29 @@ public class MSSIMComparer extends BitmapComparer {
     @Override
     public boolean verifySame(int[] ideal, int[] given, int offset, int stride, int width,
             int height) {
+        double SSIMTotal = getMSSIM(ideal, given, offset, stride, width, height);
+        if (Double.isNaN(SSIMTotal)) {
+            return true;
+        }
+
+        Log.d(TAG_NAME, "MSSIM = " + SSIMTotal);
+
+        return (SSIMTotal >= mThreshold);
+    }
+
+    /**
+     * Returns the mean SSIM of the windows that are not white in both bitmaps, or NaN if there
+     * are none.
+     *
+     * Only uses plain Java, so that it can be benchmarked on the host.
+     */
+    static double getMSSIM(int[] ideal, int[] given, int offset, int stride, int width,
+            int height) {
         double SSIMTotal = 0;
         int windows = 0;
+        // The intensities of the pixels of the current window, computed once per pixel
+        double[] idealIntensities = new double[WINDOW_PIXELS];
+        double[] givenIntensities = new double[WINDOW_PIXELS];
 
         for (int currentWindowY = 0 ; currentWindowY < height ; currentWindowY += WINDOW_SIZE) {
             for (int currentWindowX = 0 ; currentWindowX < width ; currentWindowX += WINDOW_SIZE) {
@@ -53,30 +89,26 @@ public class MSSIMComparer extends BitmapComparer {
                     continue;
                 }
                 windows++;
-                double[] means = getMeans(ideal, given, start, stride);
-                double meanX = means[0];
-                double meanY = means[1];
-                double[] variances = getVariances(ideal, given, meanX, meanY, start, stride);
-                double varX = variances[0];
-                double varY = variances[1];
-                double stdBoth = variances[2];
+                getIntensities(ideal, start, stride, idealIntensities);
+                getIntensities(given, start, stride, givenIntensities);
+                double meanX = getMean(idealIntensities);
+                double meanY = getMean(givenIntensities);
+                double varX = getCovariance(idealIntensities, meanX, idealIntensities, meanX);
+                double varY = getCovariance(givenIntensities, meanY, givenIntensities, meanY);
+                double stdBoth = getCovariance(idealIntensities, meanX, givenIntensities, meanY);
                 double SSIM = SSIM(meanX, meanY, varX, varY, stdBoth);
                 SSIMTotal += SSIM;
             }
         }
 
         if (windows == 0) {
-            return true;
+            return Double.NaN;
         }
 
-        SSIMTotal /= windows;
-
-        Log.d(TAG_NAME, "MSSIM = " + SSIMTotal);
-
-        return (SSIMTotal >= mThreshold);
+        return SSIMTotal / windows;
     }
 
-    private boolean isWindowWhite(int[] colors, int start, int stride) {
+    private static boolean isWindowWhite(int[] colors, int start, int stride) {
         for (int y = 0 ; y < WINDOW_SIZE ; y++) {
             for (int x = 0 ; x < WINDOW_SIZE ; x++) {
                 if (colors[indexFromXAndY(x, y, stride, start)] != Color.WHITE) {
@@ -87,7 +119,7 @@ public class MSSIMComparer extends BitmapComparer {
         return true;
     }
 
-    private double SSIM(double muX, double muY, double sigX, double sigY, double sigXY) {
+    private static double SSIM(double muX, double muY, double sigX, double sigY, double sigXY) {
         double SSIM = (((2 * muX * muY) + CONSTANT_C1) * ((2 * sigXY) + CONSTANT_C2));
         double denom = ((muX * muX) + (muY * muY) + CONSTANT_C1)
                 * (sigX + sigY + CONSTANT_C2);
@@ -97,49 +129,41 @@ public class MSSIMComparer extends BitmapComparer {
 
 
     /**
-     * This method will find the mean of a window in both sets of pixels. The return is an array
-     * where the first double is the mean of the first set and the second double is the mean of the
-     * second set.
+     * Gets the intensities of the pixels of a window, row by row.
      */
-    private double[] getMeans(int[] pixels0, int[] pixels1, int start, int stride) {
-        double avg0 = 0;
-        double avg1 = 0;
+    private static void getIntensities(int[] colors, int start, int stride,
+            double[] intensities) {
+        int i = 0;
         for (int y = 0 ; y < WINDOW_SIZE ; y++) {
+            int index = indexFromXAndY(0, y, stride, start);
             for (int x = 0 ; x < WINDOW_SIZE ; x++) {
-                int index = indexFromXAndY(x, y, stride, start);
-                avg0 += getIntensity(pixels0[index]);
-                avg1 += getIntensity(pixels1[index]);
+                intensities[i++] = getIntensity(colors[index + x]);
             }
         }
-        avg0 /= WINDOW_SIZE * WINDOW_SIZE;
-        avg1 /= WINDOW_SIZE * WINDOW_SIZE;
-        return new double[] {avg0, avg1};
     }
 
     /**
-     * Finds the variance of the two sets of pixels, as well as the covariance of the windows. The
-     * return value is an array of doubles, the first is the variance of the first set of pixels,
-     * the second is the variance of the second set of pixels, and the third is the covariance.
+     * This method will find the mean of the intensities of a window.
      */
-    private double[] getVariances(int[] pixels0, int[] pixels1, double mean0, double mean1,
-            int start, int stride) {
-        double var0 = 0;
-        double var1 = 0;
-        double varBoth = 0;
-        for (int y = 0 ; y < WINDOW_SIZE ; y++) {
-            for (int x = 0 ; x < WINDOW_SIZE ; x++) {
-                int index = indexFromXAndY(x, y, stride, start);
-                double v0 = getIntensity(pixels0[index]) - mean0;
-                double v1 = getIntensity(pixels1[index]) - mean1;
-                var0 += v0 * v0;
-                var1 += v1 * v1;
-                varBoth += v0 * v1;
-            }
+    private static double getMean(double[] intensities) {
+        double avg = 0;
+        for (int i = 0 ; i < WINDOW_PIXELS ; i++) {
+            avg += intensities[i];
+        }
+        return avg / WINDOW_PIXELS;
+    }
+
+    /**
+     * Finds the covariance of the intensities of two windows, or the variance of a window when
+     * given the same window twice.
+     */
+    private static double getCovariance(double[] intensities0, double mean0,
+            double[] intensities1, double mean1) {
+        double var = 0;
+        for (int i = 0 ; i < WINDOW_PIXELS ; i++) {
+            var += (intensities0[i] - mean0) * (intensities1[i] - mean1);
         }
-        var0 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        var1 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        varBoth /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        return new double[] {var0, var1, varBoth};
+        return var / (WINDOW_PIXELS - 1);
     }
 
     /**
@@ -149,12 +173,17 @@ public class MSSIMComparer extends BitmapComparer {
      *
      * The prime symbols dictate a gamma correction of 1.
      */
-    private double getIntensity(int pixel) {
-        final double gamma = 1;
+    private static double getIntensity(int pixel) {
+        // The channels as extracted by Color.red(), Color.green() and Color.blue()
         double l = 0;
-        l += (0.21f * Math.pow(Color.red(pixel) / 255f, gamma));
-        l += (0.72f * Math.pow(Color.green(pixel) / 255f, gamma));
-        l += (0.07f * Math.pow(Color.blue(pixel) / 255f, gamma));
+        l += RED_INTENSITIES[(pixel >> 16) & 0xFF];
+        l += GREEN_INTENSITIES[(pixel >> 8) & 0xFF];
+        l += BLUE_INTENSITIES[pixel & 0xFF];
         return l;
     }
+
+    private static double getChannelIntensity(float weight, int value) {
+        final double gamma = 1;
+        return weight * Math.pow(value / 255f, gamma);
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.uirendering.cts.bitmapcomparers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times {@link MSSIMComparer} against the reference implementation below, the one it replaced,
+ * on synthetic bitmaps, and checks that both compute bit-identical MSSIM values.
+ *
+ * Runs on the host, with android.jar on the compile classpath only:
+ * MSSIMComparerBenchmark [-n passes] [-b bitmaps]
+ */
+public class MSSIMComparerBenchmark {
+    private static final int DEFAULT_PASSES = 5;
+    private static final int DEFAULT_BITMAPS = 50;
+    // The size of the test bitmaps of the uirendering tests
+    private static final int SIZE = 90;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    public static void main(String[] args) {
+        int passes = DEFAULT_PASSES;
+        int count = DEFAULT_BITMAPS;
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                passes = Integer.parseInt(args[++i]);
+            } else if ("-b".equals(args[i])) {
+                count = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: MSSIMComparerBenchmark [-n passes] [-b bitmaps]");
+                System.exit(1);
+            }
+        }
+
+        Random random = new Random(0);
+        int[][] bitmaps = new int[count][];
+        for (int i = 0; i < count; i++) {
+            bitmaps[i] = createBitmap(random);
+        }
+
+        // Every pair of bitmaps, including each bitmap with itself
+        int mismatches = 0;
+        for (int[] ideal : bitmaps) {
+            for (int[] given : bitmaps) {
+                double expected = ReferenceMSSIM.getMSSIM(ideal, given, 0, SIZE, SIZE, SIZE);
+                double actual = MSSIMComparer.getMSSIM(ideal, given, 0, SIZE, SIZE, SIZE);
+                if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+                    mismatches++;
+                }
+            }
+        }
+        int comparisons = count * count;
+        System.out.printf("%d comparisons, %d MSSIM values differ from the reference%n",
+                comparisons, mismatches);
+
+        for (int pass = 0; pass < passes; pass++) {
+            long start = System.nanoTime();
+            double reference = 0;
+            for (int[] ideal : bitmaps) {
+                for (int[] given : bitmaps) {
+                    reference += ReferenceMSSIM.getMSSIM(ideal, given, 0, SIZE, SIZE, SIZE);
+                }
+            }
+            long middle = System.nanoTime();
+            double current = 0;
+            for (int[] ideal : bitmaps) {
+                for (int[] given : bitmaps) {
+                    current += MSSIMComparer.getMSSIM(ideal, given, 0, SIZE, SIZE, SIZE);
+                }
+            }
+            long end = System.nanoTime();
+            // The sums keep the comparisons from being optimized away
+            System.out.printf("pass %d: reference %.3f ms, MSSIMComparer %.3f ms per comparison"
+                    + " (sums %s)%n", pass + 1, (middle - start) / 1e6 / comparisons,
+                    (end - middle) / 1e6 / comparisons,
+                    Double.compare(reference, current) == 0 ? "equal" : "differ");
+        }
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    /**
+     * Returns a bitmap like those drawn by the tests: a white background with a few filled
+     * rectangles, and a little noise in places, as left by antialiasing.
+     */
+    private static int[] createBitmap(Random random) {
+        int[] bitmap = new int[SIZE * SIZE];
+        Arrays.fill(bitmap, WHITE);
+        int rectangles = 1 + random.nextInt(3);
+        for (int i = 0; i < rectangles; i++) {
+            int left = random.nextInt(SIZE);
+            int top = random.nextInt(SIZE);
+            int right = left + random.nextInt(SIZE - left) + 1;
+            int bottom = top + random.nextInt(SIZE - top) + 1;
+            int color = 0xFF000000 | random.nextInt(0x1000000);
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    bitmap[y * SIZE + x] = color;
+                }
+            }
+        }
+        for (int i = 0; i < SIZE * 4; i++) {
+            bitmap[random.nextInt(bitmap.length)] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return bitmap;
+    }
+
+    /**
+     * MSSIMComparer before it cached intensities: each pixel converted four times, with
+     * Math.pow, and arrays allocated per window.
+     */
+    private static class ReferenceMSSIM {
+        private static final int WINDOW_SIZE = MSSIMComparer.WINDOW_SIZE;
+
+        static double getMSSIM(int[] ideal, int[] given, int offset, int stride, int width,
+                int height) {
+            double SSIMTotal = 0;
+            int windows = 0;
+
+            for (int currentWindowY = 0 ; currentWindowY < height ;
+                    currentWindowY += WINDOW_SIZE) {
+                for (int currentWindowX = 0 ; currentWindowX < width ;
+                        currentWindowX += WINDOW_SIZE) {
+                    int start = BitmapComparer.indexFromXAndY(currentWindowX, currentWindowY,
+                            stride, offset);
+                    if (isWindowWhite(ideal, start, stride)
+                            && isWindowWhite(given, start, stride)) {
+                        continue;
+                    }
+                    windows++;
+                    double[] means = getMeans(ideal, given, start, stride);
+                    double meanX = means[0];
+                    double meanY = means[1];
+                    double[] variances = getVariances(ideal, given, meanX, meanY, start,
+                            stride);
+                    double varX = variances[0];
+                    double varY = variances[1];
+                    double stdBoth = variances[2];
+                    double SSIM = SSIM(meanX, meanY, varX, varY, stdBoth);
+                    SSIMTotal += SSIM;
+                }
+            }
+
+            if (windows == 0) {
+                return Double.NaN;
+            }
+
+            return SSIMTotal / windows;
+        }
+
+        private static boolean isWindowWhite(int[] colors, int start, int stride) {
+            for (int y = 0 ; y < WINDOW_SIZE ; y++) {
+                for (int x = 0 ; x < WINDOW_SIZE ; x++) {
+                    if (colors[BitmapComparer.indexFromXAndY(x, y, stride, start)] != WHITE) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static double SSIM(double muX, double muY, double sigX, double sigY,
+                double sigXY) {
+            double SSIM = (((2 * muX * muY) + MSSIMComparer.CONSTANT_C1)
+                    * ((2 * sigXY) + MSSIMComparer.CONSTANT_C2));
+            double denom = ((muX * muX) + (muY * muY) + MSSIMComparer.CONSTANT_C1)
+                    * (sigX + sigY + MSSIMComparer.CONSTANT_C2);
+            SSIM /= denom;
+            return SSIM;
+        }
+
+        private static double[] getMeans(int[] pixels0, int[] pixels1, int start, int stride) {
+            double avg0 = 0;
+            double avg1 = 0;
+            for (int y = 0 ; y < WINDOW_SIZE ; y++) {
+                for (int x = 0 ; x < WINDOW_SIZE ; x++) {
+                    int index = BitmapComparer.indexFromXAndY(x, y, stride, start);
+                    avg0 += getIntensity(pixels0[index]);
+                    avg1 += getIntensity(pixels1[index]);
+                }
+            }
+            avg0 /= WINDOW_SIZE * WINDOW_SIZE;
+            avg1 /= WINDOW_SIZE * WINDOW_SIZE;
+            return new double[] {avg0, avg1};
+        }
+
+        private static double[] getVariances(int[] pixels0, int[] pixels1, double mean0,
+                double mean1, int start, int stride) {
+            double var0 = 0;
+            double var1 = 0;
+            double varBoth = 0;
+            for (int y = 0 ; y < WINDOW_SIZE ; y++) {
+                for (int x = 0 ; x < WINDOW_SIZE ; x++) {
+                    int index = BitmapComparer.indexFromXAndY(x, y, stride, start);
+                    double v0 = getIntensity(pixels0[index]) - mean0;
+                    double v1 = getIntensity(pixels1[index]) - mean1;
+                    var0 += v0 * v0;
+                    var1 += v1 * v1;
+                    varBoth += v0 * v1;
+                }
+            }
+            var0 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
+            var1 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
+            varBoth /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
+            return new double[] {var0, var1, varBoth};
+        }
+
+        private static double getIntensity(int pixel) {
+            final double gamma = 1;
+            double l = 0;
+            l += (0.21f * Math.pow(((pixel >> 16) & 0xFF) / 255f, gamma));
+            l += (0.72f * Math.pow(((pixel >> 8) & 0xFF) / 255f, gamma));
+            l += (0.07f * Math.pow((pixel & 0xFF) / 255f, gamma));
+            return l;
+        }
+    }
+}
@@ -31,6 +31,7 @@ include $(BUILD_PREBUILT)
 # ============================================================
 subdirs := $(addprefix $(LOCAL_PATH)/,$(addsuffix /Android.mk, \
 		src \
+		tests \
 	))
 
 include $(subdirs)
@@ -19,7 +19,9 @@ package com.android.cts.apicoverage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Representation of a class in the API with constructors and methods. */
 class ApiClass implements Comparable<ApiClass>, HasCoverage {
@@ -36,6 +38,13 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private final List<ApiMethod> mApiMethods = new ArrayList<ApiMethod>();
 
+    // Constructors and methods indexed by name and number of parameters, so that resolving a
+    // reference only compares the few overloads that can match. Built as members are added and
+    // only read afterwards, so lookups are safe from multiple threads.
+    private final Map<String, Overloads<ApiConstructor>> mConstructorIndex = new HashMap<>();
+
+    private final Map<String, Overloads<ApiMethod>> mMethodIndex = new HashMap<>();
+
     private final String mSuperClassName;
 
     private ApiClass mSuperClass;
@@ -83,6 +92,9 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addConstructor(ApiConstructor constructor) {
         mApiConstructors.add(constructor);
+        List<String> parameterTypes = constructor.getParameterTypes();
+        getOverloads(mConstructorIndex, "<init>", parameterTypes.size())
+                .add(constructor, parameterTypes, VOID);
     }
 
 
@@ -92,31 +104,59 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addMethod(ApiMethod method) {
         mApiMethods.add(method);
+        List<String> parameterTypes = method.getParameterTypes();
+        getOverloads(mMethodIndex, method.getName(), parameterTypes.size())
+                .add(method, parameterTypes, method.getReturnType());
     }
 
     /** Look for a matching constructor and mark it as covered */
     public void markConstructorCovered(List<String> parameterTypes, String coveredbyApk) {
-        if (mSuperClass != null) {
-            // Mark matching constructors in the superclass
-            mSuperClass.markConstructorCovered(parameterTypes, coveredbyApk);
-        }
-        ApiConstructor apiConstructor = getConstructor(parameterTypes);
-        if (apiConstructor != null) {
+        List<ApiConstructor> constructors = new ArrayList<>();
+        findConstructors(parameterTypes, constructors);
+        for (ApiConstructor apiConstructor : constructors) {
             apiConstructor.setCovered(coveredbyApk);
         }
-
     }
 
     /** Look for a matching method and if found and mark it as covered */
     public void markMethodCovered(
             String name, List<String> parameterTypes, String returnType, String coveredbyApk) {
+        List<ApiMethod> methods = new ArrayList<>();
+        findMethods(name, parameterTypes, returnType, methods);
+        for (ApiMethod apiMethod : methods) {
+            apiMethod.setCovered(coveredbyApk);
+        }
+    }
+
+    /**
+     * Look for the constructors of this class and its super classes matching a reference,
+     * without marking them as covered.
+     */
+    public void findConstructors(List<String> parameterTypes,
+            Collection<ApiConstructor> constructors) {
         if (mSuperClass != null) {
-            // Mark matching methods in the super class
-            mSuperClass.markMethodCovered(name, parameterTypes, returnType, coveredbyApk);
+            // Match constructors in the superclass
+            mSuperClass.findConstructors(parameterTypes, constructors);
+        }
+        ApiConstructor apiConstructor = getConstructor(parameterTypes);
+        if (apiConstructor != null) {
+            constructors.add(apiConstructor);
+        }
+    }
+
+    /**
+     * Look for the methods of this class and its super classes matching a reference, without
+     * marking them as covered.
+     */
+    public void findMethods(String name, List<String> parameterTypes, String returnType,
+            Collection<ApiMethod> methods) {
+        if (mSuperClass != null) {
+            // Match methods in the super class
+            mSuperClass.findMethods(name, parameterTypes, returnType, methods);
         }
         ApiMethod apiMethod = getMethod(name, parameterTypes, returnType);
         if (apiMethod != null) {
-            apiMethod.setCovered(coveredbyApk);
+            methods.add(apiMethod);
         }
     }
 
@@ -158,18 +198,78 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiMethod getMethod(String name, List<String> parameterTypes, String returnType) {
-        for (ApiMethod method : mApiMethods) {
-            boolean methodNameMatch = name.equals(method.getName());
+        Overloads<ApiMethod> overloads = mMethodIndex.get(indexKey(name, parameterTypes.size()));
+        if (overloads == null) {
+            return null;
+        }
+        if (overloads.mExact) {
+            return overloads.mBySignature.get(signature(parameterTypes, returnType));
+        }
+        for (ApiMethod method : overloads.mMembers) {
             boolean parameterTypeMatch =
                     compareParameterTypes(method.getParameterTypes(), parameterTypes);
             boolean returnTypeMatch = compareType(method.getReturnType(), returnType);
-            if (methodNameMatch && parameterTypeMatch && returnTypeMatch) {
+            if (parameterTypeMatch && returnTypeMatch) {
                 return method;
             }
         }
         return null;
     }
 
+    /**
+     * The members of a class sharing a name and number of parameters, in the order of the API.
+     */
+    private static class Overloads<T> {
+        final List<T> mMembers = new ArrayList<>();
+        // First member of each erased signature
+        final Map<String, T> mBySignature = new HashMap<>();
+        // True while no member has a generic or var arg parameter or return type, in which case
+        // types only match when they are equal and the signature map can be used instead of
+        // comparing types
+        boolean mExact = true;
+
+        void add(T member, List<String> parameterTypes, String returnType) {
+            mMembers.add(member);
+            String signature = signature(parameterTypes, returnType);
+            if (!mBySignature.containsKey(signature)) {
+                mBySignature.put(signature, member);
+            }
+            for (String type : parameterTypes) {
+                mExact &= isExactType(type);
+            }
+            mExact &= isExactType(returnType);
+        }
+    }
+
+    private static <T> Overloads<T> getOverloads(Map<String, Overloads<T>> index, String name,
+            int arity) {
+        String key = indexKey(name, arity);
+        Overloads<T> overloads = index.get(key);
+        if (overloads == null) {
+            overloads = new Overloads<>();
+            index.put(key, overloads);
+        }
+        return overloads;
+    }
+
+    private static String indexKey(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    /**
+     * @return the signature of a member with the given types, generics are already erased
+     */
+    private static String signature(List<String> parameterTypes, String returnType) {
+        return String.join(",", parameterTypes) + ")" + returnType;
+    }
+
+    /**
+     * @return true iff {@link #compareType} only matches the given api type with itself.
+     */
+    private static boolean isExactType(String apiType) {
+        return !isGenericType(apiType) && !isGenericArrayType(apiType) && !isVarArg(apiType);
+    }
+
     /**
      * The method compares two lists of parameters. If the {@code apiParameterTypeList} contains
      * generic types, test parameter types are ignored.
@@ -243,7 +343,15 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
     }
 
     private ApiConstructor getConstructor(List<String> parameterTypes) {
-        for (ApiConstructor constructor : mApiConstructors) {
+        Overloads<ApiConstructor> overloads =
+                mConstructorIndex.get(indexKey("<init>", parameterTypes.size()));
+        if (overloads == null) {
+            return null;
+        }
+        if (overloads.mExact) {
+            return overloads.mBySignature.get(signature(parameterTypes, VOID));
+        }
+        for (ApiConstructor constructor : overloads.mMembers) {
             if (compareParameterTypes(constructor.getParameterTypes(), parameterTypes)) {
                 return constructor;
             }
@@ -16,19 +16,17 @@
 
 package com.android.cts.apicoverage;
 
+import com.android.compatibility.common.util.ReadElf;
 
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 /**
@@ -121,52 +119,63 @@ class ApkNdkApiReport {
 
     public static ApkNdkApiReport parseTestcasesFolder(String testCasePath, String bits)
             throws IOException, SAXException {
-        File[] testConfigFiles;
+        return parseTestcasesFolder(testCasePath, bits, new NdkSymbolCache(null));
+    }
+
+    /**
+     * Finds the native libraries of the APKs of the testcases folder and reads their dynamic
+     * symbols, scanning the APKs in parallel.
+     *
+     * @param symbolCache the cache of dynamic symbols shared with other reports
+     */
+    public static ApkNdkApiReport parseTestcasesFolder(String testCasePath, String bits,
+            NdkSymbolCache symbolCache) throws IOException, SAXException {
         List<TestModule> testModules = new ArrayList<TestModule>();
 
         File file = new File(testCasePath);
         if (file.isDirectory()) {
-            File[] targetFiles = file.listFiles(SUPPORTED_FILE_NAME_FILTER);
-
-            Map<String, String> env = new HashMap<>();
-            for (File targetFile : targetFiles) {
-                final ZipFile apkFile = new ZipFile(targetFile);
-                System.out.println(targetFile.getName());
-                try {
-                    final Enumeration<? extends ZipEntry> entries = apkFile.entries();
-                    while (entries.hasMoreElements()) {
-                        final ZipEntry entry = entries.nextElement();
-
-                        if (!entry.getName().matches("lib(.*)" + bits + "(.*)so")) {
-                            continue;
-                        }
-
-                        System.out.println(entry.getName());
-
-                        //use entry input stream:
-                        InputStream is = apkFile.getInputStream(entry);
-
-                        File tempFile = File.createTempFile("ApkNdkApiReport", ".so");
-                        tempFile.deleteOnExit();
-                        FileOutputStream fos = new FileOutputStream(tempFile);
-
-                        byte[] bytes = new byte[4096];
-                        int length;
-                        while ((length = is.read(bytes)) >= 0) {
-                            fos.write(bytes, 0, length);
-                        }
-                        is.close();
-                        fos.close();
-
-                        testModules.add(new TestModule(tempFile, targetFile.getName(), "jUnit"));
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            List<Callable<List<TestModule>>> tasks = new ArrayList<>();
+            for (File targetFile : file.listFiles(SUPPORTED_FILE_NAME_FILTER)) {
+                tasks.add(() -> parseApk(targetFile, bits, symbolCache));
+            }
+            for (List<TestModule> apkTestModules : NdkSymbolCache.invokeAll(tasks)) {
+                testModules.addAll(apkTestModules);
             }
         } else {
             return null;
         }
         return new ApkNdkApiReport(testModules, bits);
     }
+
+    /** @return a test module with the dynamic symbols of each native library of the APK. */
+    private static List<TestModule> parseApk(File targetFile, String bits,
+            NdkSymbolCache symbolCache) throws IOException {
+        List<TestModule> testModules = new ArrayList<TestModule>();
+        try (ZipFile apkFile = new ZipFile(targetFile)) {
+            System.out.println(targetFile.getName());
+            final Enumeration<? extends ZipEntry> entries = apkFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+
+                if (!entry.getName().matches("lib(.*)" + bits + "(.*)so")) {
+                    continue;
+                }
+
+                System.out.println(entry.getName());
+
+                ReadElf.Symbol[] dynSymArr;
+                try {
+                    dynSymArr = symbolCache.getDynSymArr(apkFile, entry);
+                } catch (IOException | IllegalArgumentException e) {
+                    // Skip the library rather than reading it again when adding coverage
+                    System.err.println(String.format("warning: failed to read %s in %s: %s",
+                            entry.getName(), targetFile.getName(), e));
+                    continue;
+                }
+                testModules.add(
+                        new TestModule(targetFile, targetFile.getName(), "jUnit", dynSymArr));
+            }
+        }
+        return testModules;
+    }
 }
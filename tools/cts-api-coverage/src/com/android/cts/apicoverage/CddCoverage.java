@@ -46,6 +46,15 @@ class CddCoverage {
         requirements.get(cddRequirementId).addTestMethod(testMethod);
     }
 
+    /** Add the coverage of another {@link CddCoverage} to this one. */
+    public void addCoverage(CddCoverage other) {
+        for (CddRequirement requirement : other.requirements.values()) {
+            for (TestMethod testMethod : requirement.getTestMethods()) {
+                addCoverage(requirement.getRequirementId(), testMethod);
+            }
+        }
+    }
+
     static class CddRequirement {
         private final String mRequirementId;
         private final List<TestMethod> mtestMethods;
@@ -45,6 +45,11 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.TransformerException;
 
@@ -97,6 +102,10 @@ public class CtsApiCoverage {
         System.out.println("  -t TITLE               report title");
         System.out.println("  -a API                 the Android API Level");
         System.out.println("  -b BITS                64 or 32 bits, default 64");
+        System.out.println("  -j THREADS             number of test APKs scanned in parallel, "
+                + "default is the number of processors");
+        System.out.println("  -c FILE                NDK symbol cache kept between runs, "
+                + "not kept if not given");
         System.out.println();
         System.exit(1);
     }
@@ -113,6 +122,8 @@ public class CtsApiCoverage {
         int apiLevel = Integer.MAX_VALUE;
         String testCasesFolder = "";
         String bits = "64";
+        int threads = Runtime.getRuntime().availableProcessors();
+        File ndkSymbolCacheFile = null;
 
         List<File> notFoundTestApks = new ArrayList<File>();
         int numTestApkArgs = 0;
@@ -145,6 +156,13 @@ public class CtsApiCoverage {
                     apiLevel = Integer.parseInt(getExpectedArg(args, ++i));
                 } else if ("-b".equals(args[i])) {
                     bits = getExpectedArg(args, ++i);
+                } else if ("-j".equals(args[i])) {
+                    threads = Integer.parseInt(getExpectedArg(args, ++i));
+                    if (threads < 1) {
+                        printUsage();
+                    }
+                } else if ("-c".equals(args[i])) {
+                    ndkSymbolCacheFile = new File(getExpectedArg(args, ++i));
                 } else {
                     printUsage();
                 }
@@ -197,14 +215,13 @@ public class CtsApiCoverage {
 
         // Add superclass information into api coverage.
         apiCoverage.resolveSuperClasses();
-        for (File testApk : testApks) {
-            addApiCoverage(apiCoverage, testApk, dexDeps);
-            addCddCoverage(cddCoverage, testApk, apiLevel);
-        }
+        addTestApksCoverage(apiCoverage, cddCoverage, testApks, dexDeps, apiLevel, threads);
 
+        // Both NDK reports share the symbols of the binaries they have in common
+        NdkSymbolCache ndkSymbolCache = NdkSymbolCache.load(ndkSymbolCacheFile);
         try {
             // Add coverage for GTest modules
-            addGTestNdkApiCoverage(apiCoverage, testCasesFolder, bits);
+            addGTestNdkApiCoverage(apiCoverage, testCasesFolder, bits, ndkSymbolCache);
         } catch (Exception e) {
             System.out.println("warning: addGTestNdkApiCoverage failed to add to apiCoverage:");
             e.printStackTrace();
@@ -212,11 +229,12 @@ public class CtsApiCoverage {
 
         try {
             // Add coverage for APK with Share Objects
-            addNdkApiCoverage(apiCoverage, testCasesFolder, bits);
+            addNdkApiCoverage(apiCoverage, testCasesFolder, bits, ndkSymbolCache);
         } catch (Exception e) {
             System.out.println("warning: addNdkApiCoverage failed to add to apiCoverage:");
             e.printStackTrace();
         }
+        ndkSymbolCache.save();
 
         outputCoverageReport(apiCoverage, cddCoverage, testApks, outputFile,
             format, packageFilter, reportTitle);
@@ -261,14 +279,72 @@ public class CtsApiCoverage {
     }
 
     /**
-     * Adds coverage information gleamed from running dexdeps on the APK to the
-     * {@link ApiCoverage} object.
+     * Adds the API and CDD coverage of the test APKs, scanning up to the given number of them in
+     * parallel. The coverage of each APK is added in the order of the APKs, so the report does
+     * not depend on the number of threads.
+     *
+     * @param apiCoverage object to which the coverage statistics will be added to
+     * @param cddCoverage object to which the CDD coverage will be added to
+     * @param testApks containing the tests that will be scanned
+     * @param threads number of test APKs scanned in parallel
+     */
+    private static void addTestApksCoverage(ApiCoverage apiCoverage, CddCoverage cddCoverage,
+            List<File> testApks, String dexdeps, int api, int threads)
+            throws SAXException, IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, testApks.size())));
+        try {
+            List<Future<TestApkCoverage>> futures = new ArrayList<>();
+            for (File testApk : testApks) {
+                futures.add(executor.submit(new Callable<TestApkCoverage>() {
+                    @Override
+                    public TestApkCoverage call() throws Exception {
+                        // Only reads apiCoverage, coverage is added below on this thread
+                        TestApkCoverage coverage = new TestApkCoverage();
+                        coverage.mApiCoverage = getApiCoverage(apiCoverage, testApk, dexdeps);
+                        addCddCoverage(coverage.mCddCoverage, testApk, api);
+                        return coverage;
+                    }
+                }));
+            }
+            for (Future<TestApkCoverage> future : futures) {
+                TestApkCoverage coverage;
+                try {
+                    coverage = future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SAXException) {
+                        throw (SAXException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+                coverage.mApiCoverage.markCovered();
+                cddCoverage.addCoverage(coverage.mCddCoverage);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Coverage of a single test APK, not yet added to the total coverage. */
+    private static class TestApkCoverage {
+        DexDepsXmlHandler mApiCoverage;
+        final CddCoverage mCddCoverage = new CddCoverage();
+    }
+
+    /**
+     * Collects the coverage information gleamed from running dexdeps on the APK, to be added to
+     * the {@link ApiCoverage} object with {@link DexDepsXmlHandler#markCovered()}.
      *
      * @param apiCoverage object to which the coverage statistics will be added to
      * @param testApk containing the tests that will be scanned by dexdeps
      */
-    private static void addApiCoverage(ApiCoverage apiCoverage, File testApk, String dexdeps)
-            throws SAXException, IOException {
+    private static DexDepsXmlHandler getApiCoverage(ApiCoverage apiCoverage, File testApk,
+            String dexdeps) throws SAXException, IOException {
         XMLReader xmlReader = XMLReaderFactory.createXMLReader();
         String testApkName = testApk.getName();
         DexDepsXmlHandler dexDepsXmlHandler = new DexDepsXmlHandler(apiCoverage, testApkName);
@@ -283,6 +359,7 @@ public class CtsApiCoverage {
           // where the apk does not contain a classes.dex and therefore parsing won't work.
           System.err.println("warning: dexdeps failed for: " + apkPath);
         }
+        return dexDepsXmlHandler;
     }
 
     /**
@@ -345,11 +422,13 @@ public class CtsApiCoverage {
      * @param apiCoverage object to which the coverage statistics will be added to
      * @param testCasesFolder containing GTest modules
      * @param bits 64 or 32 bits of executiable
+     * @param ndkSymbolCache cache of the dynamic symbols of native binaries
      */
     private static void addNdkApiCoverage(
-            ApiCoverage apiCoverage, String testCasesFolder, String bits)
-            throws SAXException, IOException {
-        ApkNdkApiReport apiReport = ApkNdkApiReport.parseTestcasesFolder(testCasesFolder, bits);
+            ApiCoverage apiCoverage, String testCasesFolder, String bits,
+            NdkSymbolCache ndkSymbolCache) throws SAXException, IOException {
+        ApkNdkApiReport apiReport =
+                ApkNdkApiReport.parseTestcasesFolder(testCasesFolder, bits, ndkSymbolCache);
         if (apiReport != null) {
             addNdkSymArrToApiCoverage(apiCoverage, apiReport.getTestModules());
         } else {
@@ -367,11 +446,13 @@ public class CtsApiCoverage {
      * @param apiCoverage object to which the coverage statistics will be added to
      * @param testCasesFolder containing GTest modules
      * @param bits 64 or 32 bits of executiable
+     * @param ndkSymbolCache cache of the dynamic symbols of native binaries
      */
     private static void addGTestNdkApiCoverage(
-            ApiCoverage apiCoverage, String testCasesFolder, String bits)
-            throws SAXException, IOException {
-        GTestApiReport apiReport = GTestApiReport.parseTestcasesFolder(testCasesFolder, bits);
+            ApiCoverage apiCoverage, String testCasesFolder, String bits,
+            NdkSymbolCache ndkSymbolCache) throws SAXException, IOException {
+        GTestApiReport apiReport =
+                GTestApiReport.parseTestcasesFolder(testCasesFolder, bits, ndkSymbolCache);
         if (apiReport != null) {
             addNdkSymArrToApiCoverage(apiCoverage, apiReport.getTestModules());
         } else {
@@ -21,11 +21,16 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * {@link DefaultHander} that parses the output of dexdeps and adds the coverage information to
- * an {@link ApiCoverage} object.
+ * {@link DefaultHander} that parses the output of dexdeps and collects the constructors and
+ * methods of an {@link ApiCoverage} object referenced by a test APK.
+ * <p/>
+ * Parsing only reads the {@link ApiCoverage}, so that several APKs can be scanned concurrently,
+ * and the coverage is added with {@link #markCovered()} once parsing is done.
  */
 class DexDepsXmlHandler extends DefaultHandler {
 
@@ -43,6 +48,10 @@ class DexDepsXmlHandler extends DefaultHandler {
 
     private List<String> mCurrentParameterTypes = new ArrayList<String>();
 
+    private final Set<ApiConstructor> mCoveredConstructors = new LinkedHashSet<>();
+
+    private final Set<ApiMethod> mCoveredMethods = new LinkedHashSet<>();
+
     DexDepsXmlHandler(ApiCoverage packageMap, String testApkName) {
         this.mPackageMap = packageMap;
         this.mTestApkName = testApkName;
@@ -76,7 +85,7 @@ class DexDepsXmlHandler extends DefaultHandler {
             if (apiPackage != null) {
                 ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
                 if (apiClass != null) {
-                    apiClass.markConstructorCovered(mCurrentParameterTypes, mTestApkName);
+                    apiClass.findConstructors(mCurrentParameterTypes, mCoveredConstructors);
                 }
             }
         }  else if ("method".equalsIgnoreCase(localName)) {
@@ -84,11 +93,20 @@ class DexDepsXmlHandler extends DefaultHandler {
             if (apiPackage != null) {
                 ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
                 if (apiClass != null) {
-                    apiClass.markMethodCovered(
-                            mCurrentMethodName, mCurrentParameterTypes, mCurrentMethodReturnType,
-                                    mTestApkName);
+                    apiClass.findMethods(mCurrentMethodName, mCurrentParameterTypes,
+                            mCurrentMethodReturnType, mCoveredMethods);
                 }
             }
         }
     }
+
+    /** Mark the constructors and methods referenced by the test APK as covered by it. */
+    void markCovered() {
+        for (ApiConstructor apiConstructor : mCoveredConstructors) {
+            apiConstructor.setCovered(mTestApkName);
+        }
+        for (ApiMethod apiMethod : mCoveredMethods) {
+            apiMethod.setCovered(mTestApkName);
+        }
+    }
 }
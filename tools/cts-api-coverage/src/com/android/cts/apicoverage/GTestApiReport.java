@@ -16,6 +16,7 @@
 
 package com.android.cts.apicoverage;
 
+import com.android.compatibility.common.util.ReadElf;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -28,6 +29,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 /**
  * Class that outputs an XML report of the {@link ApiCoverage} collected. It can be viewed in a
  * browser when used with the api-coverage.css and api-coverage.xsl files.
@@ -119,49 +121,28 @@ class GTestApiReport {
 
     public static GTestApiReport parseTestcasesFolder(String testCasePath, String bits)
             throws IOException, SAXException {
-        File[] testConfigFiles;
+        return parseTestcasesFolder(testCasePath, bits, new NdkSymbolCache(null));
+    }
+
+    /**
+     * Finds the GTest modules of the testcases folder and reads the dynamic symbols of their
+     * executables, scanning the modules in parallel.
+     *
+     * @param symbolCache the cache of dynamic symbols shared with other reports
+     */
+    public static GTestApiReport parseTestcasesFolder(String testCasePath, String bits,
+            NdkSymbolCache symbolCache) throws IOException, SAXException {
         List<TestModule> testModules = new ArrayList<TestModule>();
 
         File file = new File(testCasePath);
         if (file.isDirectory()) {
-            testConfigFiles = file.listFiles(SUPPORTED_FILE_NAME_FILTER);
-
-            for (File testConfigFile : testConfigFiles) {
-                XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-                TestModuleConfigHandler testModuleXmlHandler = new TestModuleConfigHandler();
-                xmlReader.setContentHandler(testModuleXmlHandler);
-                FileReader fileReader = null;
-
-                try {
-                    fileReader = new FileReader(testConfigFile);
-                    xmlReader.parse(new InputSource(fileReader));
-                    if (TEST_TYPE.equalsIgnoreCase(testModuleXmlHandler.getTestClassName())) {
-                        File gTestExe =
-                                new File(
-                                        testCasePath
-                                                + "/"
-                                                + testModuleXmlHandler.getModuleName()
-                                                + bits);
-
-                        System.out.println(gTestExe.getName());
-                        System.out.println(
-                                String.format(
-                                        "%s: %s, %s",
-                                        testConfigFile.getName(),
-                                        testModuleXmlHandler.getModuleName(),
-                                        testModuleXmlHandler.getTestClassName()));
-
-                        testModules.add(
-                                new TestModule(
-                                        gTestExe,
-                                        testModuleXmlHandler.getModuleName(),
-                                        testModuleXmlHandler.getTestClassName()));
-                    }
-
-                } finally {
-                    if (fileReader != null) {
-                        fileReader.close();
-                    }
+            List<Callable<TestModule>> tasks = new ArrayList<>();
+            for (File testConfigFile : file.listFiles(SUPPORTED_FILE_NAME_FILTER)) {
+                tasks.add(() -> parseTestModule(testConfigFile, testCasePath, bits, symbolCache));
+            }
+            for (TestModule testModule : NdkSymbolCache.invokeAll(tasks)) {
+                if (testModule != null) {
+                    testModules.add(testModule);
                 }
             }
         } else {
@@ -169,4 +150,43 @@ class GTestApiReport {
         }
         return new GTestApiReport(testModules, bits);
     }
+
+    /**
+     * @return the GTest module of the given config with its dynamic symbols, or null if the
+     *     config is not a GTest module or its executable cannot be read.
+     */
+    private static TestModule parseTestModule(File testConfigFile, String testCasePath,
+            String bits, NdkSymbolCache symbolCache) throws IOException, SAXException {
+        XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+        TestModuleConfigHandler testModuleXmlHandler = new TestModuleConfigHandler();
+        xmlReader.setContentHandler(testModuleXmlHandler);
+        try (FileReader fileReader = new FileReader(testConfigFile)) {
+            xmlReader.parse(new InputSource(fileReader));
+        }
+        if (!TEST_TYPE.equalsIgnoreCase(testModuleXmlHandler.getTestClassName())) {
+            return null;
+        }
+        File gTestExe = new File(testCasePath + "/" + testModuleXmlHandler.getModuleName() + bits);
+        System.out.println(
+                String.format(
+                        "%s\n%s: %s, %s",
+                        gTestExe.getName(),
+                        testConfigFile.getName(),
+                        testModuleXmlHandler.getModuleName(),
+                        testModuleXmlHandler.getTestClassName()));
+
+        ReadElf.Symbol[] dynSymArr;
+        try {
+            dynSymArr = symbolCache.getDynSymArr(gTestExe);
+        } catch (IOException | IllegalArgumentException e) {
+            // Skip the module rather than reading it again when adding coverage
+            System.err.println("warning: failed to read " + gTestExe.getPath() + ": " + e);
+            return null;
+        }
+        return new TestModule(
+                gTestExe,
+                testModuleXmlHandler.getModuleName(),
+                testModuleXmlHandler.getTestClassName(),
+                dynSymArr);
+    }
 }
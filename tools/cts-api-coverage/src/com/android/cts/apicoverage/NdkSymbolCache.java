@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import com.android.compatibility.common.util.ReadElf;
+
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Dynamic symbols of native binaries, keyed by the hash of their content.
+ * <p/>
+ * A library shipped in several APKs, or a binary unchanged since the last run when the cache is
+ * kept in a file, is only parsed once. The cache is safe to use from multiple threads, so that
+ * {@link GTestApiReport} and {@link ApkNdkApiReport} can scan the testcases folder in parallel.
+ */
+class NdkSymbolCache {
+    // Bump whenever the format of the file or of ReadElf.Symbol changes
+    private static final int VERSION = 1;
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final File mCacheFile;
+    private final Map<String, ReadElf.Symbol[]> mSymbols = new ConcurrentHashMap<>();
+    private volatile boolean mModified = false;
+
+    /** Creates an empty cache persisted to the given file, or only kept in memory if null. */
+    NdkSymbolCache(File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    /**
+     * Loads the cache from the given file. A missing, outdated or unreadable file results in an
+     * empty cache that replaces the file when saved.
+     *
+     * @param cacheFile the file of the cache, or null for a cache only kept in memory
+     */
+    @SuppressWarnings("unchecked")
+    static NdkSymbolCache load(File cacheFile) {
+        NdkSymbolCache cache = new NdkSymbolCache(cacheFile);
+        if (cacheFile == null || !cacheFile.exists()) {
+            return cache;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != VERSION) {
+                System.err.println("warning: ignoring NDK symbol cache of a different version");
+                return cache;
+            }
+            cache.mSymbols.putAll((Map<String, ReadElf.Symbol[]>) in.readObject());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("warning: ignoring unreadable NDK symbol cache "
+                    + cacheFile.getPath() + ": " + e);
+            cache.mSymbols.clear();
+        }
+        return cache;
+    }
+
+    /** Returns the dynamic symbols of a native binary. */
+    ReadElf.Symbol[] getDynSymArr(File elfFile) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(elfFile))) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        String hash = toHex(digest.digest());
+        ReadElf.Symbol[] symArr = mSymbols.get(hash);
+        if (symArr == null) {
+            symArr = readDynSymArr(elfFile);
+            put(hash, symArr);
+        }
+        return symArr;
+    }
+
+    /** Returns the dynamic symbols of a native library stored in an APK. */
+    ReadElf.Symbol[] getDynSymArr(ZipFile apkFile, ZipEntry entry) throws IOException {
+        // ReadElf needs a file, extract the library and hash it on the way
+        File tempFile = File.createTempFile("ApkNdkApiReport", ".so");
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream in = apkFile.getInputStream(entry);
+                    OutputStream out = new DigestOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, length);
+                }
+            }
+            String hash = toHex(digest.digest());
+            ReadElf.Symbol[] symArr = mSymbols.get(hash);
+            if (symArr == null) {
+                symArr = readDynSymArr(tempFile);
+                put(hash, symArr);
+            }
+            return symArr;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /** @return the number of binaries in the cache. */
+    int size() {
+        return mSymbols.size();
+    }
+
+    /** Writes the cache to its file if binaries were parsed since it was loaded. */
+    void save() {
+        if (mCacheFile == null || !mModified) {
+            return;
+        }
+        File tempFile = null;
+        try {
+            File dir = mCacheFile.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            tempFile = File.createTempFile(mCacheFile.getName(), ".tmp", dir);
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(VERSION);
+                out.writeObject(new HashMap<>(mSymbols));
+            }
+            // Replace the file atomically so that a concurrent run never reads a partial cache
+            Files.move(tempFile.toPath(), mCacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mModified = false;
+        } catch (IOException e) {
+            System.err.println("warning: could not save NDK symbol cache: " + e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Runs the given tasks on the fork-join pool and returns their results in the order of the
+     * tasks.
+     * <p/>
+     * What a task prints to the standard output and error, including the messages of
+     * {@link ReadElf}, is held back and printed once the task and the ones before it are done,
+     * so that the output is the same as if the tasks ran one after the other.
+     */
+    static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException, SAXException {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        List<TaskOutput> outputs = new ArrayList<>();
+        List<Callable<T>> capturedTasks = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            TaskOutput output = new TaskOutput();
+            outputs.add(output);
+            capturedTasks.add(() -> {
+                TaskOutput.CURRENT.set(output);
+                try {
+                    return task.call();
+                } finally {
+                    TaskOutput.CURRENT.remove();
+                }
+            });
+        }
+        System.setOut(new PrintStream(new TaskOutputStream(out, false), true));
+        System.setErr(new PrintStream(new TaskOutputStream(err, true), true));
+        try {
+            List<Future<T>> futures = ForkJoinPool.commonPool().invokeAll(capturedTasks);
+            List<T> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(getResult(futures.get(i)));
+                } finally {
+                    outputs.get(i).print(out, err);
+                }
+            }
+            return results;
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, SAXException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning native binaries", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** What a task running on the current thread printed. */
+    private static class TaskOutput {
+        static final ThreadLocal<TaskOutput> CURRENT = new ThreadLocal<>();
+
+        final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        final ByteArrayOutputStream mErr = new ByteArrayOutputStream();
+
+        synchronized void print(PrintStream out, PrintStream err) {
+            out.write(mOut.toByteArray(), 0, mOut.size());
+            out.flush();
+            err.write(mErr.toByteArray(), 0, mErr.size());
+            err.flush();
+        }
+    }
+
+    /** Holds back what tasks print, and passes through what other code prints. */
+    private static class TaskOutputStream extends OutputStream {
+        private final PrintStream mStream;
+        private final boolean mIsErr;
+
+        TaskOutputStream(PrintStream stream, boolean isErr) {
+            mStream = stream;
+            mIsErr = isErr;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            TaskOutput output = TaskOutput.CURRENT.get();
+            if (output == null) {
+                mStream.write(b, off, len);
+                return;
+            }
+            synchronized (output) {
+                (mIsErr ? output.mErr : output.mOut).write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (TaskOutput.CURRENT.get() == null) {
+                mStream.flush();
+            }
+        }
+    }
+
+    private void put(String hash, ReadElf.Symbol[] symArr) {
+        mSymbols.put(hash, symArr);
+        mModified = true;
+    }
+
+    private static ReadElf.Symbol[] readDynSymArr(File elfFile) throws IOException {
+        try (ReadElf re = ReadElf.read(elfFile)) {
+            return re.getDynSymArr();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
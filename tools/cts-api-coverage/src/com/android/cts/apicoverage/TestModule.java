@@ -33,11 +33,17 @@ public class TestModule {
         mClassName = className;
     }
 
+    /** Creates a test module whose dynamic symbols were already read. */
+    TestModule(File configExe, String moduleName, String className, ReadElf.Symbol[] dynSymArr) {
+        this(configExe, moduleName, className);
+        mDynSymArr = dynSymArr;
+    }
+
     public ReadElf.Symbol[] getDynSymArr() throws IOException {
         if (mDynSymArr == null) {
-            ReadElf re = ReadElf.read(mConfigExe);
-            re.getDynamicSymbol("");
-            mDynSymArr = re.getDynSymArr();
+            try (ReadElf re = ReadElf.read(mConfigExe)) {
+                mDynSymArr = re.getDynSymArr();
+            }
         }
 
         return mDynSymArr;
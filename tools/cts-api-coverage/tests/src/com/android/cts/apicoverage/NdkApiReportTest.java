@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Unit tests for {@link ApkNdkApiReport} and {@link GTestApiReport} on binaries that cannot be
+ * read.
+ */
+public class NdkApiReportTest extends TestCase {
+
+    private File mTestCasesDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mTestCasesDir = Files.createTempDirectory("NdkApiReportTest").toFile();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (File file : mTestCasesDir.listFiles()) {
+            file.delete();
+        }
+        mTestCasesDir.delete();
+    }
+
+    public void testApkNdkApiReport_nonElfLibrary() throws Exception {
+        File apk = new File(mTestCasesDir, "CtsNonElfTestCases.apk");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk))) {
+            out.putNextEntry(new ZipEntry("lib/arm64-v8a/libnonelf.so"));
+            out.write("not an ELF file".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        ApkNdkApiReport report = ApkNdkApiReport.parseTestcasesFolder(
+                mTestCasesDir.getPath(), "64", new NdkSymbolCache(null));
+        // The library is skipped rather than read again when adding its coverage
+        assertTrue(report.getTestModules().isEmpty());
+    }
+
+    public void testGTestApiReport_missingExecutable() throws Exception {
+        writeConfig("CtsMissingTestCases.config", "CtsMissingTestCases");
+
+        GTestApiReport report = GTestApiReport.parseTestcasesFolder(
+                mTestCasesDir.getPath(), "64", new NdkSymbolCache(null));
+        assertTrue(report.getTestModules().isEmpty());
+    }
+
+    public void testGTestApiReport_nonElfExecutable() throws Exception {
+        writeConfig("CtsNonElfTestCases.config", "CtsNonElfTestCases");
+        Files.write(new File(mTestCasesDir, "CtsNonElfTestCases64").toPath(),
+                "not an ELF file".getBytes(StandardCharsets.UTF_8));
+
+        GTestApiReport report = GTestApiReport.parseTestcasesFolder(
+                mTestCasesDir.getPath(), "64", new NdkSymbolCache(null));
+        assertTrue(report.getTestModules().isEmpty());
+    }
+
+    private void writeConfig(String fileName, String moduleName) throws IOException {
+        try (FileWriter writer = new FileWriter(new File(mTestCasesDir, fileName))) {
+            writer.write("<configuration>\n"
+                    + "    <test class=\"" + GTestApiReport.TEST_TYPE + "\">\n"
+                    + "        <option name=\"module-name\" value=\"" + moduleName + "\" />\n"
+                    + "    </test>\n"
+                    + "</configuration>\n");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import com.android.compatibility.common.util.ReadElf;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Unit tests for {@link NdkSymbolCache}.
+ */
+public class NdkSymbolCacheTest extends TestCase {
+
+    private File mDir;
+    private File mCacheFile;
+
+    @Override
+    public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("NdkSymbolCacheTest").toFile();
+        mCacheFile = new File(mDir, "ndk-symbols.cache");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        File library = new File(mDir, "libfoo.so");
+        Files.write(library.toPath(), createLibrary("foo_function"));
+
+        NdkSymbolCache cache = NdkSymbolCache.load(mCacheFile);
+        assertEquals(0, cache.size());
+        assertEquals("foo_function", findNamedSymbol(cache.getDynSymArr(library)).name);
+        cache.save();
+        assertTrue(mCacheFile.exists());
+
+        NdkSymbolCache loaded = NdkSymbolCache.load(mCacheFile);
+        assertEquals(1, loaded.size());
+        ReadElf.Symbol symbol = findNamedSymbol(loaded.getDynSymArr(library));
+        assertEquals("foo_function", symbol.name);
+        assertEquals(ReadElf.Symbol.STB_GLOBAL, symbol.bind);
+        assertEquals(ReadElf.Symbol.STT_FUNC, symbol.type);
+    }
+
+    public void testGetDynSymArr_changedLibrary() throws Exception {
+        File library = new File(mDir, "libfoo.so");
+        Files.write(library.toPath(), createLibrary("foo_function"));
+        NdkSymbolCache cache = NdkSymbolCache.load(mCacheFile);
+        cache.getDynSymArr(library);
+        cache.save();
+
+        Files.write(library.toPath(), createLibrary("bar_function"));
+        NdkSymbolCache loaded = NdkSymbolCache.load(mCacheFile);
+        assertEquals("bar_function", findNamedSymbol(loaded.getDynSymArr(library)).name);
+        assertEquals(2, loaded.size());
+    }
+
+    public void testSave_unmodified() throws Exception {
+        NdkSymbolCache.load(mCacheFile).save();
+        assertFalse(mCacheFile.exists());
+    }
+
+    public void testLoad_unreadable() throws Exception {
+        Files.write(mCacheFile.toPath(), "not a cache".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, NdkSymbolCache.load(mCacheFile).size());
+    }
+
+    public void testInvokeAll_outputInTaskOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                // The first tasks finish last
+                Thread.sleep((4 - index) * 50);
+                System.out.println("task " + index);
+                return index;
+            });
+        }
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        List<Integer> results;
+        try {
+            results = NdkSymbolCache.invokeAll(tasks);
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), results);
+        assertEquals(String.format("task 0%ntask 1%ntask 2%ntask 3%n"),
+                captured.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    private static ReadElf.Symbol findNamedSymbol(ReadElf.Symbol[] symbols) {
+        for (ReadElf.Symbol symbol : symbols) {
+            if (!symbol.name.isEmpty()) {
+                return symbol;
+            }
+        }
+        fail("No named symbol");
+        return null;
+    }
+
+    /**
+     * @return an x86_64 shared library whose only dynamic symbol is a global function.
+     */
+    private static byte[] createLibrary(String functionName) {
+        byte[] shStrTab = "\0.shstrtab\0.dynstr\0.dynsym\0".getBytes(StandardCharsets.US_ASCII);
+        byte[] dynStr = ("\0" + functionName + "\0").getBytes(StandardCharsets.US_ASCII);
+        int shStrTabOffset = 64;
+        int dynStrOffset = shStrTabOffset + shStrTab.length;
+        int dynSymOffset = align(dynStrOffset + dynStr.length);
+        int dynSymSize = 2 * 24;
+        int shOffset = dynSymOffset + dynSymSize;
+
+        ByteBuffer elf = ByteBuffer.allocate(shOffset + 4 * 64).order(ByteOrder.LITTLE_ENDIAN);
+        // ELF64, little endian, version 1
+        elf.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        elf.putShort((short) 3); // ET_DYN
+        elf.putShort((short) 62); // EM_X86_64
+        elf.putInt(1); // e_version
+        elf.putLong(0); // e_entry
+        elf.putLong(0); // e_phoff
+        elf.putLong(shOffset);
+        elf.putInt(0); // e_flags
+        elf.putShort((short) 64); // e_ehsize
+        elf.putShort((short) 56); // e_phentsize
+        elf.putShort((short) 0); // e_phnum
+        elf.putShort((short) 64); // e_shentsize
+        elf.putShort((short) 4); // e_shnum
+        elf.putShort((short) 1); // e_shstrndx
+
+        elf.position(shStrTabOffset);
+        elf.put(shStrTab);
+        elf.put(dynStr);
+
+        // The first symbol is the undefined one
+        elf.position(dynSymOffset + 24);
+        elf.putInt(1); // st_name
+        elf.put((byte) 0x12); // STB_GLOBAL, STT_FUNC
+        elf.put((byte) 0); // st_other
+        elf.putShort((short) 1); // st_shndx
+        elf.putLong(0x1000); // st_value
+        elf.putLong(16); // st_size
+
+        elf.position(shOffset + 64);
+        putSectionHeader(elf, 1, 3, shStrTabOffset, shStrTab.length, 0, 0);
+        putSectionHeader(elf, 11, 3, dynStrOffset, dynStr.length, 0, 0);
+        putSectionHeader(elf, 19, 11, dynSymOffset, dynSymSize, 2, 24);
+        return elf.array();
+    }
+
+    private static void putSectionHeader(ByteBuffer elf, int name, int type, long offset,
+            long size, int link, long entrySize) {
+        elf.putInt(name);
+        elf.putInt(type);
+        elf.putLong(0); // sh_flags
+        elf.putLong(0); // sh_addr
+        elf.putLong(offset);
+        elf.putLong(size);
+        elf.putInt(link);
+        elf.putInt(0); // sh_info
+        elf.putLong(8); // sh_addralign
+        elf.putLong(entrySize);
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+}
@@ -28,7 +28,7 @@ import java.util.List;
     private int offset;
     private DexBuffer buffer;
     private int[] typeIds;
-    private String[] stringPool;
+    private StringPool stringPool;
     private Visibility visibility;
     private DexEncodedAnnotationImpl encodedAnnotation;
 
@@ -36,31 +36,36 @@ import java.util.List;
     private final FieldIdItem[] fieldIdItems;
 
     public DexAnnotationImpl(DexBuffer buffer, int offset, int[] typeIds,
-            String[] stringPool, FieldIdItem[] fieldIdItems) {
+            StringPool stringPool, FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.offset = offset;
         this.typeIds = typeIds;
         this.stringPool = stringPool;
         this.fieldIdItems = fieldIdItems;
-        parseAnnotations();
     }
 
-    private void parseAnnotations() {
-        buffer.setPosition(offset);
-        visibility = Visibility.get(buffer.readUByte());
-        encodedAnnotation = new DexEncodedAnnotationImpl(buffer, this, typeIds,
-                stringPool, fieldIdItems);
+    // the annotation is parsed when first needed
+    private synchronized void parseAnnotations() {
+        if (encodedAnnotation == null) {
+            buffer.setPosition(offset);
+            visibility = Visibility.get(buffer.readUByte());
+            encodedAnnotation = new DexEncodedAnnotationImpl(buffer, this,
+                    typeIds, stringPool, fieldIdItems);
+        }
     }
 
     public List<DexAnnotationAttribute> getAttributes() {
+        parseAnnotations();
         return encodedAnnotation.getValue();
     }
 
     public String getTypeName() {
+        parseAnnotations();
         return encodedAnnotation.getTypeName();
     }
 
     public Visibility getVisibility() {
+        parseAnnotations();
         return visibility;
     }
 
@@ -68,7 +73,7 @@ import java.util.List;
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("@");
-        builder.append(formatter.format(encodedAnnotation.getTypeName()));
+        builder.append(formatter.format(getTypeName()));
         if (!getAttributes().isEmpty()) {
             builder.append(" (");
             for (DexAnnotationAttribute value : getAttributes()) {
@@ -16,37 +16,30 @@
 
 package dex.reader;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public final class DexBuffer {
 
     private ByteBuffer b;
 
+    /**
+     * Maps a dex file into memory. Its pages are read by the operating system
+     * when first accessed, so that reading a few classes of a large file does
+     * not read the whole file.
+     */
     public DexBuffer(String fileName) throws IOException {
-
-        // FIXME channel? allocate fix size?
-        FileInputStream fis = null;
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
         try {
-            fis = new FileInputStream(fileName);
-
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buf = new byte[1024];
-            int len;
-            while ((len = bis.read(buf)) > 0) {
-                bos.write(buf, 0, len);
-            }
-            byte[] bytes = bos.toByteArray();
-            initialize(ByteBuffer.wrap(bytes));
+            FileChannel channel = file.getChannel();
+            // the mapping stays valid once the file is closed
+            initialize(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
         } finally {
-            if (fis != null) {
-                fis.close();
-            }
+            file.close();
         }
     }
 
@@ -64,6 +57,10 @@ public final class DexBuffer {
         b.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    public int size() {
+        return b.limit();
+    }
+
     public void setPosition(int offset) {
         b.position(offset);
     }
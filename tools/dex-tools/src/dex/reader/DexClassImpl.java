@@ -42,7 +42,7 @@ import dex.structure.DexMethod;
     // allready parsed
     private final ClassDefItem classDefItem;
     private final int[] typeIds;
-    private final String[] stringPool;
+    private final StringPool stringPool;
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
@@ -64,10 +64,11 @@ import dex.structure.DexMethod;
     private TypeFormatter formatter = new TypeFormatter();
 
     private boolean hasClassData;
+    private boolean parsed;
 
 
     public DexClassImpl(DexBuffer buffer, ClassDefItem classDefItem,
-            String[] stringPool, int[] typeIds, ProtIdItem[] protoIdItems,
+            StringPool stringPool, int[] typeIds, ProtIdItem[] protoIdItems,
             FieldIdItem[] fieldIdItems, MethodsIdItem[] methodIdItems) {
         this.buffer = buffer;
         this.classDefItem = classDefItem;
@@ -77,9 +78,16 @@ import dex.structure.DexMethod;
         this.fieldIdItems = fieldIdItems;
         this.methodIdItems = methodIdItems;
         hasClassData = classDefItem.class_data_off != 0;
-        parseClassData();
-        parseAnnotationDirectory();
-        parseClassAnnotations();
+    }
+
+    // class data and annotations are parsed when first needed
+    private void parse() {
+        if (!parsed) {
+            parseClassData();
+            parseAnnotationDirectory();
+            parseClassAnnotations();
+            parsed = true;
+        }
     }
 
     static class AnnotationsDirectoryItem {
@@ -247,6 +255,7 @@ import dex.structure.DexMethod;
 
     public synchronized List<DexField> getFields() {
         if (fields == null) {
+            parse();
             fields = new ArrayList<DexField>();
             if (hasClassData) {
                 fields.addAll(getDexFields(classDataItem.staticFields));
@@ -275,6 +284,7 @@ import dex.structure.DexMethod;
 
     public synchronized List<DexMethod> getMethods() {
         if (methods == null) {
+            parse();
             methods = new ArrayList<DexMethod>();
             if (hasClassData) {
                 methods.addAll(getDexMethods(classDataItem.directMethods));
@@ -314,7 +324,7 @@ import dex.structure.DexMethod;
                 buffer.setPosition(classDefItem.interfaces_off);
                 int size = buffer.readUInt();
                 for (int i = 0; i < size; i++) {
-                    interfaces.add(stringPool[typeIds[buffer.readUShort()]]);
+                    interfaces.add(stringPool.get(typeIds[buffer.readUShort()]));
                 }
             }
         }
@@ -324,15 +334,16 @@ import dex.structure.DexMethod;
     // returns null if no super class is present
     public String getSuperClass() {
         return classDefItem.superclass_idx == NO_INDEX ? null
-                : stringPool[typeIds[classDefItem.superclass_idx]];
+                : stringPool.get(typeIds[classDefItem.superclass_idx]);
     }
 
-    public Set<DexAnnotation> getAnnotations() {
+    public synchronized Set<DexAnnotation> getAnnotations() {
+        parse();
         return annotations;
     }
 
     public String getName() {
-        return stringPool[typeIds[classDefItem.class_idx]];
+        return stringPool.get(typeIds[classDefItem.class_idx]);
     }
 
     public int getModifiers() {
@@ -23,25 +23,29 @@ import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
 import dex.structure.DexFile;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 /* package */final class DexFileImpl implements DexFile {
 
-    private final String[] stringPool;
+    private final StringPool stringPool;
     private final int[] typeIds;
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
+    // items not read yet are null
     private ClassDefItem[] classDefItems;
+    private final int classDefsOffset;
     private final DexBuffer buffer;
 
     private List<DexClass> classes = null;
 
-    public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
+    public DexFileImpl(DexBuffer buffer, StringPool stringPool, int[] typeIds,
             ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
-            MethodsIdItem[] methodIdItems, ClassDefItem[] classDefItems) {
+            MethodsIdItem[] methodIdItems, ClassDefItem[] classDefItems,
+            int classDefsOffset) {
         this.buffer = buffer;
         this.stringPool = stringPool;
         this.typeIds = typeIds;
@@ -49,6 +53,38 @@ import java.util.List;
         this.fieldIdItems = fieldIdItems;
         this.methodIdItems = methodIdItems;
         this.classDefItems = classDefItems;
+        this.classDefsOffset = classDefsOffset;
+    }
+
+    /**
+     * The classes defined by the file, each one created when first accessed.
+     */
+    private final class DefinedClasses extends AbstractList<DexClass>
+            implements RandomAccess {
+        private final DexClass[] definedClasses =
+                new DexClass[classDefItems.length];
+
+        @Override
+        public DexClass get(int index) {
+            synchronized (DexFileImpl.this) {
+                if (definedClasses[index] == null) {
+                    if (classDefItems[index] == null) {
+                        classDefItems[index] = DexFileReader.readClassDef(
+                                buffer, classDefsOffset, index);
+                    }
+                    definedClasses[index] = new DexClassImpl(
+                            buffer.createCopy(), classDefItems[index],
+                            stringPool, typeIds, protoIdItems, fieldIdItems,
+                            methodIdItems);
+                }
+                return definedClasses[index];
+            }
+        }
+
+        @Override
+        public int size() {
+            return definedClasses.length;
+        }
     }
 
     /*
@@ -58,12 +94,7 @@ import java.util.List;
      */
     public synchronized List<DexClass> getDefinedClasses() {
         if (classes == null) {
-            classes = new ArrayList<DexClass>(classDefItems.length);
-            for (int i = 0; i < classDefItems.length; i++) {
-                classes.add(new DexClassImpl(buffer.createCopy(),
-                        classDefItems[i], stringPool, typeIds, protoIdItems,
-                        fieldIdItems, methodIdItems));
-            }
+            classes = new DefinedClasses();
         }
         return classes;
     }
@@ -71,10 +102,10 @@ import java.util.List;
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
-        b.append("StringPool:\n").append(Arrays.toString(stringPool));
+        b.append("StringPool:\n").append(stringPool);
         b.append("\nTypes:\n");
         for (int i = 0; i < typeIds.length; i++) {
-            b.append(stringPool[typeIds[i]] + "\n");
+            b.append(stringPool.get(typeIds[i]) + "\n");
         }
         b.append("\nProtos:\n").append(Arrays.toString(protoIdItems));
         b.append("\nFields:\n").append(Arrays.toString(fieldIdItems));
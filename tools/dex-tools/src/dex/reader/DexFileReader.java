@@ -20,6 +20,12 @@ import dex.structure.DexFile;
 
 import java.util.Arrays;
 
+/**
+ * Reads a dex file. By default, the strings and class definitions of the file
+ * are decoded when it is read. A lazy reader decodes each of them when first
+ * accessed instead, which is faster and uses less memory when only some
+ * classes of a large file are needed.
+ */
 public final class DexFileReader {
 
     // DEX constants
@@ -56,14 +62,29 @@ public final class DexFileReader {
     private int[] off = new int[9];
 
 
+    private final boolean lazy;
+
     //
-    private String[] stringPool;
+    private StringPool stringPool;
     private int[] typeIds; // values are index of stringPool
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
     private ClassDefItem[] classDefItems;
 
+    public DexFileReader() {
+        this(false);
+    }
+
+    /**
+     * @param lazy
+     *            whether strings and class definitions are decoded when first
+     *            accessed rather than when the file is read
+     */
+    public DexFileReader(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     // starting buffer at zero
     public DexFile read(DexBuffer buffer) {
         this.b = buffer;
@@ -99,7 +120,8 @@ public final class DexFileReader {
         readClasses();
 
         return new DexFileImpl(b.createCopy(), stringPool, typeIds,
-                protoIdItems, fieldIdItems, methodIdItems, classDefItems);
+                protoIdItems, fieldIdItems, methodIdItems, classDefItems,
+                off[CLASS_DEFS]);
     }
 
     // MAGIC (8, U_BYTE)
@@ -144,9 +166,28 @@ public final class DexFileReader {
         off[attribute] = b.readUInt();
     }
 
+    // checks that the items of a section are within the file, before
+    // allocating arrays for them
+    private void checkSection(int attribute, int itemSize) {
+        if (size[attribute] < 0 || off[attribute] < 0
+                || off[attribute] + (long) size[attribute] * itemSize
+                        > b.size()) {
+            throw new IllegalArgumentException("Invalid dex file: "
+                    + size[attribute] + " items of " + itemSize
+                    + " bytes at offset " + off[attribute]
+                    + " exceed the file size " + b.size());
+        }
+    }
+
     // reads the string pool
     private void readStrings() {
         int nStrings = size[STRING_IDS];
+        checkSection(STRING_IDS, 4);
+        if (lazy) {
+            stringPool = new StringPool(b.createCopy(), off[STRING_IDS],
+                    nStrings);
+            return;
+        }
         b.setPosition(off[STRING_IDS]); // the first string offset is here
         int[] stringDataOffsets = new int[nStrings];
 
@@ -154,15 +195,11 @@ public final class DexFileReader {
             stringDataOffsets[i] = b.readUInt();
         }
 
-        stringPool = new String[nStrings];
+        String[] strings = new String[nStrings];
         for (int i = 0; i < stringDataOffsets.length; i++) {
-            b.setPosition(stringDataOffsets[i]); // set buffer to offset
-            // Position
-            int lenght = b.readUleb128(); // read uleb128
-            byte[] values = new byte[lenght];
-            b.readBytes(values);
-            stringPool[i] = new String(values);
+            strings[i] = StringPool.readString(b, stringDataOffsets[i]);
         }
+        stringPool = new StringPool(strings);
     }
 
     private void readTypeIds() {
@@ -240,6 +277,8 @@ public final class DexFileReader {
         }
     }
 
+    private static final int CLASS_DEF_ITEM_SIZE = 8 * 4;
+
     public static class ClassDefItem {
         public int class_idx;
         public int access_flags;
@@ -253,21 +292,29 @@ public final class DexFileReader {
 
     private void readClasses() {
         int nClassDefs = size[CLASS_DEFS];
-        b.setPosition(off[CLASS_DEFS]);
+        checkSection(CLASS_DEFS, CLASS_DEF_ITEM_SIZE);
+        // if lazy, items are read by DexFileImpl when first accessed
         classDefItems = new ClassDefItem[nClassDefs];
-
-        ClassDefItem item = null;
+        if (lazy) {
+            return;
+        }
         for (int i = 0; i < classDefItems.length; i++) {
-            item = new ClassDefItem();
-            item.class_idx = b.readUInt();
-            item.access_flags = b.readUInt();
-            item.superclass_idx = b.readUInt();
-            item.interfaces_off = b.readUInt();
-            item.source_file_idx = b.readUInt();
-            item.annotations_off = b.readUInt();
-            item.class_data_off = b.readUInt();
-            item.static_values_off = b.readUInt();
-            classDefItems[i] = item;
+            classDefItems[i] = readClassDef(b, off[CLASS_DEFS], i);
         }
     }
+
+    static ClassDefItem readClassDef(DexBuffer b, int classDefsOffset,
+            int index) {
+        b.setPosition(classDefsOffset + index * CLASS_DEF_ITEM_SIZE);
+        ClassDefItem item = new ClassDefItem();
+        item.class_idx = b.readUInt();
+        item.access_flags = b.readUInt();
+        item.superclass_idx = b.readUInt();
+        item.interfaces_off = b.readUInt();
+        item.source_file_idx = b.readUInt();
+        item.annotations_off = b.readUInt();
+        item.class_data_off = b.readUInt();
+        item.static_values_off = b.readUInt();
+        return item;
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+import java.util.Arrays;
+
+/**
+ * The strings of a dex file, by index of their string_id_item. Strings are
+ * either all decoded up front, or each one when first accessed.
+ */
+/* package */final class StringPool {
+
+    private final String[] strings;
+    // null if all strings are decoded
+    private final DexBuffer buffer;
+    private final int stringIdsOffset;
+
+    /**
+     * Creates a pool of decoded strings.
+     */
+    public StringPool(String[] strings) {
+        this.strings = strings;
+        this.buffer = null;
+        this.stringIdsOffset = 0;
+    }
+
+    /**
+     * Creates a pool decoding each string when first accessed.
+     *
+     * @param buffer
+     *            a buffer of the dex file, used only by this pool
+     * @param stringIdsOffset
+     *            the offset of the string_id_items
+     * @param size
+     *            the number of strings
+     */
+    public StringPool(DexBuffer buffer, int stringIdsOffset, int size) {
+        this.strings = new String[size];
+        this.buffer = buffer;
+        this.stringIdsOffset = stringIdsOffset;
+    }
+
+    public String get(int index) {
+        if (buffer == null) {
+            return strings[index];
+        }
+        synchronized (this) {
+            String string = strings[index];
+            if (string == null) {
+                buffer.setPosition(stringIdsOffset + index * 4);
+                string = readString(buffer, buffer.readUInt());
+                strings[index] = string;
+            }
+            return string;
+        }
+    }
+
+    public int size() {
+        return strings.length;
+    }
+
+    /**
+     * Reads the string_data_item at the given offset.
+     */
+    static String readString(DexBuffer buffer, int stringDataOffset) {
+        buffer.setPosition(stringDataOffset); // set buffer to offset
+        // Position
+        int lenght = buffer.readUleb128(); // read uleb128
+        byte[] values = new byte[lenght];
+        buffer.readBytes(values);
+        return new String(values);
+    }
+
+    @Override
+    public String toString() {
+        for (int i = 0; i < strings.length; i++) {
+            get(i);
+        }
+        return Arrays.toString(strings);
+    }
+}
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -378,5 +379,25 @@ public class DexFileReaderTests extends DexTestsCommon {
         w.close();
         assertTrue(true);
     }
-    
+
+    /**
+     * Tests that a corrupt string pool size is reported rather than
+     * allocated when reading lazily.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorruptStringIdsSizeLazy() throws IOException {
+        RandomAccessFile file = new RandomAccessFile("dex/classes0.dex", "r");
+        byte[] bytes = new byte[(int) file.length()];
+        try {
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        // string_ids_size, little endian
+        bytes[0x38] = (byte) 0xff;
+        bytes[0x39] = (byte) 0xff;
+        bytes[0x3a] = (byte) 0xff;
+        bytes[0x3b] = (byte) 0x7f;
+        new DexFileReader(true).read(new DexBuffer(bytes));
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+import dex.structure.DexClass;
+import dex.structure.DexField;
+import dex.structure.DexFile;
+import dex.structure.DexMethod;
+import dex.structure.DexParameter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compares reading a large dex file eagerly and lazily: the time to open the
+ * file and read one class, the time to then walk all classes and the memory
+ * retained after reading one class.
+ *
+ * Usage: LargeDexBenchmark [dex file] (default: dex/classes0.dex)
+ */
+public class LargeDexBenchmark {
+
+    private static final int RUNS = 60;
+
+    public static void main(String[] args) throws IOException {
+        String fileName = args.length > 0 ? args[0] : "dex/classes0.dex";
+        run(fileName, false);
+        run(fileName, true);
+    }
+
+    private static void run(String fileName, boolean lazy) throws IOException {
+        String mode = lazy ? "lazy" : "eager";
+        long bestOneClass = Long.MAX_VALUE;
+        long bestFullWalk = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            // keeps the garbage of the previous run out of this one
+            System.gc();
+            long start = System.nanoTime();
+            DexFile dexFile = read(fileName, lazy);
+            List<DexClass> classes = dexFile.getDefinedClasses();
+            DexClass clazz = classes.get(classes.size() / 2);
+            clazz.getFields().size();
+            clazz.getMethods().size();
+            long oneClass = System.nanoTime();
+            // the walk is timed on its own, from the open file
+            int elements = walk(dexFile);
+            long fullWalk = System.nanoTime();
+            System.out.printf(
+                    "%s: one class %.1f ms, full walk of %d elements %.1f ms%n",
+                    mode, (oneClass - start) / 1e6, elements,
+                    (fullWalk - oneClass) / 1e6);
+            bestOneClass = Math.min(bestOneClass, oneClass - start);
+            bestFullWalk = Math.min(bestFullWalk, fullWalk - oneClass);
+        }
+        System.out.printf("%s: best of %d runs: one class %.1f ms, full walk %.1f ms%n",
+                mode, RUNS, bestOneClass / 1e6, bestFullWalk / 1e6);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        DexFile dexFile = read(fileName, lazy);
+        dexFile.getDefinedClasses().get(0).getName();
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%s: retained after one class %d KB%n", mode,
+                (after - before) / 1024);
+        // keeps the file reachable until it is measured
+        dexFile.getName();
+    }
+
+    private static DexFile read(String fileName, boolean lazy)
+            throws IOException {
+        return new DexFileReader(lazy).read(new DexBuffer(fileName));
+    }
+
+    // reads the names, types and annotations of every class, field, method
+    // and parameter, returns their number
+    private static int walk(DexFile dexFile) {
+        int count = 0;
+        for (DexClass clazz : dexFile.getDefinedClasses()) {
+            clazz.getName();
+            clazz.getSuperClass();
+            clazz.getAnnotations();
+            count++;
+            for (DexField field : clazz.getFields()) {
+                field.getName();
+                field.getType();
+                field.getAnnotations();
+                count++;
+            }
+            for (DexMethod method : clazz.getMethods()) {
+                method.getName();
+                method.getReturnType();
+                method.getAnnotations();
+                count++;
+                for (DexParameter parameter : method.getParameters()) {
+                    parameter.getTypeName();
+                    parameter.getAnnotations();
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
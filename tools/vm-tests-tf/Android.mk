@@ -92,8 +92,14 @@ libart_jar := $(call intermediates-dir-for,JAVA_LIBRARIES,core-libart,,COMMON)/c
 $(LOCAL_BUILT_MODULE): PRIVATE_DALVIK_SUITE_CLASSPATH := $(oj_jar):$(libart_jar):$(cts-tf-dalvik-lib.jar):$(HOST_OUT_JAVA_LIBRARIES)/tradefed.jar:
 $(LOCAL_BUILT_MODULE): PRIVATE_VMTESTS_GENERATED_RESOURCES := $(vmtests_generated_resources_jar)
 $(LOCAL_BUILT_MODULE): PRIVATE_VMTESTS_MAINS_GENERATED := $(vmtests_mains_generated_jar)
+# The test jars in $(PRIVATE_INTERMEDIATES) and their stamps next to it are kept between builds:
+# BuildDalvikSuite only rebuilds the jars whose sources or toolchain changed, and deletes the
+# jars it no longer builds. Everything else is generated from scratch.
 $(LOCAL_BUILT_MODULE) : $(vmteststf_dep_jars) $(HOST_OUT_JAVA_LIBRARIES)/tradefed.jar $(DX) $(vmtests_generated_resources_jar) $(vmtests_mains_generated_jar)
-	$(hide) rm -rf $(dir $@) && mkdir -p $(dir $@)
+	$(hide) rm -rf $@ $(PRIVATE_INTERMEDIATES_HOSTJUNIT_FILES) $(PRIVATE_INTERMEDIATES_DEXCORE_JAR) \
+		$(PRIVATE_INTERMEDIATES_DEXCORE_JAR)-class.jar $(PRIVATE_INTERMEDIATES_DEXCORE_JAR).tmp \
+		$(PRIVATE_INTERMEDIATES)/mains.jar
+	$(hide) mkdir -p $(dir $@)
 	$(hide) mkdir -p $(dir $(PRIVATE_INTERMEDIATES_DEXCORE_JAR))
 	# generated and compile the host side junit tests
 	@echo "Write generated Main_*.java"
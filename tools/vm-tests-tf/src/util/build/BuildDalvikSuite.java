@@ -16,12 +16,20 @@
 
 package util.build;
 
+import com.android.tools.r8.D8;
+
+import org.jf.smali.Smali;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -94,6 +102,18 @@ public class BuildDalvikSuite extends BuildUtilBase {
 
     private SourceBuildStep hostJunitBuildStep;
 
+    // dexes the class files of all the java test classes to build
+    private SourceBuildStep dexBuildStep;
+
+    private BuildStamps buildStamps;
+
+    // the digests of the sources of the outputs to build, by output
+    private final Map<BuildStep.BuildFile, String> sourceDigests =
+            new HashMap<BuildStep.BuildFile, String>();
+
+    private final Set<BuildStep.BuildFile> upToDateOutputs =
+            new HashSet<BuildStep.BuildFile>();
+
     private static class HostState {
         private String fileName;
         private StringBuilder fileData;
@@ -355,6 +375,19 @@ public class BuildDalvikSuite extends BuildUtilBase {
     protected void handleTests(JUnitTestCollector tests, TestHandler ignored) {
         hostJunitBuildStep = new JavacBuildStep(
                 HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+        dexBuildStep = new D8BatchBuildStep(OUTPUT_FOLDER);
+
+        // next to the output folder, which is packaged as a whole. Smali runs with its default
+        // options, so the fingerprint of its jar covers them.
+        File outputFolder = new File(OUTPUT_FOLDER).getAbsoluteFile();
+        try {
+            buildStamps = new BuildStamps(new File(outputFolder.getParentFile(),
+                    outputFolder.getName() + ".stamps"),
+                    BuildStamps.toolchain(D8BatchBuildStep.OPTIONS, D8.class, Smali.class,
+                            BuildDalvikSuite.class));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
         MyTestHandler handler = new MyTestHandler();
         super.handleTests(tests, handler);
@@ -363,18 +396,30 @@ public class BuildDalvikSuite extends BuildUtilBase {
         scriptDataDir.mkdirs();
         writeToFile(new File(scriptDataDir, "scriptdata"), handler.datafileContent);
 
-        if (!hostJunitBuildStep.build()) {
-            System.out.println("main javac cts-host-hostjunit-classes build step failed");
-            System.exit(1);
-        }
+        System.out.println("building " + handler.targets.size() + " test classes, "
+                + upToDateOutputs.size() + " up to date");
+        List<BuildStep> buildSteps = new ArrayList<BuildStep>();
+        buildSteps.add(hostJunitBuildStep);
+        buildSteps.addAll(handler.targets);
+        Set<BuildStep> notBuilt = new BuildExecutor(
+                Runtime.getRuntime().availableProcessors()).build(buildSteps);
 
         for (BuildStep buildStep : handler.targets) {
-            if (!buildStep.build()) {
-                System.out.println("building failed. buildStep: " +
-                        buildStep.getClass().getName() + ", " + buildStep);
-                System.exit(1);
+            if (!notBuilt.contains(buildStep)) {
+                buildStamps.setBuilt(buildStep.outputFile,
+                        sourceDigests.get(buildStep.outputFile));
             }
         }
+        try {
+            buildStamps.save();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (!notBuilt.isEmpty()) {
+            System.out.println(notBuilt.size() + " build steps failed");
+            System.exit(1);
+        }
     }
 
     private void generateBuildStepFor(Collection<String> dependentTestClassNames,
@@ -406,11 +451,13 @@ public class BuildDalvikSuite extends BuildUtilBase {
                     JAVASRC_FOLDER, fileName + ".smali");
             BuildStep.BuildFile dexFile = new BuildStep.BuildFile(
                     OUTPUT_FOLDER, fileName + ".dex");
-
-            SmaliBuildStep buildStep = new SmaliBuildStep(inputFile, dexFile);
-
             BuildStep.BuildFile jarFile = new BuildStep.BuildFile(
                     OUTPUT_FOLDER, fileName + ".jar");
+            if (isUpToDate(inputFile, jarFile)) {
+                return;
+            }
+
+            SmaliBuildStep buildStep = new SmaliBuildStep(inputFile, dexFile);
 
             JarBuildStep jarBuildStep = new JarBuildStep(dexFile,
                     "classes.dex", jarFile, true);
@@ -422,18 +469,13 @@ public class BuildDalvikSuite extends BuildUtilBase {
 
         File srcFile = new File(sourceFolder, fileName + ".java");
         if (srcFile.exists()) {
-            BuildStep dexBuildStep;
-            dexBuildStep = generateDexBuildStep(
-              COMPILED_CLASSES_FOLDER, fileName);
-            targets.add(dexBuildStep);
+            generateDexBuildStep(COMPILED_CLASSES_FOLDER, fileName, targets);
             return;
         }
 
         try {
             if (Class.forName(dependentTestClassName) != null) {
-                BuildStep dexBuildStep = generateDexBuildStep(
-                    COMPILED_CLASSES_FOLDER, fileName);
-                targets.add(dexBuildStep);
+                generateDexBuildStep(COMPILED_CLASSES_FOLDER, fileName, targets);
                 return;
             }
         } catch (ClassNotFoundException e) {
@@ -444,27 +486,47 @@ public class BuildDalvikSuite extends BuildUtilBase {
                 dependentTestClassName + ";" + fileName);
     }
 
-    private BuildStep generateDexBuildStep(String classFileFolder,
-            String classFileName) {
+    private void generateDexBuildStep(String classFileFolder,
+            String classFileName, Set<BuildStep> targets) {
         BuildStep.BuildFile classFile = new BuildStep.BuildFile(
                 classFileFolder, classFileName + ".class");
 
-        BuildStep.BuildFile tmpJarFile = new BuildStep.BuildFile(
-                OUTPUT_FOLDER,
-                classFileName + "_tmp.jar");
-
-        JarBuildStep jarBuildStep = new JarBuildStep(classFile,
-                classFileName + ".class", tmpJarFile, false);
-
         BuildStep.BuildFile outputFile = new BuildStep.BuildFile(
                 OUTPUT_FOLDER,
                 classFileName + ".jar");
+        if (isUpToDate(classFile, outputFile)) {
+            return;
+        }
 
-        D8BuildStep dexBuildStep = new D8BuildStep(tmpJarFile,
-                outputFile,
-                true);
+        // dexed with the other class files, at the path of its class name
+        dexBuildStep.addSourceFile(classFile.getPath());
+        BuildStep.BuildFile dexFile = new BuildStep.BuildFile(
+                OUTPUT_FOLDER,
+                classFileName + ".dex");
 
-        dexBuildStep.addChild(jarBuildStep);
-        return dexBuildStep;
+        JarBuildStep jarBuildStep = new JarBuildStep(dexFile,
+                "classes.dex", outputFile, true);
+        jarBuildStep.addChild(dexBuildStep);
+        targets.add(jarBuildStep);
+    }
+
+    /**
+     * Returns true if the output was built by the previous build from the same
+     * source. Otherwise, keeps the digest of the source to record once the
+     * output is built.
+     */
+    private boolean isUpToDate(BuildStep.BuildFile source, BuildStep.BuildFile output) {
+        String digest;
+        try {
+            digest = buildStamps.digest(source.fileName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (buildStamps.isUpToDate(output, digest)) {
+            upToDateOutputs.add(output);
+            return true;
+        }
+        sourceDigests.put(output, digest);
+        return false;
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds a graph of {@link BuildStep}s on a pool of threads. A step is built once all its
+ * children are built, and a child shared by several steps is built only once. The build goes on
+ * when a step fails, so that all the failures are reported at the end.
+ */
+class BuildExecutor {
+
+    private final int threadCount;
+
+    // The steps scheduled, by step
+    private final Map<BuildStep, CompletableFuture<Boolean>> scheduled = new HashMap<>();
+
+    private final List<BuildStep> failures = Collections.synchronizedList(new ArrayList<>());
+
+    BuildExecutor(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Builds the steps and their children.
+     *
+     * @return the steps not built, because they or one of their children failed.
+     */
+    Set<BuildStep> build(Collection<? extends BuildStep> steps) {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "BuildExecutor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<BuildStep, CompletableFuture<Boolean>> results = new HashMap<>();
+            for (BuildStep step : steps) {
+                results.put(step, schedule(step, executor));
+            }
+
+            Set<BuildStep> notBuilt = new HashSet<>();
+            for (BuildStep step : steps) {
+                if (!join(results.get(step))) {
+                    notBuilt.add(step);
+                }
+            }
+            for (BuildStep failure : failures) {
+                System.out.println("building failed. buildStep: " +
+                        failure.getClass().getName() + ", " + failure);
+            }
+            return notBuilt;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Boolean> schedule(BuildStep step, ExecutorService executor) {
+        CompletableFuture<Boolean> result = scheduled.get(step);
+        if (result != null) {
+            return result;
+        }
+        List<CompletableFuture<Boolean>> childResults = new ArrayList<>();
+        for (BuildStep child : step.getChildren()) {
+            childResults.add(schedule(child, executor));
+        }
+        result = CompletableFuture.allOf(childResults.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(ignored -> {
+                    for (CompletableFuture<Boolean> childResult : childResults) {
+                        if (!childResult.join()) {
+                            // The failure of the child is reported already
+                            return false;
+                        }
+                    }
+                    return buildStep(step);
+                }, executor);
+        scheduled.put(step, result);
+        return result;
+    }
+
+    private boolean buildStep(BuildStep step) {
+        boolean built;
+        try {
+            built = step.build();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            built = false;
+        }
+        if (built) {
+            step.setBuilt();
+        } else {
+            failures.add(step);
+        }
+        return built;
+    }
+
+    private static boolean join(CompletableFuture<Boolean> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            // Errors are not build failures, fail like a sequential build
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
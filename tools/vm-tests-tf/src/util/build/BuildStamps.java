@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * The digests of the sources of the outputs of a previous build, to skip building the outputs
+ * whose sources did not change. The digests also cover the toolchain that built the outputs,
+ * so that a new toolchain or new options rebuild everything.
+ */
+class BuildStamps {
+
+    private final File stampFile;
+    private final String toolchain;
+    // The digests of the previous build, by output path
+    private final Properties previous = new Properties();
+    // The digests of this build, by output path
+    private final Properties current = new Properties();
+
+    /**
+     * @param stampFile the file keeping the digests between builds. It does not need to exist.
+     * @param toolchain the fingerprint of the toolchain, see {@link #toolchain}.
+     */
+    BuildStamps(File stampFile, String toolchain) throws IOException {
+        this.stampFile = stampFile;
+        this.toolchain = toolchain;
+        if (stampFile.exists()) {
+            try (InputStream in = new FileInputStream(stampFile)) {
+                previous.load(in);
+            }
+        }
+    }
+
+    /**
+     * @return the fingerprint of the options given to the tools and of the jars or class folders
+     *     that the given classes of the tools are loaded from.
+     */
+    static String toolchain(String options, Class<?>... tools) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(options.getBytes(StandardCharsets.UTF_8));
+        for (Class<?> tool : tools) {
+            digest.update(tool.getName().getBytes(StandardCharsets.UTF_8));
+            CodeSource codeSource = tool.getProtectionDomain().getCodeSource();
+            if (codeSource == null) {
+                continue;
+            }
+            File location;
+            try {
+                location = new File(codeSource.getLocation().toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                digest.update(codeSource.getLocation().toString()
+                        .getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            if (location.isFile()) {
+                update(digest, location);
+            } else {
+                // a class folder, only its class matters
+                File classFile = new File(location,
+                        tool.getName().replace('.', '/') + ".class");
+                if (classFile.isFile()) {
+                    update(digest, classFile);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the digest of the path and the content of a source file, and of the toolchain.
+     */
+    String digest(File source) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(toolchain.getBytes(StandardCharsets.UTF_8));
+        digest.update(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        update(digest, source);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return true if the output exists and was built by the previous build from a source of
+     *     the same digest. The output is then kept as built by this build.
+     */
+    boolean isUpToDate(BuildStep.BuildFile output, String digest) {
+        if (output.fileName.exists() && digest.equals(previous.getProperty(output.getPath()))) {
+            current.setProperty(output.getPath(), digest);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that the output was built from a source of the given digest.
+     */
+    void setBuilt(BuildStep.BuildFile output, String digest) {
+        current.setProperty(output.getPath(), digest);
+    }
+
+    /**
+     * Writes the outputs of this build, for the next build to skip those that are up to date.
+     */
+    void save() throws IOException {
+        // the outputs of the previous build that this build did not build are stale
+        for (String path : previous.stringPropertyNames()) {
+            if (!current.containsKey(path)) {
+                new File(path).delete();
+            }
+        }
+        try (OutputStream out = new FileOutputStream(stampFile)) {
+            current.store(out, null);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -80,10 +81,13 @@ abstract class BuildStep implements Comparable<BuildStep> {
 
     private Set<BuildStep> children;
 
+    // set by BuildExecutor once the step is built, so that parents do not build it again
+    private volatile boolean built;
+
     boolean build() {
         if (children != null) {
             for (BuildStep child : children) {
-                if (!child.build()) {
+                if (!child.built && !child.build()) {
                     return false;
                 }
             }
@@ -91,6 +95,14 @@ abstract class BuildStep implements Comparable<BuildStep> {
         return true;
     }
 
+    Set<BuildStep> getChildren() {
+        return children == null ? Collections.<BuildStep>emptySet() : children;
+    }
+
+    void setBuilt() {
+        built = true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) return false;
@@ -121,6 +133,11 @@ abstract class BuildStep implements Comparable<BuildStep> {
         }
     }
 
+    @Override
+    public String toString() {
+        return outputFile.getPath();
+    }
+
     public int compareTo(BuildStep o) {
         return (outputFile == o.outputFile ? 0 : outputFile.getPath().compareTo(
                         o.outputFile.getPath()));
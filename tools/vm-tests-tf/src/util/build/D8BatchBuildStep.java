@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.OutputMode;
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * BuildStep that dexes many class files with a single D8 invocation, writing one dex file per
+ * class file. The dex file of a class is at the path of its class name in the destination
+ * folder, e.g. dot/junit/opcodes/nop/d/T_nop_1.dex.
+ */
+public class D8BatchBuildStep extends SourceBuildStep {
+
+    private static final CompilationMode MODE = CompilationMode.DEBUG;
+    private static final int MIN_API_LEVEL = 1000;
+    private static final boolean DESUGARING = false;
+
+    // the options D8 is run with, part of the fingerprint of the toolchain
+    static final String OPTIONS = "mode=" + MODE + " min-api=" + MIN_API_LEVEL
+            + " desugaring=" + DESUGARING;
+
+    private final String destPath;
+    private final Set<String> sourceFiles = new HashSet<String>();
+
+    public D8BatchBuildStep(String destPath) {
+        super(new File(destPath));
+        this.destPath = destPath;
+    }
+
+    @Override
+    public void addSourceFile(String sourceFile) {
+        sourceFiles.add(sourceFile);
+    }
+
+    @Override
+    boolean build() {
+        if (super.build()) {
+            if (sourceFiles.isEmpty()) {
+                return true;
+            }
+
+            File destFile = new File(destPath);
+            if (!destFile.mkdirs() && !destFile.isDirectory()) {
+                System.err.println("failed to create destination dir");
+                return false;
+            }
+
+            try {
+                D8Command.Builder builder =
+                        D8Command.builder()
+                                .setMode(MODE)
+                                .setMinApiLevel(MIN_API_LEVEL)
+                                .setEnableDesugaring(DESUGARING)
+                                .setOutput(Paths.get(destFile.getAbsolutePath()),
+                                        OutputMode.DexFilePerClassFile);
+                for (String sourceFile : sourceFiles) {
+                    builder.addProgramFiles(Paths.get(sourceFile));
+                }
+                D8.run(builder.build());
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // The step is added as a child before all its source files are added, so its identity
+    // does not depend on them. There is one such step per destination.
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj)) {
+            D8BatchBuildStep other = (D8BatchBuildStep) obj;
+            return destPath.equals(other.destPath);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return destPath.hashCode();
+    }
+}
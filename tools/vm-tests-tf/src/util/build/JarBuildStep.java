@@ -20,7 +20,6 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -45,31 +44,17 @@ public class JarBuildStep extends BuildStep {
     @Override
     boolean build() {
         if (super.build()) {
-            File tempFile = new File(inputFile.folder, outputJarEntryName);
-            try {
-                if (!inputFile.fileName.equals(tempFile)) {
-                    copyFile(inputFile.fileName, tempFile);
-                } else {
-                    tempFile = null;
-                }
-            } catch (IOException e) {
-                System.err.println("io exception:"+e.getMessage());
-                e.printStackTrace();
-                return false;
-            }
-
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            // another step may be creating the same dir
+            if (!outDir.mkdirs() && !outDir.isDirectory()) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
             }
 
-            // Find the input. We'll need to look into the input folder, but check with the
-            // (relative) destination filename (this is effectively removing the inputFile folder
-            // from the entry path in the jar file).
-            Path absoluteInputPath = Paths.get(inputFile.folder.getAbsolutePath())
-                    .resolve(outputJarEntryName);
+            // Read the input directly rather than through a copy named after the entry, which
+            // steps building in parallel in the same folder would share.
+            Path absoluteInputPath = Paths.get(inputFile.fileName.getAbsolutePath());
             File absoluteInputFile = absoluteInputPath.toFile();
             if (!absoluteInputFile.exists()) {
                 // Something went wrong.
@@ -103,9 +88,6 @@ public class JarBuildStep extends BuildStep {
             }
 
             // Clean up.
-            if (tempFile != null) {
-                tempFile.delete();
-            }
             if (deleteInputFileAfterBuild) {
                 inputFile.fileName.delete();
             }